@@ -32,6 +32,20 @@ public abstract class AudioPacketizer extends AudioCodec
         int inpLength = inputBuffer.getLength();
         int outLength = packetSize;
 
+        if ((historyLength == 0) && (inpLength == packetSize)
+                && !inputBuffer.isEOM()
+                && (inputBuffer.getData() instanceof byte[]))
+        {
+            // The input is exactly one packet: hand it over without copying.
+            Object outData = outputBuffer.getData();
+
+            outputBuffer.setData(inputBuffer.getData());
+            inputBuffer.setData(outData);
+            updateOutput(outputBuffer, outputFormat, outLength,
+                    inputBuffer.getOffset());
+            return BUFFER_PROCESSED_OK;
+        }
+
         byte[] inpData = (byte[]) inputBuffer.getData();
         byte[] outData = validateByteArraySize(outputBuffer, outLength);
 
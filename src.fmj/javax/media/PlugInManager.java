@@ -1,8 +1,12 @@
 package javax.media;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +48,14 @@ public class PlugInManager
                     new HashMap<String, PlugInInfo>(),
                 };
 
+    /**
+     * Immutable snapshots of the plugins of each type which are read without
+     * synchronization. Replaced by the (synchronized) modifications of
+     * {@link #pluginMaps} and the registry.
+     */
+    private static final AtomicReferenceArray<PlugInList> plugInLists
+        = new AtomicReferenceArray<PlugInList>(Registry.NUM_PLUGIN_TYPES);
+
     static
     {
         // populate hash maps with info from the persisted registry
@@ -61,6 +73,8 @@ public class PlugInManager
                     pluginMap.put(info.className, info);
                 }
             }
+
+            updatePlugInList(i + 1, classList);
         }
     }
 
@@ -98,13 +112,14 @@ public class PlugInManager
         pluginMap.put(classname, plugInInfo);
 
         registry.setPluginList(type, classList);
+        updatePlugInList(type, classList);
 
         return true;
     }
 
-    private static synchronized PlugInInfo find(String classname, int type)
+    private static PlugInInfo find(String classname, int type)
     {
-        PlugInInfo info = pluginMaps[type - 1].get(classname);
+        PlugInInfo info = plugInLists.get(type - 1).pluginMap.get(classname);
 
         return info;
     }
@@ -167,13 +182,15 @@ public class PlugInManager
 
     /**
      * Get a list of plugins that match the given input and output formats.
+     * Reads an immutable snapshot of the plugins and, if the input format has
+     * an encoding, only examines the plugins which may accept that encoding.
      *
      * @param input
      * @param output
      * @param type
      * @return A Vector of classnames
      */
-    public static synchronized Vector<String> getPlugInList(Format input,
+    public static Vector<String> getPlugInList(Format input,
             Format output, int type)
     {
         if (TRACE)
@@ -184,13 +201,18 @@ public class PlugInManager
         }
 
         final Vector<String> result = new Vector<String>();
-        final Vector<String> classList = getVector(type);
-        final HashMap<String,PlugInInfo> pluginMap = pluginMaps[type - 1];
-
-        for (int i = 0; i < classList.size(); ++i)
+        final PlugInList plugInList = plugInLists.get(type - 1);
+        final PlugInInfo[] plugIns = plugInList.plugIns;
+        final int[] indexes
+            = (input == null)
+                ? null
+                : plugInList.getIndexes(input.getEncoding());
+        final int count = (indexes == null) ? plugIns.length : indexes.length;
+
+        for (int i = 0; i < count; ++i)
         {
-            final String classname = classList.get(i);
-            final PlugInInfo plugInInfo = pluginMap.get(classname);
+            final PlugInInfo plugInInfo
+                = plugIns[(indexes == null) ? i : indexes[i]];
             if (plugInInfo == null)
                 continue;
 
@@ -243,7 +265,7 @@ public class PlugInManager
         return result;
     }
 
-    public static synchronized Format[] getSupportedInputFormats(
+    public static Format[] getSupportedInputFormats(
             String className, int type)
     {
         final PlugInInfo pi = find(className, type);
@@ -254,7 +276,7 @@ public class PlugInManager
         return pi.inputFormats;
     }
 
-    public static synchronized Format[] getSupportedOutputFormats(
+    public static Format[] getSupportedOutputFormats(
             String className, int type)
     {
         final PlugInInfo pi = find(className, type);
@@ -264,18 +286,6 @@ public class PlugInManager
 
     }
 
-    private static Vector<String> getVector(int type)
-    {
-        if (!isValid(type))
-        {
-            return null;
-        }
-        final List<String> classList = registry.getPluginList(type);
-        final Vector<String> result = new Vector<String>();
-        result.addAll(classList);
-        return result;
-    }
-
     private static boolean isValid(int type)
     {
         return type >= 1 && type <= Registry.NUM_PLUGIN_TYPES;
@@ -292,6 +302,7 @@ public class PlugInManager
                                                          // to remove from both
 
         registry.setPluginList(type, classList);
+        updatePlugInList(type, classList);
 
         return result;
     }
@@ -306,5 +317,175 @@ public class PlugInManager
     public static synchronized void setPlugInList(Vector plugins, int type)
     {
         registry.setPluginList(type, plugins);
+        updatePlugInList(type, registry.getPluginList(type));
+    }
+
+    /**
+     * Replaces the snapshot of the plugins of a specific type after their
+     * search order or their <tt>PlugInInfo</tt>s have changed.
+     *
+     * @param type the type of the plugins which have changed
+     * @param classList the class names of the plugins of the specified type in
+     * search order
+     */
+    private static void updatePlugInList(int type, List<String> classList)
+    {
+        plugInLists.set(
+                type - 1,
+                new PlugInList(classList, pluginMaps[type - 1]));
+    }
+
+    /**
+     * An immutable snapshot of the plugins of a type in search order, indexed
+     * by the encodings of their input formats.
+     */
+    private static class PlugInList
+    {
+        /**
+         * The ascending indexes in {@link #plugIns} of the plugins which have
+         * input formats without an encoding and, consequently, may accept any
+         * encoding.
+         */
+        final int[] anyEncodingIndexes;
+
+        /**
+         * Maps a lower-case encoding to the ascending indexes in
+         * {@link #plugIns} of the plugins which have input formats with that
+         * encoding or without an encoding.
+         */
+        final Map<String, int[]> encodingIndexes
+            = new HashMap<String, int[]>();
+
+        /**
+         * The <tt>PlugInInfo</tt>s by class name, including those which are
+         * not in the search order.
+         */
+        final Map<String, PlugInInfo> pluginMap;
+
+        /**
+         * The <tt>PlugInInfo</tt>s in search order. An element is
+         * <tt>null</tt> if there is no <tt>PlugInInfo</tt> for the respective
+         * class name.
+         */
+        final PlugInInfo[] plugIns;
+
+        PlugInList(List<String> classList, Map<String, PlugInInfo> pluginMap)
+        {
+            this.pluginMap = new HashMap<String, PlugInInfo>(pluginMap);
+
+            plugIns = new PlugInInfo[classList.size()];
+
+            Map<String, List<Integer>> encodingLists
+                = new HashMap<String, List<Integer>>();
+            List<Integer> anyEncodingList = new ArrayList<Integer>();
+
+            for (int i = 0; i < plugIns.length; ++i)
+            {
+                PlugInInfo plugInInfo = this.pluginMap.get(classList.get(i));
+
+                plugIns[i] = plugInInfo;
+                if ((plugInInfo == null) || (plugInInfo.inputFormats == null))
+                    continue;
+
+                boolean anyEncoding = false;
+
+                for (Format inputFormat : plugInInfo.inputFormats)
+                {
+                    if (inputFormat == null)
+                        continue;
+
+                    String encoding = inputFormat.getEncoding();
+
+                    if (encoding == null)
+                    {
+                        anyEncoding = true;
+                        continue;
+                    }
+                    encoding = encoding.toLowerCase(Locale.ENGLISH);
+
+                    List<Integer> encodingList = encodingLists.get(encoding);
+
+                    if (encodingList == null)
+                    {
+                        encodingList = new ArrayList<Integer>();
+                        encodingLists.put(encoding, encodingList);
+                    }
+                    if (encodingList.isEmpty()
+                            || (encodingList.get(encodingList.size() - 1)
+                                    != i))
+                        encodingList.add(i);
+                }
+                if (anyEncoding)
+                    anyEncodingList.add(i);
+            }
+
+            anyEncodingIndexes = toArray(anyEncodingList);
+            for (Map.Entry<String, List<Integer>> e : encodingLists.entrySet())
+            {
+                encodingIndexes.put(
+                        e.getKey(),
+                        merge(toArray(e.getValue()), anyEncodingIndexes));
+            }
+        }
+
+        /**
+         * Gets the indexes in {@link #plugIns} of the plugins which may accept
+         * an input format with a specific encoding.
+         *
+         * @param encoding the encoding of the input format
+         * @return the ascending indexes in {@link #plugIns} of the plugins
+         * which may accept <tt>encoding</tt> or <tt>null</tt> if all plugins
+         * may accept it
+         */
+        int[] getIndexes(String encoding)
+        {
+            if (encoding == null)
+                return null;
+
+            int[] indexes
+                = encodingIndexes.get(encoding.toLowerCase(Locale.ENGLISH));
+
+            return (indexes == null) ? anyEncodingIndexes : indexes;
+        }
+
+        private static int[] merge(int[] a, int[] b)
+        {
+            int[] c = new int[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+
+            while ((i < a.length) && (j < b.length))
+            {
+                if (a[i] < b[j])
+                    c[k++] = a[i++];
+                else if (a[i] > b[j])
+                    c[k++] = b[j++];
+                else
+                {
+                    c[k++] = a[i++];
+                    j++;
+                }
+            }
+            while (i < a.length)
+                c[k++] = a[i++];
+            while (j < b.length)
+                c[k++] = b[j++];
+            if (k < c.length)
+            {
+                int[] d = new int[k];
+
+                System.arraycopy(c, 0, d, 0, k);
+                c = d;
+            }
+            return c;
+        }
+
+        private static int[] toArray(List<Integer> list)
+        {
+            int[] array = new int[list.size()];
+
+            for (int i = 0; i < array.length; ++i)
+                array[i] = list.get(i);
+            return array;
+        }
     }
 }
@@ -2,8 +2,11 @@ package net.sf.fmj.filtergraph;
 
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.media.Codec;
 import javax.media.Format;
@@ -35,6 +38,18 @@ import net.sf.fmj.media.Log;
  * paths are stored as <tt>GraphNode</tt>s in the "candidates" vector.
  */
 public class SimpleGraphBuilder {
+	/**
+	 * The maximum number of entries in {@link #codecResolutions}.
+	 */
+	private static final int CODEC_RESOLUTIONS_MAX_SIZE = 256;
+
+	/**
+	 * The codecs resolved by {@link #findCodec(Format, Format, Format[], Format[])}
+	 * by their input and output formats. Spares the instantiation of the
+	 * candidates which do not support the formats on every stream start.
+	 */
+	private static final Map<CodecQuery, CodecResolution> codecResolutions = new ConcurrentHashMap<CodecQuery, CodecResolution>();
+
 	static public PlugIn createPlugIn(String name, int type) {
 		Class<?> cls;
 		Object obj;
@@ -66,47 +81,148 @@ public class SimpleGraphBuilder {
 			return null;
 		}
 
+		// Try the codec resolved for the same formats and candidates first.
+		CodecQuery query = (in == null) ? null : new CodecQuery(in, out);
+		CodecResolution resolution = (query == null) ? null : codecResolutions.get(query);
+
+		if (resolution != null && resolution.candidates.equals(cnames)) {
+			Codec c = createCodec(resolution.codecName, in, out, selectedIn, selectedOut);
+			if (c != null)
+				return c;
+		}
+
 		Codec c = null;
-		Format fmts[], matched;
 		for (int i = 0; i < cnames.size(); i++) {
-			if ((c = (Codec) createPlugIn((String) cnames.elementAt(i), PlugInManager.CODEC)) == null)
-				continue;
-			fmts = c.getSupportedInputFormats();
-			if ((matched = matches(in, fmts, null, c)) == null)
-				continue;
-			if (selectedIn != null && selectedIn.length > 0)
-				selectedIn[0] = matched;
-			fmts = c.getSupportedOutputFormats(matched);
-			if (fmts == null || fmts.length == 0) {
-				// Weird!
-				continue;
+			String cname = (String) cnames.elementAt(i);
+			if ((c = createCodec(cname, in, out, selectedIn, selectedOut)) != null) {
+				putCodecResolution(query, cnames, cname);
+				return c;
 			}
-			boolean success = false;
-			for (int j = 0; j < fmts.length; j++) {
-				// Try out the supported output formats in turn.
-				if (out != null) {
-					if (!out.matches(fmts[j]) || (matched = out.intersects(fmts[j])) == null)
-						continue;
-				} else
-					matched = fmts[j];
-				if (c.setOutputFormat(matched) != null) {
-					success = true;
-					break;
-				}
+		}
+
+		// A failure is not remembered because it may be transient (e.g. the
+		// codec could not be opened this time).
+		if (query != null)
+			codecResolutions.remove(query);
+		return null;
+	}
+
+	/**
+	 * Instantiates a specific codec and opens it if it can handle the given
+	 * input and output.
+	 */
+	private static Codec createCodec(String cname, Format in, Format out, Format selectedIn[], Format selectedOut[]) {
+		Codec c;
+		Format fmts[], matched;
+
+		if ((c = (Codec) createPlugIn(cname, PlugInManager.CODEC)) == null)
+			return null;
+		fmts = c.getSupportedInputFormats();
+		if ((matched = matches(in, fmts, null, c)) == null)
+			return null;
+		if (selectedIn != null && selectedIn.length > 0)
+			selectedIn[0] = matched;
+		fmts = c.getSupportedOutputFormats(matched);
+		if (fmts == null || fmts.length == 0) {
+			// Weird!
+			return null;
+		}
+		boolean success = false;
+		for (int j = 0; j < fmts.length; j++) {
+			// Try out the supported output formats in turn.
+			if (out != null) {
+				if (!out.matches(fmts[j]) || (matched = out.intersects(fmts[j])) == null)
+					continue;
+			} else
+				matched = fmts[j];
+			if (c.setOutputFormat(matched) != null) {
+				success = true;
+				break;
 			}
-			if (success) {
-				try {
-					c.open();
-				} catch (ResourceUnavailableException e) {
+		}
+		if (success) {
+			try {
+				c.open();
+			} catch (ResourceUnavailableException e) {
+			}
+			if (selectedOut != null && selectedOut.length > 0)
+				selectedOut[0] = matched;
+			// Alright, we are done!
+			return c;
+		}
+		return null;
+	}
+
+	/**
+	 * Remembers the codec resolved by
+	 * {@link #findCodec(Format, Format, Format[], Format[])} among specific
+	 * candidates. Changes to the registered codecs change the candidates and,
+	 * consequently, invalidate the resolution.
+	 */
+	private static void putCodecResolution(CodecQuery query, List<?> candidates, String codecName) {
+		if (query == null)
+			return;
+		if (codecResolutions.size() >= CODEC_RESOLUTIONS_MAX_SIZE)
+			codecResolutions.clear();
+		codecResolutions.put(query, new CodecResolution(candidates, codecName));
+	}
+
+	/**
+	 * Return a chain of codecs which transcodes the given input format into
+	 * the given output format. It uses the same graph building algorithm as
+	 * findRenderingChain but ends the search at the first codec which can
+	 * output the given format instead of at a renderer. The codecs are in
+	 * processing order, have their input and output formats set and are open.
+	 * The output format of the last codec is returned as an argument to the
+	 * function.
+	 */
+	static public Codec[] findCodecChain(Format in, final Format out, Format selectedOut[]) {
+		SimpleGraphBuilder gb = new SimpleGraphBuilder() {
+			@Override
+			protected GraphNode findTarget(GraphNode node) {
+				Format outs[];
+
+				if (node.plugin == null) {
+					outs = new Format[1];
+					outs[0] = node.input;
+				} else if (node.output != null) {
+					outs = new Format[1];
+					outs[0] = node.output;
+				} else {
+					outs = node.getSupportedOutputs(node.input);
+					if (outs == null || outs.length == 0)
+						return null;
 				}
-				if (selectedOut != null && selectedOut.length > 0)
-					selectedOut[0] = matched;
-				// Alright, we are done!
-				return c;
+
+				Format matched = matches(outs, out, node.plugin, null);
+
+				if (matched == null)
+					return null;
+				node.output = matched;
+				return node;
+			}
+
+			@Override
+			protected boolean setDefaultTargets(Format in) {
+				return true;
 			}
+		};
+		GraphNode n;
+
+		if ((n = gb.buildGraph(in)) == null)
+			return null;
+
+		if (selectedOut != null && selectedOut.length > 0)
+			selectedOut[0] = n.output;
+
+		Vector<Codec> list = new Vector<Codec>();
+
+		while (n != null && n.plugin != null) {
+			list.insertElementAt((Codec) n.plugin, 0);
+			n = n.prev;
 		}
 
-		return null;
+		return list.toArray(new Codec[list.size()]);
 	}
 
 	/**
@@ -841,4 +957,74 @@ public class SimpleGraphBuilder {
 
 		return null;
 	}
+
+	/**
+	 * The input and output formats of a
+	 * {@link SimpleGraphBuilder#findCodec(Format, Format, Format[], Format[])}
+	 * query.
+	 */
+	private static class CodecQuery {
+		private final int hashCode;
+
+		private final Format in;
+
+		private final Format out;
+
+		CodecQuery(Format in, Format out) {
+			this.in = in;
+			this.out = out;
+
+			// Format does not override hashCode.
+			hashCode = hashCode(in) * 31 + hashCode(out);
+		}
+
+		private static int hashCode(Format format) {
+			if (format == null)
+				return 0;
+
+			String encoding = format.getEncoding();
+
+			return format.getClass().hashCode() * 31 + ((encoding == null) ? 0 : encoding.toLowerCase(Locale.ENGLISH).hashCode());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CodecQuery))
+				return false;
+
+			CodecQuery other = (CodecQuery) obj;
+
+			return (hashCode == other.hashCode) && in.equals(other.in) && ((out == null) ? (other.out == null) : out.equals(other.out));
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * The codec resolved by a
+	 * {@link SimpleGraphBuilder#findCodec(Format, Format, Format[], Format[])}
+	 * query among specific candidates.
+	 */
+	private static class CodecResolution {
+		/**
+		 * The class names of the codecs which were the candidates for the
+		 * query.
+		 */
+		final List<?> candidates;
+
+		/**
+		 * The class name of the codec which was resolved.
+		 */
+		final String codecName;
+
+		CodecResolution(List<?> candidates, String codecName) {
+			this.candidates = candidates;
+			this.codecName = codecName;
+		}
+	}
 }
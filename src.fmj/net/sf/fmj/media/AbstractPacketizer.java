@@ -94,6 +94,27 @@ public abstract class AbstractPacketizer extends AbstractCodec
         final int bytesNeededToCompletePacket = packetSize
                 - bytesInPacketBuffer;
         final int bytesAvailable = inputBuffer.getLength();
+
+        if ((bytesInPacketBuffer == 0)
+                && (bytesAvailable == bytesNeededToCompletePacket)
+                && (inputBuffer.getData() instanceof byte[]))
+        {
+            // The input is exactly one packet: hand it over without copying.
+            Object outputData = outputBuffer.getData();
+
+            if (outputData == packetBuffer)
+            {
+                // The input is to own the data from now on.
+                packetBuffer = new byte[packetSize];
+            }
+            outputBuffer.setData(inputBuffer.getData());
+            outputBuffer.setOffset(inputBuffer.getOffset());
+            outputBuffer.setLength(bytesAvailable);
+            inputBuffer.setData(outputData);
+            inputBuffer.setOffset(0);
+            inputBuffer.setLength(0);
+            return BUFFER_PROCESSED_OK;
+        }
         final int bytesToCopy = bytesNeededToCompletePacket < bytesAvailable ? bytesNeededToCompletePacket
                 : bytesAvailable;
 
@@ -8,6 +8,26 @@ import javax.media.Format;
  */
 public abstract class BasicConnector implements Connector
 {
+    /**
+     * constant to indicate that the circularBuffer of this connector is a
+     * CircularBuffer guarded by its monitor.
+     */
+    public static final int SyncMonitor = 0;
+
+    /**
+     * constant to indicate that the circularBuffer of this connector is a
+     * lock-free SPSCCircularBuffer on which the modules park when they have
+     * to wait.
+     */
+    public static final int SyncLockFree = 1;
+
+    /**
+     * constant to indicate that the circularBuffer of this connector is a
+     * lock-free SPSCCircularBuffer which the modules check for a while before
+     * they park. Meant for low-latency modules.
+     */
+    public static final int SyncSpin = 2;
+
     /** the module which registered this connector */
     protected Module module = null;
     /** minimum number of data chunks this connector should allocate */
@@ -26,6 +46,15 @@ public abstract class BasicConnector implements Connector
      * @see Connector#ProtocolSafe
      */
     protected int protocol = ProtocolPush;
+    /**
+     * the synchronization of the circularBuffer chosen for this Connector.<br>
+     * either <i>SyncMonitor, SyncLockFree, SyncSpin</i>
+     *
+     * @see #SyncMonitor
+     * @see #SyncLockFree
+     * @see #SyncSpin
+     */
+    protected int sync = SyncMonitor;
 
     /**
      * returns the circular buffer
@@ -88,6 +117,17 @@ public abstract class BasicConnector implements Connector
         return minSize;
     }
 
+    /**
+     * returns the synchronization of the circular buffer chosen for this
+     * connector.
+     *
+     * @see #sync
+     */
+    public int getSync()
+    {
+        return sync;
+    }
+
     public void print()
     {
         circularBuffer.print();
@@ -154,6 +194,19 @@ public abstract class BasicConnector implements Connector
         this.protocol = protocol;
     }
 
+    /**
+     * sets the synchronization of the circular buffer for this connector. Has
+     * to be set before connectTo() is called. The lock-free synchronizations
+     * require that a single thread writes and a single thread reads the
+     * connection.
+     *
+     * @see #sync
+     */
+    public void setSync(int sync)
+    {
+        this.sync = sync;
+    }
+
     /**
      * sets the <b>minimum</b> number of buffer objects this Connector should
      * create. The default value should be one buffer object.
@@ -11,6 +11,7 @@ import javax.media.ResourceUnavailableException;
 import javax.media.control.FrameProcessingControl;
 
 import net.sf.fmj.filtergraph.SimpleGraphBuilder;
+import net.sf.fmj.media.control.ProcessingTimeControl;
 
 /**
  * BasicFilterModule is a module which is not threaded and have one
@@ -292,6 +293,10 @@ public class BasicFilterModule extends BasicModule
             }
 
             int rc = 0;
+            ProcessingTimeControl.Listener processingTimeListener
+                = this.processingTimeListener;
+            long processingStartTime
+                = (processingTimeListener == null) ? 0L : System.nanoTime();
 
             try
             {
@@ -304,6 +309,10 @@ public class BasicFilterModule extends BasicModule
                     moduleListener.internalErrorOccurred(this);
             }
 
+            if (processingTimeListener != null)
+                processingTimeListener.codecProcessed(codec,
+                        System.nanoTime() - processingStartTime);
+
             if (PlaybackEngine.TRACE_ON && !verifyBuffer(outputBuffer))
             {
                 System.err.println("verify buffer failed: " + codec);
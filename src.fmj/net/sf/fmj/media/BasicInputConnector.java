@@ -11,7 +11,7 @@ public class BasicInputConnector extends BasicConnector implements
 {
     /** the connected outputConnector */
     protected OutputConnector outputConnector = null;
-    private boolean reset = false;
+    private volatile boolean reset = false;
 
     /**
      * Return the OutputConnector this InputConnector is connected to. If this
@@ -32,6 +32,13 @@ public class BasicInputConnector extends BasicConnector implements
         switch (protocol)
         {
         case ProtocolPush:
+            if (circularBuffer instanceof SPSCCircularBuffer)
+            {
+                if (!isValidBufferAvailable() && reset)
+                    return null;
+                reset = false;
+                return circularBuffer.read();
+            }
             synchronized (circularBuffer)
             {
                 if (!isValidBufferAvailable() && reset)
@@ -40,6 +47,18 @@ public class BasicInputConnector extends BasicConnector implements
                 return circularBuffer.read();
             }
         case ProtocolSafe:
+            if (circularBuffer instanceof SPSCCircularBuffer)
+            {
+                SPSCCircularBuffer spscBuffer
+                    = (SPSCCircularBuffer) circularBuffer;
+
+                reset = false;
+                while (!reset && !spscBuffer.canRead())
+                    spscBuffer.awaitReadable();
+                if (reset)
+                    return null;
+                return spscBuffer.read();
+            }
             synchronized (circularBuffer)
             {
                 reset = false;
@@ -84,6 +103,13 @@ public class BasicInputConnector extends BasicConnector implements
         {
         case ProtocolPush:
         case ProtocolSafe:
+            if (circularBuffer instanceof SPSCCircularBuffer)
+            {
+                // Unparks the producer.
+                if (!reset)
+                    circularBuffer.readReport();
+                return;
+            }
             synchronized (circularBuffer)
             {
                 if (reset)
@@ -7,6 +7,8 @@ import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.Time;
 
+import net.sf.fmj.media.control.ProcessingTimeControl;
+
 /**
  * <tt>BasicModule</tt> implements a basic FMJ module.
  */
@@ -97,6 +99,12 @@ abstract public class BasicModule implements Module, StateTransistor
 
     protected boolean prefetchFailed = false;
 
+    /**
+     * The listener to be notified about the time the plug-in of this module
+     * spends processing a buffer or <tt>null</tt> if it is not measured.
+     */
+    protected volatile ProcessingTimeControl.Listener processingTimeListener;
+
     /**
      * Called when the prefetch() is aborted, i.e. deallocate() was called while
      * prefetching. Release all resources claimed previously by the prefetch
@@ -436,6 +444,20 @@ abstract public class BasicModule implements Module, StateTransistor
         moduleListener = listener;
     }
 
+    /**
+     * Sets the listener to be notified about the time the plug-in of this
+     * module spends processing a buffer.
+     *
+     * @param listener
+     *            the listener to be notified or <tt>null</tt> to stop
+     *            measuring
+     */
+    public void setProcessingTimeListener(
+            ProcessingTimeControl.Listener listener)
+    {
+        processingTimeListener = listener;
+    }
+
     /**
      * sets the name of this Module. Called by the owning Player
      * registerModule() method
@@ -11,7 +11,7 @@ public class BasicOutputConnector extends BasicConnector implements
 {
     /** the connected input connector */
     protected InputConnector inputConnector = null;
-    private boolean reset = false;
+    private volatile boolean reset = false;
 
     /**
      * check if a connection to the specified InputConnector would succeed.
@@ -37,7 +37,15 @@ public class BasicOutputConnector extends BasicConnector implements
         inputConnector.setOutputConnector(this);
         int bufferSize = Math.max(getSize(), inputConnector.getSize());
 
-        circularBuffer = new CircularBuffer(bufferSize);
+        int sync = getSync();
+
+        if (inputConnector instanceof BasicConnector)
+            sync = Math.max(sync, ((BasicConnector) inputConnector).getSync());
+        if (sync == SyncMonitor)
+            circularBuffer = new CircularBuffer(bufferSize);
+        else
+            circularBuffer = new SPSCCircularBuffer(bufferSize,
+                    sync == SyncSpin);
         inputConnector.setCircularBuffer(circularBuffer);
         return null;
     }
@@ -57,6 +65,18 @@ public class BasicOutputConnector extends BasicConnector implements
             reset = false;
             return circularBuffer.getEmptyBuffer();
         case ProtocolSafe:
+            if (circularBuffer instanceof SPSCCircularBuffer)
+            {
+                SPSCCircularBuffer spscBuffer
+                    = (SPSCCircularBuffer) circularBuffer;
+
+                reset = false;
+                while (!reset && !spscBuffer.canWrite())
+                    spscBuffer.awaitWritable();
+                if (reset)
+                    return null;
+                return spscBuffer.getEmptyBuffer();
+            }
             synchronized (circularBuffer)
             {
                 reset = false;
@@ -122,16 +142,36 @@ public class BasicOutputConnector extends BasicConnector implements
         switch (protocol)
         {
         case ProtocolPush:
-            synchronized (circularBuffer)
+            if (circularBuffer instanceof SPSCCircularBuffer)
             {
-                if (reset /* && pendingWriteReport */)
+                if (reset)
+                {
+                    ((SPSCCircularBuffer) circularBuffer).writeAbort();
                     return;
+                }
                 circularBuffer.writeReport();
+            } else
+            {
+                synchronized (circularBuffer)
+                {
+                    if (reset /* && pendingWriteReport */)
+                        return;
+                    circularBuffer.writeReport();
+                }
             }
             getInputConnector().getModule()
                     .connectorPushed(getInputConnector());
             return;
         case ProtocolSafe:
+            if (circularBuffer instanceof SPSCCircularBuffer)
+            {
+                // Unparks the consumer.
+                if (reset)
+                    ((SPSCCircularBuffer) circularBuffer).writeAbort();
+                else
+                    circularBuffer.writeReport();
+                return;
+            }
             synchronized (circularBuffer)
             {
                 if (reset)
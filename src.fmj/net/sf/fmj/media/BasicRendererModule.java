@@ -13,6 +13,7 @@ import javax.media.format.AudioFormat;
 import javax.media.format.VideoFormat;
 
 import net.sf.fmj.filtergraph.SimpleGraphBuilder;
+import net.sf.fmj.media.control.ProcessingTimeControl;
 import net.sf.fmj.media.renderer.audio.AudioRenderer;
 import net.sf.fmj.media.rtp.util.RTPTimeBase;
 import net.sf.fmj.media.rtp.util.RTPTimeReporter;
@@ -114,12 +115,17 @@ public class BasicRendererModule extends BasicSinkModule implements
     protected BasicRendererModule(Renderer r)
     {
         setRenderer(r);
-        ic = new BasicInputConnector();
+        BasicInputConnector bic = new BasicInputConnector();
+
+        ic = bic;
         if (r instanceof javax.media.renderer.VideoRenderer)
             ic.setSize(4);
         else
             ic.setSize(1);
         ic.setModule(this);
+        // The input is written by the thread of the upstream track and read
+        // by the render thread only.
+        bic.setSync(BasicConnector.SyncLockFree);
         registerInputConnector("input", ic);
         setProtocol(Connector.ProtocolSafe);
     }
@@ -258,6 +264,9 @@ public class BasicRendererModule extends BasicSinkModule implements
         else
         {
             buffer = ic.getValidBuffer();
+            // The input connector has been reset while waiting.
+            if (buffer == null)
+                return true;
             /*
              * System.err.println("TS: " + buffer.getTimeStamp() + " dur: " +
              * buffer.getDuration() + " len: " + buffer.getLength() + " seq: " +
@@ -696,6 +705,11 @@ public class BasicRendererModule extends BasicSinkModule implements
                 continue;
             }
 
+            ProcessingTimeControl.Listener processingTimeListener
+                = this.processingTimeListener;
+            long processingStartTime
+                = (processingTimeListener == null) ? 0L : System.nanoTime();
+
             try
             {
                 rc = renderer.process(buffer);
@@ -707,6 +721,10 @@ public class BasicRendererModule extends BasicSinkModule implements
                     moduleListener.internalErrorOccurred(this);
             }
 
+            if (processingTimeListener != null)
+                processingTimeListener.rendererProcessed(renderer,
+                        System.nanoTime() - processingStartTime);
+
             if ((rc & PlugIn.PLUGIN_TERMINATED) != 0)
             {
                 failed = true;
@@ -16,6 +16,7 @@ import javax.media.control.FrameRateControl;
 import javax.media.format.AudioFormat;
 import javax.media.format.VideoFormat;
 
+import net.sf.fmj.media.control.ProcessingTimeControl;
 import net.sf.fmj.media.control.ProgressControl;
 import net.sf.fmj.media.control.StringControl;
 
@@ -46,6 +47,33 @@ public class BasicTrackControl implements javax.media.control.TrackControl
 
     long lastStatsTime = 0; // so now - lastStatsTime will not be 0.
 
+    /**
+     * Measures the time the modules of this track spend processing buffers.
+     */
+    private final ProcessingTimeControl processingTimeControl
+        = new ProcessingTimeControl()
+    {
+        public java.awt.Component getControlComponent()
+        {
+            return null;
+        }
+
+        public void setListener(ProcessingTimeControl.Listener listener)
+        {
+            OutputConnector oc = firstOC;
+            InputConnector ic;
+
+            while (oc != null && (ic = oc.getInputConnector()) != null)
+            {
+                Module m = ic.getModule();
+
+                if (m instanceof BasicModule)
+                    ((BasicModule) m).setProcessingTimeListener(listener);
+                oc = m.getOutputConnector(null);
+            }
+        }
+    };
+
     public BasicTrackControl(PlaybackEngine engine, Track track,
             OutputConnector oc)
     {
@@ -123,6 +151,7 @@ public class BasicTrackControl implements javax.media.control.TrackControl
             }
             oc = m.getOutputConnector(null);
         }
+        cv.addElement(processingTimeControl);
 
         size = cv.size();
         controls = new Control[size];
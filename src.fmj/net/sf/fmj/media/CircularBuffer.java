@@ -11,7 +11,7 @@ public class CircularBuffer
      * buffer to hold the references. Would be changed to buffer array, when
      * Buffer stabalize
      */
-    private Buffer buf[];
+    protected Buffer buf[];
     /** write pointer */
     private int head;
     /** read pointer */
@@ -26,7 +26,7 @@ public class CircularBuffer
     private int lockedFramesForWriting;
 
     /** size of the FIFO queue */
-    private int size;
+    protected int size;
 
     /**
      * create a queue with max number of elements
@@ -0,0 +1,289 @@
+package net.sf.fmj.media;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.media.Buffer;
+
+/**
+ * A CircularBuffer which is written by a single producer thread and read by a
+ * single consumer thread without locking. The producer and the consumer each
+ * advance their own counters and block (if at all) by parking rather than by
+ * waiting on the monitor of the queue. A reset drains the queue from the
+ * consumer's side so it may race with both of them.
+ */
+public class SPSCCircularBuffer extends CircularBuffer
+{
+    /** the maximum number of nanoseconds to park for in one go */
+    private static final long PARK_NANOS = 10 * 1000 * 1000;
+
+    /** the number of times to check the queue before parking when spinning */
+    private static final int SPIN_COUNT
+        = (Runtime.getRuntime().availableProcessors() > 1) ? 1000 : 0;
+
+    private static final AtomicLongFieldUpdater<SPSCCircularBuffer> readAcquiredUpdater
+        = AtomicLongFieldUpdater.newUpdater(SPSCCircularBuffer.class,
+                "readAcquired");
+
+    private static final AtomicLongFieldUpdater<SPSCCircularBuffer> readReleasedUpdater
+        = AtomicLongFieldUpdater.newUpdater(SPSCCircularBuffer.class,
+                "readReleased");
+
+    private static final AtomicLongFieldUpdater<SPSCCircularBuffer> writeAcquiredUpdater
+        = AtomicLongFieldUpdater.newUpdater(SPSCCircularBuffer.class,
+                "writeAcquired");
+
+    /** number of frames that were checked out for reading */
+    private volatile long readAcquired;
+    /** number of frames that were checked out for reading and reported */
+    private volatile long readReleased;
+    /** the consumer thread parked until a frame can be read */
+    private volatile Thread reader;
+    /** number of times to check the queue before parking */
+    private final int spinCount;
+    /** number of frames that were checked out for writing */
+    private volatile long writeAcquired;
+    /** number of frames that were checked out for writing and reported */
+    private volatile long writeCommitted;
+    /** the producer thread parked until a frame can be written */
+    private volatile Thread writer;
+
+    /**
+     * create a queue with max number of elements
+     *
+     * @param n
+     *            the max number of elements
+     * @param spin
+     *            <tt>true</tt> to check the queue for a while before parking
+     *            (on multiprocessors) for lower handoff latency
+     */
+    public SPSCCircularBuffer(int n, boolean spin)
+    {
+        super(n);
+        spinCount = spin ? SPIN_COUNT : 0;
+    }
+
+    /**
+     * blocks the consumer until read() would succeed, the queue is reset or
+     * some time has passed.
+     */
+    public void awaitReadable()
+    {
+        for (int i = 0; i < spinCount; i++)
+        {
+            if (canRead())
+                return;
+        }
+        reader = Thread.currentThread();
+        try
+        {
+            if (!canRead())
+                LockSupport.parkNanos(this, PARK_NANOS);
+        } finally
+        {
+            reader = null;
+        }
+    }
+
+    /**
+     * blocks the producer until getEmptyBuffer() would succeed, the queue is
+     * reset or some time has passed.
+     */
+    public void awaitWritable()
+    {
+        for (int i = 0; i < spinCount; i++)
+        {
+            if (canWrite())
+                return;
+        }
+        writer = Thread.currentThread();
+        try
+        {
+            if (!canWrite())
+                LockSupport.parkNanos(this, PARK_NANOS);
+        } finally
+        {
+            writer = null;
+        }
+    }
+
+    @Override
+    public boolean canRead()
+    {
+        return (writeCommitted - readAcquired > 0);
+    }
+
+    @Override
+    public boolean canWrite()
+    {
+        return (writeAcquired - readReleased < size);
+    }
+
+    @Override
+    public void error()
+    {
+        throw new RuntimeException("SPSCCircularBuffer failure:\n readAcquired="
+                + readAcquired + "\n readReleased=" + readReleased
+                + "\n writeAcquired=" + writeAcquired + "\n writeCommitted="
+                + writeCommitted);
+    }
+
+    @Override
+    public Buffer getEmptyBuffer()
+    {
+        long writeAcquired = this.writeAcquired;
+
+        if (writeAcquired - readReleased >= size)
+            error();
+
+        Buffer buffer = buf[(int) (writeAcquired % size)];
+        writeAcquiredUpdater.lazySet(this, writeAcquired + 1);
+        return buffer;
+    }
+
+    @Override
+    public boolean lockedRead()
+    {
+        return (readAcquired - readReleased > 0);
+    }
+
+    @Override
+    public boolean lockedWrite()
+    {
+        return (writeAcquired - writeCommitted > 0);
+    }
+
+    /**
+     * Gets frame with valid buffer from the queue or null if a concurrent
+     * reset() has emptied the queue.
+     */
+    @Override
+    public Buffer peek()
+    {
+        long readAcquired = this.readAcquired;
+
+        if (writeCommitted - readAcquired <= 0)
+            return null;
+
+        return buf[(int) (readAcquired % size)];
+    }
+
+    @Override
+    public void print()
+    {
+        System.err.println("SPSCCircularBuffer : readAcquired=" + readAcquired
+                + " readReleased=" + readReleased + " writeAcquired="
+                + writeAcquired + " writeCommitted=" + writeCommitted);
+    }
+
+    /**
+     * Gets frame with valid buffer from the queue or null if a concurrent
+     * reset() has emptied the queue.
+     */
+    @Override
+    public Buffer read()
+    {
+        while (true)
+        {
+            long readAcquired = this.readAcquired;
+
+            if (writeCommitted - readAcquired <= 0)
+                return null;
+
+            Buffer buffer = buf[(int) (readAcquired % size)];
+
+            // Fails only if a reset() has drained the queue meanwhile.
+            if (readAcquiredUpdater.compareAndSet(this, readAcquired,
+                    readAcquired + 1))
+                return buffer;
+        }
+    }
+
+    /**
+     * indicates that the latest read frame is no longer in use. Does nothing
+     * if a concurrent reset() has already returned the frame to the queue.
+     */
+    @Override
+    public void readReport()
+    {
+        while (true)
+        {
+            long readReleased = this.readReleased;
+
+            if (readReleased >= readAcquired)
+                return;
+            if (readReleasedUpdater.compareAndSet(this, readReleased,
+                    readReleased + 1))
+                break;
+        }
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * reset the queue. Unlike the other methods, may be called by any thread
+     * while the producer and the consumer are accessing the queue. Drains the
+     * queue from the consumer's side i.e. drops the frames which have been
+     * written and returns the frames being read to the producer. A frame the
+     * producer is writing is not affected and the producer either reports or
+     * aborts it.
+     */
+    @Override
+    public void reset()
+    {
+        // Called by the constructor of CircularBuffer as well (when there is
+        // nothing to drain).
+        long drained;
+
+        while (true)
+        {
+            long readAcquired = this.readAcquired;
+
+            drained = Math.max(readAcquired, writeCommitted);
+            if ((drained == readAcquired)
+                    || readAcquiredUpdater.compareAndSet(this, readAcquired,
+                            drained))
+                break;
+        }
+        while (true)
+        {
+            long readReleased = this.readReleased;
+
+            if ((readReleased >= drained)
+                    || readReleasedUpdater.compareAndSet(this, readReleased,
+                            drained))
+                break;
+        }
+        LockSupport.unpark(reader);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * indicates that the latest frame checked out for writing is not to be
+     * put in the queue e.g. because the queue has been reset while it was
+     * being written. Called by the producer only.
+     */
+    public void writeAbort()
+    {
+        long writeAcquired = this.writeAcquired;
+
+        if (writeAcquired <= writeCommitted)
+            error();
+
+        writeAcquiredUpdater.lazySet(this, writeAcquired - 1);
+    }
+
+    /**
+     * indicates that latest Object returns to the queue
+     */
+    @Override
+    public void writeReport()
+    {
+        long writeCommitted = this.writeCommitted;
+
+        if (writeCommitted >= writeAcquired)
+            error();
+
+        this.writeCommitted = writeCommitted + 1;
+        LockSupport.unpark(reader);
+    }
+}
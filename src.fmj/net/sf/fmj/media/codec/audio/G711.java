@@ -0,0 +1,305 @@
+package net.sf.fmj.media.codec.audio;
+
+import net.sf.fmj.media.codec.audio.alaw.ALawDecoderUtil;
+import net.sf.fmj.media.codec.audio.alaw.ALawEncoderUtil;
+import net.sf.fmj.media.codec.audio.ulaw.MuLawDecoderUtil;
+import net.sf.fmj.media.codec.audio.ulaw.MuLawEncoderUtil;
+
+/**
+ * Table-driven G.711 (A-law and mu-law) engine which converts whole blocks of
+ * samples at a time. The loops do nothing but look up tables so that the JIT
+ * can unroll them; the byte order of linear samples is decided once per block
+ * rather than once per sample. A-law and mu-law are transcoded into each other
+ * through a 256-entry table without going through linear samples (the result
+ * is the same as decoding and encoding again). The tables are computed from
+ * ALawEncoderUtil/ALawDecoderUtil and MuLawEncoderUtil/MuLawDecoderUtil so the
+ * output is bit-exact with them.
+ */
+public class G711
+{
+    /** the A-law byte for each 16-bit linear sample (as an unsigned short) */
+    private static final byte[] linearToAlawMap = new byte[65536];
+
+    /** the mu-law byte for each 16-bit linear sample (as an unsigned short) */
+    private static final byte[] linearToUlawMap = new byte[65536];
+
+    /** the 16-bit linear sample for each A-law byte */
+    private static final short[] alawToLinearMap = new short[256];
+
+    /** the mu-law byte for each A-law byte */
+    private static final byte[] alawToUlawMap = new byte[256];
+
+    /** the 16-bit linear sample for each mu-law byte */
+    private static final short[] ulawToLinearMap = new short[256];
+
+    /** the A-law byte for each mu-law byte */
+    private static final byte[] ulawToAlawMap = new byte[256];
+
+    static
+    {
+        for (int i = 0; i < 65536; i++)
+        {
+            linearToAlawMap[i] = ALawEncoderUtil.aLawEncode(i);
+            linearToUlawMap[i] = MuLawEncoderUtil.muLawEncode(i);
+        }
+        for (int i = 0; i < 256; i++)
+        {
+            alawToLinearMap[i] = ALawDecoderUtil.aLawDecode((byte) i);
+            ulawToLinearMap[i] = MuLawDecoderUtil.muLawDecode((byte) i);
+        }
+        for (int i = 0; i < 256; i++)
+        {
+            alawToUlawMap[i] = linearToUlawMap[alawToLinearMap[i] & 0xffff];
+            ulawToAlawMap[i] = linearToAlawMap[ulawToLinearMap[i] & 0xffff];
+        }
+    }
+
+    /**
+     * Decodes A-law bytes into 16-bit linear samples.
+     *
+     * @param in
+     *            the A-law bytes
+     * @param inOffset
+     *            the offset in <tt>in</tt> of the first A-law byte
+     * @param out
+     *            the array to receive the linear samples
+     * @param outOffset
+     *            the offset in <tt>out</tt> of the first linear sample
+     * @param length
+     *            the number of samples to decode
+     */
+    public static void alawToLinear(byte[] in, int inOffset, short[] out,
+            int outOffset, int length)
+    {
+        decode(alawToLinearMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Decodes A-law bytes into 16-bit linear samples of a specific byte order.
+     *
+     * @param bigEndian
+     *            <tt>true</tt> to write the linear samples in big-endian byte
+     *            order; <tt>false</tt> for little-endian
+     * @param in
+     *            the A-law bytes
+     * @param inOffset
+     *            the offset in <tt>in</tt> of the first A-law byte
+     * @param out
+     *            the array to receive the linear samples, two bytes each
+     * @param outOffset
+     *            the offset in <tt>out</tt> of the first linear sample
+     * @param length
+     *            the number of samples to decode
+     */
+    public static void alawToLinear(boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        decode(alawToLinearMap, bigEndian, in, inOffset, out, outOffset,
+                length);
+    }
+
+    /**
+     * Transcodes A-law bytes into mu-law bytes. <tt>in</tt> and <tt>out</tt>
+     * may be the same array (and the offsets the same) to transcode in place.
+     *
+     * @param in
+     *            the A-law bytes
+     * @param inOffset
+     *            the offset in <tt>in</tt> of the first A-law byte
+     * @param out
+     *            the array to receive the mu-law bytes
+     * @param outOffset
+     *            the offset in <tt>out</tt> of the first mu-law byte
+     * @param length
+     *            the number of samples to transcode
+     */
+    public static void alawToUlaw(byte[] in, int inOffset, byte[] out,
+            int outOffset, int length)
+    {
+        transcode(alawToUlawMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Transcodes one A-law byte into a mu-law byte.
+     */
+    public static byte alawToUlaw(byte alaw)
+    {
+        return alawToUlawMap[alaw & 0xff];
+    }
+
+    private static void decode(short[] map, boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        final int inEnd = inOffset + length;
+
+        if (bigEndian)
+        {
+            for (int i = inOffset, o = outOffset; i < inEnd; i++, o += 2)
+            {
+                final short sample = map[in[i] & 0xff];
+
+                out[o] = (byte) (sample >> 8);
+                out[o + 1] = (byte) sample;
+            }
+        } else
+        {
+            for (int i = inOffset, o = outOffset; i < inEnd; i++, o += 2)
+            {
+                final short sample = map[in[i] & 0xff];
+
+                out[o] = (byte) sample;
+                out[o + 1] = (byte) (sample >> 8);
+            }
+        }
+    }
+
+    private static void decode(short[] map, byte[] in, int inOffset,
+            short[] out, int outOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = map[in[inOffset + i] & 0xff];
+    }
+
+    private static void encode(byte[] map, boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        final int outEnd = outOffset + length;
+
+        if (bigEndian)
+        {
+            for (int i = inOffset, o = outOffset; o < outEnd; i += 2, o++)
+                out[o] = map[((in[i] & 0xff) << 8) | (in[i + 1] & 0xff)];
+        } else
+        {
+            for (int i = inOffset, o = outOffset; o < outEnd; i += 2, o++)
+                out[o] = map[((in[i + 1] & 0xff) << 8) | (in[i] & 0xff)];
+        }
+    }
+
+    private static void encode(byte[] map, short[] in, int inOffset,
+            byte[] out, int outOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = map[in[inOffset + i] & 0xffff];
+    }
+
+    /**
+     * Encodes 16-bit linear samples into A-law bytes.
+     *
+     * @param in
+     *            the linear samples
+     * @param inOffset
+     *            the offset in <tt>in</tt> of the first linear sample
+     * @param out
+     *            the array to receive the A-law bytes
+     * @param outOffset
+     *            the offset in <tt>out</tt> of the first A-law byte
+     * @param length
+     *            the number of samples to encode
+     */
+    public static void linearToAlaw(short[] in, int inOffset, byte[] out,
+            int outOffset, int length)
+    {
+        encode(linearToAlawMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Encodes 16-bit linear samples of a specific byte order into A-law bytes.
+     * <tt>in</tt> and <tt>out</tt> may be the same array (and the offsets the
+     * same) to encode in place.
+     *
+     * @param bigEndian
+     *            <tt>true</tt> if the linear samples are in big-endian byte
+     *            order; <tt>false</tt> for little-endian
+     * @param in
+     *            the linear samples, two bytes each
+     * @param inOffset
+     *            the offset in <tt>in</tt> of the first linear sample
+     * @param out
+     *            the array to receive the A-law bytes
+     * @param outOffset
+     *            the offset in <tt>out</tt> of the first A-law byte
+     * @param length
+     *            the number of samples to encode
+     */
+    public static void linearToAlaw(boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        encode(linearToAlawMap, bigEndian, in, inOffset, out, outOffset,
+                length);
+    }
+
+    /**
+     * Encodes 16-bit linear samples into mu-law bytes.
+     *
+     * @see #linearToAlaw(short[], int, byte[], int, int)
+     */
+    public static void linearToUlaw(short[] in, int inOffset, byte[] out,
+            int outOffset, int length)
+    {
+        encode(linearToUlawMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Encodes 16-bit linear samples of a specific byte order into mu-law
+     * bytes.
+     *
+     * @see #linearToAlaw(boolean, byte[], int, byte[], int, int)
+     */
+    public static void linearToUlaw(boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        encode(linearToUlawMap, bigEndian, in, inOffset, out, outOffset,
+                length);
+    }
+
+    private static void transcode(byte[] map, byte[] in, int inOffset,
+            byte[] out, int outOffset, int length)
+    {
+        for (int i = 0; i < length; i++)
+            out[outOffset + i] = map[in[inOffset + i] & 0xff];
+    }
+
+    /**
+     * Decodes mu-law bytes into 16-bit linear samples.
+     *
+     * @see #alawToLinear(byte[], int, short[], int, int)
+     */
+    public static void ulawToLinear(byte[] in, int inOffset, short[] out,
+            int outOffset, int length)
+    {
+        decode(ulawToLinearMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Decodes mu-law bytes into 16-bit linear samples of a specific byte
+     * order.
+     *
+     * @see #alawToLinear(boolean, byte[], int, byte[], int, int)
+     */
+    public static void ulawToLinear(boolean bigEndian, byte[] in,
+            int inOffset, byte[] out, int outOffset, int length)
+    {
+        decode(ulawToLinearMap, bigEndian, in, inOffset, out, outOffset,
+                length);
+    }
+
+    /**
+     * Transcodes mu-law bytes into A-law bytes.
+     *
+     * @see #alawToUlaw(byte[], int, byte[], int, int)
+     */
+    public static void ulawToAlaw(byte[] in, int inOffset, byte[] out,
+            int outOffset, int length)
+    {
+        transcode(ulawToAlawMap, in, inOffset, out, outOffset, length);
+    }
+
+    /**
+     * Transcodes one mu-law byte into an A-law byte.
+     */
+    public static byte ulawToAlaw(byte ulaw)
+    {
+        return ulawToAlawMap[ulaw & 0xff];
+    }
+}
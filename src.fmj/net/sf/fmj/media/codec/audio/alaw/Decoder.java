@@ -8,6 +8,7 @@ import javax.media.format.AudioFormat;
 
 import net.sf.fmj.media.AbstractCodec;
 import net.sf.fmj.media.AudioFormatCompleter;
+import net.sf.fmj.media.codec.audio.G711;
 import net.sf.fmj.utility.LoggerSingleton;
 import net.sf.fmj.utility.LoggingStringUtils;
 
@@ -124,9 +125,9 @@ public class Decoder extends AbstractCodec
                                                                                                       // check
                                                                                                       // for
                                                                                                       // undefined
-        ALawDecoderUtil.aLawDecode(bigEndian, (byte[]) inputBuffer.getData(),
-                inputBuffer.getOffset(), inputBuffer.getLength(),
-                outputBufferData);
+        G711.alawToLinear(bigEndian, (byte[]) inputBuffer.getData(),
+                inputBuffer.getOffset(), outputBufferData, 0,
+                inputBuffer.getLength());
         outputBuffer.setLength(inputBuffer.getLength() * 2);
         outputBuffer.setOffset(0);
         outputBuffer.setFormat(outputFormat);
@@ -7,6 +7,7 @@ import javax.media.Format;
 import javax.media.format.AudioFormat;
 
 import net.sf.fmj.media.AbstractCodec;
+import net.sf.fmj.media.codec.audio.G711;
 import net.sf.fmj.utility.LoggerSingleton;
 import net.sf.fmj.utility.LoggingStringUtils;
 
@@ -123,9 +124,9 @@ public class Encoder extends AbstractCodec
         final boolean bigEndian = ((AudioFormat) inputBuffer.getFormat())
                 .getEndian() == AudioFormat.BIG_ENDIAN; // TODO: check for
                                                         // undefined
-        ALawEncoderUtil.aLawEncode(bigEndian, (byte[]) inputBuffer.getData(),
-                inputBuffer.getOffset(), inputBuffer.getLength(),
-                outputBufferData);
+        G711.linearToAlaw(bigEndian, (byte[]) inputBuffer.getData(),
+                inputBuffer.getOffset(), outputBufferData, 0,
+                inputBuffer.getLength() / 2);
         outputBuffer.setLength(inputBuffer.getLength() / 2);
         outputBuffer.setOffset(0);
         outputBuffer.setFormat(outputFormat);
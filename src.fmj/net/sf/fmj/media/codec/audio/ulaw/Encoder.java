@@ -7,6 +7,7 @@ import javax.media.Format;
 import javax.media.format.AudioFormat;
 
 import net.sf.fmj.media.AbstractCodec;
+import net.sf.fmj.media.codec.audio.G711;
 import net.sf.fmj.utility.LoggerSingleton;
 import net.sf.fmj.utility.LoggingStringUtils;
 
@@ -145,9 +146,9 @@ public class Encoder extends AbstractCodec
                                                                    // check in
                                                                    // setInputFormat
         final boolean bigEndian = inputAudioFormat.getEndian() == AudioFormat.BIG_ENDIAN;
-        MuLawEncoderUtil.muLawEncode(bigEndian, (byte[]) inputBuffer.getData(),
-                inputBuffer.getOffset(), inputBuffer.getLength(),
-                outputBufferData);
+        G711.linearToUlaw(bigEndian, (byte[]) inputBuffer.getData(),
+                inputBuffer.getOffset(), outputBufferData, 0,
+                requiredOutputBufferLength);
         outputBuffer.setLength(requiredOutputBufferLength);
         outputBuffer.setOffset(0);
         outputBuffer.setFormat(outputFormat);
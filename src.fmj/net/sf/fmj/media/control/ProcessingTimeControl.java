@@ -0,0 +1,50 @@
+package net.sf.fmj.media.control;
+
+import javax.media.Codec;
+import javax.media.Control;
+import javax.media.Renderer;
+
+/**
+ * Measures the time the plug-ins of a track spend processing its buffers.
+ * Nothing is measured while no listener is set.
+ */
+public interface ProcessingTimeControl extends Control
+{
+    /**
+     * Receives the times measured by a <tt>ProcessingTimeControl</tt>. It is
+     * notified on the threads which process the buffers of the track.
+     */
+    public interface Listener
+    {
+        /**
+         * Notifies that a codec (e.g. a depacketizer, a decoder, an encoder or
+         * an effect) of the track has processed a buffer.
+         *
+         * @param codec
+         *            the codec which processed the buffer
+         * @param nanos
+         *            the time in nanoseconds spent in the codec
+         */
+        void codecProcessed(Codec codec, long nanos);
+
+        /**
+         * Notifies that the renderer of the track has processed a buffer.
+         *
+         * @param renderer
+         *            the renderer which processed the buffer
+         * @param nanos
+         *            the time in nanoseconds spent in the renderer
+         */
+        void rendererProcessed(Renderer renderer, long nanos);
+    }
+
+    /**
+     * Sets the listener to be notified about the processing times of the
+     * plug-ins of the track.
+     *
+     * @param listener
+     *            the listener to be notified or <tt>null</tt> to stop
+     *            measuring
+     */
+    void setListener(Listener listener);
+}
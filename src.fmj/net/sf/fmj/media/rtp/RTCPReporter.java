@@ -5,9 +5,13 @@ import java.util.Random;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import net.sf.fmj.media.Log;
-import net.sf.fmj.media.rtp.util.RTPMediaThread;
+import org.jitsi.util.HashedWheelTimer;
 
+/**
+ * Sends the RTCP reports of an <tt>SSRCCache</tt> at the intervals computed by
+ * the latter. Executes on the shared <tt>HashedWheelTimer</tt> rather than on
+ * a thread of its own.
+ */
 public class RTCPReporter implements Runnable
 {
     private static final Logger logger
@@ -15,31 +19,38 @@ public class RTCPReporter implements Runnable
 
     RTCPTransmitter transmit;
     SSRCCache cache;
-    RTPMediaThread reportthread;
     Random myrand;
-    boolean restart;
+    volatile boolean restart;
     boolean closed;
     InetAddress host;
     String cname;
 
+    /**
+     * The <tt>Timeout</tt> of the next report on {@link #timer}.
+     */
+    private HashedWheelTimer.Timeout timeout;
+
+    private final HashedWheelTimer timer = HashedWheelTimer.getSharedInstance();
+
     public RTCPReporter(SSRCCache cache, RTCPTransmitter t)
     {
         restart = false;
         closed = false;
         this.cache = cache;
         setTransmitter(t);
-        reportthread = new RTPMediaThread(this, "RTCP Reporter");
-        reportthread.useControlPriority();
-        reportthread.setDaemon(true);
-        reportthread.start();
+        scheduleReport();
     }
 
     public void close(String reason)
     {
-        synchronized (reportthread)
+        synchronized (this)
         {
             closed = true;
-            reportthread.notify();
+            if (timeout != null)
+            {
+                timeout.cancel();
+                timeout = null;
+            }
         }
         releasessrc(reason);
         transmit.close();
@@ -54,41 +65,45 @@ public class RTCPReporter implements Runnable
 
     public void run()
     {
-        if (restart)
-            restart = false;
-        do
+        synchronized (this)
         {
-            double delay = cache
-                    .calcReportInterval(cache.ourssrc.sender, false);
-
-            if (logger.isLoggable(Level.FINEST))
-            {
-                logger.finest(new StringBuilder()
-                        .append("RTCP reporting for ")
-                        .append(cache.audio ? "audio " : "video ")
-                        .append("running again after ")
-                        .append(delay)
-                        .append(" ms.")
-                        .toString());
-            }
-
-            synchronized (reportthread)
-            {
-                try
-                {
-                    reportthread.wait((long) delay);
-                } catch (InterruptedException e)
-                {
-                    Log.dumpStack(e);
-                }
-            }
             if (closed)
                 return;
-            if (!restart)
-                transmit.report();
-            else
-                restart = false;
-        } while (true);
+            timeout = null;
+        }
+        if (!restart)
+            transmit.report();
+        else
+            restart = false;
+        scheduleReport();
+    }
+
+    /**
+     * Schedules the next report after the report interval of {@link #cache}.
+     */
+    private synchronized void scheduleReport()
+    {
+        if (closed)
+            return;
+
+        // The reporter may be initialized before the cache knows our SSRC.
+        SSRCInfo ourssrc = cache.ourssrc;
+        double delay
+            = cache.calcReportInterval(
+                    (ourssrc != null) && ourssrc.sender,
+                    false);
+
+        if (logger.isLoggable(Level.FINEST))
+        {
+            logger.finest(new StringBuilder()
+                    .append("RTCP reporting for ")
+                    .append(cache.audio ? "audio " : "video ")
+                    .append("running again after ")
+                    .append(delay)
+                    .append(" ms.")
+                    .toString());
+        }
+        timeout = timer.newTimeout(this, (long) delay);
     }
 
     public void setTransmitter(RTCPTransmitter t)
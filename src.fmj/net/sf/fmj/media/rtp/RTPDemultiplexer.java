@@ -27,8 +27,21 @@ public class RTPDemultiplexer
 
     public void demuxpayload(SourceRTPPacket sp)
     {
-        SSRCInfo info = sp.ssrcinfo;
-        RTPPacket rtpPacket = sp.p;
+        demuxpayload(sp.p, sp.ssrcinfo);
+    }
+
+    /**
+     * Pushes the payload of a specific <tt>RTPPacket</tt> into the
+     * <tt>RTPSourceStream</tt> of a specific source. The payload is not
+     * copied: the <tt>RTPSourceStream</tt> takes the data of the packet over
+     * and the data it gives back in exchange (that of a packet its reader has
+     * consumed) is recycled into the <tt>RTPRawReceiver</tt>.
+     *
+     * @param rtpPacket the <tt>RTPPacket</tt> to demultiplex
+     * @param info the source of <tt>rtpPacket</tt>
+     */
+    public void demuxpayload(RTPPacket rtpPacket, SSRCInfo info)
+    {
         info.payloadType = rtpPacket.payloadType;
         if (info.dstream != null)
         {
@@ -48,6 +61,16 @@ public class RTPDemultiplexer
             buffer.setSequenceNumber(rtpPacket.seqnum);
             buffer.setFormat(info.dstream.getFormat());
             info.dstream.add(buffer, info.wrapped, rtpr);
+
+            Object data = buffer.getData();
+
+            buffer.setData(null);
+            if ((data != rtpPacket.base.data)
+                    && (data instanceof byte[])
+                    && (rtpr != null))
+            {
+                rtpr.recycle((byte[]) data);
+            }
         }
     }
 }
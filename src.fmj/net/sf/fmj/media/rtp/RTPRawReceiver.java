@@ -1,8 +1,5 @@
 package net.sf.fmj.media.rtp;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
-import java.io.EOFException;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.DatagramSocket;
@@ -17,6 +14,7 @@ import net.sf.fmj.media.Log;
 import net.sf.fmj.media.rtp.util.BadFormatException;
 import net.sf.fmj.media.rtp.util.Packet;
 import net.sf.fmj.media.rtp.util.PacketFilter;
+import net.sf.fmj.media.rtp.util.PacketSource;
 import net.sf.fmj.media.rtp.util.RTPPacket;
 import net.sf.fmj.media.rtp.util.RTPPacketReceiver;
 import net.sf.fmj.media.rtp.util.UDPPacketReceiver;
@@ -185,59 +183,110 @@ public class RTPRawReceiver extends PacketFilter
         return null;
     }
 
+    /**
+     * Parses the RTP header of a specific <tt>Packet</tt> into a new
+     * <tt>RTPPacket</tt> which views (rather than copies) the data of
+     * <tt>packet</tt>. The header is read in place and the CSRC list is the
+     * only thing allocated (if there are CSRCs at all).
+     *
+     * @param packet the <tt>Packet</tt> to parse
+     * @return a new <tt>RTPPacket</tt> which views the data of <tt>packet</tt>
+     * @throws BadFormatException if <tt>packet</tt> is not a valid RTP packet
+     */
     public RTPPacket parse(Packet packet) throws BadFormatException
     {
         RTPPacket rtppacket = new RTPPacket(packet);
-        DataInputStream datainputstream = new DataInputStream(
-                new ByteArrayInputStream(((Packet) (rtppacket)).data,
-                        ((Packet) (rtppacket)).offset,
-                        ((Packet) (rtppacket)).length));
-        try
+        byte[] data = packet.data;
+        int start = packet.offset;
+        int length = packet.length;
+
+        if (length < 12)
+            throw new BadFormatException("Unexpected end of RTP packet");
+
+        int firstByte = data[start] & 0xff;
+        if ((firstByte & 0xc0) != 128)
+            throw new BadFormatException();
+        if ((firstByte & 0x10) != 0)
+            rtppacket.extensionPresent = true;
+        int paddingLength = 0;
+        if ((firstByte & 0x20) != 0)
+            paddingLength = data[start + length - 1] & 0xff;
+        int csrcCount = firstByte & 0xf;
+        rtppacket.payloadType = data[start + 1] & 0xff;
+        rtppacket.marker = rtppacket.payloadType >> 7;
+        rtppacket.payloadType &= 0x7f;
+        rtppacket.seqnum = readUnsignedShort(data, start + 2);
+        rtppacket.timestamp = readInt(data, start + 4) & 0xffffffffL;
+        rtppacket.ssrc = readInt(data, start + 8);
+
+        int offset = 12 + (csrcCount << 2);
+        if (offset > length)
+            throw new BadFormatException("Unexpected end of RTP packet");
+        if (csrcCount == 0)
         {
-            int firstByte = datainputstream.readUnsignedByte();
-            if ((firstByte & 0xc0) != 128)
-                throw new BadFormatException();
-            if ((firstByte & 0x10) != 0)
-                rtppacket.extensionPresent = true;
-            int paddingLength = 0;
-            if ((firstByte & 0x20) != 0)
-                paddingLength = ((Packet) (rtppacket)).data[(((Packet) (rtppacket)).offset + ((Packet) (rtppacket)).length) - 1] & 0xff;
-            firstByte &= 0xf;
-            rtppacket.payloadType = datainputstream.readUnsignedByte();
-            rtppacket.marker = rtppacket.payloadType >> 7;
-            rtppacket.payloadType &= 0x7f;
-            rtppacket.seqnum = datainputstream.readUnsignedShort();
-            rtppacket.timestamp = datainputstream.readInt() & 0xffffffffL;
-            rtppacket.ssrc = datainputstream.readInt();
-            int offset = 0;
-            rtppacket.csrc = new int[firstByte];
-            for (int i1 = 0; i1 < rtppacket.csrc.length; i1++)
-                rtppacket.csrc[i1] = datainputstream.readInt();
-
-            offset += 12 + (rtppacket.csrc.length << 2);
-            if (rtppacket.extensionPresent)
-            {
-                rtppacket.extensionType = datainputstream.readUnsignedShort();
-                int l = datainputstream.readUnsignedShort();
-                l <<= 2;
-                rtppacket.extension = new byte[l];
-                datainputstream.readFully(rtppacket.extension);
-                offset += l + 4;
-            }
-            rtppacket.payloadlength = ((Packet) (rtppacket)).length - (offset + paddingLength);
-            if (rtppacket.payloadlength < 0)
-                throw new BadFormatException();
-            rtppacket.payloadoffset = offset + ((Packet) (rtppacket)).offset;
-        } catch (EOFException eofexception)
+            rtppacket.csrc = RTPPacket.NO_CSRCS;
+        }
+        else
         {
-            throw new BadFormatException("Unexpected end of RTP packet");
-        } catch (IOException ioexception)
+            rtppacket.csrc = new int[csrcCount];
+            for (int i1 = 0; i1 < csrcCount; i1++)
+                rtppacket.csrc[i1] = readInt(data, start + 12 + (i1 << 2));
+        }
+
+        if (rtppacket.extensionPresent)
         {
-            throw new IllegalArgumentException("Impossible Exception");
+            if (offset + 4 > length)
+                throw new BadFormatException("Unexpected end of RTP packet");
+            rtppacket.extensionType = readUnsignedShort(data, start + offset);
+            int l = readUnsignedShort(data, start + offset + 2) << 2;
+            rtppacket.extensionoffset = start + offset + 4;
+            rtppacket.extensionlength = l;
+            offset += l + 4;
+            if (offset > length)
+                throw new BadFormatException("Unexpected end of RTP packet");
         }
+        rtppacket.payloadlength = length - (offset + paddingLength);
+        if (rtppacket.payloadlength < 0)
+            throw new BadFormatException();
+        rtppacket.payloadoffset = offset + start;
         return rtppacket;
     }
 
+    /**
+     * Reads a big-endian <tt>int</tt> from a specific offset of a specific
+     * <tt>byte</tt> array.
+     */
+    private static int readInt(byte[] data, int off)
+    {
+        return ((data[off] & 0xff) << 24) | ((data[off + 1] & 0xff) << 16)
+            | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * Reads a big-endian unsigned 16-bit value from a specific offset of a
+     * specific <tt>byte</tt> array.
+     */
+    private static int readUnsignedShort(byte[] data, int off)
+    {
+        return ((data[off] & 0xff) << 8) | (data[off + 1] & 0xff);
+    }
+
+    /**
+     * Returns the data array of a consumed packet to the
+     * <tt>RTPPacketReceiver</tt> of this instance (if it is its source) for
+     * it to receive a next packet into.
+     *
+     * @param data the data array of a packet received through this instance
+     * which is no longer in use
+     */
+    public void recycle(byte[] data)
+    {
+        PacketSource source = getSource();
+
+        if (source instanceof RTPPacketReceiver)
+            ((RTPPacketReceiver) source).recycle(data);
+    }
+
     public void setRecvBufSize(int i)
     {
         try
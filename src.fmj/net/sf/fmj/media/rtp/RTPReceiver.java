@@ -439,18 +439,15 @@ public class RTPReceiver extends PacketFilter
                             : null);
             cache.eventhandler.postEvent(activereceivestreamevent);
         }
-        SourceRTPPacket sourcertppacket
-            = new SourceRTPPacket(rtppacket, ssrcinfo);
         if (ssrcinfo.dsource != null)
         {
             if (flag)
             {
                 RTPPacket rtppacket1 = probationList.remove(ssrcinfo.ssrc);
                 if (rtppacket1 != null)
-                    rtpdemultiplexer.demuxpayload(new SourceRTPPacket(
-                            rtppacket1, ssrcinfo));
+                    rtpdemultiplexer.demuxpayload(rtppacket1, ssrcinfo);
             }
-            rtpdemultiplexer.demuxpayload(sourcertppacket);
+            rtpdemultiplexer.demuxpayload(rtppacket, ssrcinfo);
         }
 
         return rtppacket;
@@ -149,6 +149,11 @@ public class RTPSourceStream
      * before the sequence numbers of the <tt>Buffer</tt>s in the queue, nothing
      * is done. Otherwise, a packet is dropped using PktQue.dropPkt()
      *
+     * The data of <tt>buffer</tt> is not copied: if <tt>buffer</tt> is queued,
+     * the queue takes its data over and gives <tt>buffer</tt> the data it no
+     * longer needs (i.e. that of a packet already consumed by the reader, if
+     * any) in exchange.
+     *
      * @param buffer the buffer to add
      * @param flag unused
      * @param rtprawreceiver used to access the 'socket buffer'?
@@ -207,20 +212,7 @@ public class RTPSourceStream
 
         try
         {
-            byte[] bufferData = (byte[]) buffer.getData();
-            byte[] qBufferData = (byte[]) qBuffer.getData();
-            if ((qBufferData == null)
-                    || (qBufferData.length < bufferData.length))
-            {
-                qBufferData = new byte[bufferData.length];
-            }
-
-            System.arraycopy(
-                    bufferData, buffer.getOffset(),
-                    qBufferData, buffer.getOffset(),
-                    buffer.getLength());
-            qBuffer.copy(buffer);
-            qBuffer.setData(qBufferData);
+            qBuffer.copy(buffer, true);
             if (almostFull) //with this packet added, the queue will be full
             {
                 qBuffer.setFlags(
@@ -240,7 +232,10 @@ public class RTPSourceStream
         finally
         {
             if (!added)
+            {
+                qBuffer.copy(buffer, true);
                 q.returnFree(qBuffer);
+            }
         }
 
         // A packet was added to this PushBufferStream so transferData.
@@ -2,7 +2,6 @@ package net.sf.fmj.media.rtp;
 
 import java.net.InetAddress;
 import java.util.Enumeration;
-import java.util.Hashtable;
 
 import javax.media.format.AudioFormat;
 import javax.media.rtp.ReceiveStream;
@@ -35,8 +34,7 @@ public class SSRCCache
     boolean byestate;
     boolean rtcpsent;
     int avgrtcpsize;
-    Hashtable conflicttable;
-    SSRCInfo ourssrc;
+    volatile SSRCInfo ourssrc;
     public final RTPSessionMgr sm;
 
     SSRCCache(RTPSessionMgr sm)
@@ -54,7 +52,6 @@ public class SSRCCache
         byestate = false;
         rtcpsent = false;
         avgrtcpsize = 128;
-        conflicttable = new Hashtable(5);
         stats = sm.defaultstats;
         transstats = sm.transstats;
         sourceInfoCache = new RTPSourceInfoCache();
@@ -80,7 +77,6 @@ public class SSRCCache
         byestate = false;
         rtcpsent = false;
         avgrtcpsize = 128;
-        conflicttable = new Hashtable(5);
         stats = sm.defaultstats;
         transstats = sm.transstats;
         sourceInfoCache = sic;
@@ -233,6 +229,30 @@ public class SSRCCache
     SSRCInfo get(int ssrc, InetAddress address, int port, int mode)
     {
         SSRCInfo info;
+
+        /*
+         * The fast path for the packets of a known and live source from its
+         * known address: none of the below would modify the cache or the
+         * source so there is no need to lock.
+         */
+        if (mode == 1)
+        {
+            SSRCInfo ourssrc = this.ourssrc;
+
+            if (ourssrc == null || ourssrc.ssrc != ssrc)
+            {
+                info = lookup(ssrc);
+                if (info instanceof RecvSSRCInfo
+                        && !info.ours
+                        && info.alive
+                        && info.address != null
+                        && info.address.equals(address))
+                {
+                    return info;
+                }
+            }
+        }
+
         boolean localcollision = false;
         synchronized (this)
         {
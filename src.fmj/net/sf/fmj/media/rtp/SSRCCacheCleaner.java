@@ -5,10 +5,14 @@ import javax.media.rtp.event.ByeEvent;
 import javax.media.rtp.event.InactiveReceiveStreamEvent;
 import javax.media.rtp.event.TimeoutEvent;
 
-import net.sf.fmj.media.rtp.util.RTPMediaThread;
 import net.sf.fmj.media.rtp.util.SSRCTable;
 
+import org.jitsi.util.HashedWheelTimer;
+
 /**
+ * Periodically removes the timed out and departed sources from an
+ * <tt>SSRCCache</tt>. Executes on the shared <tt>HashedWheelTimer</tt> rather
+ * than on a thread of its own.
  *
  * @author Lyubomir Marinov
  */
@@ -35,8 +39,31 @@ public class SSRCCacheCleaner
      */
     private int[] ssrcs;
 
+    /**
+     * The indicator which determines whether {@link #setClean()} has been
+     * invoked while {@link #run()} was executing.
+     */
+    private boolean cleanRequested;
+
+    /**
+     * The indicator which determines whether {@link #run()} is executing.
+     */
+    private boolean running;
+
     private final StreamSynch streamSynch;
-    private final RTPMediaThread thread;
+
+    /**
+     * The <tt>Timeout</tt> of the next execution of {@link #run()} on
+     * {@link #timer}.
+     */
+    private HashedWheelTimer.Timeout timeout;
+
+    /**
+     * The delay in milliseconds with which {@link #timeout} was scheduled.
+     */
+    private long timeoutDelay;
+
+    private final HashedWheelTimer timer = HashedWheelTimer.getSharedInstance();
 
     public SSRCCacheCleaner(SSRCCache cache, StreamSynch streamSynch)
     {
@@ -45,10 +72,10 @@ public class SSRCCacheCleaner
 
         killed = false;
         lastCleaned = -1L;
-        thread = new RTPMediaThread(this, "SSRC Cache Cleaner");
-        thread.useControlPriority();
-        thread.setDaemon(true);
-        thread.start();
+        synchronized (this)
+        {
+            schedule(0L);
+        }
     }
 
     private long cleannow(long time)
@@ -171,78 +198,100 @@ public class SSRCCacheCleaner
             }
         }
 
+        // The removals above leave tombstones in the table which are
+        // reclaimed in a batch rather than one by one.
+        infos.purge();
+
         return timeUntilNextProcess;
     }
 
     @Override
     public void run()
     {
-        long timeout = Long.MAX_VALUE;
+        long now;
 
-        do
+        synchronized (this)
         {
-            long now;
+            if (killed)
+                return;
+            timeout = null;
+            running = true;
+            cleanRequested = false;
+            now = System.currentTimeMillis();
+            lastCleaned = now;
+        }
+
+        long timeUntilNextProcess;
 
+        try
+        {
+            timeUntilNextProcess = cleannow(now);
+            if (timeUntilNextProcess <= 0)
+                timeUntilNextProcess = Long.MAX_VALUE;
+        }
+        catch (Exception ex)
+        {
+            timeUntilNextProcess = Long.MAX_VALUE;
+            ex.printStackTrace();
+        }
+        finally
+        {
             synchronized (this)
             {
-                if (killed)
-                {
-                    break;
-                }
-                else
-                {
-                    now = System.currentTimeMillis();
-                    timeout
-                        =  (lastCleaned == -1L)
-                            ? 0L
-                            : Math.min(
-                                    lastCleaned + RUN_INTERVAL - now,
-                                    timeout);
-                    if (timeout <= 0)
-                    {
-                        // We are going to invoke cleannow(long) immediately, we
-                        // merely want to leave the synchronized block.
-                        lastCleaned = now;
-                    }
-                    else
-                    {
-                        try
-                        {
-                            wait(timeout);
-                        }
-                        catch (InterruptedException iex)
-                        {
-                        }
-                        timeout = Long.MAX_VALUE;
-                        continue;
-                    }
-                }
+                running = false;
             }
+        }
 
-            try
-            {
-                timeout = cleannow(now);
-                if (timeout <= 0)
-                    timeout = Long.MAX_VALUE;
-            }
-            catch (Exception ex)
+        synchronized (this)
+        {
+            if (!killed)
             {
-                timeout = Long.MAX_VALUE;
-                ex.printStackTrace();
+                schedule(
+                        cleanRequested
+                            ? 0L
+                            : Math.min(RUN_INTERVAL, timeUntilNextProcess));
             }
         }
-        while (true);
+    }
+
+    /**
+     * Schedules the next execution of {@link #run()} on {@link #timer}. Should
+     * be called with this instance's monitor held.
+     *
+     * @param delay the delay in milliseconds of the next execution
+     */
+    private void schedule(long delay)
+    {
+        if (timeout != null)
+        {
+            // Do not reschedule if the scheduled execution is as soon as the
+            // requested one.
+            if (delay >= timeoutDelay)
+                return;
+            timeout.cancel();
+        }
+        timeoutDelay = delay;
+        timeout = timer.newTimeout(this, delay);
     }
 
     public synchronized void setClean()
     {
         lastCleaned = -1L;
-        notifyAll();
+        if (killed)
+            return;
+        if (running)
+            cleanRequested = true;
+        else
+            schedule(0L);
     }
 
     public synchronized void stop()
     {
         killed = true;
-        notifyAll();
+        if (timeout != null)
+        {
+            timeout.cancel();
+            timeout = null;
+        }
     }
 }
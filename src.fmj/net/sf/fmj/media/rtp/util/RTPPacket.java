@@ -7,6 +7,13 @@ import net.sf.fmj.utility.ByteBufferOutputStream;
 
 public class RTPPacket extends Packet
 {
+    /**
+     * The CSRC list of the <tt>RTPPacket</tt>s which have no CSRCs. Shared
+     * because the receive path does not allocate per packet what it does not
+     * have to.
+     */
+    public static final int[] NO_CSRCS = new int[0];
+
     public Packet base;
     public boolean extensionPresent;
     public int marker;
@@ -16,7 +23,18 @@ public class RTPPacket extends Packet
     public int ssrc;
     public int csrc[];
     public int extensionType;
-    public byte extension[];
+
+    /**
+     * The offset in <tt>base.data</tt> of the header extension (after its
+     * 4-byte header). The header extension is not copied out of the packet.
+     */
+    public int extensionoffset;
+
+    /**
+     * The length in bytes of the header extension (without its 4-byte
+     * header).
+     */
+    public int extensionlength;
     public int payloadoffset;
     public int payloadlength;
 
@@ -81,9 +99,10 @@ public class RTPPacket extends Packet
         p.seqnum = seqnum;
         p.timestamp = timestamp;
         p.ssrc = ssrc;
-        p.csrc = csrc.clone();
+        p.csrc = (csrc.length == 0) ? NO_CSRCS : csrc.clone();
         p.extensionType = extensionType;
-        p.extension = extension;
+        p.extensionoffset = extensionoffset;
+        p.extensionlength = extensionlength;
         p.payloadoffset = payloadoffset;
         p.payloadlength = payloadlength;
         return p;
@@ -107,7 +126,7 @@ public class RTPPacket extends Packet
         }
         if (extensionPresent)
             s = s + "\tExtension:  type " + extensionType + ", length "
-                    + extension.length + "\n";
+                    + extensionlength + "\n";
         return s;
     }
 }
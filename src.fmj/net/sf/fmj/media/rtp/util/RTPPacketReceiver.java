@@ -1,6 +1,8 @@
 package net.sf.fmj.media.rtp.util;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 import javax.media.Buffer;
 import javax.media.protocol.PushBufferStream;
@@ -24,6 +26,26 @@ public class RTPPacketReceiver
     private static final String PUSH_BUFFER_STREAM_CLASS_NAME
         = PushBufferStream.class.getName();
 
+    /**
+     * The maximum number of data arrays kept in {@link #pool}.
+     */
+    private static final int POOL_CAPACITY = 32;
+
+    /**
+     * The length of the data array of the last received packet. Recycled
+     * arrays which are shorter are not pooled because they would have to be
+     * reallocated anyway.
+     */
+    private int dataLength;
+
+    /**
+     * The data arrays of consumed packets to receive next packets into.
+     * Every received packet takes the data array it was received into with it
+     * (so that it may be queued without copying) and the array is returned
+     * through {@link #recycle(byte[])} when the packet has been consumed.
+     */
+    private final Deque<byte[]> pool = new ArrayDeque<byte[]>();
+
     RTPPushDataSource rtpsource;
     CircularBuffer bufQue;
     boolean closed;
@@ -98,6 +120,18 @@ public class RTPPacketReceiver
             data = (byte[]) buf.getData();
             flags = buf.getFlags();
             length = buf.getLength();
+
+            // The packet takes the data array with it so the next packet is
+            // to be received into another one.
+            byte[] next;
+
+            synchronized (pool)
+            {
+                if (data != null)
+                    dataLength = data.length;
+                next = pool.poll();
+            }
+            buf.setData(next);
         }
         else
         {
@@ -118,6 +152,26 @@ public class RTPPacketReceiver
         return p;
     }
 
+    /**
+     * Returns the data array of a received packet which has been consumed to
+     * this instance for it to receive a next packet into.
+     *
+     * @param data the data array of a packet received from this instance which
+     * is no longer in use
+     */
+    public void recycle(byte[] data)
+    {
+        synchronized (pool)
+        {
+            if ((data != null)
+                    && (data.length >= dataLength)
+                    && (pool.size() < POOL_CAPACITY))
+            {
+                pool.push(data);
+            }
+        }
+    }
+
     public String sourceString()
     {
         String s = "RTPPacketReceiver for " + rtpsource;
@@ -6,117 +6,203 @@ import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Maps synchronization source identifiers (SSRCs) to <tt>Object</tt>s. The
+ * mappings are kept in an open-addressing (linear probing) hash table so that
+ * the cost of a lookup does not depend on the number of SSRCs in the table.
+ * <p>
+ * Reads do not lock: each slot holds an immutable entry which pairs an SSRC
+ * with its <tt>Object</tt> and a table which has to grow is rebuilt aside and
+ * then published. Writes are serialized on the <tt>SSRCTable</tt> (which is
+ * the lock its users synchronize on while iterating). Removals leave
+ * tombstones behind which are reclaimed by {@link #purge()} (in batches, by
+ * the owner of the table) or when the table has to be rebuilt anyway.
+ * </p>
  *
  * @author Lyubomir Marinov
  */
 public class SSRCTable<T>
 {
-    static final int INCR = 16;
+    /**
+     * The initial number of slots of a table (a power of two).
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The entry of a slot of which the mapping has been removed.
+     */
+    private static final Entry TOMBSTONE = new Entry(0, null);
+
+    /**
+     * Gets the index of the home slot of a specific SSRC in a table with a
+     * specific mask.
+     *
+     * @param ssrc the SSRC to get the home slot of
+     * @param mask the number of slots of the table minus one
+     * @return the index of the home slot of <tt>ssrc</tt>
+     */
+    private static int indexOf(int ssrc, int mask)
+    {
+        return (int) (((ssrc & 0xFFFFFFFFL) * 0x9E3779B97F4A7C15L) >>> 40)
+            & mask;
+    }
+
+    /**
+     * The number of mappings in {@link #table}.
+     */
+    private volatile int size;
+
+    /**
+     * The slots of this <tt>SSRCTable</tt>.
+     */
+    private volatile AtomicReferenceArray<Entry> table
+        = new AtomicReferenceArray<Entry>(INITIAL_CAPACITY);
 
-    Object[] objList;
-    int[] ssrcList;
-    int total;
+    /**
+     * The number of slots of {@link #table} which are tombstones. Accessed by
+     * writers only.
+     */
+    private int tombstones;
 
     public SSRCTable()
     {
-        ssrcList = new int[16];
-        objList = new Object[ssrcList.length];
-        total = 0;
     }
 
     public Enumeration<T> elements()
     {
-        // The method does not access any state of this instance. Consequently,
-        // it does not need to be synchronized. The synchronized keyword was
-        // removed because the method was seen to participate in a deadlock and
-        // because the presence or absence of the synchronized keyword will not
-        // make a difference if this SSRCTable is modified while iterating over
-        // the returned Enumeration anyway.
+        // The method does not lock. It enumerates the table which is current
+        // at the time of the invocation and the presence or absence of
+        // synchronization will not make a difference if this SSRCTable is
+        // modified while iterating over the returned Enumeration anyway.
+        final AtomicReferenceArray<Entry> table = this.table;
+
         return
             new Enumeration<T>()
             {
-                private int next = 0;
+                /**
+                 * The entry to be returned by the next invocation of
+                 * {@link #nextElement()} or <tt>null</tt> if it has not been
+                 * looked up yet.
+                 */
+                private Entry next;
+
+                /**
+                 * The index of the slot of {@link #table} to continue the
+                 * lookup of {@link #next} at.
+                 */
+                private int index = 0;
 
                 @Override
                 public boolean hasMoreElements()
                 {
-                    return next < total;
+                    while ((next == null) && (index < table.length()))
+                    {
+                        Entry entry = table.get(index++);
+
+                        if ((entry != null) && (entry != TOMBSTONE))
+                            next = entry;
+                    }
+                    return next != null;
                 }
 
                 @Override
                 public T nextElement()
                 {
-                    synchronized (SSRCTable.this)
+                    if (hasMoreElements())
                     {
-                        if (next < total)
-                        {
-                            @SuppressWarnings("unchecked")
-                            T t = (T) objList[next++];
-    
-                            return t;
-                        }
+                        @SuppressWarnings("unchecked")
+                        T t = (T) next.obj;
+
+                        next = null;
+                        return t;
                     }
                     throw new NoSuchElementException("SSRCTable Enumeration");
                 }
             };
     }
 
-    public synchronized T get(int ssrc)
+    /**
+     * Gets the index of the slot which maps a specific SSRC in a specific
+     * table.
+     *
+     * @param table the table to look <tt>ssrc</tt> up in
+     * @param ssrc the SSRC to look up
+     * @return the index of the slot of <tt>table</tt> which maps
+     * <tt>ssrc</tt> or <tt>-1</tt> if there is no such slot
+     */
+    private static int find(AtomicReferenceArray<Entry> table, int ssrc)
     {
-        int i = indexOf(ssrc);
+        int mask = table.length() - 1;
 
-        if (i < 0)
-        {
-            return null;
-        }
-        else
+        for (int i = indexOf(ssrc, mask), probes = 0;
+                probes <= mask;
+                i = (i + 1) & mask, probes++)
         {
-            @SuppressWarnings("unchecked")
-            T t = (T) objList[i];
+            Entry entry = table.get(i);
 
-            return t;
+            if (entry == null)
+                break;
+            if ((entry != TOMBSTONE) && (entry.ssrc == ssrc))
+                return i;
         }
+        return -1;
     }
 
-    public synchronized int getSSRC(T obj)
+    /**
+     * Gets the index of the first empty or removed slot on the probe sequence
+     * of a specific SSRC in a specific table. The table is never full so there
+     * is such a slot.
+     *
+     * @param table the table to find a slot in
+     * @param ssrc the SSRC to find a slot for
+     * @return the index of the first empty or removed slot of <tt>table</tt>
+     * on the probe sequence of <tt>ssrc</tt>
+     */
+    private static int findFree(AtomicReferenceArray<Entry> table, int ssrc)
     {
-        for (int i = 0; i < total; i++)
-        {
-            if (objList[i] == obj)
-                return ssrcList[i];
-        }
-        return 0;
+        int mask = table.length() - 1;
+        int i = indexOf(ssrc, mask);
+        Entry entry;
+
+        while (((entry = table.get(i)) != null) && (entry != TOMBSTONE))
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    public T get(int ssrc)
+    {
+        AtomicReferenceArray<Entry> table = this.table;
+        int i = find(table, ssrc);
+
+        if (i < 0)
+            return null;
+
+        Entry entry = table.get(i);
+
+        // The mapping may have been removed since it was found.
+        if ((entry == TOMBSTONE) || (entry.ssrc != ssrc))
+            return null;
+
+        @SuppressWarnings("unchecked")
+        T t = (T) entry.obj;
+
+        return t;
     }
 
-    private int indexOf(int ssrc)
+    public int getSSRC(T obj)
     {
-        if (total <= 3)
+        AtomicReferenceArray<Entry> table = this.table;
+
+        for (int i = 0, length = table.length(); i < length; i++)
         {
-            if (total > 0 && ssrcList[0] == ssrc)
-                return 0;
-            if (total > 1 && ssrcList[1] == ssrc)
-                return 1;
-            return total <= 2 || ssrcList[2] != ssrc ? -1 : 2;
+            Entry entry = table.get(i);
+
+            if ((entry != null) && (entry != TOMBSTONE) && (entry.obj == obj))
+                return entry.ssrc;
         }
-        if (ssrcList[0] == ssrc)
-            return 0;
-        if (ssrcList[total - 1] == ssrc)
-            return total - 1;
-        int i = 0;
-        int j = total - 1;
-        do
-        {
-            int x = (j - i) / 2 + i;
-            if (ssrcList[x] == ssrc)
-                return x;
-            if (ssrc > ssrcList[x])
-                i = x + 1;
-            else if (ssrc < ssrcList[x])
-                j = x;
-        } while (i < j);
-        return -1;
+        return 0;
     }
 
     public boolean isEmpty()
@@ -148,114 +234,135 @@ public class SSRCTable<T>
 
         if (array == null || array.length < length)
             array = new int[length];
-        System.arraycopy(ssrcList, 0, array, 0, length);
-        if (length < array.length)
-            Arrays.fill(array, length, array.length, 0);
+
+        AtomicReferenceArray<Entry> table = this.table;
+        int j = 0;
+
+        for (int i = 0, tableLength = table.length(); i < tableLength; i++)
+        {
+            Entry entry = table.get(i);
+
+            if ((entry != null) && (entry != TOMBSTONE))
+                array[j++] = entry.ssrc;
+        }
+        if (j < array.length)
+            Arrays.fill(array, j, array.length, 0);
         return array;
     }
 
+    /**
+     * Reclaims the slots of the removed mappings of this <tt>SSRCTable</tt>
+     * if they have become numerous enough to lengthen the lookups. Meant to be
+     * invoked periodically by the owner of the table (e.g. after a batch of
+     * removals) rather than on every removal.
+     */
+    public synchronized void purge()
+    {
+        AtomicReferenceArray<Entry> table = this.table;
+
+        if (tombstones > table.length() / 8)
+            rehash(table.length());
+    }
+
     public synchronized void put(int ssrc, T obj)
     {
-        if (total == 0)
-        {
-            ssrcList[0] = ssrc;
-            objList[0] = obj;
-            total = 1;
-            return;
-        }
-        int i;
-        for (i = 0; i < total; i++)
-        {
-            if (ssrcList[i] < ssrc)
-                continue;
-            if (ssrcList[i] == ssrc)
-            {
-                objList[i] = obj;
-                return;
-            }
-            break;
-        }
+        AtomicReferenceArray<Entry> table = this.table;
+        int i = find(table, ssrc);
 
-        if (total == ssrcList.length)
+        if (i < 0)
         {
-            int[] sl = new int[ssrcList.length + INCR];
-            Object[] ol = new Object[objList.length + INCR];
-            if (i > 0)
+            int length = table.length();
+
+            // Keep at least half of the slots empty so that the lookups stay
+            // short (and terminate).
+            if ((size + tombstones + 1) * 2 > length)
             {
-                System.arraycopy(ssrcList, 0, sl, 0, total);
-                System.arraycopy(objList, 0, ol, 0, total);
+                table
+                    = rehash(
+                            ((size + 1) * 4 > length) ? (length * 2) : length);
             }
-            ssrcList = sl;
-            objList = ol;
+            i = findFree(table, ssrc);
+            if (table.get(i) == TOMBSTONE)
+                tombstones--;
+            size++;
         }
-        for (int x = total - 1; x >= i; x--)
+        table.set(i, new Entry(ssrc, obj));
+    }
+
+    /**
+     * Builds a table with a specific number of slots out of the mappings of
+     * {@link #table} and publishes it. Should be called with this instance's
+     * monitor held.
+     *
+     * @param capacity the number of slots of the new table (a power of two)
+     * @return the new table
+     */
+    private AtomicReferenceArray<Entry> rehash(int capacity)
+    {
+        AtomicReferenceArray<Entry> table = this.table;
+        AtomicReferenceArray<Entry> newTable
+            = new AtomicReferenceArray<Entry>(capacity);
+
+        for (int i = 0, length = table.length(); i < length; i++)
         {
-            ssrcList[x + 1] = ssrcList[x];
-            objList[x + 1] = objList[x];
-        }
+            Entry entry = table.get(i);
 
-        ssrcList[i] = ssrc;
-        objList[i] = obj;
-        total++;
+            if ((entry != null) && (entry != TOMBSTONE))
+                newTable.set(findFree(newTable, entry.ssrc), entry);
+        }
+        tombstones = 0;
+        this.table = newTable;
+        return newTable;
     }
 
     public synchronized T remove(int ssrc)
     {
-        int i;
-        if ((i = indexOf(ssrc)) < 0)
+        AtomicReferenceArray<Entry> table = this.table;
+        int i = find(table, ssrc);
+
+        if (i < 0)
             return null;
 
         @SuppressWarnings("unchecked")
-        T res = (T) objList[i];
-
-        for (; i < total - 1; i++)
-        {
-            ssrcList[i] = ssrcList[i + 1];
-            objList[i] = objList[i + 1];
-        }
+        T res = (T) table.get(i).obj;
 
-        ssrcList[total - 1] = 0;
-        objList[total - 1] = null;
-        total--;
+        table.set(i, TOMBSTONE);
+        size--;
+        tombstones++;
         return res;
     }
 
     public synchronized void removeAll()
     {
-        for (int i = 0; i < total; i++)
-        {
-            ssrcList[i] = 0;
-            objList[i] = null;
-        }
-
-        total = 0;
+        table = new AtomicReferenceArray<Entry>(INITIAL_CAPACITY);
+        size = 0;
+        tombstones = 0;
     }
 
     public synchronized void removeObj(T obj)
     {
         if (obj == null)
             return;
-        int i;
-        for (i = 0; i < total; i++)
-            if (objList[i] == obj)
-                break;
 
-        if (i >= total)
-            return;
-        for (; i < total - 1; i++)
+        AtomicReferenceArray<Entry> table = this.table;
+
+        for (int i = 0, length = table.length(); i < length; i++)
         {
-            ssrcList[i] = ssrcList[i + 1];
-            objList[i] = objList[i + 1];
-        }
+            Entry entry = table.get(i);
 
-        ssrcList[total - 1] = 0;
-        objList[total - 1] = null;
-        total--;
+            if ((entry != null) && (entry != TOMBSTONE) && (entry.obj == obj))
+            {
+                table.set(i, TOMBSTONE);
+                size--;
+                tombstones++;
+                return;
+            }
+        }
     }
 
     public int size()
     {
-        return total;
+        return size;
     }
 
     /**
@@ -290,9 +397,43 @@ public class SSRCTable<T>
             componentType = null;
         if (componentType != null)
             array = (T[]) Array.newInstance(componentType, length);
-        System.arraycopy(objList, 0, array, 0, length);
-        if (length < array.length)
-            Arrays.fill(array, length, array.length, null);
+
+        AtomicReferenceArray<Entry> table = this.table;
+        int j = 0;
+
+        for (int i = 0, tableLength = table.length(); i < tableLength; i++)
+        {
+            Entry entry = table.get(i);
+
+            if ((entry != null) && (entry != TOMBSTONE))
+                array[j++] = (T) entry.obj;
+        }
+        if (j < array.length)
+            Arrays.fill(array, j, array.length, null);
         return array;
     }
+
+    /**
+     * Represents a mapping of an SSRC to an <tt>Object</tt> in the slot of an
+     * <tt>SSRCTable</tt>. Immutable so that a reader never sees an SSRC paired
+     * with the <tt>Object</tt> of another.
+     */
+    private static class Entry
+    {
+        /**
+         * The <tt>Object</tt> mapped to {@link #ssrc}.
+         */
+        final Object obj;
+
+        /**
+         * The mapped SSRC.
+         */
+        final int ssrc;
+
+        Entry(int ssrc, Object obj)
+        {
+            this.ssrc = ssrc;
+            this.obj = obj;
+        }
+    }
 }
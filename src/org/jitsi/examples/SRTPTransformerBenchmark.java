@@ -0,0 +1,173 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.examples;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.transform.srtp.SRTPContextFactory;
+import org.jitsi.impl.neomedia.transform.srtp.SRTPPolicy;
+import org.jitsi.impl.neomedia.transform.srtp.SRTPTransformer;
+
+/**
+ * Measures how the throughput of a single <tt>SRTPTransformer</tt> which is
+ * shared by multiple threads (e.g. the RTP of several streams encrypted by one
+ * DTLS-SRTP session) scales with the number of threads. Each thread encrypts
+ * AES-CM/HMAC-SHA1 packets of its own SSRC. The packets are transformed either
+ * directly (the lock-free path taken after the DTLS-SRTP handshake) or within a
+ * monitor shared by all threads (the path taken before, which serialized the
+ * threads). Scaling can only be observed on a machine with multiple CPUs.
+ * <p>
+ * Usage: <tt>SRTPTransformerBenchmark [--max-threads=N] [--seconds=S]</tt>
+ * </p>
+ */
+public class SRTPTransformerBenchmark {
+	/**
+	 * The name of the command-line argument which specifies the maximum
+	 * number of threads. The benchmark is run with 1, 2, 4, ... threads up to
+	 * it.
+	 */
+	private static final String MAX_THREADS_ARG_NAME = "--max-threads=";
+
+	/**
+	 * The length in bytes of the payload of the encrypted RTP packets (20 ms of
+	 * G.711 audio).
+	 */
+	private static final int PAYLOAD_LENGTH = 160;
+
+	/**
+	 * The name of the command-line argument which specifies the number of
+	 * seconds to measure each number of threads for.
+	 */
+	private static final String SECONDS_ARG_NAME = "--seconds=";
+
+	/**
+	 * Runs the benchmark.
+	 *
+	 * @param args
+	 *            the command-line arguments
+	 * @throws Exception
+	 *             if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int maxThreads = 2 * cpus;
+		int seconds = 3;
+
+		for (String arg : args) {
+			if (arg.startsWith(MAX_THREADS_ARG_NAME))
+				maxThreads = Integer.parseInt(arg.substring(MAX_THREADS_ARG_NAME.length()));
+			else if (arg.startsWith(SECONDS_ARG_NAME))
+				seconds = Integer.parseInt(arg.substring(SECONDS_ARG_NAME.length()));
+		}
+
+		System.out.println("CPUs: " + cpus);
+		if (cpus < 2)
+			System.out.println("WARNING: a single CPU cannot show contention or scaling.");
+		System.out.println("threads\tlock-free pkt/s\tlocked pkt/s");
+
+		// Warm up the JIT compiler.
+		run(1, 1, false);
+		run(1, 1, true);
+
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			long lockFree = run(threads, seconds, false);
+			long locked = run(threads, seconds, true);
+
+			System.out.println(threads + "\t" + lockFree + "\t" + locked);
+		}
+	}
+
+	/**
+	 * Encrypts RTP packets with a specific number of threads sharing one
+	 * <tt>SRTPTransformer</tt> for a specific number of seconds.
+	 *
+	 * @param threadCount
+	 *            the number of threads to encrypt with
+	 * @param seconds
+	 *            the number of seconds to encrypt for
+	 * @param locked
+	 *            <tt>true</tt> to encrypt within a monitor shared by the
+	 *            threads or <tt>false</tt> to encrypt without locking
+	 * @return the number of packets encrypted per second by all threads
+	 * @throws InterruptedException
+	 *             if the current thread is interrupted while waiting for the
+	 *             threads to finish
+	 */
+	private static long run(int threadCount, int seconds, final boolean locked) throws InterruptedException {
+		byte[] masterKey = new byte[16];
+		byte[] masterSalt = new byte[14];
+
+		for (int i = 0; i < masterKey.length; i++)
+			masterKey[i] = (byte) i;
+		for (int i = 0; i < masterSalt.length; i++)
+			masterSalt[i] = (byte) (0x80 + i);
+
+		SRTPPolicy srtpPolicy = new SRTPPolicy(SRTPPolicy.AESCM_ENCRYPTION, 16, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+		SRTPPolicy srtcpPolicy = new SRTPPolicy(SRTPPolicy.AESCM_ENCRYPTION, 16, SRTPPolicy.HMACSHA1_AUTHENTICATION, 20, 10, 14);
+		final SRTPTransformer transformer = new SRTPTransformer(new SRTPContextFactory(true, masterKey, masterSalt, srtpPolicy, srtcpPolicy));
+		final Object lock = new Object();
+		final AtomicBoolean stop = new AtomicBoolean();
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] counts = new long[threadCount];
+		Thread[] threads = new Thread[threadCount];
+
+		for (int t = 0; t < threadCount; t++) {
+			final int index = t;
+
+			threads[t] = new Thread(SRTPTransformerBenchmark.class.getSimpleName() + "-" + t) {
+				@Override
+				public void run() {
+					byte[] buf = new byte[1500];
+					RawPacket pkt = new RawPacket(buf, 0, 12 + PAYLOAD_LENGTH);
+					int seq = 0;
+					long count = 0;
+
+					buf[0] = (byte) 0x80;
+					pkt.setSSRC(0x1000 + index);
+					try {
+						start.await();
+					} catch (InterruptedException ie) {
+						return;
+					}
+					while (!stop.get()) {
+						pkt.setLength(12 + PAYLOAD_LENGTH);
+						pkt.setSequenceNumber(seq);
+						seq = (seq + 1) & 0xFFFF;
+						if (locked) {
+							synchronized (lock) {
+								transformer.transform(pkt);
+							}
+						} else {
+							transformer.transform(pkt);
+						}
+						count++;
+					}
+					counts[index] = count;
+				}
+			};
+			threads[t].start();
+		}
+
+		long startTime = System.nanoTime();
+
+		start.countDown();
+		Thread.sleep(seconds * 1000L);
+		stop.set(true);
+		for (Thread thread : threads)
+			thread.join();
+
+		long elapsed = System.nanoTime() - startTime;
+		long count = 0;
+
+		for (long c : counts)
+			count += c;
+		transformer.close();
+		return count * 1000000000L / elapsed;
+	}
+}
@@ -68,6 +68,7 @@ import org.jitsi.impl.neomedia.device.DeviceSystem;
 import org.jitsi.impl.neomedia.device.MediaDeviceImpl;
 import org.jitsi.impl.neomedia.device.ScreenDeviceImpl;
 import org.jitsi.impl.neomedia.device.VideoTranslatorMediaDevice;
+import org.jitsi.impl.neomedia.recording.PacketRecorderRtpImpl;
 import org.jitsi.impl.neomedia.recording.RecorderImpl;
 import org.jitsi.impl.neomedia.recording.RecorderRtpImpl;
 import org.jitsi.impl.neomedia.rtp.translator.RTPTranslatorImpl;
@@ -828,9 +829,16 @@ public class MediaServiceImpl extends PropertyChangeNotifier implements MediaSer
 
 	/**
 	 * {@inheritDoc}
+	 *
+	 * Records the media without decoding it (into a single WebM file) if
+	 * {@link PacketRecorderRtpImpl#ENABLE_PNAME} is set.
 	 */
 	@Override
 	public Recorder createRecorder(RTPTranslator translator) {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		if ((cfg != null) && cfg.getBoolean(PacketRecorderRtpImpl.ENABLE_PNAME, false))
+			return new PacketRecorderRtpImpl(translator);
 		return new RecorderRtpImpl(translator);
 	}
 
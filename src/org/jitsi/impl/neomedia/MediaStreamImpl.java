@@ -75,6 +75,7 @@ import org.jitsi.impl.neomedia.device.ReceiveStreamPushBufferDataSource;
 import org.jitsi.impl.neomedia.device.VideoMediaDeviceSession;
 import org.jitsi.impl.neomedia.protocol.TranscodingDataSource;
 import org.jitsi.impl.neomedia.rtp.StreamRTPManager;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RecurringProcessibleExecutor;
 import org.jitsi.impl.neomedia.rtp.translator.RTPTranslatorImpl;
 import org.jitsi.impl.neomedia.transform.AbsSendTimeEngine;
 import org.jitsi.impl.neomedia.transform.REDTransformEngine;
@@ -84,6 +85,7 @@ import org.jitsi.impl.neomedia.transform.TransformEngine;
 import org.jitsi.impl.neomedia.transform.TransformEngineChain;
 import org.jitsi.impl.neomedia.transform.TransformTCPOutputStream;
 import org.jitsi.impl.neomedia.transform.TransformUDPOutputStream;
+import org.jitsi.impl.neomedia.transform.TransportCCEngine;
 import org.jitsi.impl.neomedia.transform.csrc.CsrcTransformEngine;
 import org.jitsi.impl.neomedia.transform.csrc.SsrcTransformEngine;
 import org.jitsi.impl.neomedia.transform.dtmf.DtmfTransformEngine;
@@ -130,6 +132,12 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	 */
 	protected static final String PROPERTY_NAME_RECEIVE_BUFFER_LENGTH = "net.java.sip.communicator.impl.neomedia.RECEIVE_BUFFER_LENGTH";
 
+	/**
+	 * The <tt>RecurringProcessibleExecutor</tt> to be utilized by the
+	 * <tt>MediaStreamImpl</tt> class and its instances.
+	 */
+	protected static final RecurringProcessibleExecutor recurringProcessibleExecutor = new RecurringProcessibleExecutor();
+
 	/**
 	 * Returns a human-readable representation of a specific <tt>DataSource</tt>
 	 * instance in the form of a <tt>String</tt> value.
@@ -324,6 +332,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	 */
 	private SSRCFactory ssrcFactory = new SSRCFactoryImpl(localSourceID);
 
+	/**
+	 * The <tt>TransportCCEngine</tt> that this instance uses.
+	 */
+	private TransportCCEngine transportCCEngine;
+
 	/**
 	 * The indicator which determines whether {@link #start()} has been called
 	 * on this <tt>MediaStream</tt> without {@link #stop()} or {@link #close()}.
@@ -344,6 +357,12 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	 */
 	private StatisticsEngine statisticsEngine = null;
 
+	/**
+	 * The <tt>TransformEngineChain</tt> last created for the
+	 * <tt>RTPConnector</tt> of this instance.
+	 */
+	private TransformEngineChain transformEngineChain;
+
 	/**
 	 * Initializes a new <tt>MediaStreamImpl</tt> instance which will use the
 	 * specified <tt>MediaDevice</tt> for both capture and playback of media.
@@ -398,11 +417,12 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 
 		this.srtpControl.registerUser(this);
 
+		// before the connector because its transform engines report to it
+		this.mediaStreamStatsImpl = new MediaStreamStatsImpl(this);
+
 		if (connector != null)
 			setConnector(connector);
 
-		this.mediaStreamStatsImpl = new MediaStreamStatsImpl(this);
-
 		if (logger.isTraceEnabled()) {
 			logger.trace("Created " + getClass().getSimpleName() + " with hashCode " + hashCode());
 		}
@@ -584,6 +604,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 		stop();
 		closeSendStreams();
 
+		// Deregister the TransportCCEngine which periodically sends
+		// transport-wide congestion control feedback.
+		if (transportCCEngine != null)
+			recurringProcessibleExecutor.deRegisterRecurringProcessible(transportCCEngine);
+
 		srtpControl.cleanup(this);
 
 		if (csrcEngine != null) {
@@ -657,6 +682,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	 */
 	protected void configureDataInputStream(RTPConnectorInputStream<?> dataInputStream) {
 		dataInputStream.setPriority(getPriority());
+
+		MediaStreamStatsImpl mediaStreamStatsImpl = this.mediaStreamStatsImpl;
+
+		if (mediaStreamStatsImpl != null)
+			dataInputStream.setPacketPathLatencies(mediaStreamStatsImpl.getPacketPathLatencies());
 	}
 
 	/**
@@ -671,6 +701,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	 */
 	protected void configureDataOutputStream(RTPConnectorOutputStream dataOutputStream) {
 		dataOutputStream.setPriority(getPriority());
+
+		MediaStreamStatsImpl mediaStreamStatsImpl = this.mediaStreamStatsImpl;
+
+		if (mediaStreamStatsImpl != null)
+			dataOutputStream.setPacketPathLatencies(mediaStreamStatsImpl.getPacketPathLatencies());
 	}
 
 	/**
@@ -819,8 +854,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 
 		// FEC
 		FECTransformEngine fecTransformEngine = getFecTransformEngine();
-		if (fecTransformEngine != null)
+		if (fecTransformEngine != null) {
 			engineChain.add(fecTransformEngine);
+			// the protection adapts to the loss in the received RTCP
+			mediaStreamStatsImpl.getRTCPReports().addRTCPReportListener(fecTransformEngine.getRTCPReportListener());
+		}
 
 		// RED
 		REDTransformEngine redTransformEngine = getRedTransformEngine();
@@ -832,6 +870,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 		if (absSendTimeEngine != null)
 			engineChain.add(absSendTimeEngine);
 
+		// transport-cc
+		TransportCCEngine transportCCEngine = getTransportCCEngine();
+		if (transportCCEngine != null)
+			engineChain.add(transportCCEngine);
+
 		// SRTP
 		engineChain.add(srtpControl.getTransformEngine());
 
@@ -845,7 +888,8 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 		if (ssrcEngine != null)
 			engineChain.add(ssrcEngine);
 
-		return new TransformEngineChain(engineChain.toArray(new TransformEngine[engineChain.size()]));
+		transformEngineChain = new TransformEngineChain(engineChain.toArray(new TransformEngine[engineChain.size()]));
+		return transformEngineChain;
 	}
 
 	/**
@@ -1041,6 +1085,29 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 		return absSendTimeEngine;
 	}
 
+	/**
+	 * Creates the <tt>TransportCCEngine</tt> for this <tt>MediaStream</tt>.
+	 * Allows extenders to observe the send-side bandwidth estimation.
+	 * 
+	 * @return the <tt>TransportCCEngine</tt> for this <tt>MediaStream</tt>.
+	 */
+	protected TransportCCEngine createTransportCCEngine() {
+		return new TransportCCEngine(this, null);
+	}
+
+	/**
+	 * Returns the <tt>TransportCCEngine</tt> for this <tt>MediaStream</tt>,
+	 * creating it if necessary.
+	 * 
+	 * @return the <tt>TransportCCEngine</tt> for this <tt>MediaStream</tt>.
+	 */
+	protected TransportCCEngine getTransportCCEngine() {
+		if (transportCCEngine == null) {
+			transportCCEngine = createTransportCCEngine();
+		}
+		return transportCCEngine;
+	}
+
 	/**
 	 * Returns the ID currently assigned to a specific RTP extension.
 	 * 
@@ -1720,6 +1787,20 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 		StringBuilder buff = new StringBuilder("\nReceive stream stats: discarded RTP packets: ").append(mediaStreamStatsImpl.getNbDiscarded()).append("\nReceive stream stats: decoded with FEC: ").append(mediaStreamStatsImpl.getNbFec());
 
 		logger.info(buff);
+
+		String packetPathLatencies = mediaStreamStatsImpl.dumpPacketPathLatencies();
+
+		if (packetPathLatencies != null)
+			logger.info(packetPathLatencies);
+
+		TransformEngineChain transformEngineChain = this.transformEngineChain;
+
+		if (transformEngineChain != null) {
+			String engineTimes = transformEngineChain.dumpEngineTimes();
+
+			if (engineTimes != null)
+				logger.info(engineTimes);
+		}
 	}
 
 	/**
@@ -1848,6 +1929,11 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	protected void rtpConnectorChanged(AbstractRTPConnector oldValue, AbstractRTPConnector newValue) {
 		srtpControl.setConnector(newValue);
 
+		TransportCCEngine transportCCEngine = getTransportCCEngine();
+
+		if (transportCCEngine != null)
+			transportCCEngine.setConnector(newValue);
+
 		if (newValue != null) {
 			/*
 			 * Register the transform engines that we will be using in this
@@ -1904,6 +1990,17 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 			absSendTimeEngine.setExtensionID(id);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setTransportCCExtensionID(int id) {
+		TransportCCEngine transportCCEngine = getTransportCCEngine();
+
+		if (transportCCEngine != null)
+			transportCCEngine.setExtensionID(id);
+	}
+
 	/**
 	 * Sets the <tt>StreamConnector</tt> to be used by this instance for sending
 	 * and receiving media.
@@ -2060,6 +2157,7 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 				if (format != null)
 					deviceSession.setFormat(format);
 				deviceSession.setMute(mute);
+				deviceSession.setPacketPathLatencies(mediaStreamStatsImpl.getPacketPathLatencies());
 			}
 			deviceSessionChanged(oldValue, deviceSession);
 			if (deviceSession != null) {
@@ -2298,6 +2396,13 @@ public class MediaStreamImpl extends AbstractMediaStream implements ReceiveStrea
 	public void start() {
 		start(getDirection());
 		started = true;
+
+		// Register the TransportCCEngine which periodically sends
+		// transport-wide congestion control feedback.
+		TransportCCEngine transportCCEngine = getTransportCCEngine();
+
+		if (transportCCEngine != null)
+			recurringProcessibleExecutor.registerRecurringProcessible(transportCCEngine);
 	}
 
 	/**
@@ -31,15 +31,20 @@ import org.jitsi.impl.neomedia.device.MediaDeviceSession;
 import org.jitsi.impl.neomedia.device.VideoMediaDeviceSession;
 import org.jitsi.impl.neomedia.rtp.StreamRTPManager;
 import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.CallStatsObserver;
+import org.jitsi.impl.neomedia.transform.TransportCCEngine;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
 import org.jitsi.service.neomedia.MediaStream;
 import org.jitsi.service.neomedia.MediaStreamStats;
 import org.jitsi.service.neomedia.MediaStreamTarget;
+import org.jitsi.service.neomedia.PacketPathStage;
 import org.jitsi.service.neomedia.VideoMediaStream;
 import org.jitsi.service.neomedia.control.FECDecoderControl;
 import org.jitsi.service.neomedia.rtp.RTCPReportAdapter;
 import org.jitsi.service.neomedia.rtp.RTCPReportListener;
 import org.jitsi.service.neomedia.rtp.RTCPReports;
 import org.jitsi.service.neomedia.rtp.RemoteBitrateEstimator;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
@@ -64,6 +69,20 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 	 */
 	private static final Logger logger = Logger.getLogger(MediaStreamStatsImpl.class);
 
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the interval in milliseconds at which {@link #updateStats()} logs the
+	 * packet path latencies. The default is <tt>0</tt> i.e. never.
+	 */
+	private static final String PACKET_PATH_LATENCY_DUMP_INTERVAL_PNAME = MediaStreamStatsImpl.class.getName() + ".packetPathLatencyDumpInterval";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which indicates
+	 * whether the latencies of the stages of the packet path are to be
+	 * measured. The default is <tt>false</tt>.
+	 */
+	private static final String PACKET_PATH_LATENCY_PNAME = MediaStreamStatsImpl.class.getName() + ".packetPathLatency";
+
 	/**
 	 * Computes an Exponentially Weighted Moving Average (EWMA). Thus, the most
 	 * recent history has a more preponderant importance in the average
@@ -181,6 +200,25 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 	 */
 	private double percentDiscarded = 0;
 
+	/**
+	 * The interval in milliseconds at which {@link #updateStats()} logs the
+	 * packet path latencies or <tt>0</tt> if it is not to log them.
+	 */
+	private final long packetPathLatencyDumpInterval;
+
+	/**
+	 * The time in milliseconds at which the packet path latencies were last
+	 * logged.
+	 */
+	private long packetPathLatencyDumpTime;
+
+	/**
+	 * The histograms of the latencies in microseconds of the stages of the
+	 * packet path indexed by the ordinals of the <tt>PacketPathStage</tt>s or
+	 * <tt>null</tt> if the measurement is disabled.
+	 */
+	private final LatencyHistogram[] packetPathLatencies;
+
 	/**
 	 * The last download/upload loss rate computed (in %).
 	 */
@@ -264,6 +302,21 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 		getRTCPReports().addRTCPReportListener(rtcpReportListener);
 
 		updateTimeMs = System.currentTimeMillis();
+
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		if ((cfg != null) && cfg.getBoolean(PACKET_PATH_LATENCY_PNAME, false)) {
+			PacketPathStage[] stages = PacketPathStage.values();
+
+			packetPathLatencies = new LatencyHistogram[stages.length];
+			for (int i = 0; i < stages.length; i++)
+				packetPathLatencies[i] = new LatencyHistogram();
+			packetPathLatencyDumpInterval = cfg.getLong(PACKET_PATH_LATENCY_DUMP_INTERVAL_PNAME, 0L);
+			packetPathLatencyDumpTime = updateTimeMs;
+		} else {
+			packetPathLatencies = null;
+			packetPathLatencyDumpInterval = 0L;
+		}
 	}
 
 	/**
@@ -748,6 +801,52 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 		return percentDiscarded;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public LatencyHistogram getPacketPathLatency(PacketPathStage stage) {
+		LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+
+		return (packetPathLatencies == null) ? null : packetPathLatencies[stage.ordinal()];
+	}
+
+	/**
+	 * Gets the histograms of the latencies in microseconds of the stages of
+	 * the packet path for the purposes of recording them on the hot path.
+	 * 
+	 * @return the histograms of the latencies of the stages of the packet path
+	 *         indexed by the ordinals of the <tt>PacketPathStage</tt>s or
+	 *         <tt>null</tt> if the measurement is disabled
+	 */
+	LatencyHistogram[] getPacketPathLatencies() {
+		return packetPathLatencies;
+	}
+
+	/**
+	 * Gets a <tt>String</tt> representation of the latencies of the stages of
+	 * the packet path suitable for logging.
+	 * 
+	 * @return a <tt>String</tt> representation of the latencies of the stages
+	 *         of the packet path or <tt>null</tt> if the measurement is
+	 *         disabled
+	 */
+	public String dumpPacketPathLatencies() {
+		LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+
+		if (packetPathLatencies == null)
+			return null;
+
+		StringBuilder s = new StringBuilder("packet path latencies (us) of stream ");
+		PacketPathStage[] stages = PacketPathStage.values();
+
+		s.append(mediaStreamImpl.hashCode());
+		for (int i = 0; i < stages.length; i++) {
+			s.append("\n\t").append(stages[i]).append(": ").append(packetPathLatencies[i]).append(" p50=").append(packetPathLatencies[i].getPercentile(50)).append(" p99=").append(packetPathLatencies[i].getPercentile(99));
+		}
+		return s.toString();
+	}
+
 	/**
 	 * Returns the remote IP address of the MediaStream.
 	 * 
@@ -879,6 +978,12 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 						((CallStatsObserver) remoteBitrateEstimator).onRttUpdate(rttMs);
 					}
 				}
+
+				// SendSideBandwidthEstimation is a CallStatsObserver as well.
+				TransportCCEngine transportCCEngine = mediaStreamImpl.getTransportCCEngine();
+
+				if (transportCCEngine != null)
+					transportCCEngine.getBandwidthEstimation().onRttUpdate(rttMs);
 			}
 		}
 	}
@@ -1010,6 +1115,12 @@ public class MediaStreamStatsImpl implements MediaStreamStats {
 		updateStreamDirectionStats(StreamDirection.UPLOAD, currentTimeMs);
 		// Saves the last update values.
 		updateTimeMs = currentTimeMs;
+
+		if ((packetPathLatencyDumpInterval > 0L) && (currentTimeMs - packetPathLatencyDumpTime >= packetPathLatencyDumpInterval)) {
+			packetPathLatencyDumpTime = currentTimeMs;
+			if (logger.isInfoEnabled())
+				logger.info(dumpPacketPathLatencies());
+		}
 	}
 
 	/**
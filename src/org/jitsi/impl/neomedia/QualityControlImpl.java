@@ -43,6 +43,12 @@ class QualityControlImpl implements QualityControl {
 	 */
 	private QualityPreset preset;
 
+	/**
+	 * The target send bitrate in bits per second computed by the send-side
+	 * bandwidth estimation or <tt>-1</tt> if there is no estimate yet.
+	 */
+	private long targetSendBitrate = -1L;
+
 	/**
 	 * Sets the preset.
 	 * 
@@ -129,6 +135,29 @@ class QualityControlImpl implements QualityControl {
 		return localSettingsPreset;
 	}
 
+	/**
+	 * Gets the target send bitrate computed by the send-side bandwidth
+	 * estimation.
+	 * 
+	 * @return the target send bitrate in bits per second or <tt>-1</tt> if
+	 *         there is no estimate yet
+	 */
+	public long getTargetSendBitrate() {
+		return targetSendBitrate;
+	}
+
+	/**
+	 * Sets the target send bitrate computed by the send-side bandwidth
+	 * estimation. The bitrate is applied to the video encoders by the
+	 * <tt>VideoMediaStreamImpl</tt> and does not affect the presets.
+	 * 
+	 * @param bitrateBps
+	 *            the target send bitrate in bits per second
+	 */
+	void setTargetSendBitrate(long bitrateBps) {
+		targetSendBitrate = bitrateBps;
+	}
+
 	/**
 	 * Sets maximum resolution.
 	 * 
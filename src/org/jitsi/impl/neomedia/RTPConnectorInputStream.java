@@ -26,7 +26,9 @@ import net.sf.fmj.media.util.MediaThread;
 import org.ice4j.socket.DatagramPacketFilter;
 import org.jitsi.impl.neomedia.protocol.PushBufferStreamAdapter;
 import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.service.neomedia.PacketPathStage;
 import org.jitsi.service.packetlogging.PacketLoggingService;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 import org.jitsi.util.OSUtils;
 
@@ -136,6 +138,13 @@ public abstract class RTPConnectorInputStream<T> implements PushSourceStream {
 	 */
 	private long numberOfReceivedBytes = 0;
 
+	/**
+	 * The histograms of the latencies in microseconds of the stages of the
+	 * packet path indexed by the ordinals of the <tt>PacketPathStage</tt>s or
+	 * <tt>null</tt> if the latencies are not to be measured.
+	 */
+	private volatile LatencyHistogram[] packetPathLatencies;
+
 	/**
 	 * The packet data to be read out of this instance through its
 	 * {@link #read(byte[], int, int)} method.
@@ -678,16 +687,27 @@ public abstract class RTPConnectorInputStream<T> implements PushSourceStream {
 
 			numberOfReceivedBytes += (long) p.getLength();
 
+			LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+			long packetPathTime = (packetPathLatencies == null) ? 0L : System.nanoTime();
+
 			// Do the DatagramPacketFilters accept the received DatagramPacket?
 			if (accept(p)) {
 				RawPacket[] pkts = createRawPacket(p);
 
+				if (packetPathLatencies != null) {
+					long now = System.nanoTime();
+
+					packetPathLatencies[PacketPathStage.RECEIVE_TRANSFORM.ordinal()].record((now - packetPathTime) / 1000L);
+					packetPathTime = now;
+				}
 				try {
 					updateDatagramPacketListeners(p);
 					transferData(pkts);
 				} finally {
 					rawPacketArrayPool.offer(pkts);
 				}
+				if (packetPathLatencies != null)
+					packetPathLatencies[PacketPathStage.RECEIVE_DELIVERY.ordinal()].record((System.nanoTime() - packetPathTime) / 1000L);
 			}
 		}
 	}
@@ -706,6 +726,20 @@ public abstract class RTPConnectorInputStream<T> implements PushSourceStream {
 		this.enabled = enabled;
 	}
 
+	/**
+	 * Sets the histograms in which the latencies of the stages of the receive
+	 * packet path are to be recorded.
+	 * 
+	 * @param packetPathLatencies
+	 *            the histograms of the latencies in microseconds of the stages
+	 *            of the packet path indexed by the ordinals of the
+	 *            <tt>PacketPathStage</tt>s or <tt>null</tt> if the latencies
+	 *            are not to be measured
+	 */
+	public void setPacketPathLatencies(LatencyHistogram[] packetPathLatencies) {
+		this.packetPathLatencies = packetPathLatencies;
+	}
+
 	/**
 	 * Changes current thread priority.
 	 * 
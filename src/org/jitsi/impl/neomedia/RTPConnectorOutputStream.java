@@ -19,7 +19,9 @@ import java.util.concurrent.locks.LockSupport;
 import javax.media.rtp.OutputDataStream;
 
 import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.service.neomedia.PacketPathStage;
 import org.jitsi.service.packetlogging.PacketLoggingService;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
@@ -88,6 +90,13 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream {
 	 */
 	private long numberOfBytesSent = 0;
 
+	/**
+	 * The histograms of the latencies in microseconds of the stages of the
+	 * packet path indexed by the ordinals of the <tt>PacketPathStage</tt>s or
+	 * <tt>null</tt> if the latencies are not to be measured.
+	 */
+	private volatile LatencyHistogram[] packetPathLatencies;
+
 	/**
 	 * Initializes a new <tt>RTPConnectorOutputStream</tt> which is to send
 	 * packet data out through a specific socket.
@@ -302,6 +311,18 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream {
 				return false;
 			}
 		}
+
+		LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+
+		if (packetPathLatencies != null) {
+			long packetPathTime = packet.getPacketPathTime();
+
+			if (packetPathTime != 0L) {
+				packetPathLatencies[PacketPathStage.SEND_SOCKET.ordinal()].record((System.nanoTime() - packetPathTime) / 1000L);
+				packet.setPacketPathTime(0L);
+			}
+		}
+
 		rawPacketPool.offer(packet);
 		return true;
 	}
@@ -364,8 +385,22 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream {
 		if (!enabled)
 			return length;
 
+		LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+		long packetPathTime = (packetPathLatencies == null) ? 0L : System.nanoTime();
+
 		// get the array of RawPackets we need to send
 		RawPacket[] pkts = createRawPacket(buffer, offset, length);
+
+		if (packetPathLatencies != null) {
+			long now = System.nanoTime();
+
+			packetPathLatencies[PacketPathStage.SEND_TRANSFORM.ordinal()].record((now - packetPathTime) / 1000L);
+			for (RawPacket pkt : pkts) {
+				if (pkt != null)
+					pkt.setPacketPathTime(now);
+			}
+		}
+
 		boolean fail = false;
 		for (int i = 0; i < pkts.length; i++) {
 			RawPacket pkt = pkts[i];
@@ -395,6 +430,20 @@ public abstract class RTPConnectorOutputStream implements OutputDataStream {
 		return fail ? -1 : length;
 	}
 
+	/**
+	 * Sets the histograms in which the latencies of the stages of the send
+	 * packet path are to be recorded.
+	 * 
+	 * @param packetPathLatencies
+	 *            the histograms of the latencies in microseconds of the stages
+	 *            of the packet path indexed by the ordinals of the
+	 *            <tt>PacketPathStage</tt>s or <tt>null</tt> if the latencies
+	 *            are not to be measured
+	 */
+	public void setPacketPathLatencies(LatencyHistogram[] packetPathLatencies) {
+		this.packetPathLatencies = packetPathLatencies;
+	}
+
 	/**
 	 * Changes current thread priority.
 	 * 
@@ -6,6 +6,8 @@
  */
 package org.jitsi.impl.neomedia;
 
+import java.util.Arrays;
+
 /**
  * When using TransformConnector, a RTP/RTCP packet is represented using
  * RawPacket. RawPacket stores the buffer holding the RTP/RTCP packet, as well
@@ -40,6 +42,29 @@ public class RawPacket {
 	 */
 	private byte[] buffer;
 
+	/**
+	 * The number of the RFC 5285 header extension elements of this packet
+	 * indexed in {@link #extensions} or <tt>-1</tt> if the header of this
+	 * packet has not been indexed since it was last changed.
+	 */
+	private int extensionCount = -1;
+
+	/**
+	 * The index of the RFC 5285 header extension elements of this packet. Each
+	 * element is described by an <tt>int</tt> which packs (from the most
+	 * significant bits) its 8-bit ID, the 8-bit length of its data and the
+	 * 16-bit offset of its data relative to {@link #offset}.
+	 */
+	private int[] extensions;
+
+	/**
+	 * The offset relative to {@link #offset} of the first byte after the last
+	 * element indexed in {@link #extensions}. The bytes from there to the end
+	 * of the header extension are padding which new elements may be written
+	 * in.
+	 */
+	private int extensionsEnd;
+
 	/**
 	 * The bitmap/flag mask that specifies the set of boolean attributes enabled
 	 * for this <tt>RawPacket</tt>. The value is the logical sum of all of the
@@ -60,6 +85,67 @@ public class RawPacket {
 	 */
 	private int offset;
 
+	/**
+	 * The value of {@link System#nanoTime()} at which this packet completed
+	 * the last measured stage of its path. Maintained only while the packet
+	 * path latencies of a stream are being measured.
+	 */
+	private long packetPathTime;
+
+	/**
+	 * Returns the offset in a specific buffer of the data of the RFC 5285
+	 * one-byte header extension with a specific ID of the RTP packet in the
+	 * buffer.
+	 * 
+	 * @param buf
+	 *            the buffer which contains the RTP packet
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTP packet starts
+	 * @param len
+	 *            the length of the RTP packet in <tt>buf</tt>
+	 * @param extensionID
+	 *            the ID of the header extension to find
+	 * @return the offset in <tt>buf</tt> of the data of the header extension
+	 *         or <tt>-1</tt> if the RTP packet does not contain such a
+	 *         complete header extension
+	 */
+	public static int findOneByteHeaderExtension(byte[] buf, int off, int len, int extensionID) {
+		int end = off + len;
+
+		if (len < FIXED_HEADER_SIZE || (buf[off] & 0x10) == 0)
+			return -1;
+
+		int extOff = off + FIXED_HEADER_SIZE + (buf[off] & 0x0F) * 4;
+
+		if (extOff + EXT_HEADER_SIZE > end || buf[extOff] != (byte) 0xBE || buf[extOff + 1] != (byte) 0xDE)
+			return -1;
+
+		int extEnd = extOff + EXT_HEADER_SIZE + (((buf[extOff + 2] & 0xFF) << 8) | (buf[extOff + 3] & 0xFF)) * 4;
+
+		if (extEnd > end)
+			extEnd = end;
+		extOff += EXT_HEADER_SIZE;
+		while (extOff < extEnd) {
+			int b = buf[extOff] & 0xFF;
+
+			if (b == 0) {
+				// padding
+				extOff++;
+				continue;
+			}
+
+			int id = b >> 4;
+			int dataLen = (b & 0x0F) + 1;
+
+			if (id == 15)
+				break;
+			if (id == extensionID)
+				return (extOff + 1 + dataLen <= extEnd) ? extOff + 1 : -1;
+			extOff += 1 + dataLen;
+		}
+		return -1;
+	}
+
 	/**
 	 * Initializes a new empty <tt>RawPacket</tt> instance.
 	 */
@@ -165,6 +251,7 @@ public class RawPacket {
 
 		buffer = newBuffer;
 		this.length = newBufferOffset - offset;
+		extensionCount = -1;
 	}
 
 	/**
@@ -298,59 +385,30 @@ public class RawPacket {
 	 *         found.
 	 */
 	private int findExtension(int extensionID) {
-		if (!getExtensionBit() || getExtensionLength() == 0)
-			return 0;
-
-		int extOffset = offset + FIXED_HEADER_SIZE + getCsrcCount() * 4 + EXT_HEADER_SIZE;
-
-		int extensionEnd = extOffset + getExtensionLength();
-		int extHdrLen = getExtensionHeaderLength();
-
-		if (extHdrLen != 1 && extHdrLen != 2) {
-			return -1;
-		}
-
-		while (extOffset < extensionEnd) {
-			int currType = -1;
-			int currLen = -1;
+		int i = findExtensionIndex(extensionID);
 
-			if (extHdrLen == 1) {
-				// short header. type is in the lefter 4 bits and length is on
-				// the right; like this:
-				// 0
-				// 0 1 2 3 4 5 6 7
-				// +-+-+-+-+-+-+-+-+
-				// | ID | len |
-				// +-+-+-+-+-+-+-+-+
-
-				currType = buffer[extOffset] >> 4;
-				currLen = (buffer[extOffset] & 0x0F) + 1; // add one as per 5285
-
-				// now skip the header
-				extOffset++;
-			} else {
-				// long header. type is in the first byte and length is in the
-				// second
-				// 0 1
-				// 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5
-				// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
-				// | ID | length |
-				// +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
-
-				currType = buffer[extOffset];
-				currLen = buffer[extOffset + 1];
-
-				// now skip the header
-				extOffset += 2;
-			}
+		return (i == -1) ? -1 : (offset + (extensions[i] & 0xFFFF));
+	}
 
-			if (currType == extensionID) {
-				return extOffset;
-			}
+	/**
+	 * Returns the index in {@link #extensions} of the header extension element
+	 * with a specific ID, indexing the header of this packet first if
+	 * necessary.
+	 * 
+	 * @param extensionID
+	 *            the ID of the extension element to find
+	 * @return the index in <tt>extensions</tt> of the extension element with
+	 *         the specified <tt>extensionID</tt> or <tt>-1</tt> if there is no
+	 *         such element
+	 */
+	private int findExtensionIndex(int extensionID) {
+		if (extensionCount == -1)
+			indexExtensions();
 
-			extOffset += currLen;
+		for (int i = 0; i < extensionCount; i++) {
+			if ((extensions[i] >>> 24) == extensionID)
+				return i;
 		}
-
 		return -1;
 	}
 
@@ -380,18 +438,16 @@ public class RawPacket {
 	private byte getCsrcAudioLevel(byte csrcExtID, int index, byte defaultValue) {
 		byte level = defaultValue;
 
-		if (getExtensionBit() && getExtensionLength() != 0) {
-			int levelsStart = findExtension(csrcExtID);
+		int i = findExtensionIndex(csrcExtID);
 
-			if (levelsStart != -1) {
-				int levelsCount = getLengthForExtension(levelsStart);
+		if (i != -1) {
+			int levelsCount = (extensions[i] >>> 16) & 0xFF;
 
-				if (levelsCount < index) {
-					// apparently the remote side sent more CSRCs than levels.
-					// ... yeah remote sides do that now and then ...
-				} else {
-					level = (byte) (0x7F & buffer[levelsStart + index]);
-				}
+			if (levelsCount <= index) {
+				// apparently the remote side sent more CSRCs than levels.
+				// ... yeah remote sides do that now and then ...
+			} else {
+				level = (byte) (0x7F & buffer[offset + (extensions[i] & 0xFFFF) + index]);
 			}
 		}
 		return level;
@@ -461,6 +517,39 @@ public class RawPacket {
 		return ((buffer[extLenIndex] << 8) | (buffer[extLenIndex + 1] & 0xFF)) * 4;
 	}
 
+	/**
+	 * Returns the length of the data of the RFC 5285 header extension element
+	 * with a specific ID of this packet.
+	 * 
+	 * @param extensionID
+	 *            the ID of the extension element
+	 * @return the length of the data of the extension element with the
+	 *         specified <tt>extensionID</tt> or <tt>-1</tt> if this packet
+	 *         contains no such element
+	 */
+	public int getExtensionDataLength(int extensionID) {
+		int i = findExtensionIndex(extensionID);
+
+		return (i == -1) ? -1 : ((extensions[i] >>> 16) & 0xFF);
+	}
+
+	/**
+	 * Returns the offset in the buffer of this packet of the data of the RFC
+	 * 5285 header extension element with a specific ID. The header extension
+	 * of this packet is walked once and the result is cached until the header
+	 * is changed through this <tt>RawPacket</tt> so looking up elements many
+	 * times (e.g. by multiple <tt>TransformEngine</tt>s) is cheap.
+	 * 
+	 * @param extensionID
+	 *            the ID of the extension element
+	 * @return the offset in {@link #getBuffer()} of the data of the extension
+	 *         element with the specified <tt>extensionID</tt> or <tt>-1</tt> if
+	 *         this packet contains no such element
+	 */
+	public int getExtensionOffset(int extensionID) {
+		return findExtension(extensionID);
+	}
+
 	/**
 	 * Gets the bitmap/flag mask that specifies the set of boolean attributes
 	 * enabled for this <tt>RawPacket</tt>.
@@ -508,36 +597,24 @@ public class RawPacket {
 	}
 
 	/**
-	 * Returns the length of the header extension that is carrying the content
-	 * starting at <tt>contentStart</tt>. In other words this method checks the
-	 * size of extension headers in this packet and then either returns the
-	 * value of the byte right before <tt>contentStart</tt> or its lower 4 bits.
-	 * This is a very basic method so if you are using it - make sure u know
-	 * what you are doing.
-	 * 
-	 * @param contentStart
-	 *            the index of the first element of the content of the extension
-	 *            whose size we are trying to obtain.
+	 * Get the start offset of this packet's data inside storing buffer
 	 * 
-	 * @return the length of the extension carrying the content starting at
-	 *         <tt>contentStart</tt>.
+	 * @return start offset of this packet's data inside storing buffer
 	 */
-	private int getLengthForExtension(int contentStart) {
-		int hdrLen = getExtensionHeaderLength();
-
-		if (hdrLen == 1)
-			return (buffer[contentStart - 1] & 0x0F) + 1;
-		else
-			return buffer[contentStart - 1];
+	public int getOffset() {
+		return this.offset;
 	}
 
 	/**
-	 * Get the start offset of this packet's data inside storing buffer
+	 * Gets the value of {@link System#nanoTime()} at which this packet
+	 * completed the last measured stage of its path.
 	 * 
-	 * @return start offset of this packet's data inside storing buffer
+	 * @return the value of <tt>System.nanoTime()</tt> at which this packet
+	 *         completed the last measured stage of its path or <tt>0</tt> if
+	 *         it is not known
 	 */
-	public int getOffset() {
-		return this.offset;
+	public long getPacketPathTime() {
+		return packetPathTime;
 	}
 
 	/**
@@ -657,6 +734,72 @@ public class RawPacket {
 		buffer = newBuffer;
 	}
 
+	/**
+	 * Walks the RFC 5285 header extension of this packet (if any) and indexes
+	 * its elements in {@link #extensions}.
+	 */
+	private void indexExtensions() {
+		extensionCount = 0;
+		extensionsEnd = 0;
+		if ((buffer == null) || (length < FIXED_HEADER_SIZE) || !getExtensionBit())
+			return;
+
+		int extHdrOff = FIXED_HEADER_SIZE + getCsrcCount() * 4;
+
+		if (extHdrOff + EXT_HEADER_SIZE > length)
+			return;
+
+		int extHdrLen = getExtensionHeaderLength();
+
+		if (extHdrLen != 1 && extHdrLen != 2)
+			return;
+
+		int off = extHdrOff + EXT_HEADER_SIZE;
+		int end = Math.min(off + getExtensionLength(), length);
+
+		extensionsEnd = off;
+		while (off < end) {
+			int b = buffer[offset + off] & 0xFF;
+
+			if (b == 0) {
+				// padding
+				off++;
+				continue;
+			}
+
+			int id;
+			int len;
+
+			if (extHdrLen == 1) {
+				id = b >> 4;
+				len = (b & 0x0F) + 1; // add one as per 5285
+				if (id == 15)
+					break;
+				off++;
+			} else {
+				if (off + 1 >= end)
+					break;
+				id = b;
+				len = buffer[offset + off + 1] & 0xFF;
+				off += 2;
+			}
+			if (off + len > end)
+				break;
+
+			if (extensions == null)
+				extensions = new int[4];
+			else if (extensions.length == extensionCount) {
+				int[] newExtensions = new int[2 * extensionCount];
+
+				System.arraycopy(extensions, 0, newExtensions, 0, extensionCount);
+				extensions = newExtensions;
+			}
+			extensions[extensionCount++] = (id << 24) | (len << 16) | off;
+			off += len;
+			extensionsEnd = off;
+		}
+	}
+
 	/**
 	 * Perform checks on the packet represented by this instance and return
 	 * <tt>true</tt> if it is found to be invalid. A return value of
@@ -810,6 +953,37 @@ public class RawPacket {
 		this.length -= extHeaderLen;
 
 		setExtensionBit(false);
+		extensionCount = -1;
+	}
+
+	/**
+	 * Removes the RFC 5285 header extension element with a specific ID from
+	 * this packet in place. The element is overwritten with padding or, if it
+	 * is the only element, the header extension is removed altogether.
+	 * 
+	 * @param extensionID
+	 *            the ID of the extension element to remove
+	 * @return <tt>true</tt> if this packet contained an extension element with
+	 *         the specified <tt>extensionID</tt>; otherwise, <tt>false</tt>
+	 */
+	public boolean removeExtension(int extensionID) {
+		int i = findExtensionIndex(extensionID);
+
+		if (i == -1)
+			return false;
+
+		if (extensionCount == 1) {
+			removeExtension();
+			return true;
+		}
+
+		int dataOff = offset + (extensions[i] & 0xFFFF);
+		int hdrLen = (getExtensionHeaderLength() == 1) ? 1 : 2;
+
+		Arrays.fill(buffer, dataOff - hdrLen, dataOff + ((extensions[i] >>> 16) & 0xFF), (byte) 0);
+		extensionCount--;
+		System.arraycopy(extensions, i + 1, extensions, i, extensionCount - i);
+		return true;
 	}
 
 	/**
@@ -818,6 +992,7 @@ public class RawPacket {
 	 */
 	public void setBuffer(byte[] buffer) {
 		this.buffer = buffer;
+		extensionCount = -1;
 	}
 
 	/**
@@ -873,6 +1048,124 @@ public class RawPacket {
 
 		this.buffer = newBuffer;
 		this.length = payloadOffsetForNewBuff + length - payloadOffsetForOldBuff - offset;
+		extensionCount = -1;
+	}
+
+	/**
+	 * Sets the data of the RFC 5285 header extension element with a specific ID
+	 * of this packet, adding the element if this packet does not contain it
+	 * yet. The data of an existing element of the same length is overwritten
+	 * in place. A new element is written in the padding at the end of the
+	 * header extension if there is enough of it; otherwise, the header
+	 * extension is grown in place, moving the payload, and the buffer of this
+	 * packet is reallocated only if it is too small. A header extension added
+	 * by this method uses the one-byte format unless the element does not fit
+	 * in it.
+	 * 
+	 * @param extensionID
+	 *            the ID of the extension element to set
+	 * @param data
+	 *            the data of the extension element
+	 * @param off
+	 *            the offset in <tt>data</tt> at which the data starts
+	 * @param len
+	 *            the length of the data
+	 * @return <tt>true</tt> if the extension element was set; <tt>false</tt>
+	 *         if it cannot be represented in the (one-byte or two-byte) header
+	 *         extension of this packet
+	 */
+	public boolean setExtension(int extensionID, byte[] data, int off, int len) {
+		int i = findExtensionIndex(extensionID);
+
+		if ((i != -1) && (((extensions[i] >>> 16) & 0xFF) == len)) {
+			System.arraycopy(data, off, buffer, offset + (extensions[i] & 0xFFFF), len);
+			return true;
+		}
+
+		if ((extensionID < 1) || (extensionID > 255) || (len < 0) || (len > 255))
+			return false;
+
+		boolean oneByte = (extensionID <= 14) && (len >= 1) && (len <= 16);
+
+		if (getExtensionBit()) {
+			int extHdrLen = getExtensionHeaderLength();
+
+			if ((extHdrLen == -1) || ((extHdrLen == 1) && !oneByte))
+				return false;
+		}
+		if (i != -1)
+			removeExtension(extensionID);
+
+		// The removal above may have removed the whole header extension.
+		boolean extensionBit = getExtensionBit();
+		int extHdrLen = extensionBit ? getExtensionHeaderLength() : (oneByte ? 1 : 2);
+		int elementLen = extHdrLen + len;
+		int extHdrOff = FIXED_HEADER_SIZE + getCsrcCount() * 4;
+		int extEnd = extensionBit ? (extHdrOff + EXT_HEADER_SIZE + getExtensionLength()) : extHdrOff;
+		int free = extensionBit ? (extEnd - extensionsEnd) : 0;
+
+		if (free < elementLen) {
+			// Grow the header extension by whole 32-bit words.
+			int growth = (elementLen - free + 3) & ~3;
+
+			if (!extensionBit)
+				growth += EXT_HEADER_SIZE;
+
+			int tailLen = length - extEnd;
+
+			if (offset + length + growth <= buffer.length) {
+				System.arraycopy(buffer, offset + extEnd, buffer, offset + extEnd + growth, tailLen);
+			} else {
+				byte[] newBuffer = new byte[offset + length + growth];
+
+				System.arraycopy(buffer, 0, newBuffer, 0, offset + extEnd);
+				System.arraycopy(buffer, offset + extEnd, newBuffer, offset + extEnd + growth, tailLen);
+				buffer = newBuffer;
+			}
+			Arrays.fill(buffer, offset + extEnd, offset + extEnd + growth, (byte) 0);
+			length += growth;
+
+			if (!extensionBit) {
+				if (extHdrLen == 1) {
+					buffer[offset + extHdrOff] = (byte) 0xBE;
+					buffer[offset + extHdrOff + 1] = (byte) 0xDE;
+				} else {
+					buffer[offset + extHdrOff] = (byte) 0x10;
+					buffer[offset + extHdrOff + 1] = (byte) 0x00;
+				}
+				setExtensionBit(true);
+				extensionCount = 0;
+				extensionsEnd = extHdrOff + EXT_HEADER_SIZE;
+			}
+			extEnd += growth;
+
+			int lengthInWords = (extEnd - extHdrOff - EXT_HEADER_SIZE) / 4;
+
+			buffer[offset + extHdrOff + 2] = (byte) (lengthInWords >> 8);
+			buffer[offset + extHdrOff + 3] = (byte) lengthInWords;
+		}
+
+		int elementOff = offset + extensionsEnd;
+
+		if (extHdrLen == 1) {
+			buffer[elementOff] = (byte) ((extensionID << 4) | (len - 1));
+		} else {
+			buffer[elementOff] = (byte) extensionID;
+			buffer[elementOff + 1] = (byte) len;
+		}
+		System.arraycopy(data, off, buffer, elementOff + extHdrLen, len);
+
+		if (extensions == null)
+			extensions = new int[4];
+		else if (extensions.length == extensionCount) {
+			int[] newExtensions = new int[2 * extensionCount];
+
+			System.arraycopy(extensions, 0, newExtensions, 0, extensionCount);
+			extensions = newExtensions;
+		}
+		extensions[extensionCount++] = (extensionID << 24) | (len << 16) | (extensionsEnd + extHdrLen);
+		extensionsEnd += elementLen;
+		return true;
 	}
 
 	/**
@@ -909,6 +1202,7 @@ public class RawPacket {
 	 */
 	public void setLength(int length) {
 		this.length = length;
+		extensionCount = -1;
 	}
 
 	/**
@@ -933,6 +1227,19 @@ public class RawPacket {
 	 */
 	public void setOffset(int offset) {
 		this.offset = offset;
+		extensionCount = -1;
+	}
+
+	/**
+	 * Sets the value of {@link System#nanoTime()} at which this packet
+	 * completed the last measured stage of its path.
+	 * 
+	 * @param packetPathTime
+	 *            the value of <tt>System.nanoTime()</tt> at which this packet
+	 *            completed the last measured stage of its path or <tt>0</tt>
+	 */
+	public void setPacketPathTime(long packetPathTime) {
+		this.packetPathTime = packetPathTime;
 	}
 
 	/**
@@ -21,6 +21,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.media.Format;
+import javax.media.control.BitRateControl;
 import javax.media.control.BufferControl;
 import javax.media.control.FormatControl;
 import javax.media.format.VideoFormat;
@@ -37,10 +38,12 @@ import org.jitsi.impl.neomedia.device.ScreenDeviceImpl;
 import org.jitsi.impl.neomedia.device.VideoMediaDeviceSession;
 import org.jitsi.impl.neomedia.rtp.StreamRTPManager;
 import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RecurringProcessible;
-import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RecurringProcessibleExecutor;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateEstimatorAbsSendTime;
 import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateEstimatorSingleStream;
 import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RemoteBitrateObserver;
+import org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation.BitrateObserver;
 import org.jitsi.impl.neomedia.rtp.translator.RTPTranslatorImpl;
+import org.jitsi.impl.neomedia.transform.TransportCCEngine;
 import org.jitsi.service.neomedia.QualityControl;
 import org.jitsi.service.neomedia.QualityPreset;
 import org.jitsi.service.neomedia.SrtpControl;
@@ -72,12 +75,6 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 	 */
 	private static final Logger logger = Logger.getLogger(VideoMediaStreamImpl.class);
 
-	/**
-	 * The <tt>RecurringProcessibleExecutor</tt> to be utilized by the
-	 * <tt>VideoMediaStreamImpl</tt> class and its instances.
-	 */
-	private static final RecurringProcessibleExecutor recurringProcessibleExecutor = new RecurringProcessibleExecutor();
-
 	/**
 	 * The indicator which determines whether RTCP feedback Picture Loss
 	 * Indication messages are to be used.
@@ -372,15 +369,30 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 	private final QualityControlImpl qualityControl = new QualityControlImpl();
 
 	/**
-	 * The <tt>RemoteBitrateEstimator</tt> which computes bitrate estimates for
-	 * the incoming RTP streams.
+	 * The ID of the abs-send-time RTP header extension or <tt>-1</tt> if the
+	 * extension has not been negotiated.
+	 */
+	private volatile int absSendTimeExtensionID = -1;
+
+	/**
+	 * The <tt>RemoteBitrateObserver</tt> which is notified by
+	 * {@link #remoteBitrateEstimator} about new bitrate estimates.
 	 */
-	private final RemoteBitrateEstimator remoteBitrateEstimator = new RemoteBitrateEstimatorSingleStream(new RemoteBitrateObserver() {
+	private final RemoteBitrateObserver remoteBitrateObserver = new RemoteBitrateObserver() {
 		@Override
 		public void onReceiveBitrateChanged(Collection<Integer> ssrcs, long bitrate) {
 			VideoMediaStreamImpl.this.remoteBitrateEstimatorOnReceiveBitrateChanged(ssrcs, bitrate);
 		}
-	},
+	};
+
+	/**
+	 * The <tt>RemoteBitrateEstimator</tt> which computes bitrate estimates for
+	 * the incoming RTP streams. Starts as a
+	 * <tt>RemoteBitrateEstimatorSingleStream</tt> and is switched to a
+	 * <tt>RemoteBitrateEstimatorAbsSendTime</tt> as soon as an incoming RTP
+	 * packet carries the abs-send-time RTP header extension.
+	 */
+	private volatile RemoteBitrateEstimator remoteBitrateEstimator = new RemoteBitrateEstimatorSingleStream(remoteBitrateObserver,
 	/* minBitrateBps */0L);
 
 	/**
@@ -479,6 +491,23 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 		}
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Makes the send-side bandwidth estimation of the new
+	 * <tt>TransportCCEngine</tt> drive the bitrate of the video encoder of this
+	 * <tt>VideoMediaStream</tt>.
+	 */
+	@Override
+	protected TransportCCEngine createTransportCCEngine() {
+		return new TransportCCEngine(this, new BitrateObserver() {
+			@Override
+			public void onNetworkChanged(long targetBitrateBps, int fractionLoss, long rttMs) {
+				VideoMediaStreamImpl.this.transportCCEngineOnNetworkChanged(targetBitrateBps);
+			}
+		});
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -573,7 +602,8 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 			// Do the bytes in p resemble (a header of) an RTP packet?
 			byte[] buf = p.getData();
 			int off = p.getOffset();
-			long payloadLenAndOff = RTPTranslatorImpl.getPayloadLengthAndOffsetIfRTP(buf, off, p.getLength());
+			int len = p.getLength();
+			long payloadLenAndOff = RTPTranslatorImpl.getPayloadLengthAndOffsetIfRTP(buf, off, len);
 
 			if (payloadLenAndOff >= 0) {
 				int payloadLen = (int) (payloadLenAndOff >>> 32);
@@ -583,8 +613,24 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 					long arrivalTimeMs = System.currentTimeMillis();
 					long timestamp = RTPTranslatorImpl.readInt(buf, off + 4) & 0xFFFFFFFFL;
 					int ssrc = RTPTranslatorImpl.readInt(buf, off + 8);
+					int absSendTime = -1;
+					int absSendTimeExtensionID = this.absSendTimeExtensionID;
 
-					remoteBitrateEstimator.incomingPacket(arrivalTimeMs, payloadLen, ssrc, timestamp);
+					if (absSendTimeExtensionID != -1) {
+						int extOff = RawPacket.findOneByteHeaderExtension(buf, off, len, absSendTimeExtensionID);
+
+						if (extOff >= 0 && extOff + 3 <= off + len) {
+							absSendTime = ((buf[extOff] & 0xFF) << 16) | ((buf[extOff + 1] & 0xFF) << 8) | (buf[extOff + 2] & 0xFF);
+							if (!(remoteBitrateEstimator instanceof RemoteBitrateEstimatorAbsSendTime))
+								remoteBitrateEstimator = switchToAbsSendTime();
+						}
+					}
+
+					if (remoteBitrateEstimator instanceof RemoteBitrateEstimatorAbsSendTime) {
+						((RemoteBitrateEstimatorAbsSendTime) remoteBitrateEstimator).incomingPacket(arrivalTimeMs, payloadLen, ssrc, timestamp, absSendTime);
+					} else {
+						remoteBitrateEstimator.incomingPacket(arrivalTimeMs, payloadLen, ssrc, timestamp);
+					}
 				}
 			}
 		}
@@ -991,6 +1037,70 @@ public class VideoMediaStreamImpl extends MediaStreamImpl implements VideoMediaS
 		// TODO Auto-generated method stub
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * Remembers the ID so that the abs-send-time of incoming RTP packets can
+	 * be read for the purposes of the {@link #remoteBitrateEstimator}.
+	 */
+	@Override
+	public void setAbsSendTimeExtensionID(int id) {
+		super.setAbsSendTimeExtensionID(id);
+
+		absSendTimeExtensionID = id;
+	}
+
+	/**
+	 * Switches {@link #remoteBitrateEstimator} to a
+	 * <tt>RemoteBitrateEstimatorAbsSendTime</tt> (unless it already is one)
+	 * and moves its registration with the
+	 * <tt>RecurringProcessibleExecutor</tt> accordingly.
+	 * 
+	 * @return the <tt>RemoteBitrateEstimatorAbsSendTime</tt> which is the
+	 *         <tt>remoteBitrateEstimator</tt> of this instance
+	 */
+	private RemoteBitrateEstimator switchToAbsSendTime() {
+		synchronized (remoteBitrateObserver) {
+			RemoteBitrateEstimator oldValue = remoteBitrateEstimator;
+
+			if (oldValue instanceof RemoteBitrateEstimatorAbsSendTime)
+				return oldValue;
+
+			RemoteBitrateEstimatorAbsSendTime newValue = new RemoteBitrateEstimatorAbsSendTime(remoteBitrateObserver,
+			/* minBitrateBps */0L);
+
+			remoteBitrateEstimator = newValue;
+			if (oldValue instanceof RecurringProcessible)
+				recurringProcessibleExecutor.deRegisterRecurringProcessible((RecurringProcessible) oldValue);
+			recurringProcessibleExecutor.registerRecurringProcessible(newValue);
+			return newValue;
+		}
+	}
+
+	/**
+	 * Notifies this <tt>VideoMediaStreamImpl</tt> that the send-side bandwidth
+	 * estimation of its <tt>TransportCCEngine</tt> has computed a new target
+	 * bitrate for the outgoing streams. Sets the target bitrate on the
+	 * <tt>BitRateControl</tt>s of the video encoders which cap it at the
+	 * configured video bitrate.
+	 * 
+	 * @param targetBitrateBps
+	 *            the new target bitrate in bits per second
+	 */
+	private void transportCCEngineOnNetworkChanged(long targetBitrateBps) {
+		qualityControl.setTargetSendBitrate(targetBitrateBps);
+
+		MediaDeviceSession deviceSession = getDeviceSession();
+
+		if (deviceSession == null)
+			return;
+
+		int bitrate = (int) Math.min(targetBitrateBps, Integer.MAX_VALUE);
+
+		for (BitRateControl bitRateControl : deviceSession.getEncoderControls(BitRateControl.class))
+			bitRateControl.setBitRate(bitrate);
+	}
+
 	/**
 	 * Removes a specific <tt>VideoListener</tt> from this
 	 * <tt>VideoMediaStream</tt> in order to have to no longer receive
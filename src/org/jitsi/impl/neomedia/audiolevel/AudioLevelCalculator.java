@@ -6,16 +6,40 @@
  */
 package org.jitsi.impl.neomedia.audiolevel;
 
-import org.jitsi.impl.neomedia.ArrayIOUtils;
+import javax.media.Buffer;
 
 /**
  * Implements the calculation of audio level as defined by RFC 6465 &quot;A
  * Real-time Transport Protocol (RTP) Header Extension for Mixer-to-Client Audio
  * Level Indication&quot;.
+ * <p>
+ * A level which has been calculated for a <tt>Buffer</tt> is attached to its
+ * flags (see {@link #calculateAudioLevel(Buffer)}) so that the stages further
+ * down the media chain (e.g. the mixer, the recorder) reuse it rather than
+ * calculate it again. A stage which changes the samples of a <tt>Buffer</tt>
+ * and yet copies its flags is to {@link #clearAudioLevel(Buffer)}.
  * 
  * @author Lyubomir Marinov
  */
 public class AudioLevelCalculator {
+	/**
+	 * The number of bits by which the audio level attached to a <tt>Buffer</tt>
+	 * is shifted in its flags.
+	 */
+	private static final int AUDIO_LEVEL_SHIFT = 17;
+
+	/**
+	 * The <tt>Buffer</tt> flag which indicates that the respective
+	 * <tt>Buffer</tt> carries the audio level of its samples in its flags.
+	 */
+	public static final int BUFFER_FLAG_AUDIO_LEVEL = (1 << 26);
+
+	/**
+	 * The bits of the flags of a <tt>Buffer</tt> which carry the audio level
+	 * attached to it.
+	 */
+	private static final int BUFFER_FLAGS_AUDIO_LEVEL_MASK = BUFFER_FLAG_AUDIO_LEVEL | (0x7F << AUDIO_LEVEL_SHIFT);
+
 	/**
 	 * The maximum audio level.
 	 */
@@ -26,6 +50,37 @@ public class AudioLevelCalculator {
 	 */
 	public static final byte MIN_AUDIO_LEVEL = 127;
 
+	/**
+	 * Gets the audio level of the samples of a specific <tt>Buffer</tt>. If the
+	 * level has already been calculated and attached to <tt>buffer</tt>, it is
+	 * reused; otherwise, it is calculated and attached to <tt>buffer</tt>. The
+	 * samples are expected to be 16-bit signed linear (little-endian if in a
+	 * <tt>byte[]</tt>).
+	 * 
+	 * @param buffer
+	 *            the <tt>Buffer</tt> to get the audio level of
+	 * @return the audio level of the samples of <tt>buffer</tt>
+	 */
+	public static byte calculateAudioLevel(Buffer buffer) {
+		int flags = buffer.getFlags();
+
+		if ((flags & BUFFER_FLAG_AUDIO_LEVEL) != 0)
+			return (byte) ((flags >>> AUDIO_LEVEL_SHIFT) & 0x7F);
+
+		Object data = buffer.getData();
+		byte level;
+
+		if (data instanceof byte[])
+			level = calculateAudioLevel((byte[]) data, buffer.getOffset(), buffer.getLength());
+		else if (data instanceof short[])
+			level = calculateAudioLevel((short[]) data, buffer.getOffset(), buffer.getLength());
+		else
+			return MIN_AUDIO_LEVEL;
+
+		buffer.setFlags((flags & ~BUFFER_FLAGS_AUDIO_LEVEL_MASK) | BUFFER_FLAG_AUDIO_LEVEL | (level << AUDIO_LEVEL_SHIFT));
+		return level;
+	}
+
 	/**
 	 * Calculates the audio level of a signal with specific <tt>samples</tt>.
 	 * 
@@ -39,19 +94,101 @@ public class AudioLevelCalculator {
 	 * @return the audio level of the specified signal
 	 */
 	public static byte calculateAudioLevel(byte[] samples, int offset, int length) {
-		double rms = 0; // root mean square (RMS) amplitude
+		int sampleCount = length / 2;
+		int end = offset + sampleCount * 2;
+		int unrolledEnd = offset + (sampleCount & ~3) * 2;
+		/*
+		 * Four independent accumulators so that the iterations of the unrolled
+		 * loop do not depend on each other.
+		 */
+		long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = offset;
 
-		for (; offset < length; offset += 2) {
-			double sample = ArrayIOUtils.readShort(samples, offset);
+		for (; i < unrolledEnd; i += 8) {
+			int s0 = (samples[i + 1] << 8) | (samples[i] & 0xFF);
+			int s1 = (samples[i + 3] << 8) | (samples[i + 2] & 0xFF);
+			int s2 = (samples[i + 5] << 8) | (samples[i + 4] & 0xFF);
+			int s3 = (samples[i + 7] << 8) | (samples[i + 6] & 0xFF);
 
-			sample /= Short.MAX_VALUE;
-			rms += sample * sample;
+			sum0 += s0 * s0;
+			sum1 += s1 * s1;
+			sum2 += s2 * s2;
+			sum3 += s3 * s3;
 		}
+		for (; i < end; i += 2) {
+			int s = (samples[i + 1] << 8) | (samples[i] & 0xFF);
 
-		int sampleCount = length / 2;
+			sum0 += s * s;
+		}
 
-		rms = (sampleCount == 0) ? 0 : Math.sqrt(rms / sampleCount);
+		return toAudioLevel(sum0 + sum1 + sum2 + sum3, sampleCount);
+	}
 
+	/**
+	 * Calculates the audio level of a signal with specific <tt>samples</tt>.
+	 * 
+	 * @param samples
+	 *            the samples of the signal to calculate the audio level of
+	 * @param offset
+	 *            the offset in <tt>samples</tt> in which the samples start
+	 * @param length
+	 *            the number of samples of the signal in <tt>samples</tt>
+	 *            starting at <tt>offset</tt>
+	 * @return the audio level of the specified signal
+	 */
+	public static byte calculateAudioLevel(short[] samples, int offset, int length) {
+		int end = offset + length;
+		int unrolledEnd = offset + (length & ~3);
+		long sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+		int i = offset;
+
+		for (; i < unrolledEnd; i += 4) {
+			int s0 = samples[i];
+			int s1 = samples[i + 1];
+			int s2 = samples[i + 2];
+			int s3 = samples[i + 3];
+
+			sum0 += s0 * s0;
+			sum1 += s1 * s1;
+			sum2 += s2 * s2;
+			sum3 += s3 * s3;
+		}
+		for (; i < end; i++) {
+			int s = samples[i];
+
+			sum0 += s * s;
+		}
+
+		return toAudioLevel(sum0 + sum1 + sum2 + sum3, length);
+	}
+
+	/**
+	 * Removes the audio level attached to a specific <tt>Buffer</tt> (e.g.
+	 * because its samples have been changed).
+	 * 
+	 * @param buffer
+	 *            the <tt>Buffer</tt> to remove the attached audio level of
+	 */
+	public static void clearAudioLevel(Buffer buffer) {
+		int flags = buffer.getFlags();
+
+		if ((flags & BUFFER_FLAG_AUDIO_LEVEL) != 0)
+			buffer.setFlags(flags & ~BUFFER_FLAGS_AUDIO_LEVEL_MASK);
+	}
+
+	/**
+	 * Converts the sum of the squares of a specific number of 16-bit samples
+	 * into an audio level.
+	 * 
+	 * @param sumOfSquares
+	 *            the sum of the squares of the samples
+	 * @param sampleCount
+	 *            the number of samples
+	 * @return the audio level of the samples
+	 */
+	private static byte toAudioLevel(long sumOfSquares, int sampleCount) {
+		// root mean square (RMS) amplitude
+		double rms = (sampleCount <= 0) ? 0 : (Math.sqrt((double) sumOfSquares / sampleCount) / Short.MAX_VALUE);
 		double db;
 
 		if (rms > 0) {
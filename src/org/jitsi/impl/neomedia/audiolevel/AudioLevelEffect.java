@@ -188,7 +188,9 @@ public class AudioLevelEffect extends ControlsAdapter implements Effect {
 		/*
 		 * At long last, do the job which this AudioLevelEffect exists for i.e.
 		 * deliver the data to eventDispatcher so that its audio level gets
-		 * calculated and delivered to audioEventListener.
+		 * calculated and delivered to audioEventListener. The audio level is
+		 * attached to outputBuffer so that it is not calculated again further
+		 * down the media chain.
 		 */
 		eventDispatcher.addData(outputBuffer);
 
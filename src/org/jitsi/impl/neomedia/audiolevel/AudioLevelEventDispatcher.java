@@ -13,10 +13,11 @@ import org.jitsi.service.neomedia.event.SimpleAudioLevelListener;
 /**
  * The class implements an audio level measurement thread. The thread will
  * measure new data every time it is added through the <tt>addData()</tt> method
- * and would then deliver it to a registered listener if any. (No measurement
- * would be performed until we have a <tt>levelListener</tt>). We use a separate
- * thread so that we could compute and deliver audio levels in a way that won't
- * delay the media processing thread.
+ * (unless the data already carries its audio level) and would then deliver it
+ * to a registered listener if any. (No measurement would be performed until we
+ * have a <tt>levelListener</tt>). We use a separate thread so that we could
+ * compute and deliver audio levels in a way that won't delay the media
+ * processing thread.
  * <p>
  * Note that, for performance reasons this class is not 100% thread safe and you
  * should not modify add or remove audio listeners in this dispatcher in the
@@ -43,15 +44,30 @@ public class AudioLevelEventDispatcher {
 	private AudioLevelMap cache = null;
 
 	/**
-	 * The data to process.
+	 * The samples (a <tt>byte[]</tt> or a <tt>short[]</tt>) of the data last
+	 * added which are yet to be measured or <tt>null</tt> if there are no such
+	 * samples.
 	 */
-	private byte[] data = null;
+	private Object data = null;
 
 	/**
-	 * The length of the data last recorded in the <tt>data</tt> array.
+	 * The number of elements of {@link #data} which are samples.
 	 */
 	private int dataLength = 0;
 
+	/**
+	 * The audio level of the data last added which is yet to be dispatched or
+	 * <tt>-1</tt> if there is no such audio level. Set when the data already
+	 * carries its audio level and need not be measured.
+	 */
+	private int level = -1;
+
+	/**
+	 * The array of samples last measured by the thread, kept so that
+	 * {@link #addData(Buffer)} may copy into it rather than allocate.
+	 */
+	private Object spareData = null;
+
 	/**
 	 * The listener which is interested in audio level changes.
 	 */
@@ -98,9 +114,9 @@ public class AudioLevelEventDispatcher {
 			SimpleAudioLevelListener listener;
 			AudioLevelMap cache;
 			long ssrc;
-
-			byte[] data;
+			Object data;
 			int dataLength;
+			int level;
 
 			synchronized (this) {
 				if (!Thread.currentThread().equals(thread))
@@ -118,11 +134,12 @@ public class AudioLevelEventDispatcher {
 
 				data = this.data;
 				dataLength = this.dataLength;
+				level = this.level;
 				/*
-				 * If there is no data to calculate the audio level of, wait for
-				 * such data to be provided.
+				 * If there is no data to calculate the audio level of and no
+				 * audio level to dispatch, wait for such data to be provided.
 				 */
-				if ((data == null) || (dataLength < 1)) {
+				if ((data == null) && (level == -1)) {
 					// The current thread is idle.
 					if (idleTimeoutStart == -1)
 						idleTimeoutStart = System.currentTimeMillis();
@@ -141,26 +158,30 @@ public class AudioLevelEventDispatcher {
 
 					continue;
 				}
-				// The values of data and dataLength seem valid so consume them.
+				// The values of data and level seem valid so consume them.
 				this.data = null;
 				this.dataLength = 0;
+				this.level = -1;
 				// The current thread is no longer idle.
 				idleTimeoutStart = -1;
 			}
 
-			int level = AudioLevelCalculator.calculateAudioLevel(data, 0, dataLength);
+			if (data != null) {
+				if (data instanceof byte[])
+					level = AudioLevelCalculator.calculateAudioLevel((byte[]) data, 0, dataLength);
+				else
+					level = AudioLevelCalculator.calculateAudioLevel((short[]) data, 0, dataLength);
 
-			// FIXME The audio level is expressed in -dBov.
-			level = AudioLevelCalculator.MIN_AUDIO_LEVEL - level;
+				// FIXME The audio level is expressed in -dBov.
+				level = AudioLevelCalculator.MIN_AUDIO_LEVEL - level;
 
-			/*
-			 * In order to try to mitigate the issue with allocating data, try
-			 * to return the one which we have just calculated the audio level
-			 * of.
-			 */
-			synchronized (this) {
-				if ((this.data == null) && (this.listener == null) && ((this.cache == null) || (this.ssrc == -1))) {
-					this.data = data;
+				/*
+				 * In order to try to mitigate the issue with allocating data,
+				 * return the array which we have just calculated the audio
+				 * level of.
+				 */
+				synchronized (this) {
+					spareData = data;
 				}
 			}
 
@@ -174,7 +195,11 @@ public class AudioLevelEventDispatcher {
 	}
 
 	/**
-	 * Adds data to be processed.
+	 * Adds data to be processed. If <tt>buffer</tt> already carries its audio
+	 * level, the level is reused; otherwise, the samples of <tt>buffer</tt>
+	 * are copied (into an array reused across calls) and measured by the
+	 * thread of this dispatcher rather than by the calling media processing
+	 * thread.
 	 * 
 	 * @param buffer
 	 *            the data that we'd like to queue for processing.
@@ -187,22 +212,53 @@ public class AudioLevelEventDispatcher {
 		if ((listener == null) && ((cache == null) || (ssrc == -1)))
 			return;
 
-		dataLength = buffer.getLength();
-		if (dataLength > 0) {
-			if ((data == null) || (data.length < dataLength))
-				data = new byte[dataLength];
+		int length = buffer.getLength();
+		Object bufferData = buffer.getData();
 
-			Object bufferData = buffer.getData();
+		if ((length < 1) || (bufferData == null))
+			return;
 
-			if (bufferData != null) {
-				System.arraycopy(bufferData, buffer.getOffset(), data, 0, dataLength);
+		if ((buffer.getFlags() & AudioLevelCalculator.BUFFER_FLAG_AUDIO_LEVEL) != 0) {
+			// FIXME The audio level is expressed in -dBov.
+			level = AudioLevelCalculator.MIN_AUDIO_LEVEL - AudioLevelCalculator.calculateAudioLevel(buffer);
+			data = null;
+			dataLength = 0;
+		} else if (bufferData instanceof byte[]) {
+			byte[] data = (this.data instanceof byte[]) ? (byte[]) this.data : null;
+
+			if ((data == null) || (data.length < length)) {
+				data = (spareData instanceof byte[]) ? (byte[]) spareData : null;
+				if ((data == null) || (data.length < length))
+					data = new byte[length];
+				else
+					spareData = null;
 			}
-
-			if (thread == null)
-				startThread();
-			else
-				notify();
+			System.arraycopy(bufferData, buffer.getOffset(), data, 0, length);
+			this.data = data;
+			dataLength = length;
+			level = -1;
+		} else if (bufferData instanceof short[]) {
+			short[] data = (this.data instanceof short[]) ? (short[]) this.data : null;
+
+			if ((data == null) || (data.length < length)) {
+				data = (spareData instanceof short[]) ? (short[]) spareData : null;
+				if ((data == null) || (data.length < length))
+					data = new short[length];
+				else
+					spareData = null;
+			}
+			System.arraycopy(bufferData, buffer.getOffset(), data, 0, length);
+			this.data = data;
+			dataLength = length;
+			level = -1;
+		} else {
+			return;
 		}
+
+		if (thread == null)
+			startThread();
+		else
+			notify();
 	}
 
 	/**
@@ -248,7 +304,7 @@ public class AudioLevelEventDispatcher {
 		if ((this.listener == null) && ((cache == null) || (ssrc == -1))) {
 			thread = null;
 			notify();
-		} else if ((data != null) && (dataLength > 0)) {
+		} else if ((data != null) || (level != -1)) {
 			if (thread == null)
 				startThread();
 			else
@@ -275,7 +331,7 @@ public class AudioLevelEventDispatcher {
 						 * dying yet the state suggests that it should be
 						 * running, restart it.
 						 */
-						if ((thread == null) && ((listener != null) || ((cache != null) && (ssrc != -1))) && (data != null) && (dataLength > 0))
+						if ((thread == null) && ((listener != null) || ((cache != null) && (ssrc != -1))) && ((data != null) || (level != -1)))
 							startThread();
 					}
 				}
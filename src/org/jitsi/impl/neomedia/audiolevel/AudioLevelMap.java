@@ -6,153 +6,387 @@
  */
 package org.jitsi.impl.neomedia.audiolevel;
 
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * The class implements a basic mapping utility that allows binding
- * <tt>long</tt> CSRC ID-s to <tt>int</tt> audio levels. The class does not
- * implement any synchronization for neither read nor write operations but it is
- * still intended to handle concurrent access in a manner that can be considered
- * graceful for the audio level use case. The class uses a bi-dimensional
- * <tt>long[][]</tt> matrix that is recreated every time a new CSRC is added or
- * an existing one is removed. Iterating through the matrix is only possible
- * after obtaining a direct reference to it. It is possible for this reference
- * to become invalid shortly after someone has obtained it (e.g. because someone
- * added a new CSRC) but this should not cause problems for the CSRC audio level
- * delivery case.
- * 
+ * <tt>long</tt> CSRC ID-s to <tt>int</tt> audio levels. The mappings are kept
+ * in an open-addressing (linear probing) hash table of primitive
+ * <tt>long</tt>s, each of which packs a CSRC with its level, so that neither
+ * adding nor removing a CSRC reallocates anything (until the table has to
+ * grow) and a lookup does not scan all of the CSRCs.
+ * <p>
+ * Reads do not lock. Writes are serialized among themselves (there is
+ * usually a single writer per CSRC anyway) and replace a whole entry
+ * atomically so that a reader sees either the old or the new level. A table
+ * which has to grow (or be cleaned of removed entries) is rebuilt aside and
+ * then published.
+ * <p>
+ * The levels of CSRCs which have not been updated for longer than the maximum
+ * age of the map are considered stale: they are reported as not registered
+ * and their entries are reclaimed by later writes.
+ *
  * @author Emil Ivov
  */
 public class AudioLevelMap {
 	/**
-	 * The matrix containing a CSRC-to-level mappings.
+	 * The default maximum age in milliseconds of the levels in an
+	 * <tt>AudioLevelMap</tt>.
 	 */
-	private long[][] levels = null;
+	public static final long DEFAULT_MAX_AGE = 10 * 1000;
 
 	/**
-	 * If this map already contains <tt>csrc</tt> this method updates its level,
-	 * otherwise we add a new entry mapping <tt>csrc</tt> to <tt>level</tt>.
-	 * 
+	 * The entry of a slot which has never been used. It cannot be a mapping
+	 * because levels are never negative.
+	 */
+	private static final long EMPTY = -1L;
+
+	/**
+	 * The initial number of slots of the table (a power of two).
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/**
+	 * The minimum interval in milliseconds between two sweeps of the table for
+	 * stale levels.
+	 */
+	private static final long SWEEP_INTERVAL = 1000;
+
+	/**
+	 * The entry of a slot of which the mapping has been removed. It cannot be
+	 * a mapping because levels are never negative.
+	 */
+	private static final long TOMBSTONE = -2L;
+
+	/**
+	 * Gets the CSRC of a specific entry.
+	 *
+	 * @param entry
+	 *            the entry to get the CSRC of
+	 * @return the CSRC of <tt>entry</tt>
+	 */
+	private static long csrcOf(long entry) {
+		return entry >>> 32;
+	}
+
+	/**
+	 * Packs a specific CSRC and a specific level into an entry.
+	 *
 	 * @param csrc
-	 *            the CSRC key that we'd like to add/update.
+	 *            the CSRC of the entry
 	 * @param level
-	 *            the new audio level for the specified <tt>csrc</tt>.
-	 */
-	public void putLevel(long csrc, int level) {
-		// copy the levels matrix so that no one pulls it from under our feet.
-		long[][] levelsRef = levels;
-		int csrcIndex = findCSRC(levelsRef, csrc);
-
-		if (csrcIndex == -1) {
-			// we don't have the csrc in there yet so we need a new row.
-			levels = appendCSRCToMatrix(levelsRef, csrc, level);
-		} else {
-			levelsRef[csrcIndex][1] = level;
-		}
+	 *            the level of the entry
+	 * @return the entry which packs <tt>csrc</tt> and <tt>level</tt>
+	 */
+	private static long entryOf(long csrc, int level) {
+		return (csrc << 32) | (level & 0xFFFFFFFFL);
 	}
 
 	/**
-	 * Removes <tt>csrc</tt> and its mapped level from this map.
-	 * 
+	 * Gets the index of the home slot of a specific CSRC in a table with a
+	 * specific mask.
+	 *
 	 * @param csrc
-	 *            the CSRC ID that we'd like to remove from this map.
-	 * 
-	 * @return <tt>true</tt> if <tt>csrc</tt> was present in the <tt>Map</tt>
-	 *         and <tt>false</tt> otherwise.
+	 *            the CSRC to get the home slot of
+	 * @param mask
+	 *            the number of slots of the table minus one
+	 * @return the index of the home slot of <tt>csrc</tt>
+	 */
+	private static int indexOf(long csrc, int mask) {
+		return (int) ((csrc * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+	}
+
+	/**
+	 * Determines whether a specific entry is a mapping i.e. neither
+	 * {@link #EMPTY} nor {@link #TOMBSTONE}.
+	 *
+	 * @param entry
+	 *            the entry to check
+	 * @return <tt>true</tt> if <tt>entry</tt> is a mapping; otherwise,
+	 *         <tt>false</tt>
 	 */
-	public boolean removeLevel(long csrc) {
-		// copy the levels matrix so that no one pulls it from under our feet.
-		long[][] levelsRef = levels;
-		int index = findCSRC(levelsRef, csrc);
+	private static boolean isMapping(long entry) {
+		return levelOf(entry) >= 0;
+	}
 
-		if (index == -1)
-			return false;
+	/**
+	 * Gets the level of a specific entry.
+	 *
+	 * @param entry
+	 *            the entry to get the level of
+	 * @return the level of <tt>entry</tt>
+	 */
+	private static int levelOf(long entry) {
+		return (int) entry;
+	}
 
-		if (levelsRef.length == 1) {
-			levels = null;
-			return true;
-		}
+	/**
+	 * The time in milliseconds of the last sweep of {@link #table} for stale
+	 * levels. Accessed by writers only.
+	 */
+	private long lastSweepTime;
+
+	/**
+	 * The maximum age in milliseconds of the levels in this map or
+	 * <tt>0</tt> if the levels never become stale.
+	 */
+	private final long maxAge;
 
-		// copy levelsRef into newLevels ref making sure we skip the entry
-		// containing the CSRC ID that we are trying to remove;
-		long[][] newLevelsRef = new long[levelsRef.length - 1][];
+	/**
+	 * The number of live mappings in {@link #table}. Accessed by writers only.
+	 */
+	private int size;
 
-		System.arraycopy(levelsRef, 0, newLevelsRef, 0, index);
-		System.arraycopy(levelsRef, index + 1, newLevelsRef, index, newLevelsRef.length - index);
+	/**
+	 * The table containing the CSRC-to-level mappings.
+	 */
+	private volatile Table table = new Table(INITIAL_CAPACITY);
 
-		levels = newLevelsRef;
-		return true;
+	/**
+	 * The number of slots of {@link #table} which are tombstones. Accessed by
+	 * writers only.
+	 */
+	private int tombstones;
+
+	/**
+	 * Initializes a new <tt>AudioLevelMap</tt> instance with
+	 * {@link #DEFAULT_MAX_AGE}.
+	 */
+	public AudioLevelMap() {
+		this(DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 * Initializes a new <tt>AudioLevelMap</tt> instance with a specific maximum
+	 * age of its levels.
+	 *
+	 * @param maxAge
+	 *            the maximum age in milliseconds of the levels in the new
+	 *            instance or <tt>0</tt> if the levels never become stale
+	 */
+	public AudioLevelMap(long maxAge) {
+		this.maxAge = (maxAge < 0) ? 0 : maxAge;
 	}
 
 	/**
 	 * Returns the audio level of the specified <tt>csrc</tt> id or <tt>-1</tt>
 	 * if <tt>csrc</tt> is not currently registered in this map.
-	 * 
+	 *
 	 * @param csrc
 	 *            the CSRC ID whose level we'd like to obtain.
-	 * 
+	 *
 	 * @return the audio level of the specified <tt>csrc</tt> id or <tt>-1</tt>
 	 *         if <tt>csrc</tt> is not currently registered in this map.
 	 */
 	public int getLevel(long csrc) {
-		long[][] levelsRef = levels;
-		int index = findCSRC(levelsRef, csrc);
+		csrc &= 0xFFFFFFFFL;
+
+		Table table = this.table;
+		int index = table.find(csrc);
+
+		if (index == -1)
+			return -1;
 
-		return (index == -1) ? -1 : ((int) levelsRef[index][1]);
+		long entry = table.entries.get(index);
+
+		// The entry may have been removed or reused since it was found.
+		if (!isMapping(entry) || (csrcOf(entry) != csrc))
+			return -1;
+		if ((maxAge != 0) && (System.currentTimeMillis() - table.times.get(index) > maxAge))
+			return -1;
+		return levelOf(entry);
 	}
 
 	/**
-	 * Returns the index of the specified <tt>csrc</tt> level in the
-	 * <tt>levels</tt> matrix or <tt>-1</tt> if <tt>levels</tt> is <tt>null</tt>
-	 * or does not contain <tt>csrc</tt>.
-	 * 
-	 * @param levels
-	 *            the bi-dimensional array that we'd like to search for the
-	 *            specified <tt>csrc</tt>.
+	 * If this map already contains <tt>csrc</tt> this method updates its level,
+	 * otherwise we add a new entry mapping <tt>csrc</tt> to <tt>level</tt>.
+	 *
 	 * @param csrc
-	 *            the CSRC identifier that we are looking for.
-	 * 
-	 * @return the the index of the specified <tt>csrc</tt> level in the
-	 *         <tt>levels</tt> matrix or <tt>-1</tt> if <tt>levels</tt> is
-	 *         <tt>null</tt> or does not contain <tt>csrc</tt>.
-	 */
-	private int findCSRC(long[][] levels, long csrc) {
-		if (levels != null) {
-			for (int i = 0; i < levels.length; i++) {
-				if (levels[i][0] == csrc)
-					return i;
+	 *            the CSRC key that we'd like to add/update.
+	 * @param level
+	 *            the new audio level for the specified <tt>csrc</tt>. A
+	 *            negative level removes <tt>csrc</tt>.
+	 */
+	public synchronized void putLevel(long csrc, int level) {
+		csrc &= 0xFFFFFFFFL;
+		if (level < 0) {
+			removeLevel(csrc);
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+
+		if ((maxAge != 0) && (now - lastSweepTime >= SWEEP_INTERVAL)) {
+			lastSweepTime = now;
+			sweep(now);
+		}
+
+		Table table = this.table;
+		int index = table.find(csrc);
+
+		if (index == -1) {
+			if ((size + tombstones + 1) * 2 > table.entries.length()) {
+				/*
+				 * Grow if the mappings would fill more than a quarter of a
+				 * table of the same size; otherwise just get rid of the
+				 * tombstones.
+				 */
+				table = rehash(table, ((size + 1) * 4 > table.entries.length()) ? (table.entries.length() * 2) : table.entries.length());
+			}
+			index = table.findFree(csrc);
+			if (table.entries.get(index) == TOMBSTONE)
+				tombstones--;
+			size++;
+		}
+		// The time first so that a reader never sees a new level as stale.
+		table.times.set(index, now);
+		table.entries.set(index, entryOf(csrc, level));
+	}
+
+	/**
+	 * Builds a table with a specific number of slots out of the live mappings
+	 * of a specific table and publishes it.
+	 *
+	 * @param table
+	 *            the table to rebuild
+	 * @param capacity
+	 *            the number of slots of the new table
+	 * @return the new table
+	 */
+	private Table rehash(Table table, int capacity) {
+		Table newTable = new Table(capacity);
+
+		for (int i = 0, length = table.entries.length(); i < length; i++) {
+			long entry = table.entries.get(i);
+
+			if (isMapping(entry)) {
+				int index = newTable.findFree(csrcOf(entry));
+
+				newTable.times.set(index, table.times.get(i));
+				newTable.entries.set(index, entry);
 			}
 		}
-		return -1;
+		tombstones = 0;
+		this.table = newTable;
+		return newTable;
 	}
 
 	/**
-	 * Creates a new bi-dimensional array containing all entries (if any) from
-	 * the <tt>levels</tt> matrix and an extra entry for the specified
-	 * <tt>csrc</tt> and <tt>level</tt>.
-	 * 
-	 * @param levels
-	 *            the bi-dimensional levels array that we'd like to add a
-	 *            mapping to.
+	 * Removes <tt>csrc</tt> and its mapped level from this map.
+	 *
 	 * @param csrc
-	 *            the CSRC identifier that we'd like to add to the
-	 *            <tt>levels</tt> bi-dimensional array.
-	 * @param level
-	 *            the level corresponding to the <tt>csrc</tt> identifier.
-	 * 
-	 * @return a new matrix containing all entries from levels and a new one
-	 *         mapping <tt>csrc</tt> to <tt>level</tt>
+	 *            the CSRC ID that we'd like to remove from this map.
+	 *
+	 * @return <tt>true</tt> if <tt>csrc</tt> was present in the <tt>Map</tt>
+	 *         and <tt>false</tt> otherwise.
+	 */
+	public synchronized boolean removeLevel(long csrc) {
+		csrc &= 0xFFFFFFFFL;
+
+		Table table = this.table;
+		int index = table.find(csrc);
+
+		if (index == -1)
+			return false;
+
+		table.entries.set(index, TOMBSTONE);
+		size--;
+		tombstones++;
+		return true;
+	}
+
+	/**
+	 * Removes the levels which have become stale at a specific time.
+	 *
+	 * @param now
+	 *            the time in milliseconds to determine the age of the levels
+	 *            at
+	 */
+	private void sweep(long now) {
+		Table table = this.table;
+
+		for (int i = 0, length = table.entries.length(); i < length; i++) {
+			if (isMapping(table.entries.get(i)) && (now - table.times.get(i) > maxAge)) {
+				table.entries.set(i, TOMBSTONE);
+				size--;
+				tombstones++;
+			}
+		}
+	}
+
+	/**
+	 * Represents the slots of an <tt>AudioLevelMap</tt> i.e. the entries which
+	 * pack CSRCs with their levels and the times of the last updates of the
+	 * levels.
 	 */
-	private long[][] appendCSRCToMatrix(long[][] levels, long csrc, int level) {
-		int newLength = 1 + ((levels == null) ? 0 : levels.length);
-		long[][] newLevels = new long[newLength][];
+	private static class Table {
+		/**
+		 * The entries of the slots of this table.
+		 */
+		final AtomicLongArray entries;
+
+		/**
+		 * The number of slots of this table minus one.
+		 */
+		final int mask;
 
-		// put the new level.
-		newLevels[0] = new long[] { csrc, level };
+		/**
+		 * The times in milliseconds of the last updates of the levels in the
+		 * slots of this table.
+		 */
+		final AtomicLongArray times;
 
-		if (newLength == 1)
-			return newLevels;
+		/**
+		 * Initializes a new <tt>Table</tt> instance with a specific number of
+		 * empty slots.
+		 *
+		 * @param capacity
+		 *            the number of slots of the new instance (a power of two)
+		 */
+		Table(int capacity) {
+			entries = new AtomicLongArray(capacity);
+			mask = capacity - 1;
+			times = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++)
+				entries.set(i, EMPTY);
+		}
 
-		System.arraycopy(levels, 0, newLevels, 1, levels.length);
+		/**
+		 * Gets the index of the slot which maps a specific CSRC.
+		 *
+		 * @param csrc
+		 *            the CSRC to find
+		 * @return the index of the slot which maps <tt>csrc</tt> or
+		 *         <tt>-1</tt> if there is no such slot
+		 */
+		int find(long csrc) {
+			for (int i = indexOf(csrc, mask), probes = 0; probes <= mask; i = (i + 1) & mask, probes++) {
+				long entry = entries.get(i);
 
-		return newLevels;
+				if (entry == EMPTY)
+					break;
+				if (isMapping(entry) && (csrcOf(entry) == csrc))
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Gets the index of the first empty or removed slot on the probe
+		 * sequence of a specific CSRC. The table is never full so there is
+		 * such a slot.
+		 *
+		 * @param csrc
+		 *            the CSRC to find a slot for
+		 * @return the index of the first empty or removed slot on the probe
+		 *         sequence of <tt>csrc</tt>
+		 */
+		int findFree(long csrc) {
+			int i = indexOf(csrc, mask);
+
+			while (isMapping(entries.get(i)))
+				i = (i + 1) & mask;
+			return i;
+		}
 	}
 }
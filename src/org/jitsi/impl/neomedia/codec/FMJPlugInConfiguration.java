@@ -39,7 +39,7 @@ public class FMJPlugInConfiguration {
 			// ?
 			// org.jitsi.impl.neomedia.codec.video.AndroidDecoder.class.getName()
 			// : null,
-			org.jitsi.impl.neomedia.codec.audio.alaw.DePacketizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.alaw.JavaEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.alaw.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.JavaDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.JavaEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.opus.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.opus.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.SpeexResampler.class.getName(),
+			org.jitsi.impl.neomedia.codec.audio.alaw.DePacketizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.alaw.JavaEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.alaw.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.JavaDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.JavaEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.ulaw.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.audio.opus.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.opus.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.resampler.JavaResampler.class.getName(), org.jitsi.impl.neomedia.codec.audio.speex.SpeexResampler.class.getName(),
 			// The MP3 encoder is not built for Android yet.
 			org.jitsi.impl.neomedia.codec.audio.ilbc.JavaDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.ilbc.JavaEncoder.class.getName(), EncodingConfigurationImpl.G729 ? org.jitsi.impl.neomedia.codec.audio.g729.JavaDecoder.class.getName() : null, EncodingConfigurationImpl.G729 ? org.jitsi.impl.neomedia.codec.audio.g729.JavaEncoder.class.getName() : null, org.jitsi.impl.neomedia.codec.audio.g722.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.g722.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.silk.JavaDecoder.class.getName(), org.jitsi.impl.neomedia.codec.audio.silk.JavaEncoder.class.getName(),
 			org.jitsi.impl.neomedia.codec.video.h263p.DePacketizer.class.getName(), org.jitsi.impl.neomedia.codec.video.h263p.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.video.h263p.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.video.h263p.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.video.h264.DePacketizer.class.getName(), org.jitsi.impl.neomedia.codec.video.h264.JNIDecoder.class.getName(), org.jitsi.impl.neomedia.codec.video.h264.JNIEncoder.class.getName(), org.jitsi.impl.neomedia.codec.video.h264.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.video.SwScale.class.getName(), org.jitsi.impl.neomedia.codec.video.vp8.Packetizer.class.getName(), org.jitsi.impl.neomedia.codec.video.vp8.DePacketizer.class.getName(),
@@ -11,6 +11,8 @@ import javax.media.Format;
 import javax.media.ResourceUnavailableException;
 import javax.media.format.AudioFormat;
 
+import net.sf.fmj.media.codec.audio.G711;
+
 /**
  * The ALAW Encoder. Used the FMJ ALawEncoderUtil.
  * 
@@ -145,7 +147,7 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
 		byte[] inpData = (byte[]) inputBuffer.getData();
 		byte[] outData = validateByteArraySize(outputBuffer, outLength);
 
-		aLawEncode(bigEndian, inpData, inputBuffer.getOffset(), inputBuffer.getLength(), outData);
+		G711.linearToAlaw(bigEndian, inpData, inputBuffer.getOffset(), outData, 0, inputBuffer.getLength() / 2);
 
 		updateOutput(outputBuffer, outputFormat, outLength, 0);
 		return BUFFER_PROCESSED_OK;
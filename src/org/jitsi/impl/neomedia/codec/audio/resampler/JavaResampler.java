@@ -0,0 +1,208 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.codec.audio.resampler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.Buffer;
+import javax.media.Format;
+import javax.media.ResourceUnavailableException;
+import javax.media.format.AudioFormat;
+
+import org.jitsi.impl.neomedia.codec.AbstractCodec2;
+
+/**
+ * Implements an audio resampler in pure Java using a
+ * <tt>PolyphaseResampler</tt>.
+ */
+public class JavaResampler extends AbstractCodec2 {
+	/**
+	 * The list of <tt>Format</tt>s of audio data supported as input and output
+	 * by <tt>JavaResampler</tt> instances.
+	 */
+	private static final Format[] SUPPORTED_FORMATS;
+
+	/**
+	 * The list of sample rates of audio data supported as input and output by
+	 * <tt>JavaResampler</tt> instances.
+	 */
+	private static final double[] SUPPORTED_SAMPLE_RATES = new double[] { 8000, 11025, 12000, 16000, 22050, 24000, 32000, 44100, 48000, Format.NOT_SPECIFIED };
+
+	static {
+		int supportedCount = SUPPORTED_SAMPLE_RATES.length;
+
+		SUPPORTED_FORMATS = new Format[4 * supportedCount];
+		for (int i = 0; i < supportedCount; i++) {
+			int j = 4 * i;
+
+			SUPPORTED_FORMATS[j] = new AudioFormat(AudioFormat.LINEAR, SUPPORTED_SAMPLE_RATES[i], 16 /* sampleSizeInBits */, 1 /* channels */, AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED, Format.NOT_SPECIFIED /* frameSizeInBits */, Format.NOT_SPECIFIED /* frameRate */, Format.byteArray);
+			SUPPORTED_FORMATS[j + 1] = new AudioFormat(AudioFormat.LINEAR, SUPPORTED_SAMPLE_RATES[i], 16 /* sampleSizeInBits */, 1 /* channels */, AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED, Format.NOT_SPECIFIED /* frameSizeInBits */, Format.NOT_SPECIFIED /* frameRate */, Format.shortArray);
+			SUPPORTED_FORMATS[j + 2] = new AudioFormat(AudioFormat.LINEAR, SUPPORTED_SAMPLE_RATES[i], 16 /* sampleSizeInBits */, 2 /* channels */, AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED, Format.NOT_SPECIFIED /* frameSizeInBits */, Format.NOT_SPECIFIED /* frameRate */, Format.byteArray);
+			SUPPORTED_FORMATS[j + 3] = new AudioFormat(AudioFormat.LINEAR, SUPPORTED_SAMPLE_RATES[i], 16 /* sampleSizeInBits */, 2 /* channels */, AudioFormat.LITTLE_ENDIAN, AudioFormat.SIGNED, Format.NOT_SPECIFIED /* frameSizeInBits */, Format.NOT_SPECIFIED /* frameRate */, Format.shortArray);
+		}
+	}
+
+	/**
+	 * The <tt>PolyphaseResampler</tt> which converts between the sample rates
+	 * of the input and output formats of this <tt>Codec</tt>.
+	 */
+	private PolyphaseResampler resampler;
+
+	/**
+	 * Initializes a new <tt>JavaResampler</tt> instance.
+	 */
+	public JavaResampler() {
+		super("Polyphase Resampler", AudioFormat.class, SUPPORTED_FORMATS);
+
+		inputFormats = SUPPORTED_FORMATS;
+	}
+
+	/**
+	 * @see AbstractCodec2#doClose()
+	 */
+	@Override
+	protected void doClose() {
+		resampler = null;
+	}
+
+	/**
+	 * @see AbstractCodec2#doOpen()
+	 */
+	@Override
+	protected void doOpen() throws ResourceUnavailableException {
+	}
+
+	/**
+	 * Resamples audio from a specific input <tt>Buffer</tt> into a specific
+	 * output <tt>Buffer</tt>.
+	 *
+	 * @param inBuffer
+	 *            input <tt>Buffer</tt>
+	 * @param outBuffer
+	 *            output <tt>Buffer</tt>
+	 * @return <tt>BUFFER_PROCESSED_OK</tt> if <tt>inBuffer</tt> has been
+	 *         successfully processed
+	 * @see AbstractCodec2#doProcess(Buffer, Buffer)
+	 */
+	@Override
+	protected int doProcess(Buffer inBuffer, Buffer outBuffer) {
+		Format inFormat = inBuffer.getFormat();
+
+		if ((inFormat != null) && (inFormat != this.inputFormat) && !inFormat.equals(this.inputFormat)) {
+			if (null == setInputFormat(inFormat))
+				return BUFFER_PROCESSED_FAILED;
+		}
+		inFormat = this.inputFormat;
+
+		AudioFormat inAudioFormat = (AudioFormat) inFormat;
+		int inSampleRate = (int) inAudioFormat.getSampleRate();
+		AudioFormat outAudioFormat = (AudioFormat) getOutputFormat();
+		int outSampleRate = (int) outAudioFormat.getSampleRate();
+		int channels = inAudioFormat.getChannels();
+
+		if (outAudioFormat.getChannels() != channels)
+			return BUFFER_PROCESSED_FAILED;
+
+		if (inSampleRate == outSampleRate) {
+			// passthrough
+			Object outData = outBuffer.getData();
+
+			outBuffer.setData(inBuffer.getData());
+			outBuffer.setLength(inBuffer.getLength());
+			outBuffer.setOffset(inBuffer.getOffset());
+			inBuffer.setData(outData);
+		} else {
+			if ((resampler == null) || (resampler.getInputSampleRate() != inSampleRate) || (resampler.getOutputSampleRate() != outSampleRate) || (resampler.getChannels() != channels)) {
+				if ((inSampleRate <= 0) || (outSampleRate <= 0) || (channels <= 0))
+					return BUFFER_PROCESSED_FAILED;
+				resampler = new PolyphaseResampler(inSampleRate, outSampleRate, channels);
+			}
+
+			Object in = inBuffer.getData();
+			int inOffset = inBuffer.getOffset();
+			int inLength = inBuffer.getLength();
+			int outOffset = 0;
+			int outLength;
+
+			if (in instanceof byte[]) {
+				int inFrames = inLength / (2 * channels);
+				byte[] out = validateByteArraySize(outBuffer, resampler.getMaxOutputFrames(inFrames) * 2 * channels, false);
+
+				outLength = resampler.process((byte[]) in, inOffset, inFrames, out, outOffset) * 2 * channels;
+			} else if (in instanceof short[]) {
+				int inFrames = inLength / channels;
+				short[] out = validateShortArraySize(outBuffer, resampler.getMaxOutputFrames(inFrames) * channels);
+
+				outLength = resampler.process((short[]) in, inOffset, inFrames, out, outOffset) * channels;
+			} else {
+				return BUFFER_PROCESSED_FAILED;
+			}
+			outBuffer.setLength(outLength);
+			outBuffer.setOffset(outOffset);
+		}
+
+		outBuffer.setFormat(outAudioFormat);
+		outBuffer.setDuration(inBuffer.getDuration());
+		outBuffer.setEOM(inBuffer.isEOM());
+		outBuffer.setFlags(inBuffer.getFlags());
+		outBuffer.setHeader(inBuffer.getHeader());
+		outBuffer.setSequenceNumber(inBuffer.getSequenceNumber());
+		outBuffer.setTimeStamp(inBuffer.getTimeStamp());
+
+		return BUFFER_PROCESSED_OK;
+	}
+
+	/**
+	 * Get the output formats matching a specific input format.
+	 *
+	 * @param inputFormat
+	 *            the input format to get the matching output formats of
+	 * @return the output formats matching the specified input format
+	 * @see AbstractCodec2#getMatchingOutputFormats(Format)
+	 */
+	@Override
+	protected Format[] getMatchingOutputFormats(Format inputFormat) {
+		Class<?> inDataType = inputFormat.getDataType();
+		List<Format> matchingOutputFormats = new ArrayList<Format>();
+
+		if (inputFormat instanceof AudioFormat) {
+			int inChannels = ((AudioFormat) inputFormat).getChannels();
+
+			for (Format supportedFormat : SUPPORTED_FORMATS) {
+				if ((((AudioFormat) supportedFormat).getChannels() == inChannels) && ((inDataType == null) || inDataType.equals(supportedFormat.getDataType())))
+					matchingOutputFormats.add(supportedFormat);
+			}
+		}
+		return matchingOutputFormats.toArray(new Format[matchingOutputFormats.size()]);
+	}
+
+	/**
+	 * Sets the <tt>Format</tt> of the media data to be input for processing in
+	 * this <tt>Codec</tt>.
+	 *
+	 * @param format
+	 *            the <tt>Format</tt> of the media data to be input for
+	 *            processing in this <tt>Codec</tt>
+	 * @return the <tt>Format</tt> of the media data to be input for processing
+	 *         in this <tt>Codec</tt> if <tt>format</tt> is compatible with this
+	 *         <tt>Codec</tt>; otherwise, <tt>null</tt>
+	 * @see AbstractCodec2#setInputFormat(Format)
+	 */
+	@Override
+	public Format setInputFormat(Format format) {
+		AudioFormat inFormat = (AudioFormat) super.setInputFormat(format);
+
+		if (inFormat != null) {
+			double outSampleRate = (outputFormat == null) ? inFormat.getSampleRate() : ((AudioFormat) outputFormat).getSampleRate();
+
+			// The data type is never converted.
+			setOutputFormat(new AudioFormat(inFormat.getEncoding(), outSampleRate, inFormat.getSampleSizeInBits(), inFormat.getChannels(), inFormat.getEndian(), inFormat.getSigned(), Format.NOT_SPECIFIED, Format.NOT_SPECIFIED, inFormat.getDataType()));
+		}
+		return inFormat;
+	}
+}
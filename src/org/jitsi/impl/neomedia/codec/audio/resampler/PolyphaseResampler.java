@@ -0,0 +1,469 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.codec.audio.resampler;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implements a polyphase FIR sample rate converter of interleaved 16-bit
+ * signed linear audio in pure Java. The rate is changed by a rational factor
+ * <tt>L/M</tt> by (virtually) upsampling by <tt>L</tt>, low-pass filtering
+ * with a Kaiser-windowed sinc and downsampling by <tt>M</tt>; only the
+ * <tt>L</tt> phases of the filter which contribute to output samples are ever
+ * evaluated. The filter banks are shared by all instances with the same ratio
+ * and are precomputed for the ratios between 8, 16, 32 and 48 kHz. Once the
+ * internal history has grown to the size of the largest input block, the
+ * conversion does not allocate.
+ */
+public class PolyphaseResampler {
+	/**
+	 * The number of taps per phase of the filter banks which upsample. The
+	 * filter banks which downsample have proportionally more taps because
+	 * their pass band is narrower.
+	 */
+	private static final int BASE_TAPS = 24;
+
+	/**
+	 * The filter banks computed so far by ratio.
+	 */
+	private static final Map<Long, float[]> BANKS = new ConcurrentHashMap<Long, float[]>();
+
+	/**
+	 * The shape parameter of the Kaiser window of the filters.
+	 */
+	private static final double KAISER_BETA = 8.0;
+
+	/**
+	 * The fraction of the Nyquist frequency of the lower of the two sample
+	 * rates at which the filters cut off.
+	 */
+	private static final double ROLLOFF = 0.91;
+
+	static {
+		int[] rates = { 8000, 16000, 32000, 48000 };
+
+		for (int inRate : rates) {
+			for (int outRate : rates) {
+				if (inRate != outRate) {
+					int gcd = gcd(inRate, outRate);
+
+					getBank(outRate / gcd, inRate / gcd);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Computes the filter bank for a specific ratio.
+	 *
+	 * @param l
+	 *            the upsampling factor
+	 * @param m
+	 *            the downsampling factor
+	 * @param taps
+	 *            the number of taps per phase
+	 * @return the coefficients of the <tt>l</tt> phases, <tt>taps</tt> each,
+	 *         in the order in which they are applied to the input
+	 */
+	private static float[] computeBank(int l, int m, int taps) {
+		int length = l * taps;
+		double cutoff = ROLLOFF * 0.5 / Math.max(l, m);
+		double center = (length - 1) / 2.0;
+		double i0Beta = i0(KAISER_BETA);
+		double[] prototype = new double[length];
+
+		for (int k = 0; k < length; k++) {
+			double t = k - center;
+			double x = 2 * cutoff * t;
+			double sinc = (x == 0) ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+			double r = t / center;
+			double window = i0(KAISER_BETA * Math.sqrt(Math.max(0, 1 - r * r))) / i0Beta;
+
+			prototype[k] = sinc * window;
+		}
+
+		float[] bank = new float[length];
+
+		for (int phase = 0; phase < l; phase++) {
+			// Normalize each phase to unity gain at DC.
+			double sum = 0;
+
+			for (int j = 0; j < taps; j++)
+				sum += prototype[phase + j * l];
+			/*
+			 * The j-th coefficient is applied to the j-th oldest input sample
+			 * so the taps of the prototype are reversed.
+			 */
+			for (int j = 0; j < taps; j++)
+				bank[phase * taps + j] = (float) (prototype[phase + (taps - 1 - j) * l] / sum);
+		}
+		return bank;
+	}
+
+	/**
+	 * Computes the greatest common divisor of two positive integers.
+	 */
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/**
+	 * Gets the (shared) filter bank for a specific ratio, computing it if
+	 * necessary.
+	 *
+	 * @param l
+	 *            the upsampling factor
+	 * @param m
+	 *            the downsampling factor
+	 * @return the filter bank for the ratio <tt>l/m</tt>
+	 */
+	private static float[] getBank(int l, int m) {
+		Long key = Long.valueOf(((long) l << 32) | m);
+		float[] bank = BANKS.get(key);
+
+		if (bank == null) {
+			bank = computeBank(l, m, getTaps(l, m));
+			BANKS.put(key, bank);
+		}
+		return bank;
+	}
+
+	/**
+	 * Gets the number of taps per phase of the filter bank for a specific
+	 * ratio.
+	 */
+	private static int getTaps(int l, int m) {
+		return (m > l) ? (BASE_TAPS * m + l - 1) / l : BASE_TAPS;
+	}
+
+	/**
+	 * Computes the zeroth order modified Bessel function of the first kind.
+	 */
+	private static double i0(double x) {
+		double sum = 1;
+		double term = 1;
+		double halfX = x / 2;
+
+		for (int k = 1; k < 50; k++) {
+			term *= (halfX / k) * (halfX / k);
+			sum += term;
+			if (term < sum * 1e-12)
+				break;
+		}
+		return sum;
+	}
+
+	/**
+	 * The coefficients of the <tt>l</tt> phases of the filter.
+	 */
+	private final float[] bank;
+
+	/**
+	 * The number of interleaved channels.
+	 */
+	private final int channels;
+
+	/**
+	 * The number of valid samples per channel in {@link #history}.
+	 */
+	private int fill;
+
+	/**
+	 * The input samples per channel (not interleaved): the last
+	 * <tt>taps - 1</tt> samples of the previous block followed by the samples
+	 * of the current block.
+	 */
+	private float[][] history;
+
+	/**
+	 * The index in {@link #history} of the newest input sample which
+	 * contributes to the next output sample.
+	 */
+	private int index;
+
+	/**
+	 * The input sample rate.
+	 */
+	private final int inputSampleRate;
+
+	/**
+	 * The upsampling factor.
+	 */
+	private final int l;
+
+	/**
+	 * The downsampling factor.
+	 */
+	private final int m;
+
+	/**
+	 * The output sample rate.
+	 */
+	private final int outputSampleRate;
+
+	/**
+	 * The phase of the filter with which the next output sample is computed.
+	 */
+	private int phase;
+
+	/**
+	 * The number of taps per phase.
+	 */
+	private final int taps;
+
+	/**
+	 * Initializes a new <tt>PolyphaseResampler</tt> instance.
+	 *
+	 * @param inputSampleRate
+	 *            the sample rate of the input
+	 * @param outputSampleRate
+	 *            the sample rate of the output
+	 * @param channels
+	 *            the number of interleaved channels
+	 */
+	public PolyphaseResampler(int inputSampleRate, int outputSampleRate, int channels) {
+		if ((inputSampleRate <= 0) || (outputSampleRate <= 0))
+			throw new IllegalArgumentException("sample rate");
+		if (channels <= 0)
+			throw new IllegalArgumentException("channels");
+
+		int gcd = gcd(inputSampleRate, outputSampleRate);
+
+		this.inputSampleRate = inputSampleRate;
+		this.outputSampleRate = outputSampleRate;
+		this.channels = channels;
+		l = outputSampleRate / gcd;
+		m = inputSampleRate / gcd;
+		taps = getTaps(l, m);
+		bank = getBank(l, m);
+		history = new float[channels][taps - 1 + 960];
+		reset();
+	}
+
+	/**
+	 * Appends interleaved input samples to {@link #history}.
+	 */
+	private void append(byte[] in, int inOffset, int inFrames) {
+		ensureCapacity(inFrames);
+		for (int c = 0; c < channels; c++) {
+			float[] x = history[c];
+
+			for (int i = inOffset + 2 * c, j = fill, end = fill + inFrames; j < end; i += 2 * channels, j++)
+				x[j] = (short) ((in[i] & 0xFF) | (in[i + 1] << 8));
+		}
+		fill += inFrames;
+	}
+
+	/**
+	 * Appends interleaved input samples to {@link #history}.
+	 */
+	private void append(short[] in, int inOffset, int inFrames) {
+		ensureCapacity(inFrames);
+		for (int c = 0; c < channels; c++) {
+			float[] x = history[c];
+
+			for (int i = inOffset + c, j = fill, end = fill + inFrames; j < end; i += channels, j++)
+				x[j] = in[i];
+		}
+		fill += inFrames;
+	}
+
+	/**
+	 * Removes the input samples which no longer contribute to output samples
+	 * from {@link #history}.
+	 */
+	private void compact() {
+		int start = index - (taps - 1);
+
+		if (start > 0) {
+			for (int c = 0; c < channels; c++)
+				System.arraycopy(history[c], start, history[c], 0, fill - start);
+			fill -= start;
+			index -= start;
+		}
+	}
+
+	/**
+	 * Computes one output sample of a specific channel.
+	 */
+	private float convolve(float[] x) {
+		float[] bank = this.bank;
+		int taps = this.taps;
+		int b = phase * taps;
+		int i = index - (taps - 1);
+		float y = 0;
+
+		for (int j = 0; j < taps; j++)
+			y += bank[b + j] * x[i + j];
+		return y;
+	}
+
+	/**
+	 * Makes sure that {@link #history} can take a specific number of input
+	 * samples per channel.
+	 */
+	private void ensureCapacity(int inFrames) {
+		int capacity = fill + inFrames;
+
+		if (history[0].length < capacity) {
+			for (int c = 0; c < channels; c++) {
+				float[] x = new float[capacity];
+
+				System.arraycopy(history[c], 0, x, 0, fill);
+				history[c] = x;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of interleaved channels.
+	 *
+	 * @return the number of interleaved channels
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Gets the input sample rate.
+	 *
+	 * @return the input sample rate
+	 */
+	public int getInputSampleRate() {
+		return inputSampleRate;
+	}
+
+	/**
+	 * Gets the maximum number of output frames (i.e. samples per channel)
+	 * which a specific number of input frames may be converted into.
+	 *
+	 * @param inFrames
+	 *            the number of input frames
+	 * @return the maximum number of output frames for <tt>inFrames</tt>
+	 */
+	public int getMaxOutputFrames(int inFrames) {
+		return (int) (((long) inFrames * l + m - 1) / m) + 1;
+	}
+
+	/**
+	 * Gets the output sample rate.
+	 *
+	 * @return the output sample rate
+	 */
+	public int getOutputSampleRate() {
+		return outputSampleRate;
+	}
+
+	/**
+	 * Advances to the input sample and the phase of the next output sample.
+	 */
+	private void next() {
+		phase += m;
+		while (phase >= l) {
+			phase -= l;
+			index++;
+		}
+	}
+
+	/**
+	 * Converts interleaved 16-bit signed little-endian samples.
+	 *
+	 * @param in
+	 *            the input samples
+	 * @param inOffset
+	 *            the offset in bytes in <tt>in</tt> of the first input sample
+	 * @param inFrames
+	 *            the number of input frames (i.e. samples per channel)
+	 * @param out
+	 *            the array to receive the output samples; must have room for
+	 *            {@link #getMaxOutputFrames(int)} frames
+	 * @param outOffset
+	 *            the offset in bytes in <tt>out</tt> of the first output
+	 *            sample
+	 * @return the number of output frames written into <tt>out</tt>
+	 */
+	public int process(byte[] in, int inOffset, int inFrames, byte[] out, int outOffset) {
+		append(in, inOffset, inFrames);
+
+		int outFrames = 0;
+
+		for (int o = outOffset; index < fill; outFrames++, next()) {
+			for (int c = 0; c < channels; c++) {
+				int s = toSample(convolve(history[c]));
+
+				out[o++] = (byte) s;
+				out[o++] = (byte) (s >> 8);
+			}
+		}
+		compact();
+		return outFrames;
+	}
+
+	/**
+	 * Converts interleaved 16-bit signed samples.
+	 *
+	 * @param in
+	 *            the input samples
+	 * @param inOffset
+	 *            the offset in <tt>in</tt> of the first input sample
+	 * @param inFrames
+	 *            the number of input frames (i.e. samples per channel)
+	 * @param out
+	 *            the array to receive the output samples; must have room for
+	 *            {@link #getMaxOutputFrames(int)} frames
+	 * @param outOffset
+	 *            the offset in <tt>out</tt> of the first output sample
+	 * @return the number of output frames written into <tt>out</tt>
+	 */
+	public int process(short[] in, int inOffset, int inFrames, short[] out, int outOffset) {
+		append(in, inOffset, inFrames);
+
+		int outFrames = 0;
+
+		for (int o = outOffset; index < fill; outFrames++, next()) {
+			for (int c = 0; c < channels; c++)
+				out[o++] = (short) toSample(convolve(history[c]));
+		}
+		compact();
+		return outFrames;
+	}
+
+	/**
+	 * Forgets the input seen so far as if this instance was just initialized.
+	 */
+	public void reset() {
+		for (int c = 0; c < channels; c++) {
+			float[] x = history[c];
+
+			for (int i = 0; i < taps - 1; i++)
+				x[i] = 0;
+		}
+		fill = taps - 1;
+		index = taps - 1;
+		phase = 0;
+	}
+
+	/**
+	 * Rounds and clips a filtered value to a 16-bit signed sample.
+	 */
+	private static int toSample(float y) {
+		int s = Math.round(y);
+
+		if (s > Short.MAX_VALUE)
+			s = Short.MAX_VALUE;
+		else if (s < Short.MIN_VALUE)
+			s = Short.MIN_VALUE;
+		return s;
+	}
+}
@@ -9,13 +9,11 @@ import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.format.AudioFormat;
 
+import net.sf.fmj.media.codec.audio.G711;
+
 import com.sun.media.controls.SilenceSuppressionAdapter;
 
 public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec {
-	static private final byte[] lutTableH = new byte[256];
-
-	static private final byte[] lutTableL = new byte[256];
-
 	public JavaDecoder() {
 		supportedInputFormats = new AudioFormat[] { new AudioFormat(AudioFormat.ULAW) };
 		defaultOutputFormats = new AudioFormat[] { new AudioFormat(AudioFormat.LINEAR) };
@@ -40,27 +38,9 @@ public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec {
 		return supportedOutputFormats;
 	}
 
-	private void initTables() {
-		for (int i = 0; i < 256; i++) {
-			int input = ~i;
-			int mantissa = ((input & 0xf) << 3) + 0x84;
-			int segment = (input & 0x70) >> 4;
-			int value = mantissa << segment;
-
-			value -= 0x84;
-
-			if ((input & 0x80) != 0)
-				value = -value;
-
-			lutTableL[i] = (byte) value;
-			lutTableH[i] = (byte) (value >> 8);
-		}
-	}
-
 	/** Initializes the codec. */
 	@Override
 	public void open() {
-		initTables();
 	}
 
 	/** Decodes the buffer */
@@ -78,13 +58,7 @@ public class JavaDecoder extends com.ibm.media.codec.audio.AudioCodec {
 		int inpLength = inputBuffer.getLength();
 		int outLength = 2 * inpLength;
 
-		int inOffset = inputBuffer.getOffset();
-		int outOffset = outputBuffer.getOffset();
-		for (int i = 0; i < inpLength; i++) {
-			int temp = inData[inOffset++] & 0xff;
-			outData[outOffset++] = lutTableL[temp];
-			outData[outOffset++] = lutTableH[temp];
-		}
+		G711.ulawToLinear(false, inData, inputBuffer.getOffset(), outData, outputBuffer.getOffset(), inpLength);
 
 		updateOutput(outputBuffer, outputFormat, outLength, outputBuffer.getOffset());
 
@@ -10,6 +10,8 @@ import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.format.AudioFormat;
 
+import net.sf.fmj.media.codec.audio.G711;
+
 public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
 	private boolean downmix = false;
 
@@ -150,7 +152,12 @@ public class JavaEncoder extends com.ibm.media.codec.audio.AudioCodec {
 		byte[] inpData = (byte[]) inputBuffer.getData();
 		byte[] outData = validateByteArraySize(outputBuffer, outLength);
 
-		convert(inpData, inputBuffer.getOffset(), inpLength, outData, 0);
+		if ((inputSampleSize == 16) && (inputBias == 0) && !downmix) {
+			// Signed 16-bit samples are encoded a whole block at a time.
+			G711.linearToUlaw(msbOffset == 0, inpData, inputBuffer.getOffset(), outData, 0, outLength);
+		} else {
+			convert(inpData, inputBuffer.getOffset(), inpLength, outData, 0);
+		}
 
 		updateOutput(outputBuffer, outputFormat, outLength, 0);
 		return BUFFER_PROCESSED_OK;
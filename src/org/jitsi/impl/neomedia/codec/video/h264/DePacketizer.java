@@ -30,6 +30,13 @@ import org.jitsi.util.Logger;
 /**
  * Implements <tt>Codec</tt> to represent a depacketizer of H.264 RTP packets
  * into NAL units.
+ * <p>
+ * The NAL units are written in Annex B byte stream format straight into the
+ * array of the output <tt>Buffer</tt> which is grown geometrically and thus
+ * reused (rather than reallocated) as the fragments of a NAL unit accumulate.
+ * Single NAL unit packets, STAP-A aggregation packets and FU-A fragmentation
+ * units are supported.
+ * </p>
  * 
  * @author Lyubomir Marinov
  * @author Damian Minkov
@@ -239,12 +246,11 @@ public class DePacketizer extends AbstractCodec2 {
 			octet = 0; // Ignored later on.
 		}
 
-		byte[] out = validateByteArraySize(outBuffer, outBuffer.getOffset() + newOutLength + outputPaddingSize, true);
+		byte[] out = validateOutputSize(outBuffer, outBuffer.getOffset() + newOutLength + outputPaddingSize);
 
 		if (start_bit) {
-			// Copy in the NAL start sequence and the (reconstructed) octet.
-			System.arraycopy(NAL_PREFIX, 0, out, outOffset, NAL_PREFIX.length);
-			outOffset += NAL_PREFIX.length;
+			// Write the NAL start sequence and the (reconstructed) octet.
+			outOffset = writeNALPrefix(out, outOffset);
 
 			out[outOffset] = (byte) (octet & 0xFF);
 			outOffset++;
@@ -286,11 +292,9 @@ public class DePacketizer extends AbstractCodec2 {
 
 		int outOffset = outBuffer.getOffset();
 		int newOutLength = NAL_PREFIX.length + inLength;
-		byte[] out = validateByteArraySize(outBuffer, outOffset + newOutLength + outputPaddingSize, true);
-
-		System.arraycopy(NAL_PREFIX, 0, out, outOffset, NAL_PREFIX.length);
-		outOffset += NAL_PREFIX.length;
+		byte[] out = validateOutputSize(outBuffer, outOffset + newOutLength + outputPaddingSize);
 
+		outOffset = writeNALPrefix(out, outOffset);
 		System.arraycopy(in, inOffset, out, outOffset, inLength);
 		outOffset += inLength;
 
@@ -301,6 +305,77 @@ public class DePacketizer extends AbstractCodec2 {
 		return BUFFER_PROCESSED_OK;
 	}
 
+	/**
+	 * Extracts the NAL units aggregated in a specific STAP-A RTP packet
+	 * payload. They are output together, each prefixed with
+	 * {@link #NAL_PREFIX}.
+	 * 
+	 * @param in
+	 *            the payload of the RTP packet
+	 * @param inOffset
+	 *            the offset in <tt>in</tt> at which the payload begins
+	 * @param inLength
+	 *            the length of the payload in <tt>in</tt> beginning at
+	 *            <tt>inOffset</tt>
+	 * @param outBuffer
+	 *            the <tt>Buffer</tt> which is to receive the extracted NAL
+	 *            units
+	 * @return the flags such as <tt>BUFFER_PROCESSED_OK</tt> and
+	 *         <tt>OUTPUT_BUFFER_NOT_FILLED</tt> to be returned by
+	 *         {@link #process(Buffer, Buffer)}
+	 */
+	private int dePacketizeSTAPA(byte[] in, int inOffset, int inLength, Buffer outBuffer) {
+		int inEnd = inOffset + inLength;
+		int newOutLength = 0;
+		int nal_unit_type = UNSPECIFIED_NAL_UNIT_TYPE;
+
+		// Validate the NAL unit sizes and compute the length of the output.
+		for (int i = inOffset + 1 /* STAP-A NAL HDR */; i + 2 <= inEnd;) {
+			int nalLength = ((in[i] & 0xFF) << 8) | (in[i + 1] & 0xFF);
+
+			i += 2;
+			if ((nalLength == 0) || (i + nalLength > inEnd)) {
+				logger.warn("Dropping malformed STAP-A packet");
+				outBuffer.setDiscard(true);
+				return BUFFER_PROCESSED_OK;
+			}
+
+			/*
+			 * Report an IDR picture rather than any parameter set aggregated
+			 * with it.
+			 */
+			if (nal_unit_type != 5)
+				nal_unit_type = in[i] & 0x1F;
+
+			newOutLength += NAL_PREFIX.length + nalLength;
+			i += nalLength;
+		}
+		if (newOutLength == 0) {
+			outBuffer.setDiscard(true);
+			return BUFFER_PROCESSED_OK;
+		}
+		this.nal_unit_type = nal_unit_type;
+
+		int outOffset = outBuffer.getOffset();
+		byte[] out = validateOutputSize(outBuffer, outOffset + newOutLength + outputPaddingSize);
+
+		for (int i = inOffset + 1, end = outOffset + newOutLength; outOffset < end;) {
+			int nalLength = ((in[i] & 0xFF) << 8) | (in[i + 1] & 0xFF);
+
+			i += 2;
+			outOffset = writeNALPrefix(out, outOffset);
+			System.arraycopy(in, i, out, outOffset, nalLength);
+			outOffset += nalLength;
+			i += nalLength;
+		}
+
+		padOutput(out, outOffset);
+
+		outBuffer.setLength(newOutLength);
+
+		return BUFFER_PROCESSED_OK;
+	}
+
 	/**
 	 * Close the <tt>Codec</tt>.
 	 */
@@ -425,6 +500,10 @@ public class DePacketizer extends AbstractCodec2 {
 		if ((nal_unit_type >= 1) && (nal_unit_type <= 23)) {
 			fuaStartedAndNotEnded = false;
 			ret = dePacketizeSingleNALUnitPacket(nal_unit_type, in, inOffset, inBuffer.getLength(), outBuffer);
+		} else if (nal_unit_type == 24) // STAP-A Single-time aggregation packet
+		{
+			fuaStartedAndNotEnded = false;
+			ret = dePacketizeSTAPA(in, inOffset, inBuffer.getLength(), outBuffer);
 		} else if (nal_unit_type == 28) // FU-A Fragmentation unit (FU)
 		{
 			ret = dePacketizeFUA(in, inOffset, inBuffer.getLength(), outBuffer);
@@ -712,4 +791,53 @@ public class DePacketizer extends AbstractCodec2 {
 			notifyAll();
 		}
 	}
+
+	/**
+	 * Makes sure that the array of a specific output <tt>Buffer</tt> is able to
+	 * hold a specific number of bytes, keeping the bytes already in it. Unlike
+	 * {@link #validateByteArraySize(Buffer, int, boolean)}, grows the array
+	 * geometrically so that accumulating the fragments of a large NAL unit
+	 * does not reallocate and copy it over and over again and the array is
+	 * reused for the frames to come.
+	 * 
+	 * @param outBuffer
+	 *            the <tt>Buffer</tt> the array of which is to be validated
+	 * @param newSize
+	 *            the minimum number of bytes the array is to hold
+	 * @return the array of <tt>outBuffer</tt>
+	 */
+	private static byte[] validateOutputSize(Buffer outBuffer, int newSize) {
+		Object data = outBuffer.getData();
+
+		if (data instanceof byte[]) {
+			byte[] out = (byte[]) data;
+
+			if (out.length >= newSize)
+				return out;
+
+			byte[] newOut = new byte[Math.max(newSize, 2 * out.length)];
+
+			System.arraycopy(out, 0, newOut, 0, out.length);
+			outBuffer.setData(newOut);
+			return newOut;
+		}
+		return validateByteArraySize(outBuffer, newSize, false);
+	}
+
+	/**
+	 * Writes {@link #NAL_PREFIX} into a specific array at a specific offset.
+	 * 
+	 * @param out
+	 *            the array to write into
+	 * @param outOffset
+	 *            the offset in <tt>out</tt> at which to write
+	 * @return the offset in <tt>out</tt> which follows the written prefix
+	 */
+	private static int writeNALPrefix(byte[] out, int outOffset) {
+		out[outOffset++] = 0;
+		out[outOffset++] = 0;
+		out[outOffset++] = 0;
+		out[outOffset++] = 1;
+		return outOffset;
+	}
 }
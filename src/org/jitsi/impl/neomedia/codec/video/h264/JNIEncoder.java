@@ -6,6 +6,7 @@
  */
 package org.jitsi.impl.neomedia.codec.video.h264;
 
+import java.awt.Component;
 import java.awt.Dimension;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,6 +14,7 @@ import java.util.Map;
 import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.ResourceUnavailableException;
+import javax.media.control.BitRateControl;
 import javax.media.format.VideoFormat;
 import javax.media.format.YUVFormat;
 
@@ -32,13 +34,15 @@ import org.jitsi.service.neomedia.event.RTCPFeedbackMessageListener;
 import org.jitsi.util.Logger;
 
 /**
- * Implements an FMJ H.264 encoder using FFmpeg (and x264).
+ * Implements an FMJ H.264 encoder using FFmpeg (and x264). The target bitrate
+ * may be changed while encoding through the <tt>BitRateControl</tt> of the
+ * encoder.
  * 
  * @author Damian Minkov
  * @author Lyubomir Marinov
  * @author Sebastien Vincent
  */
-public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageListener {
+public class JNIEncoder extends AbstractCodec implements BitRateControl, RTCPFeedbackMessageListener {
 	/**
 	 * The available presets we can use with the encoder.
 	 */
@@ -121,6 +125,12 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 	 */
 	private static final Logger logger = Logger.getLogger(JNIEncoder.class);
 
+	/**
+	 * The minimum target bitrate in bits per second which may be set through
+	 * the <tt>BitRateControl</tt> of the encoder.
+	 */
+	private static final int MIN_BITRATE = 30000;
+
 	/**
 	 * Minimum interval between two PLI request processing (in milliseconds).
 	 */
@@ -189,6 +199,12 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 	 */
 	private long avFrame;
 
+	/**
+	 * The average bitrate in bits per second {@link #avctx} is configured
+	 * with.
+	 */
+	private int bitRate;
+
 	/**
 	 * The indicator which determines whether the generation of a keyframe is to
 	 * be forced during a subsequent execution of
@@ -225,6 +241,19 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 	 */
 	private long lastKeyFrameRequestTime = System.currentTimeMillis();
 
+	/**
+	 * The frame rate {@link #avctx} is configured with.
+	 */
+	private int frameRate;
+
+	/**
+	 * The average bitrate in bits per second set through the
+	 * <tt>BitRateControl</tt> of the encoder and not yet applied to
+	 * {@link #avctx} or <tt>-1</tt> if there is none. Set by the thread which
+	 * estimates the bandwidth and read by the thread which encodes.
+	 */
+	private volatile int pendingBitRate = -1;
+
 	/**
 	 * The packetization mode to be used for the H.264 RTP payload output by
 	 * this <tt>JNIEncoder</tt> and the associated packetizer. RFC 3984 "RTP
@@ -272,6 +301,8 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 
 		inputFormat = null;
 		outputFormat = null;
+
+		addControl(this);
 	}
 
 	/**
@@ -335,6 +366,45 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 		return matchingOutputFormats;
 	}
 
+	/**
+	 * Implements {@link BitRateControl#getBitRate()}.
+	 * 
+	 * @return the average bitrate of the encoder in bits per second
+	 */
+	public int getBitRate() {
+		int pendingBitRate = this.pendingBitRate;
+
+		return (pendingBitRate == -1) ? bitRate : pendingBitRate;
+	}
+
+	/**
+	 * Implements {@link javax.media.Control#getControlComponent()}.
+	 * <tt>JNIEncoder</tt> does not provide user interface of its own.
+	 * 
+	 * @return <tt>null</tt>
+	 */
+	public Component getControlComponent() {
+		return null;
+	}
+
+	/**
+	 * Implements {@link BitRateControl#getMaxSupportedBitRate()}.
+	 * 
+	 * @return the configured video bitrate in bits per second
+	 */
+	public int getMaxSupportedBitRate() {
+		return 1000 * NeomediaServiceUtils.getMediaServiceImpl().getDeviceConfiguration().getVideoBitrate();
+	}
+
+	/**
+	 * Implements {@link BitRateControl#getMinSupportedBitRate()}.
+	 * 
+	 * @return the minimum average bitrate of the encoder in bits per second
+	 */
+	public int getMinSupportedBitRate() {
+		return MIN_BITRATE;
+	}
+
 	/**
 	 * Gets the name of this <tt>Codec</tt>.
 	 * 
@@ -495,7 +565,14 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 
 		FFmpeg.avcodeccontext_set_qcompress(avctx, 0.6f);
 
-		int bitRate = 1000 * NeomediaServiceUtils.getMediaServiceImpl().getDeviceConfiguration().getVideoBitrate();
+		int bitRate = getMaxSupportedBitRate();
+		int pendingBitRate = this.pendingBitRate;
+
+		if (pendingBitRate != -1) {
+			bitRate = pendingBitRate;
+			this.pendingBitRate = -1;
+		}
+
 		int frameRate = Format.NOT_SPECIFIED;
 
 		// Allow the outputFormat to request a certain frameRate.
@@ -512,6 +589,8 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 		// so to be 1 in x264
 		FFmpeg.avcodeccontext_set_bit_rate_tolerance(avctx, (bitRate / frameRate));
 		FFmpeg.avcodeccontext_set_rc_max_rate(avctx, bitRate);
+		this.bitRate = bitRate;
+		this.frameRate = frameRate;
 		FFmpeg.avcodeccontext_set_sample_aspect_ratio(avctx, 0, 0);
 		FFmpeg.avcodeccontext_set_thread_count(avctx, 1);
 
@@ -643,6 +722,14 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 			return BUFFER_PROCESSED_OK;
 		}
 
+		int pendingBitRate = this.pendingBitRate;
+
+		if (pendingBitRate != -1) {
+			this.pendingBitRate = -1;
+			if (pendingBitRate != bitRate)
+				updateBitRate(pendingBitRate);
+		}
+
 		// Copy the data of inBuffer into avFrame.
 		FFmpeg.memcpy(rawFrameBuffer, (byte[]) inBuffer.getData(), inBuffer.getOffset(), rawFrameLen);
 
@@ -701,6 +788,21 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 		}
 	}
 
+	/**
+	 * Implements {@link BitRateControl#setBitRate(int)}. The new average
+	 * bitrate is applied before the next frame is encoded and never exceeds
+	 * the configured video bitrate.
+	 * 
+	 * @param bitrate
+	 *            the average bitrate in bits per second
+	 * @return the average bitrate in bits per second which has been set
+	 */
+	public int setBitRate(int bitrate) {
+		bitrate = Math.max(MIN_BITRATE, Math.min(bitrate, getMaxSupportedBitRate()));
+		pendingBitRate = bitrate;
+		return bitrate;
+	}
+
 	/**
 	 * Sets additional settings on this <tt>Codec</tt>.
 	 * 
@@ -711,6 +813,24 @@ public class JNIEncoder extends AbstractCodec implements RTCPFeedbackMessageList
 		this.additionalCodecSettings = additionalCodecSettings;
 	}
 
+	/**
+	 * Changes the average bitrate of {@link #avctx}. FFmpeg reconfigures x264
+	 * when it sees the new bitrate at the next encoded frame so the codec does
+	 * not have to be reopened.
+	 * 
+	 * @param bitRate
+	 *            the new average bitrate in bits per second
+	 */
+	private void updateBitRate(int bitRate) {
+		if (avctx == 0)
+			return;
+
+		FFmpeg.avcodeccontext_set_bit_rate(avctx, bitRate);
+		FFmpeg.avcodeccontext_set_bit_rate_tolerance(avctx, (bitRate / frameRate));
+		FFmpeg.avcodeccontext_set_rc_max_rate(avctx, bitRate);
+		this.bitRate = bitRate;
+	}
+
 	/**
 	 * Sets the <tt>Format</tt> of the media data to be input to this
 	 * <tt>Codec</tt>.
@@ -7,9 +7,8 @@
 package org.jitsi.impl.neomedia.codec.video.h264;
 
 import java.awt.Dimension;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
 import javax.media.Buffer;
@@ -27,6 +26,15 @@ import org.jitsi.service.neomedia.codec.Constants;
 /**
  * Packetizes H.264 encoded data/NAL units into RTP packets in accord with RFC
  * 3984 "RTP Payload Format for H.264 Video".
+ * <p>
+ * The NAL units of an encoded frame are not copied aside: their bounds in the
+ * input <tt>Buffer</tt> (which remains valid while the input is reported as not
+ * consumed) are recorded and each RTP payload is written straight from there
+ * into the array of the output <tt>Buffer</tt>, with only the FU-A and STAP-A
+ * headers written separately. Small consecutive NAL units (e.g. SPS and PPS)
+ * are aggregated into STAP-A packets when the <tt>packetization-mode</tt> is
+ * 1.
+ * </p>
  * 
  * @author Damian Minkov
  * @author Lyubomir Marinov
@@ -83,15 +91,51 @@ public class Packetizer extends AbstractPacketizer {
 	}
 
 	/**
-	 * The list of NAL units to be sent as payload in RTP packets.
+	 * The indicator which determines whether the NAL units of the current
+	 * frame may be aggregated into STAP-A packets i.e. whether the
+	 * <tt>packetization-mode</tt> of the output is 1.
 	 */
-	private final List<byte[]> nals = new LinkedList<byte[]>();
+	private boolean aggregate;
 
 	/**
-	 * The timeStamp of the RTP packets in which <tt>nals</tt> are to be sent.
+	 * The number of NAL units recorded in {@link #nalOffsets} and
+	 * {@link #nalLengths}.
+	 */
+	private int nalCount;
+
+	/**
+	 * The input bytes which contain the NAL units to be sent as payload in RTP
+	 * packets.
+	 */
+	private byte[] nalData;
+
+	/**
+	 * The index of the NAL unit with which the next RTP packet is to begin.
+	 */
+	private int nalIndex;
+
+	/**
+	 * The lengths of the NAL units to be sent as payload in RTP packets.
+	 */
+	private int[] nalLengths = new int[16];
+
+	/**
+	 * The offsets in {@link #nalData} of the NAL units to be sent as payload
+	 * in RTP packets.
+	 */
+	private int[] nalOffsets = new int[16];
+
+	/**
+	 * The timeStamp of the RTP packets in which the NAL units are to be sent.
 	 */
 	private long nalsTimeStamp;
 
+	/**
+	 * The number of bytes (after its octet) of the NAL unit at
+	 * {@link #nalIndex} which have already been sent in FU-A packets.
+	 */
+	private int sentFULength;
+
 	/**
 	 * The sequence number of the next RTP packet to be output by this
 	 * <tt>Packetizer</tt>.
@@ -110,6 +154,24 @@ public class Packetizer extends AbstractPacketizer {
 		outputFormat = null;
 	}
 
+	/**
+	 * Records the bounds of a NAL unit to be sent as payload in RTP packets.
+	 * 
+	 * @param nalOffset
+	 *            the offset in {@link #nalData} at which the NAL unit begins
+	 * @param nalLength
+	 *            the length of the NAL unit
+	 */
+	private void addNAL(int nalOffset, int nalLength) {
+		if (nalCount == nalOffsets.length) {
+			nalOffsets = Arrays.copyOf(nalOffsets, 2 * nalCount);
+			nalLengths = Arrays.copyOf(nalLengths, 2 * nalCount);
+		}
+		nalOffsets[nalCount] = nalOffset;
+		nalLengths[nalCount] = nalLength;
+		nalCount++;
+	}
+
 	/**
 	 * Close this <tt>Packetizer</tt>.
 	 */
@@ -204,7 +266,8 @@ public class Packetizer extends AbstractPacketizer {
 	@Override
 	public synchronized void open() throws ResourceUnavailableException {
 		if (!opened) {
-			nals.clear();
+			nalCount = 0;
+			nalData = null;
 			sequenceNumber = 0;
 
 			super.open();
@@ -213,65 +276,38 @@ public class Packetizer extends AbstractPacketizer {
 	}
 
 	/**
-	 * Packetizes a specific NAL unit of H.264 encoded data so that it becomes
-	 * ready to be sent as the payload of RTP packets. If the specified NAL unit
-	 * does not fit into a single RTP packet i.e. will not become a "Single NAL
-	 * Unit Packet", splits it into "Fragmentation Units (FUs)" of type FU-A.
+	 * Writes the next RTP packet payload of the NAL units recorded by
+	 * {@link #process(Buffer, Buffer)} into a specific output <tt>Buffer</tt>.
+	 * A NAL unit which does not fit into a single RTP packet is split into
+	 * "Fragmentation Units (FUs)" of type FU-A. A NAL unit which does fit is
+	 * sent in a "Single NAL Unit Packet" or, if {@link #aggregate} and the NAL
+	 * units which follow it fit as well, aggregated with them into a STAP-A.
 	 * 
-	 * @param nal
-	 *            the bytes which contain the NAL unit of H.264 encoded data to
-	 *            be packetized
-	 * @param nalOffset
-	 *            the offset in <tt>nal</tt> at which the NAL unit of H.264
-	 *            encoded data to be packetized begins
-	 * @param nalLength
-	 *            the length in <tt>nal</tt> beginning at <tt>nalOffset</tt> of
-	 *            the NAL unit of H.264 encoded data to be packetized
-	 * @return <tt>true</tt> if at least one RTP packet payload has been
-	 *         packetized i.e. prepared for sending; otherwise, <tt>false</tt>
+	 * @param outBuffer
+	 *            the <tt>Buffer</tt> to write the RTP packet payload into
+	 * @return the <tt>nal_unit_type</tt> of the last (possibly fragmented) NAL
+	 *         unit in the payload or <tt>-1</tt> if the payload is a FU-A
+	 *         without the End bit
 	 */
-	private boolean packetizeNAL(byte[] nal, int nalOffset, int nalLength) {
-		/*
-		 * If the NAL fits into a "Single NAL Unit Packet", it's already
-		 * packetized.
-		 */
-		if (nalLength <= MAX_PAYLOAD_SIZE) {
-			byte[] singleNALUnitPacket = new byte[nalLength];
-
-			System.arraycopy(nal, nalOffset, singleNALUnitPacket, 0, nalLength);
-			return nals.add(singleNALUnitPacket);
-		}
-
-		// Otherwise, split it into "Fragmentation Units (FUs)".
-		byte octet = nal[nalOffset];
-		int forbidden_zero_bit = octet & 0x80;
-		int nri = octet & 0x60;
+	private int packetize(Buffer outBuffer) {
+		int nalOffset = nalOffsets[nalIndex];
+		int nalLength = nalLengths[nalIndex];
+		byte octet = nalData[nalOffset];
 		int nal_unit_type = octet & 0x1F;
+		byte[] out;
+		int outLength;
 
-		byte fuIndicator = (byte) (0xFF & (forbidden_zero_bit | nri | 28 /*
-																		 * nal_unit_type
-																		 * FU-A
-																		 */));
-		byte fuHeader = (byte) (0xFF & (0x80 /* Start bit */
-		| 0 /* End bit */
-		| 0 /* Reserved bit */
-		| nal_unit_type));
+		if (nalLength > MAX_PAYLOAD_SIZE) {
+			int maxFUPayloadLength = MAX_PAYLOAD_SIZE - 2 /* FU indicator & FU header */;
+			int fuPayloadLength = nalLength - 1 /* octet */- sentFULength;
+			int fuHeader = nal_unit_type;
 
-		nalOffset++;
-		nalLength--;
-
-		int maxFUPayloadLength = MAX_PAYLOAD_SIZE - 2 /* FU indicator & FU header */;
-		boolean nalsAdded = false;
-
-		while (nalLength > 0) {
-			int fuPayloadLength;
-
-			if (nalLength > maxFUPayloadLength)
+			if (sentFULength == 0)
+				fuHeader |= 0x80; // Turn on the Start bit.
+			if (fuPayloadLength > maxFUPayloadLength)
 				fuPayloadLength = maxFUPayloadLength;
-			else {
-				fuPayloadLength = nalLength;
+			else
 				fuHeader |= 0x40; // Turn on the End bit.
-			}
 
 			/*
 			 * Tests with Asterisk suggest that the fragments of a fragmented
@@ -279,19 +315,73 @@ public class Packetizer extends AbstractPacketizer {
 			 * similar question on the x264-devel mailing list but,
 			 * unfortunately, it is unanswered.
 			 */
-			byte[] fua = new byte[2 /* FU indicator & FU header */+ maxFUPayloadLength];
+			outLength = 2 /* FU indicator & FU header */+ maxFUPayloadLength;
+			out = AbstractCodec2.validateByteArraySize(outBuffer, outLength, false);
+			out[0] = (byte) ((octet & 0xE0) /* forbidden_zero_bit & NRI */| 28 /* FU-A */);
+			out[1] = (byte) fuHeader;
+			System.arraycopy(nalData, nalOffset + 1 + sentFULength, out, 2, fuPayloadLength);
+			if (fuPayloadLength < maxFUPayloadLength)
+				Arrays.fill(out, 2 + fuPayloadLength, outLength, (byte) 0);
+
+			if ((fuHeader & 0x40) == 0) {
+				sentFULength += fuPayloadLength;
+				nal_unit_type = -1;
+			} else {
+				sentFULength = 0;
+				nalIndex++;
+			}
+		} else {
+			/*
+			 * Aggregate as many of the following NAL units as fit with this one
+			 * into a STAP-A. Each of them is preceded by its 16-bit size.
+			 */
+			int count = 1;
+			int stapALength = 1 /* STAP-A NAL HDR */+ 2 + nalLength;
 
-			fua[0] = fuIndicator;
-			fua[1] = fuHeader;
-			System.arraycopy(nal, nalOffset, fua, 2, fuPayloadLength);
-			nalOffset += fuPayloadLength;
-			nalLength -= fuPayloadLength;
+			if (aggregate) {
+				for (int i = nalIndex + 1; i < nalCount; i++) {
+					int length = stapALength + 2 + nalLengths[i];
 
-			nalsAdded = nals.add(fua) || nalsAdded;
+					if (length > MAX_PAYLOAD_SIZE)
+						break;
+					stapALength = length;
+					count++;
+				}
+			}
 
-			fuHeader &= ~0x80; // Turn off the Start bit.
+			if (count == 1) {
+				outLength = nalLength;
+				out = AbstractCodec2.validateByteArraySize(outBuffer, outLength, false);
+				System.arraycopy(nalData, nalOffset, out, 0, nalLength);
+				nalIndex++;
+			} else {
+				int forbidden_zero_bit = 0;
+				int nri = 0;
+				int outOffset = 1;
+
+				outLength = stapALength;
+				out = AbstractCodec2.validateByteArraySize(outBuffer, outLength, false);
+				for (int end = nalIndex + count; nalIndex < end; nalIndex++) {
+					nalOffset = nalOffsets[nalIndex];
+					nalLength = nalLengths[nalIndex];
+					octet = nalData[nalOffset];
+
+					forbidden_zero_bit |= octet & 0x80;
+					nri = Math.max(nri, octet & 0x60);
+					nal_unit_type = octet & 0x1F;
+
+					out[outOffset++] = (byte) (nalLength >> 8);
+					out[outOffset++] = (byte) nalLength;
+					System.arraycopy(nalData, nalOffset, out, outOffset, nalLength);
+					outOffset += nalLength;
+				}
+				out[0] = (byte) (forbidden_zero_bit | nri | 24 /* STAP-A */);
+			}
 		}
-		return nalsAdded;
+
+		outBuffer.setLength(outLength);
+		outBuffer.setOffset(0);
+		return nal_unit_type;
 	}
 
 	/**
@@ -307,59 +397,45 @@ public class Packetizer extends AbstractPacketizer {
 	@Override
 	public int process(Buffer inBuffer, Buffer outBuffer) {
 		// if there are some nals we check and send them
-		if (nals.size() > 0) {
-			byte[] nal = nals.remove(0);
+		if (nalIndex < nalCount) {
+			int nal_unit_type = packetize(outBuffer);
 
-			// Send the NAL.
-			outBuffer.setData(nal);
-			outBuffer.setLength(nal.length);
-			outBuffer.setOffset(0);
 			outBuffer.setTimeStamp(nalsTimeStamp);
 			outBuffer.setSequenceNumber(sequenceNumber++);
 
+			int flags = outBuffer.getFlags() & ~Buffer.FLAG_RTP_MARKER;
+
 			// If there are other NALs, send them as well.
-			if (nals.size() > 0)
+			if (nalIndex < nalCount) {
+				outBuffer.setFlags(flags);
 				return (BUFFER_PROCESSED_OK | INPUT_BUFFER_NOT_CONSUMED);
-			else {
-				int flags = outBuffer.getFlags() | Buffer.FLAG_RTP_MARKER;
-
-				/*
-				 * It's the last NAL of the current frame so mark it. In order
-				 * to (at least partially) support feeding this Packetizer one
-				 * NAL at a time, do NOT always mark it i.e. the NALs with a
-				 * value for nal_unit_type which signals that they cannot be the
-				 * last NALs in an access unit should probably NOT be marked
-				 * anyway.
-				 */
-				if (nal.length > 0) {
-					int nal_unit_type = nal[0] & 0x1F;
-
-					if ((nal_unit_type == 28 /* FU-A */) && (nal.length > 1)) {
-						byte fuHeader = nal[1];
-
-						if ((fuHeader & 0x40 /* End bit */) == 0) {
-							/*
-							 * A FU-A without the End bit cannot possibly be the
-							 * last NAL unit of an access unit.
-							 */
-							flags &= ~Buffer.FLAG_RTP_MARKER;
-						} else
-							nal_unit_type = fuHeader & 0x1F;
-					}
-
-					switch (nal_unit_type) {
-					case 6 /* Supplemental enhancement information (SEI) */:
-					case 7 /* Sequence parameter set */:
-					case 8 /* Picture parameter set */:
-					case 9 /* Access unit delimiter */:
-						flags &= ~Buffer.FLAG_RTP_MARKER;
-						break;
-					}
-				}
+			}
+			nalCount = 0;
+			nalData = null;
 
-				outBuffer.setFlags(flags);
-				return BUFFER_PROCESSED_OK;
+			/*
+			 * It's the last NAL of the current frame so mark it. In order to
+			 * (at least partially) support feeding this Packetizer one NAL at
+			 * a time, do NOT always mark it i.e. the NALs with a value for
+			 * nal_unit_type which signals that they cannot be the last NALs in
+			 * an access unit should probably NOT be marked anyway. A FU-A
+			 * without the End bit cannot possibly be the last NAL unit of an
+			 * access unit either.
+			 */
+			switch (nal_unit_type) {
+			case -1 /* FU-A without the End bit */:
+			case 6 /* Supplemental enhancement information (SEI) */:
+			case 7 /* Sequence parameter set */:
+			case 8 /* Picture parameter set */:
+			case 9 /* Access unit delimiter */:
+				break;
+			default:
+				flags |= Buffer.FLAG_RTP_MARKER;
+				break;
 			}
+
+			outBuffer.setFlags(flags);
+			return BUFFER_PROCESSED_OK;
 		}
 
 		if (isEOM(inBuffer)) {
@@ -392,7 +468,10 @@ public class Packetizer extends AbstractPacketizer {
 
 		byte[] inData = (byte[]) inBuffer.getData();
 		int inOffset = inBuffer.getOffset();
-		boolean nalsAdded = false;
+
+		nalCount = 0;
+		nalIndex = 0;
+		sentFULength = 0;
 
 		/*
 		 * Split the H.264 encoded data into NAL units. Each NAL unit begins
@@ -414,13 +493,21 @@ public class Packetizer extends AbstractPacketizer {
 					nalLength--;
 
 				if (nalLength > 0)
-					nalsAdded = packetizeNAL(inData, beginIndex, nalLength) || nalsAdded;
+					addNAL(beginIndex, nalLength);
 			}
 		}
+		if (nalCount == 0)
+			return OUTPUT_BUFFER_NOT_FILLED;
 
+		/*
+		 * The NAL units are packetized straight out of inData which remains
+		 * valid for as long as the input Buffer is not consumed.
+		 */
+		nalData = inData;
 		nalsTimeStamp = inBuffer.getTimeStamp();
+		aggregate = "1".equals(getPacketizationMode(outputFormat));
 
-		return nalsAdded ? process(inBuffer, outBuffer) : OUTPUT_BUFFER_NOT_FILLED;
+		return process(inBuffer, outBuffer);
 	}
 
 	/**
@@ -6,15 +6,6 @@
  */
 package org.jitsi.impl.neomedia.codec.video.vp8;
 
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
-import java.util.concurrent.ArrayBlockingQueue;
-
 import javax.media.Buffer;
 import javax.media.ResourceUnavailableException;
 import javax.media.format.VideoFormat;
@@ -42,100 +33,9 @@ public class DePacketizer extends AbstractCodec2 {
 	private static final boolean TRACE = logger.isTraceEnabled();
 
 	/**
-	 * A <tt>Comparator</tt> implementation for RTP sequence numbers. Compares
-	 * <tt>a</tt> and <tt>b</tt>, taking into account the wrap at 2^16.
-	 * 
-	 * IMPORTANT: This is a valid <tt>Comparator</tt> implementation only if
-	 * used for subsets of [0, 2^16) which don't span more than 2^15 elements.
-	 * 
-	 * E.g. it works for: [0, 2^15-1] and ([50000, 2^16) u [0, 10000]) Doesn't
-	 * work for: [0, 2^15] and ([0, 2^15-1] u {2^16-1}) and [0, 2^16)
-	 */
-	private static final Comparator<? super Long> seqNumComparator = new Comparator<Long>() {
-		@Override
-		public int compare(Long a, Long b) {
-			if (a.equals(b))
-				return 0;
-			else if (a > b) {
-				if (a - b < 32768)
-					return 1;
-				else
-					return -1;
-			} else // a < b
-			{
-				if (b - a < 32768)
-					return -1;
-				else
-					return 1;
-			}
-		}
-	};
-
-	/**
-	 * Stores the RTP payloads (VP8 payload descriptor stripped) from RTP
-	 * packets belonging to a single VP8 compressed frame.
-	 */
-	private SortedMap<Long, Container> data = new TreeMap<Long, Container>(seqNumComparator);
-
-	/**
-	 * Stores unused <tt>Container</tt>'s.
-	 */
-	private Queue<Container> free = new ArrayBlockingQueue<Container>(100);
-
-	/**
-	 * Stores the first (earliest) sequence number stored in <tt>data</tt>, or
-	 * -1 if <tt>data</tt> is empty.
-	 */
-	private long firstSeq = -1;
-
-	/**
-	 * Stores the last (latest) sequence number stored in <tt>data</tt>, or -1
-	 * if <tt>data</tt> is empty.
-	 */
-	private long lastSeq = -1;
-
-	/**
-	 * Stores the value of the <tt>PictureID</tt> field for the VP8 compressed
-	 * frame, parts of which are currently stored in <tt>data</tt>, or -1 if the
-	 * <tt>PictureID</tt> field is not in use or <tt>data</tt> is empty.
-	 */
-	private int pictureId = -1;
-
-	/**
-	 * Stores the RTP timestamp of the packets stored in <tt>data</tt>, or -1 if
-	 * they don't have a timestamp set.
-	 */
-	private long timestamp = -1;
-
-	/**
-	 * Whether we have stored any packets in <tt>data</tt>. Equivalent to
-	 * <tt>data.isEmpty()</tt>.
+	 * Assembles the VP8 compressed frames out of the RTP payloads.
 	 */
-	private boolean empty = true;
-
-	/**
-	 * Whether we have stored in <tt>data</tt> the last RTP packet of the VP8
-	 * compressed frame, parts of which are currently stored in <tt>data</tt>.
-	 */
-	private boolean haveEnd = false;
-
-	/**
-	 * Whether we have stored in <tt>data</tt> the first RTP packet of the VP8
-	 * compressed frame, parts of which are currently stored in <tt>data</tt>.
-	 */
-	private boolean haveStart = false;
-
-	/**
-	 * Stores the sum of the lengths of the data stored in <tt>data</tt>, that
-	 * is the total length of the VP8 compressed frame to be constructed.
-	 */
-	private int frameLength = 0;
-
-	/**
-	 * The sequence number of the last RTP packet, which was included in the
-	 * output.
-	 */
-	private long lastSentSeq = -1;
+	private final VP8FrameAssembler assembler = new VP8FrameAssembler();
 
 	/**
 	 * Initializes a new <tt>JNIEncoder</tt> instance.
@@ -150,6 +50,7 @@ public class DePacketizer extends AbstractCodec2 {
 	 */
 	@Override
 	protected void doClose() {
+		assembler.clear();
 	}
 
 	/**
@@ -161,57 +62,6 @@ public class DePacketizer extends AbstractCodec2 {
 			logger.info("Opened VP8 depacketizer");
 	}
 
-	/**
-	 * Re-initializes the fields which store information about the currently
-	 * held data. Empties <tt>data</tt>.
-	 */
-	private void reinit() {
-		firstSeq = lastSeq = timestamp = -1;
-		pictureId = -1;
-		empty = true;
-		haveEnd = haveStart = false;
-		frameLength = 0;
-
-		Iterator<Map.Entry<Long, Container>> it = data.entrySet().iterator();
-		Map.Entry<Long, Container> e;
-		while (it.hasNext()) {
-			e = it.next();
-			free.offer(e.getValue());
-			it.remove();
-		}
-	}
-
-	/**
-	 * Checks whether the currently held VP8 compressed frame is complete (e.g
-	 * all its packets are stored in <tt>data</tt>).
-	 * 
-	 * @return <tt>true</tt> if the currently help VP8 compressed frame is
-	 *         complete, <tt>false</tt> otherwise.
-	 */
-	private boolean frameComplete() {
-		return haveStart && haveEnd && !haveMissing();
-	}
-
-	/**
-	 * Checks whether there are packets with sequence numbers between
-	 * <tt>firstSeq</tt> and <tt>lastSeq</tt> which are *not* stored in
-	 * <tt>data</tt>.
-	 * 
-	 * @return <tt>true</tt> if there are packets with sequence numbers between
-	 *         <tt>firstSeq</tt> and <tt>lastSeq</tt> which are *not* stored in
-	 *         <tt>data</tt>.
-	 */
-	private boolean haveMissing() {
-		Set<Long> seqs = data.keySet();
-		long s = firstSeq;
-		while (s != lastSeq) {
-			if (!seqs.contains(s))
-				return true;
-			s = (s + 1) % (1 << 16);
-		}
-		return false;
-	}
-
 	/**
 	 * {@inheritDoc}
 	 */
@@ -227,157 +77,63 @@ public class DePacketizer extends AbstractCodec2 {
 		}
 
 		long inSeq = inBuffer.getSequenceNumber();
-		long inRtpTimestamp = inBuffer.getRtpTimeStamp();
-		int inPictureId = VP8PayloadDescriptor.getPictureId(inData, inOffset);
 		boolean inMarker = (inBuffer.getFlags() & Buffer.FLAG_RTP_MARKER) != 0;
-		boolean inIsStartOfFrame = VP8PayloadDescriptor.isStartOfFrame(inData, inOffset);
-		int inLength = inBuffer.getLength();
-		int inPdSize = VP8PayloadDescriptor.getSize(inData, inOffset);
-		int inPayloadLength = inLength - inPdSize;
+		int result = assembler.add(inData, inOffset, inBuffer.getLength(), (int) inSeq, inBuffer.getRtpTimeStamp(), inMarker);
 
-		if (empty && lastSentSeq != -1 && seqNumComparator.compare(inSeq, lastSentSeq) != 1) {
-			if (logger.isInfoEnabled())
-				logger.info("Discarding old packet (while empty) " + inSeq);
-			outBuffer.setDiscard(true);
-			return BUFFER_PROCESSED_OK;
+		if (((result & VP8FrameAssembler.DROPPED) != 0) && logger.isInfoEnabled()) {
+			// TODO: this would be the place to complain about the
+			// not-well-received PictureID by sending a RTCP SLI or NACK.
+			logger.info("Discarding saved packets on arrival of" + " a packet for a subsequent frame: " + inSeq);
 		}
 
-		if (!empty) {
-			// if the incoming packet has a different PictureID or timestamp
-			// than those of the current frame, then it belongs to a different
-			// frame.
-			if ((inPictureId != -1 && pictureId != -1 && inPictureId != pictureId) | (timestamp != -1 && inRtpTimestamp != -1 && inRtpTimestamp != timestamp)) {
-				if (seqNumComparator.compare(inSeq, firstSeq) != 1) // inSeq <=
-																	// firstSeq
-				{
-					// the packet belongs to a previous frame. discard it
-					if (logger.isInfoEnabled())
-						logger.info("Discarding old packet " + inSeq);
-					outBuffer.setDiscard(true);
-					return BUFFER_PROCESSED_OK;
-				} else // inSeq > firstSeq (and also presumably isSeq > lastSeq)
-				{
-					// the packet belongs to a subsequent frame (to the one
-					// currently being held). Drop the current frame.
-
-					if (logger.isInfoEnabled())
-						logger.info("Discarding saved packets on arrival of" + " a packet for a subsequent frame: " + inSeq);
-
-					// TODO: this would be the place to complain about the
-					// not-well-received PictureID by sending a RTCP SLI or
-					// NACK.
-					reinit();
-				}
-			}
-		}
+		if ((result & VP8FrameAssembler.COMPLETE) != 0) {
+			int frameLength = assembler.getFrameLength();
+			byte[] outData = validateByteArraySize(outBuffer, frameLength, false);
 
-		// a whole frame in a single packet. avoid the extra copy to
-		// this.data and output it immediately.
-		if (empty && inMarker && inIsStartOfFrame) {
-			byte[] outData = validateByteArraySize(outBuffer, inPayloadLength, false);
-			System.arraycopy(inData, inOffset + inPdSize, outData, 0, inPayloadLength);
+			assembler.copyFrame(outData, 0);
 			outBuffer.setOffset(0);
-			outBuffer.setLength(inPayloadLength);
-			outBuffer.setRtpTimeStamp(inBuffer.getRtpTimeStamp());
+			outBuffer.setLength(frameLength);
+			outBuffer.setRtpTimeStamp(assembler.getTimestamp());
 
 			if (TRACE)
-				logger.trace("Out PictureID=" + inPictureId);
-
-			lastSentSeq = inSeq;
+				logger.trace("Out PictureID=" + assembler.getPictureId());
 
 			return BUFFER_PROCESSED_OK;
 		}
 
-		// add to this.data
-		Container container = free.poll();
-		if (container == null)
-			container = new Container();
-		if (container.buf == null || container.buf.length < inPayloadLength)
-			container.buf = new byte[inPayloadLength];
-
-		if (data.get(inSeq) != null) {
+		outBuffer.setDiscard(true);
+		if ((result & VP8FrameAssembler.DISCARDED) != 0) {
 			if (logger.isInfoEnabled())
-				logger.info("(Probable) duplicate packet detected, discarding " + inSeq);
-			outBuffer.setDiscard(true);
+				logger.info("Discarding old or duplicate packet " + inSeq);
 			return BUFFER_PROCESSED_OK;
 		}
-
-		System.arraycopy(inData, inOffset + inPdSize, container.buf, 0, inPayloadLength);
-		container.len = inPayloadLength;
-		data.put(inSeq, container);
-
-		// update fields
-		frameLength += inPayloadLength;
-		if (firstSeq == -1 || (seqNumComparator.compare(firstSeq, inSeq) == 1))
-			firstSeq = inSeq;
-		if (lastSeq == -1 || (seqNumComparator.compare(inSeq, lastSeq) == 1))
-			lastSeq = inSeq;
-
-		if (empty) {
-			// the first received packet for the current frame was just added
-			empty = false;
-			timestamp = inRtpTimestamp;
-			pictureId = inPictureId;
-		}
-
-		if (inMarker)
-			haveEnd = true;
-		if (inIsStartOfFrame)
-			haveStart = true;
-
-		// check if we have a full frame
-		if (frameComplete()) {
-			byte[] outData = validateByteArraySize(outBuffer, frameLength, false);
-			int ptr = 0;
-			Container b;
-			for (Map.Entry<Long, Container> entry : data.entrySet()) {
-				b = entry.getValue();
-				System.arraycopy(b.buf, 0, outData, ptr, b.len);
-				ptr += b.len;
-			}
-
-			outBuffer.setOffset(0);
-			outBuffer.setLength(frameLength);
-			outBuffer.setRtpTimeStamp(inBuffer.getRtpTimeStamp());
-
-			if (TRACE)
-				logger.trace("Out PictureID=" + inPictureId);
-			lastSentSeq = lastSeq;
-
-			// prepare for the next frame
-			reinit();
-
-			return BUFFER_PROCESSED_OK;
-		} else {
-			// frame not complete yet
-			outBuffer.setDiscard(true);
-			return OUTPUT_BUFFER_NOT_FILLED;
-		}
+		// frame not complete yet
+		return OUTPUT_BUFFER_NOT_FILLED;
 	}
 
 	/**
 	 * A class that represents the VP8 Payload Descriptor structure defined in
 	 * {@link "http://tools.ietf.org/html/draft-ietf-payload-vp8-10"}
 	 */
-	static class VP8PayloadDescriptor {
+	public static class VP8PayloadDescriptor {
 		/**
 		 * I bit from the X byte of the Payload Descriptor.
 		 */
-		private static final byte I_BIT = (byte) 0x80;
+		static final byte I_BIT = (byte) 0x80;
 
 		/**
 		 * K bit from the X byte of the Payload Descriptor.
 		 */
-		private static final byte K_BIT = (byte) 0x10;
+		static final byte K_BIT = (byte) 0x10;
 		/**
 		 * L bit from the X byte of the Payload Descriptor.
 		 */
-		private static final byte L_BIT = (byte) 0x40;
+		static final byte L_BIT = (byte) 0x40;
 
 		/**
 		 * I bit from the I byte of the Payload Descriptor.
 		 */
-		private static final byte M_BIT = (byte) 0x80;
+		static final byte M_BIT = (byte) 0x80;
 		/**
 		 * Maximum length of a VP8 Payload Descriptor.
 		 */
@@ -385,16 +141,16 @@ public class DePacketizer extends AbstractCodec2 {
 		/**
 		 * S bit from the first byte of the Payload Descriptor.
 		 */
-		private static final byte S_BIT = (byte) 0x10;
+		static final byte S_BIT = (byte) 0x10;
 		/**
 		 * T bit from the X byte of the Payload Descriptor.
 		 */
-		private static final byte T_BIT = (byte) 0x20;
+		static final byte T_BIT = (byte) 0x20;
 
 		/**
 		 * X bit from the first byte of the Payload Descriptor.
 		 */
-		private static final byte X_BIT = (byte) 0x80;
+		static final byte X_BIT = (byte) 0x80;
 
 		/**
 		 * Returns a simple Payload Descriptor, with PartID = 0, the 'start of
@@ -409,10 +165,29 @@ public class DePacketizer extends AbstractCodec2 {
 		 */
 		public static byte[] create(boolean startOfPartition) {
 			byte[] pd = new byte[1];
-			pd[0] = startOfPartition ? (byte) 0x10 : 0;
+			write(pd, 0, startOfPartition);
 			return pd;
 		}
 
+		/**
+		 * Writes a simple Payload Descriptor, with PartID = 0, the 'start of
+		 * partition' bit set according to <tt>startOfPartition</tt>, and all
+		 * other bits set to 0, into a specific array (without allocating one
+		 * like {@link #create(boolean)}).
+		 * 
+		 * @param buf
+		 *            the array to write the Payload Descriptor into
+		 * @param offset
+		 *            the offset in <tt>buf</tt> to write at
+		 * @param startOfPartition
+		 *            whether to 'start of partition' bit should be set
+		 * @return the length of the written Payload Descriptor
+		 */
+		public static int write(byte[] buf, int offset, boolean startOfPartition) {
+			buf[offset] = startOfPartition ? S_BIT : 0;
+			return 1;
+		}
+
 		/**
 		 * The size in bytes of the Payload Descriptor at offset <tt>offset</tt>
 		 * in <tt>input</tt>. The size is between 1 and 6.
@@ -518,19 +293,4 @@ public class DePacketizer extends AbstractCodec2 {
 			return input[offset] & 0x07;
 		}
 	}
-
-	/**
-	 * A simple container for a <tt>byte[]</tt> and an integer.
-	 */
-	private static class Container {
-		/**
-		 * This <tt>Container</tt>'s data.
-		 */
-		private byte[] buf;
-
-		/**
-		 * Length used.
-		 */
-		private int len = 0;
-	}
 }
@@ -91,15 +91,15 @@ public class Packetizer extends AbstractCodec2 {
 		output = validateByteArraySize(outputBuffer, offset + len, true);
 		System.arraycopy(inputBuffer.getData(), inOff, output, offset, len);
 
-		// get the payload descriptor and copy it to the output
-		byte[] pd = DePacketizer.VP8PayloadDescriptor.create(firstPacket);
-		System.arraycopy(pd, 0, output, offset - pd.length, pd.length);
-		offset -= pd.length;
+		// write the payload descriptor right before the payload
+		int pdLen = DePacketizer.VP8PayloadDescriptor.write(output, offset - 1, firstPacket);
+
+		offset -= pdLen;
 
 		// set up the output buffer
 		outputBuffer.setFormat(new VideoFormat(VideoFormat.VP8_RTP));
 		outputBuffer.setOffset(offset);
-		outputBuffer.setLength(len + pd.length);
+		outputBuffer.setLength(len + pdLen);
 
 		if (inLen <= MAX_SIZE) {
 			firstPacket = true;
@@ -0,0 +1,563 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.codec.video.vp8;
+
+import org.jitsi.impl.neomedia.codec.video.vp8.DePacketizer.VP8PayloadDescriptor;
+
+/**
+ * Assembles VP8 compressed frames out of the payloads of the RTP packets which
+ * carry them (see {@link "http://tools.ietf.org/html/rfc7741"}) without
+ * allocating anything per packet. The payloads (with the VP8 payload
+ * descriptors stripped) of the frame being assembled are kept in a ring of
+ * reusable containers indexed by RTP sequence number (which grows only if a
+ * frame spans more packets than it has containers) and a complete frame is
+ * copied once, either into an array of the caller or into a single frame
+ * buffer of the assembler which grows in place.
+ * <p>
+ * The VP8 payload descriptor of each packet is parsed once and the fields of
+ * the frame (e.g. the PictureID, the TL0PICIDX and whether it is a keyframe)
+ * are exposed so that they do not have to be parsed again. Not thread-safe.
+ */
+public class VP8FrameAssembler {
+	/**
+	 * The result of {@link #add(byte[], int, int, int, long, boolean)} which
+	 * indicates that the packet was added to the frame being assembled which
+	 * is not complete yet.
+	 */
+	public static final int ADDED = 0;
+
+	/**
+	 * The flag in the result of
+	 * {@link #add(byte[], int, int, int, long, boolean)} which indicates that
+	 * the packet completed a frame.
+	 */
+	public static final int COMPLETE = 1;
+
+	/**
+	 * The flag in the result of
+	 * {@link #add(byte[], int, int, int, long, boolean)} which indicates that
+	 * the packet was discarded (because it was invalid, a duplicate or late).
+	 */
+	public static final int DISCARDED = 2;
+
+	/**
+	 * The flag in the result of
+	 * {@link #add(byte[], int, int, int, long, boolean)} which indicates that
+	 * an incomplete frame was dropped because the packet belongs to a
+	 * subsequent frame.
+	 */
+	public static final int DROPPED = 4;
+
+	/**
+	 * The initial number of containers of the ring (a power of two).
+	 */
+	private static final int INITIAL_RING_SIZE = 64;
+
+	/**
+	 * The length of the containers when first allocated.
+	 */
+	private static final int INITIAL_CONTAINER_LENGTH = 1500;
+
+	/**
+	 * The maximum number of containers of the ring i.e. of packets of a
+	 * frame.
+	 */
+	private static final int MAX_RING_SIZE = 4096;
+
+	/**
+	 * Gets the number of sequence numbers from a specific RTP sequence number
+	 * to another, taking into account the wrap at 2^16.
+	 *
+	 * @param from
+	 *            the RTP sequence number to count from
+	 * @param to
+	 *            the RTP sequence number to count to
+	 * @return the number of sequence numbers from <tt>from</tt> to
+	 *         <tt>to</tt> in the range [-2^15, 2^15)
+	 */
+	private static int seqDiff(int from, int to) {
+		return (short) (to - from);
+	}
+
+	/**
+	 * Whether the frame being assembled is complete (and has not been reset
+	 * since).
+	 */
+	private boolean complete = false;
+
+	/**
+	 * The payloads of the packets stored in the ring (reused).
+	 */
+	private byte[][] containers = new byte[INITIAL_RING_SIZE][];
+
+	/**
+	 * The array which holds the payload of the frame which is complete if it
+	 * was carried by a single packet (and has not been copied into a
+	 * container) or <tt>null</tt>.
+	 */
+	private byte[] directBuf;
+
+	/**
+	 * The offset in {@link #directBuf} of the payload of the frame which is
+	 * complete.
+	 */
+	private int directOff;
+
+	/**
+	 * The RTP sequence number of the packet with the marker bit of the frame
+	 * being assembled or <tt>-1</tt>.
+	 */
+	private int endSeq = -1;
+
+	/**
+	 * The RTP sequence number of the earliest packet of the frame being
+	 * assembled or <tt>-1</tt> if there is no such packet.
+	 */
+	private int firstSeq = -1;
+
+	/**
+	 * The single frame buffer of {@link #getFrame()}.
+	 */
+	private byte[] frame = new byte[0];
+
+	/**
+	 * Whether {@link #frame} holds the frame which is complete.
+	 */
+	private boolean frameAssembled = false;
+
+	/**
+	 * The sum of the lengths of the payloads of the frame being assembled.
+	 */
+	private int frameLength = 0;
+
+	/**
+	 * Whether the frame being assembled is a keyframe. Known once the packet
+	 * which starts it has been added.
+	 */
+	private boolean keyFrame = false;
+
+	/**
+	 * The RTP sequence number of the last packet of the last complete frame or
+	 * <tt>-1</tt> if no frame has been completed yet.
+	 */
+	private int lastCompleteSeq = -1;
+
+	/**
+	 * The RTP sequence number of the latest packet of the frame being
+	 * assembled or <tt>-1</tt> if there is no such packet.
+	 */
+	private int lastSeq = -1;
+
+	/**
+	 * The lengths of the payloads in {@link #containers}.
+	 */
+	private int[] lengths = new int[INITIAL_RING_SIZE];
+
+	/**
+	 * The number of packets of the frame being assembled.
+	 */
+	private int packetCount = 0;
+
+	/**
+	 * The PictureID of the frame being assembled or <tt>-1</tt> if the
+	 * packets do not carry it.
+	 */
+	private int pictureId = -1;
+
+	/**
+	 * The RTP sequence numbers of the packets of which the payloads are in
+	 * {@link #containers} or <tt>-1</tt> for the containers which are
+	 * unused.
+	 */
+	private int[] seqs = newSeqs(INITIAL_RING_SIZE);
+
+	/**
+	 * The RTP sequence number of the packet which starts the frame being
+	 * assembled or <tt>-1</tt>.
+	 */
+	private int startSeq = -1;
+
+	/**
+	 * The RTP timestamp of the frame being assembled or <tt>-1</tt> if there
+	 * is no such frame.
+	 */
+	private long timestamp = -1;
+
+	/**
+	 * The TL0PICIDX of the frame being assembled or <tt>-1</tt> if the
+	 * packets do not carry it.
+	 */
+	private int tl0PicIdx = -1;
+
+	/**
+	 * Initializes a new array of RTP sequence numbers in which all elements
+	 * are unused.
+	 *
+	 * @param length
+	 *            the length of the new array
+	 * @return the new array
+	 */
+	private static int[] newSeqs(int length) {
+		int[] seqs = new int[length];
+
+		for (int i = 0; i < length; i++)
+			seqs[i] = -1;
+		return seqs;
+	}
+
+	/**
+	 * Adds the payload of an RTP packet (starting with its VP8 payload
+	 * descriptor) to the frame being assembled. If the frame is complete
+	 * afterwards, it may be retrieved until the next invocation.
+	 *
+	 * @param buf
+	 *            the array which holds the payload
+	 * @param off
+	 *            the offset in <tt>buf</tt> of the payload
+	 * @param len
+	 *            the length of the payload
+	 * @param seq
+	 *            the RTP sequence number of the packet
+	 * @param timestamp
+	 *            the RTP timestamp of the packet
+	 * @param marker
+	 *            whether the marker bit of the packet is set
+	 * @return {@link #ADDED} or a combination of {@link #COMPLETE},
+	 *         {@link #DISCARDED} and {@link #DROPPED}
+	 */
+	public int add(byte[] buf, int off, int len, int seq, long timestamp, boolean marker) {
+		int end = off + len;
+
+		if (len < 1)
+			return DISCARDED;
+
+		// Parse the VP8 payload descriptor.
+		int b = buf[off++];
+		boolean start = ((b & VP8PayloadDescriptor.S_BIT) != 0) && ((b & 0x07) == 0);
+		int pictureId = -1;
+		int tl0PicIdx = -1;
+
+		if ((b & VP8PayloadDescriptor.X_BIT) != 0) {
+			if (off >= end)
+				return DISCARDED;
+
+			int x = buf[off++];
+
+			if ((x & VP8PayloadDescriptor.I_BIT) != 0) {
+				if (off >= end)
+					return DISCARDED;
+				if ((buf[off] & VP8PayloadDescriptor.M_BIT) != 0) {
+					if (off + 1 >= end)
+						return DISCARDED;
+					pictureId = ((buf[off] & 0x7F) << 8) | (buf[off + 1] & 0xFF);
+					off += 2;
+				} else {
+					pictureId = buf[off++] & 0x7F;
+				}
+			}
+			if ((x & VP8PayloadDescriptor.L_BIT) != 0) {
+				if (off >= end)
+					return DISCARDED;
+				tl0PicIdx = buf[off++] & 0xFF;
+			}
+			if ((x & (VP8PayloadDescriptor.T_BIT | VP8PayloadDescriptor.K_BIT)) != 0)
+				off++;
+			if (off > end)
+				return DISCARDED;
+		}
+
+		seq &= 0xFFFF;
+
+		int result = ADDED;
+
+		if (complete)
+			reset();
+		if (packetCount == 0) {
+			// A late packet of a frame which has been completed already.
+			if ((lastCompleteSeq != -1) && (seqDiff(lastCompleteSeq, seq) <= 0))
+				return DISCARDED;
+		} else if (((timestamp != -1) && (this.timestamp != -1) && (timestamp != this.timestamp)) || ((pictureId != -1) && (this.pictureId != -1) && (pictureId != this.pictureId))) {
+			// The packet belongs to another frame.
+			if (seqDiff(firstSeq, seq) <= 0)
+				return DISCARDED;
+			reset();
+			result |= DROPPED;
+		}
+
+		int payloadLength = end - off;
+
+		// A whole frame in a single packet. Avoid the copy into a container,
+		// the frame is copied out of the packet before the next packet
+		// arrives anyway.
+		if ((packetCount == 0) && start && marker) {
+			directBuf = buf;
+			directOff = off;
+			this.timestamp = timestamp;
+			this.pictureId = pictureId;
+			this.tl0PicIdx = tl0PicIdx;
+			packetCount = 1;
+			frameLength = payloadLength;
+			endSeq = firstSeq = lastSeq = startSeq = seq;
+			keyFrame = (payloadLength > 0) && ((buf[off] & 0x01) == 0);
+			complete = true;
+			lastCompleteSeq = seq;
+			return result | COMPLETE;
+		}
+
+		// Make sure that the ring spans the frame with the packet.
+		int newFirstSeq = (packetCount == 0) ? seq : ((seqDiff(firstSeq, seq) < 0) ? seq : firstSeq);
+		int newLastSeq = (packetCount == 0) ? seq : ((seqDiff(lastSeq, seq) > 0) ? seq : lastSeq);
+		int span = seqDiff(newFirstSeq, newLastSeq) + 1;
+
+		if (span > MAX_RING_SIZE) {
+			// The packet is too far from the frame being assembled to belong
+			// to it.
+			reset();
+			result |= DROPPED;
+			newFirstSeq = newLastSeq = seq;
+			span = 1;
+		}
+		if (span > seqs.length)
+			grow(span);
+
+		int index = seq & (seqs.length - 1);
+
+		if (seqs[index] == seq)
+			return result | DISCARDED;
+
+		byte[] container = containers[index];
+
+		if ((container == null) || (container.length < payloadLength))
+			containers[index] = container = new byte[Math.max(payloadLength, INITIAL_CONTAINER_LENGTH)];
+		System.arraycopy(buf, off, container, 0, payloadLength);
+		lengths[index] = payloadLength;
+		seqs[index] = seq;
+
+		if (packetCount == 0) {
+			this.timestamp = timestamp;
+			this.pictureId = pictureId;
+			this.tl0PicIdx = tl0PicIdx;
+		}
+		packetCount++;
+		frameLength += payloadLength;
+		firstSeq = newFirstSeq;
+		lastSeq = newLastSeq;
+		if (start) {
+			startSeq = seq;
+			// The P bit of the VP8 payload header (RFC 6386) is inverted.
+			keyFrame = (payloadLength > 0) && ((container[0] & 0x01) == 0);
+		}
+		if (marker)
+			endSeq = seq;
+
+		if ((startSeq == firstSeq) && (endSeq == lastSeq) && (packetCount == span)) {
+			complete = true;
+			lastCompleteSeq = lastSeq;
+			result |= COMPLETE;
+		}
+		return result;
+	}
+
+	/**
+	 * Drops the frame being assembled (if any) and forgets the last complete
+	 * frame so that a packet of any frame is accepted next.
+	 */
+	public void clear() {
+		reset();
+		lastCompleteSeq = -1;
+	}
+
+	/**
+	 * Copies the frame which is complete into a specific array.
+	 *
+	 * @param dst
+	 *            the array to copy the frame into
+	 * @param dstOff
+	 *            the offset in <tt>dst</tt> at which the frame is to be copied
+	 * @return the number of bytes copied i.e. {@link #getFrameLength()}
+	 */
+	public int copyFrame(byte[] dst, int dstOff) {
+		if (!complete)
+			throw new IllegalStateException("The frame is not complete.");
+
+		if (frameAssembled) {
+			System.arraycopy(frame, 0, dst, dstOff, frameLength);
+		} else if (directBuf != null) {
+			System.arraycopy(directBuf, directOff, dst, dstOff, frameLength);
+		} else {
+			int mask = seqs.length - 1;
+			int ptr = dstOff;
+
+			for (int i = 0; i < packetCount; i++) {
+				int index = (firstSeq + i) & mask;
+				int length = lengths[index];
+
+				System.arraycopy(containers[index], 0, dst, ptr, length);
+				ptr += length;
+			}
+		}
+		return frameLength;
+	}
+
+	/**
+	 * Gets the frame which is complete in the single frame buffer of this
+	 * assembler. The returned array is reused (and overwritten) by the
+	 * subsequent frames.
+	 *
+	 * @return the array which holds the frame which is complete at its
+	 *         beginning. Its length is {@link #getFrameLength()}.
+	 */
+	public byte[] getFrame() {
+		if (!frameAssembled) {
+			if (frame.length < frameLength)
+				frame = new byte[Math.max(frameLength, 2 * frame.length)];
+			copyFrame(frame, 0);
+			frameAssembled = true;
+		}
+		return frame;
+	}
+
+	/**
+	 * Gets the length of the frame which is complete.
+	 *
+	 * @return the length of the frame which is complete
+	 */
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * Gets the RTP sequence number of the first packet of the frame which is
+	 * complete.
+	 *
+	 * @return the RTP sequence number of the first packet of the frame which
+	 *         is complete
+	 */
+	public int getFirstSeq() {
+		return firstSeq;
+	}
+
+	/**
+	 * Gets the RTP sequence number of the last packet of the frame which is
+	 * complete.
+	 *
+	 * @return the RTP sequence number of the last packet of the frame which
+	 *         is complete
+	 */
+	public int getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * Gets the PictureID of the frame which is (being) assembled.
+	 *
+	 * @return the PictureID of the frame which is (being) assembled or
+	 *         <tt>-1</tt> if its packets do not carry it
+	 */
+	public int getPictureId() {
+		return pictureId;
+	}
+
+	/**
+	 * Gets the RTP timestamp of the frame which is (being) assembled.
+	 *
+	 * @return the RTP timestamp of the frame which is (being) assembled or
+	 *         <tt>-1</tt> if there is no such frame
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Gets the TL0PICIDX of the frame which is (being) assembled.
+	 *
+	 * @return the TL0PICIDX of the frame which is (being) assembled or
+	 *         <tt>-1</tt> if its packets do not carry it
+	 */
+	public int getTL0PICIDX() {
+		return tl0PicIdx;
+	}
+
+	/**
+	 * Grows the ring so that it spans at least a specific number of RTP
+	 * sequence numbers, keeping the containers of the frame being assembled.
+	 *
+	 * @param span
+	 *            the number of RTP sequence numbers to be spanned
+	 */
+	private void grow(int span) {
+		int length = seqs.length;
+
+		while (length < span)
+			length *= 2;
+
+		byte[][] newContainers = new byte[length][];
+		int[] newLengths = new int[length];
+		int[] newSeqs = newSeqs(length);
+		int newMask = length - 1;
+
+		for (int i = 0; i < seqs.length; i++) {
+			int seq = seqs[i];
+
+			if (seq != -1) {
+				int index = seq & newMask;
+
+				newContainers[index] = containers[i];
+				newLengths[index] = lengths[i];
+				newSeqs[index] = seq;
+			}
+		}
+		// Keep the other containers for reuse.
+		for (int i = 0; i < seqs.length; i++) {
+			if ((seqs[i] == -1) && (containers[i] != null)) {
+				for (int j = i; j < length; j += seqs.length) {
+					if (newContainers[j] == null) {
+						newContainers[j] = containers[i];
+						break;
+					}
+				}
+			}
+		}
+		containers = newContainers;
+		lengths = newLengths;
+		seqs = newSeqs;
+	}
+
+	/**
+	 * Determines whether the frame which is (being) assembled is a keyframe.
+	 *
+	 * @return <tt>true</tt> if the frame which is (being) assembled is a
+	 *         keyframe; otherwise, <tt>false</tt>
+	 */
+	public boolean isKeyFrame() {
+		return keyFrame;
+	}
+
+	/**
+	 * Drops the frame which is (being) assembled and makes its containers
+	 * available for the next frame.
+	 */
+	private void reset() {
+		if ((packetCount != 0) && (directBuf == null)) {
+			int mask = seqs.length - 1;
+			int span = seqDiff(firstSeq, lastSeq) + 1;
+
+			for (int i = 0; i < span; i++)
+				seqs[(firstSeq + i) & mask] = -1;
+		}
+
+		complete = false;
+		directBuf = null;
+		endSeq = firstSeq = lastSeq = startSeq = -1;
+		frameAssembled = false;
+		frameLength = 0;
+		keyFrame = false;
+		packetCount = 0;
+		pictureId = tl0PicIdx = -1;
+		timestamp = -1;
+	}
+}
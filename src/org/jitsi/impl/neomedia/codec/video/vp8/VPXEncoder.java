@@ -6,11 +6,13 @@
  */
 package org.jitsi.impl.neomedia.codec.video.vp8;
 
+import java.awt.Component;
 import java.awt.Dimension;
 
 import javax.media.Buffer;
 import javax.media.Format;
 import javax.media.ResourceUnavailableException;
+import javax.media.control.BitRateControl;
 import javax.media.format.VideoFormat;
 import javax.media.format.YUVFormat;
 
@@ -21,11 +23,12 @@ import org.jitsi.service.neomedia.codec.Constants;
 import org.jitsi.util.Logger;
 
 /**
- * Implements a VP8 encoder.
+ * Implements a VP8 encoder. The target bitrate may be changed while encoding
+ * through the <tt>BitRateControl</tt> of the encoder.
  * 
  * @author Boris Grozev
  */
-public class VPXEncoder extends AbstractCodec2 {
+public class VPXEncoder extends AbstractCodec2 implements BitRateControl {
 	/**
 	 * VPX interface to use
 	 */
@@ -47,11 +50,23 @@ public class VPXEncoder extends AbstractCodec2 {
 	 */
 	private static final Logger logger = Logger.getLogger(VPXEncoder.class);
 
+	/**
+	 * The minimum target bitrate in kilobits per second which may be set
+	 * through the <tt>BitRateControl</tt> of the encoder.
+	 */
+	private static final int MIN_BITRATE = 30;
+
 	/**
 	 * Default output formats
 	 */
 	private static final VideoFormat[] SUPPORTED_OUTPUT_FORMATS = new VideoFormat[] { new VideoFormat(VideoFormat.VP8) };
 
+	/**
+	 * The target bitrate in kilobits per second the encoder is configured
+	 * with.
+	 */
+	private int bitRate;
+
 	/**
 	 * Pointer to a native vpx_codec_dec_cfg structure containing encoder
 	 * configuration
@@ -95,6 +110,14 @@ public class VPXEncoder extends AbstractCodec2 {
 	 */
 	private long pkt = 0;
 
+	/**
+	 * The target bitrate in kilobits per second set through the
+	 * <tt>BitRateControl</tt> of the encoder and not yet applied to the
+	 * encoder context or <tt>-1</tt> if there is none. Set by the thread
+	 * which estimates the bandwidth and read by the thread which encodes.
+	 */
+	private volatile int pendingBitRate = -1;
+
 	/**
 	 * Current width of the input and output frames
 	 */
@@ -121,6 +144,8 @@ public class VPXEncoder extends AbstractCodec2 {
 		/* offsetV */Format.NOT_SPECIFIED) };
 		inputFormat = null;
 		outputFormat = null;
+
+		addControl(this);
 	}
 
 	/**
@@ -169,7 +194,14 @@ public class VPXEncoder extends AbstractCodec2 {
 		}
 		VPX.codec_enc_config_default(INTERFACE, cfg, 0);
 
-		int bitRate = NeomediaServiceUtils.getMediaServiceImpl().getDeviceConfiguration().getVideoBitrate();
+		bitRate = getMaxBitRate();
+
+		int pendingBitRate = this.pendingBitRate;
+
+		if (pendingBitRate != -1) {
+			bitRate = pendingBitRate;
+			this.pendingBitRate = -1;
+		}
 
 		// set some settings
 		VPX.codec_enc_cfg_set_rc_target_bitrate(cfg, bitRate);
@@ -195,6 +227,92 @@ public class VPXEncoder extends AbstractCodec2 {
 			logger.debug("VP8 encoder opened succesfully");
 	}
 
+	/**
+	 * Implements {@link BitRateControl#getBitRate()}.
+	 * 
+	 * @return the target bitrate of the encoder in bits per second
+	 */
+	public int getBitRate() {
+		int pendingBitRate = this.pendingBitRate;
+
+		return 1000 * ((pendingBitRate == -1) ? bitRate : pendingBitRate);
+	}
+
+	/**
+	 * Implements {@link javax.media.Control#getControlComponent()}.
+	 * <tt>VPXEncoder</tt> does not provide user interface of its own.
+	 * 
+	 * @return <tt>null</tt>
+	 */
+	public Component getControlComponent() {
+		return null;
+	}
+
+	/**
+	 * Gets the configured video bitrate which is the highest target bitrate of
+	 * the encoder.
+	 * 
+	 * @return the configured video bitrate in kilobits per second
+	 */
+	private static int getMaxBitRate() {
+		return NeomediaServiceUtils.getMediaServiceImpl().getDeviceConfiguration().getVideoBitrate();
+	}
+
+	/**
+	 * Implements {@link BitRateControl#getMaxSupportedBitRate()}.
+	 * 
+	 * @return the configured video bitrate in bits per second
+	 */
+	public int getMaxSupportedBitRate() {
+		return 1000 * getMaxBitRate();
+	}
+
+	/**
+	 * Implements {@link BitRateControl#getMinSupportedBitRate()}.
+	 * 
+	 * @return the minimum target bitrate of the encoder in bits per second
+	 */
+	public int getMinSupportedBitRate() {
+		return 1000 * MIN_BITRATE;
+	}
+
+	/**
+	 * Implements {@link BitRateControl#setBitRate(int)}. The new target
+	 * bitrate is applied before the next frame is encoded and never exceeds
+	 * the configured video bitrate.
+	 * 
+	 * @param bitrate
+	 *            the target bitrate in bits per second
+	 * @return the target bitrate in bits per second which has been set
+	 */
+	public int setBitRate(int bitrate) {
+		int kbps = Math.max(MIN_BITRATE, Math.min(bitrate / 1000, getMaxBitRate()));
+
+		pendingBitRate = kbps;
+		return 1000 * kbps;
+	}
+
+	/**
+	 * Changes the target bitrate of the encoder context without
+	 * reinitializing it.
+	 * 
+	 * @param bitRate
+	 *            the new target bitrate in kilobits per second
+	 */
+	private void updateBitRate(int bitRate) {
+		if ((cfg == 0) || (context == 0))
+			return;
+
+		VPX.codec_enc_cfg_set_rc_target_bitrate(cfg, bitRate);
+
+		int ret = VPX.codec_enc_config_set(context, cfg);
+
+		if (ret == VPX.CODEC_OK)
+			this.bitRate = bitRate;
+		else
+			logger.warn("Failed to set the target bitrate to " + bitRate + " kbps: " + VPX.codec_err_to_string(ret));
+	}
+
 	/**
 	 * Updates the input width and height the encoder should expect.
 	 * 
@@ -268,6 +386,14 @@ public class VPXEncoder extends AbstractCodec2 {
 			if (width > 0 && height > 0 && (width != this.width || height != this.height))
 				updateSize(width, height);
 
+			int pendingBitRate = this.pendingBitRate;
+
+			if (pendingBitRate != -1) {
+				this.pendingBitRate = -1;
+				if (pendingBitRate != bitRate)
+					updateBitRate(pendingBitRate);
+			}
+
 			// setup img
 			int strideY = format.getStrideY();
 			if (strideY == Format.NOT_SPECIFIED)
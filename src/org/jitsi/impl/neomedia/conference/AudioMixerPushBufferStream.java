@@ -29,7 +29,10 @@ import javax.media.protocol.SourceStream;
 import org.jitsi.impl.neomedia.ArrayIOUtils;
 import org.jitsi.impl.neomedia.control.ControlsAdapter;
 import org.jitsi.impl.neomedia.protocol.CachingPushBufferStream;
+import org.jitsi.impl.neomedia.protocol.MediaClock;
 import org.jitsi.impl.neomedia.protocol.StreamSubstituteBufferTransferHandler;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
 import org.jitsi.util.Logger;
 
 /**
@@ -38,6 +41,14 @@ import org.jitsi.util.Logger;
  * <tt>AudioMixer</tt> and pushes it to <tt>AudioMixingPushBufferStream</tt>s
  * for audio mixing.
  * <p>
+ * By default the mixing is clocked by the pushes of the first input
+ * <tt>PushBufferStream</tt> i.e. the <tt>CaptureDevice</tt> of the
+ * <tt>AudioMixer</tt>. If {@link #CLOCKED_PNAME} is <tt>true</tt>, all input
+ * <tt>PushBufferStream</tt>s are cached instead and the mixing is clocked by
+ * the shared <tt>MediaClock</tt> so that all mixes of a node are produced in
+ * the same pass.
+ * </p>
+ * <p>
  * Pretty much private to <tt>AudioMixer</tt> but extracted into its own file
  * for the sake of clarity.
  * </p>
@@ -45,6 +56,19 @@ import org.jitsi.util.Logger;
  * @author Lyubomir Marinov
  */
 class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferStream {
+	/**
+	 * The period in milliseconds of the <tt>AudioMixerPushBufferStream</tt>s
+	 * on the shared <tt>MediaClock</tt>.
+	 */
+	private static final long CLOCK_TICK_INTERVAL = 20;
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * whether the mixing is to be clocked by the shared <tt>MediaClock</tt>
+	 * rather than by the first input <tt>PushBufferStream</tt>.
+	 */
+	public static final String CLOCKED_PNAME = AudioMixerPushBufferStream.class.getName() + ".clocked";
+
 	/**
 	 * The <tt>Logger</tt> used by the <tt>AudioMixerPushBufferStream</tt> class
 	 * and its instances for logging output.
@@ -57,6 +81,23 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 	 */
 	private final AudioMixer audioMixer;
 
+	/**
+	 * The indicator which determines whether the mixing of this instance is
+	 * clocked by the shared <tt>MediaClock</tt>.
+	 */
+	private final boolean clocked;
+
+	/**
+	 * The <tt>MediaClock.Listener</tt> which mixes on the ticks of the shared
+	 * <tt>MediaClock</tt> if {@link #clocked}.
+	 */
+	private final MediaClock.Listener clockListener = new MediaClock.Listener() {
+		@Override
+		public void tick() {
+			transferHandler.transferData(null);
+		}
+	};
+
 	/**
 	 * The <tt>SourceStream</tt>s (in the form of <tt>InStreamDesc</tt> so that
 	 * this instance can track back the <tt>AudioMixingPushBufferDataSource</tt>
@@ -151,6 +192,10 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 	public AudioMixerPushBufferStream(AudioMixer audioMixer, AudioFormat outFormat) {
 		this.audioMixer = audioMixer;
 		this.outFormat = outFormat;
+
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		clocked = (cfg != null) && cfg.getBoolean(CLOCKED_PNAME, false);
 	}
 
 	/**
@@ -191,6 +236,8 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 			 * risks of deadlocks.
 			 */
 			audioMixer.start(this, generation);
+			if (clocked)
+				MediaClock.getSharedInstance().addListener(clockListener, CLOCK_TICK_INTERVAL);
 		}
 	}
 
@@ -742,6 +789,8 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 			}
 		}
 		if (stop) {
+			if (clocked)
+				MediaClock.getSharedInstance().removeListener(clockListener);
 			/*
 			 * The stop method of AudioMixer is potentially blocking so it has
 			 * been moved out of synchronized blocks in order to reduce the
@@ -848,7 +897,11 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 			if (newValue == null)
 				return;
 
-			boolean skippedForTransferHandler = false;
+			/*
+			 * When clocked by the MediaClock, none of the input streams is
+			 * read on its own pushes so all of them are to be cached.
+			 */
+			boolean skippedForTransferHandler = clocked;
 
 			for (InStreamDesc inStreamDesc : newValue) {
 				SourceStream inStream = inStreamDesc.getInStream();
@@ -929,7 +982,7 @@ class AudioMixerPushBufferStream extends ControlsAdapter implements PushBufferSt
 
 				if (transferHandler == null)
 					inStreamTransferHandler = null;
-				else if (transferHandlerIsSet) {
+				else if (transferHandlerIsSet || clocked) {
 					inStreamTransferHandler = new BufferTransferHandler() {
 						@Override
 						public void transferData(PushBufferStream stream) {
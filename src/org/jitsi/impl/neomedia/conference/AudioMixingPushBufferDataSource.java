@@ -23,6 +23,7 @@ import org.jitsi.impl.neomedia.control.AbstractControls;
 import org.jitsi.impl.neomedia.protocol.InbandDTMFDataSource;
 import org.jitsi.impl.neomedia.protocol.MuteDataSource;
 import org.jitsi.service.neomedia.DTMFInbandTone;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
@@ -53,6 +54,12 @@ public class AudioMixingPushBufferDataSource extends PushBufferDataSource implem
 	 */
 	private boolean connected;
 
+	/**
+	 * The histogram to record the time spent mixing the audio of this
+	 * <tt>DataSource</tt> in or <tt>null</tt> if it is not measured.
+	 */
+	private volatile LatencyHistogram mixLatency;
+
 	/**
 	 * The indicator which determines whether this <tt>DataSource</tt> is set to
 	 * transmit "silence" instead of the actual media.
@@ -258,6 +265,17 @@ public class AudioMixingPushBufferDataSource extends PushBufferDataSource implem
 		return audioMixer.getFormatControls();
 	}
 
+	/**
+	 * Gets the histogram to record the time spent mixing the audio of this
+	 * <tt>DataSource</tt> in.
+	 * 
+	 * @return the histogram to record the time spent mixing in or
+	 *         <tt>null</tt> if it is not measured
+	 */
+	LatencyHistogram getMixLatency() {
+		return mixLatency;
+	}
+
 	/**
 	 * Gets the next inband DTMF tone signal.
 	 * 
@@ -331,6 +349,18 @@ public class AudioMixingPushBufferDataSource extends PushBufferDataSource implem
 		this.mute = mute;
 	}
 
+	/**
+	 * Sets the histogram to record the time spent mixing the audio of this
+	 * <tt>DataSource</tt> in (in microseconds).
+	 * 
+	 * @param mixLatency
+	 *            the histogram to record the time spent mixing in or
+	 *            <tt>null</tt> to not measure it
+	 */
+	public void setMixLatency(LatencyHistogram mixLatency) {
+		this.mixLatency = mixLatency;
+	}
+
 	/**
 	 * Implements {@link DataSource#start()}. Starts the output
 	 * <tt>PushBufferStream</tt> of this <tt>DataSource</tt> (if it exists) and
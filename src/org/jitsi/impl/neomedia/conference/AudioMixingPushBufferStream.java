@@ -19,7 +19,9 @@ import javax.media.protocol.PushBufferStream;
 import javax.media.protocol.SourceStream;
 
 import org.jitsi.impl.neomedia.ArrayIOUtils;
+import org.jitsi.impl.neomedia.audiolevel.AudioLevelCalculator;
 import org.jitsi.impl.neomedia.control.ControlsAdapter;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
@@ -318,7 +320,12 @@ public class AudioMixingPushBufferStream extends ControlsAdapter implements Push
 		}
 
 		AudioFormat outFormat = getFormat();
+		LatencyHistogram mixLatency = dataSource.getMixLatency();
+		long mixStartTime = (mixLatency == null) ? 0L : System.nanoTime();
 		short[] outSamples = mix(inSamples, outFormat, maxInSampleCount);
+
+		if (mixLatency != null)
+			mixLatency.record((System.nanoTime() - mixStartTime) / 1000L);
 		int outSampleCount = Math.min(maxInSampleCount, outSamples.length);
 
 		if (Format.byteArray.equals(outFormat.getDataType())) {
@@ -349,6 +356,8 @@ public class AudioMixingPushBufferStream extends ControlsAdapter implements Push
 			buffer.setLength(outLength);
 			buffer.setOffset(0);
 			buffer.setTimeStamp(timeStamp);
+			// The mix does not have the audio level of any of its inputs.
+			AudioLevelCalculator.clearAudioLevel(buffer);
 		} else {
 			throw new UnsupportedOperationException("AudioMixingPushBufferStream.read(Buffer)");
 		}
@@ -38,6 +38,7 @@ import org.jitsi.impl.neomedia.conference.DataSourceFilter;
 import org.jitsi.impl.neomedia.protocol.PushBufferDataSourceDelegate;
 import org.jitsi.impl.neomedia.protocol.TranscodingDataSource;
 import org.jitsi.service.neomedia.MediaDirection;
+import org.jitsi.service.neomedia.PacketPathStage;
 import org.jitsi.service.neomedia.QualityPreset;
 import org.jitsi.service.neomedia.RTPExtension;
 import org.jitsi.service.neomedia.VolumeControl;
@@ -45,6 +46,7 @@ import org.jitsi.service.neomedia.codec.EncodingConfiguration;
 import org.jitsi.service.neomedia.device.MediaDevice;
 import org.jitsi.service.neomedia.device.MediaDeviceWrapper;
 import org.jitsi.service.neomedia.event.SimpleAudioLevelListener;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
@@ -1092,6 +1094,29 @@ public class AudioMixerMediaDevice extends AbstractMediaDevice implements MediaD
 			audioMixerMediaDeviceSession.setOutputVolumeControl(outputVolumeControl);
 		}
 
+		/**
+		 * {@inheritDoc}
+		 * 
+		 * Overrides the super implementation to also record the time spent
+		 * mixing the audio sent by the <tt>MediaStream</tt> in the respective
+		 * histogram.
+		 */
+		@Override
+		public void setPacketPathLatencies(LatencyHistogram[] packetPathLatencies) {
+			super.setPacketPathLatencies(packetPathLatencies);
+
+			DataSource captureDevice = getCaptureDevice();
+
+			/*
+			 * Unwrap wrappers of the captureDevice until
+			 * AudioMixingPushBufferDataSource is found.
+			 */
+			if (captureDevice instanceof PushBufferDataSourceDelegate<?>)
+				captureDevice = ((PushBufferDataSourceDelegate<?>) captureDevice).getDataSource();
+			if (captureDevice instanceof AudioMixingPushBufferDataSource)
+				((AudioMixingPushBufferDataSource) captureDevice).setMixLatency((packetPathLatencies == null) ? null : packetPathLatencies[PacketPathStage.MIX.ordinal()]);
+		}
+
 		/**
 		 * Adds <tt>listener</tt> to the list of
 		 * <tt>SimpleAudioLevelListener</tt>s registered with the mixer session
@@ -19,6 +19,7 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.media.Codec;
 import javax.media.ConfigureCompleteEvent;
 import javax.media.ControllerClosedEvent;
 import javax.media.ControllerEvent;
@@ -42,6 +43,7 @@ import javax.media.protocol.PullBufferDataSource;
 import javax.media.protocol.PushBufferDataSource;
 import javax.media.rtp.ReceiveStream;
 
+import net.sf.fmj.media.control.ProcessingTimeControl;
 import net.sf.fmj.media.rtp.rtpmediaformat.RTPMediaFormat;
 import net.sf.fmj.media.rtp.rtpmediaformat.RTPMediaType;
 
@@ -56,10 +58,12 @@ import org.jitsi.impl.neomedia.protocol.RewritablePushBufferDataSource;
 import org.jitsi.impl.neomedia.protocol.TranscodingDataSource;
 import org.jitsi.service.neomedia.DTMFInbandTone;
 import org.jitsi.service.neomedia.MediaDirection;
+import org.jitsi.service.neomedia.PacketPathStage;
 import org.jitsi.service.neomedia.codec.Constants;
 import org.jitsi.service.neomedia.control.AdvancedAttributesAwareCodec;
 import org.jitsi.service.neomedia.control.FormatParametersAwareCodec;
 import org.jitsi.service.neomedia.device.MediaDevice;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 import org.jitsi.util.OSUtils;
 import org.jitsi.util.event.PropertyChangeNotifier;
@@ -134,6 +138,13 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 	 */
 	private boolean mute = false;
 
+	/**
+	 * The latency histograms, indexed by the ordinals of
+	 * <tt>PacketPathStage</tt>, of the <tt>MediaStream</tt> which uses this
+	 * instance or <tt>null</tt> if the packet path latencies are not measured.
+	 */
+	private volatile LatencyHistogram[] packetPathLatencies;
+
 	/**
 	 * The list of playbacks of <tt>ReceiveStream</tt>s and/or
 	 * <tt>DataSource</tt>s performed by respective <tt>Player</tt>s on the
@@ -1221,6 +1232,7 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 			Processor player = (Processor) ev.getSourceController();
 
 			if (player != null) {
+				setProcessingTimeListener(player, PacketPathStage.DECODE);
 				playerRealizeComplete(player);
 
 				player.start();
@@ -1278,6 +1290,7 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 		} else if (ev instanceof RealizeCompleteEvent) {
 			Processor processor = (Processor) ev.getSourceController();
 
+			setProcessingTimeListener(processor, PacketPathStage.ENCODE);
 			for (FormatParametersAwareCodec fpac : getAllTrackControls(FormatParametersAwareCodec.class, processor)) {
 				Map<String, String> formatParameters = format == null ? null : format.getFormatSettings();
 				if (formatParameters != null)
@@ -1620,6 +1633,48 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 		}
 	}
 
+	/**
+	 * Sets the latency histograms of the <tt>MediaStream</tt> which uses this
+	 * instance to record the time spent in the codecs and renderers of
+	 * {@link #processor} and the <tt>Player</tt>s of the
+	 * <tt>ReceiveStream</tt>s in.
+	 * 
+	 * @param packetPathLatencies
+	 *            the latency histograms indexed by the ordinals of
+	 *            <tt>PacketPathStage</tt> or <tt>null</tt> to not measure
+	 */
+	public void setPacketPathLatencies(LatencyHistogram[] packetPathLatencies) {
+		this.packetPathLatencies = packetPathLatencies;
+
+		Processor processor = this.processor;
+
+		if (processor != null)
+			setProcessingTimeListener(processor, PacketPathStage.ENCODE);
+		for (Player player : getPlayers()) {
+			if (player instanceof Processor)
+				setProcessingTimeListener((Processor) player, PacketPathStage.DECODE);
+		}
+	}
+
+	/**
+	 * Makes the tracks of a specific realized <tt>Processor</tt> record the
+	 * time spent in their codecs and renderers in {@link #packetPathLatencies}
+	 * if they are set.
+	 * 
+	 * @param processor
+	 *            the <tt>Processor</tt> whose tracks are to be measured
+	 * @param codecStage
+	 *            the <tt>PacketPathStage</tt> to record the time spent in the
+	 *            codecs of <tt>processor</tt> as
+	 */
+	private void setProcessingTimeListener(Processor processor, PacketPathStage codecStage) {
+		LatencyHistogram[] packetPathLatencies = this.packetPathLatencies;
+		ProcessingTimeControl.Listener listener = (packetPathLatencies == null) ? null : new PacketPathLatencyListener(packetPathLatencies[codecStage.ordinal()], packetPathLatencies[PacketPathStage.RENDER.ordinal()]);
+
+		for (ProcessingTimeControl processingTimeControl : getAllTrackControls(ProcessingTimeControl.class, processor))
+			processingTimeControl.setListener(listener);
+	}
+
 	/**
 	 * Adds a new inband DTMF tone to send.
 	 * 
@@ -2021,6 +2076,50 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 		}
 	}
 
+	/**
+	 * Records the time spent in the codecs and renderers of the tracks of a
+	 * <tt>Processor</tt> in the packet path latency histograms of a
+	 * <tt>MediaStream</tt>.
+	 */
+	private static class PacketPathLatencyListener implements ProcessingTimeControl.Listener {
+		/**
+		 * The histogram to record the time spent in a codec in.
+		 */
+		private final LatencyHistogram codecLatency;
+
+		/**
+		 * The histogram to record the time spent in a renderer in.
+		 */
+		private final LatencyHistogram rendererLatency;
+
+		/**
+		 * Initializes a new <tt>PacketPathLatencyListener</tt> instance.
+		 * 
+		 * @param codecLatency
+		 *            the histogram to record the time spent in a codec in
+		 * @param rendererLatency
+		 *            the histogram to record the time spent in a renderer in
+		 */
+		public PacketPathLatencyListener(LatencyHistogram codecLatency, LatencyHistogram rendererLatency) {
+			this.codecLatency = codecLatency;
+			this.rendererLatency = rendererLatency;
+		}
+
+		/**
+		 * Records the time spent in a codec in microseconds.
+		 */
+		public void codecProcessed(Codec codec, long nanos) {
+			codecLatency.record(nanos / 1000L);
+		}
+
+		/**
+		 * Records the time spent in a renderer in microseconds.
+		 */
+		public void rendererProcessed(Renderer renderer, long nanos) {
+			rendererLatency.record(nanos / 1000L);
+		}
+	}
+
 	/**
 	 * Represents the information related to the playback of a
 	 * <tt>DataSource</tt> on the <tt>MediaDevice</tt> represented by a
@@ -2126,7 +2225,18 @@ public class MediaDeviceSession extends PropertyChangeNotifier {
 		if (transcodingDataSource == null)
 			return Collections.emptySet();
 		else {
-			return getAllTrackControls(controlType, transcodingDataSource.getTranscodingProcessor());
+			Processor processor = transcodingDataSource.getTranscodingProcessor();
+
+			if (processor == null) {
+				/*
+				 * The tracks are transcoded without a Processor and the
+				 * decoders are queried through the DataSource.
+				 */
+				Object control = transcodingDataSource.getControl(controlType.getName());
+
+				return controlType.isInstance(control) ? Collections.singleton(controlType.cast(control)) : Collections.<T> emptySet();
+			}
+			return getAllTrackControls(controlType, processor);
 		}
 	}
 
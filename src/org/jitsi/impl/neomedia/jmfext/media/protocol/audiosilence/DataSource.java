@@ -18,7 +18,7 @@ import javax.media.protocol.BufferTransferHandler;
 import org.jitsi.impl.neomedia.codec.AbstractCodec2;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.AbstractPushBufferCaptureDevice;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.AbstractPushBufferStream;
-import org.jitsi.impl.neomedia.jmfext.media.renderer.audio.AbstractAudioRenderer;
+import org.jitsi.impl.neomedia.protocol.MediaClock;
 import org.jitsi.util.Logger;
 
 /**
@@ -51,7 +51,8 @@ public class DataSource
     /**
      * The interval of time in milliseconds between two consecutive ticks of the
      * clock used by <tt>AudioSilenceCaptureDevice</tt> and, more specifically,
-     * <tt>AudioSilenceStream</tt>.
+     * <tt>AudioSilenceStream</tt> i.e. its period on the shared
+     * <tt>MediaClock</tt>.
      */
     private static final long CLOCK_TICK_INTERVAL = 20;
 
@@ -104,11 +105,13 @@ public class DataSource
 
     /**
      * Implements a <tt>PushBufferStream</tt> which provides silence in the form
-     * of audio media.
+     * of audio media. It is ticked by the shared <tt>MediaClock</tt> rather
+     * than by a thread of its own so that the <tt>AudioMixer</tt>s it clocks
+     * all produce their mixes in the same pass.
      */
     private static class AudioSilenceStream
         extends AbstractPushBufferStream<DataSource>
-        implements Runnable
+        implements MediaClock.Listener
     {
         /**
          * The indicator which determines whether {@link #start()} has been
@@ -116,12 +119,6 @@ public class DataSource
          */
         private boolean started;
 
-        /**
-         * The <tt>Thread</tt> which pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
-         */
-        private Thread thread;
-
         /**
          * Initializes a new <tt>AudioSilenceStream</tt> which is to be exposed
          * by a specific <tt>AudioSilenceCaptureDevice</tt> and which is to have
@@ -181,123 +178,6 @@ public class DataSource
             }
         }
 
-        /**
-         * Runs in {@link #thread} and pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
-         */
-        @Override
-        public void run()
-        {
-            try
-            {
-                /*
-                 * Make sure that the current thread which implements the actual
-                 * ticking of the clock implemented by this instance uses a
-                 * thread priority considered appropriate for audio processing.
-                 */
-                AbstractAudioRenderer.useAudioThreadPriority();
-
-                /*
-                 * The method implements a clock which ticks at a certain and
-                 * regular interval of time which is not affected by the
-                 * duration of the execution of, for example, the invocation of
-                 * BufferTransferHandler.transferData(PushBufferStream).
-                 *
-                 * XXX The implementation utilizes System.currentTimeMillis()
-                 * and, consequently, may be broken by run-time adjustments to
-                 * the system time.
-                 */
-                long tickTime = System.currentTimeMillis();
-
-                while (true)
-                {
-                    long sleepInterval = tickTime - System.currentTimeMillis();
-                    boolean tick = (sleepInterval <= 0);
-
-                    if (tick)
-                    {
-                        /*
-                         * The current thread has woken up just in time or too
-                         * late for the next scheduled clock tick and,
-                         * consequently, the clock should tick right now.
-                         */
-                        tickTime += CLOCK_TICK_INTERVAL;
-                    }
-                    else
-                    {
-                        /*
-                         * The current thread has woken up too early for the
-                         * next scheduled clock tick and, consequently, it
-                         * should sleep until the time of the next scheduled
-                         * clock tick comes.
-                         */
-                        try
-                        {
-                            Thread.sleep(sleepInterval);
-                        }
-                        catch (InterruptedException ie)
-                        {
-                            Thread.currentThread().interrupt();
-                        }
-                        /*
-                         * The clock will not tick and spurious wakeups will be
-                         * handled. However, the current thread will first check
-                         * whether it is still utilized by this
-                         * AudioSilenceStream in order to not delay stop
-                         * requests.
-                         */
-                    }
-
-                    synchronized (this)
-                    {
-                        /*
-                         * If the current Thread is no longer utilized by this
-                         * AudioSilenceStream, it no longer has the right to
-                         * touch it. If this AudioSilenceStream has been
-                         * stopped, the current Thread should stop as well.
-                         */
-                        if ((thread != Thread.currentThread()) || !started)
-                            break;
-                    }
-
-                    if (tick)
-                    {
-                        BufferTransferHandler transferHandler
-                            = this.transferHandler;
-
-                        if (transferHandler != null)
-                        {
-                            try
-                            {
-                                transferHandler.transferData(this);
-                            }
-                            catch (Throwable t)
-                            {
-                                if (t instanceof ThreadDeath)
-                                    throw (ThreadDeath) t;
-                                else
-                                {
-                                    logger.error(t, t);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            finally
-            {
-                synchronized (this)
-                {
-                    if (thread == Thread.currentThread())
-                    {
-                        thread = null;
-                        started = false;
-                        notifyAll();
-                    }
-                }
-            }
-        }
-
         /**
          * Starts the transfer of media data from this instance.
          *
@@ -308,31 +188,12 @@ public class DataSource
         public synchronized void start()
             throws IOException
         {
-            if (thread == null)
+            if (!started)
             {
-                String className = getClass().getName();
-
-                thread = new Thread(this, className);
-                thread.setDaemon(true);
-
-                boolean started = false;
-
-                try
-                {
-                    thread.start();
-                    started = true;
-                }
-                finally
-                {
-                    this.started = started;
-                    if (!started)
-                    {
-                        thread = null;
-                        notifyAll();
-
-                        throw new IOException("Failed to start " + className);
-                    }
-                }
+                started = true;
+                MediaClock.getSharedInstance().addListener(
+                        this,
+                        CLOCK_TICK_INTERVAL);
             }
         }
 
@@ -346,24 +207,50 @@ public class DataSource
         public synchronized void stop()
             throws IOException
         {
-            this.started = false;
-            notifyAll();
+            if (started)
+            {
+                started = false;
+                MediaClock.getSharedInstance().removeListener(this);
+            }
+        }
+
+        /**
+         * Runs on a thread of the shared <tt>MediaClock</tt> every
+         * {@link #CLOCK_TICK_INTERVAL} milliseconds and pushes available media
+         * data out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt>.
+         */
+        @Override
+        public void tick()
+        {
+            synchronized (this)
+            {
+                /*
+                 * A tick may be in progress when this AudioSilenceStream is
+                 * stopped.
+                 */
+                if (!started)
+                    return;
+            }
 
-            boolean interrupted = false;
+            BufferTransferHandler transferHandler = this.transferHandler;
 
-            while (thread != null)
+            if (transferHandler != null)
             {
                 try
                 {
-                    wait();
+                    transferHandler.transferData(this);
                 }
-                catch (InterruptedException ie)
+                catch (Throwable t)
                 {
-                    interrupted = true;
+                    if (t instanceof ThreadDeath)
+                        throw (ThreadDeath) t;
+                    else
+                    {
+                        logger.error(t, t);
+                    }
                 }
             }
-            if (interrupted)
-                Thread.currentThread().interrupt();
         }
     }
 }
@@ -12,11 +12,13 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import javax.media.Buffer;
+import javax.media.Format;
 import javax.media.control.FormatControl;
 import javax.media.format.VideoFormat;
 
 import org.jitsi.impl.neomedia.codec.AbstractCodec2;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.AbstractVideoPullBufferStream;
+import org.jitsi.impl.neomedia.protocol.MediaClock;
 
 /**
  * Implements a <tt>PullBufferStream</tt> which provides a fading animation from
@@ -25,6 +27,26 @@ import org.jitsi.impl.neomedia.jmfext.media.protocol.AbstractVideoPullBufferStre
  * @author Thomas Kuntz
  */
 public class VideoGreyFadingStream extends AbstractVideoPullBufferStream<DataSource> {
+	/**
+	 * The <tt>MediaClock.Listener</tt> which counts the frame intervals of
+	 * this instance on the shared <tt>MediaClock</tt>.
+	 */
+	private final MediaClock.Listener clockListener = new MediaClock.Listener() {
+		@Override
+		public void tick() {
+			synchronized (VideoGreyFadingStream.this) {
+				ticks++;
+				VideoGreyFadingStream.this.notifyAll();
+			}
+		}
+	};
+
+	/**
+	 * The indicator which determines whether {@link #clockListener} is
+	 * registered with the shared <tt>MediaClock</tt>.
+	 */
+	private boolean clocked = false;
+
 	/**
 	 * The value for the color of the RGB bytes
 	 */
@@ -37,10 +59,15 @@ public class VideoGreyFadingStream extends AbstractVideoPullBufferStream<DataSou
 	private boolean increment = true;
 
 	/**
-	 * The timestamp of the last time the <tt>doRead</tt> function returned (the
-	 * timestamp is taken just before the return).
+	 * The number of frame intervals counted by {@link #clockListener}.
 	 */
-	private long timeLastRead = 0;
+	private long ticks = 0;
+
+	/**
+	 * The value of {@link #ticks} when the <tt>doRead</tt> function last
+	 * returned.
+	 */
+	private long ticksRead = 0;
 
 	/**
 	 * Initializes a new <tt>VideoGreyFadingStream</tt> which is to be exposed
@@ -72,7 +99,6 @@ public class VideoGreyFadingStream extends AbstractVideoPullBufferStream<DataSou
 	 */
 	@Override
 	protected void doRead(Buffer buffer) throws IOException {
-		long millis = 0;
 		VideoFormat format;
 
 		format = (VideoFormat) buffer.getFormat();
@@ -109,18 +135,65 @@ public class VideoGreyFadingStream extends AbstractVideoPullBufferStream<DataSou
 
 		buffer.setTimeStamp(System.nanoTime());
 
-		// To respect the framerate, we wait for the remaining milliseconds
-		// since
-		// last doRead call.
-		millis = System.currentTimeMillis() - timeLastRead;
-		millis = (long) (1000.0 / format.getFrameRate()) - millis;
-		if (millis > 0) {
-			try {
-				Thread.sleep(millis);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		// To respect the framerate, we wait for the end of the frame interval
+		// of the last doRead call.
+		synchronized (this) {
+			boolean interrupted = false;
+
+			while (clocked && (ticks == ticksRead)) {
+				try {
+					wait();
+				} catch (InterruptedException ie) {
+					interrupted = true;
+					break;
+				}
 			}
+			ticksRead = ticks;
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
-		timeLastRead = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts the transfer of media data from this instance and registers it
+	 * with the shared <tt>MediaClock</tt> at its frame rate.
+	 *
+	 * @throws IOException
+	 *             if anything goes wrong while starting the transfer of media
+	 *             from this instance
+	 */
+	@Override
+	public void start() throws IOException {
+		super.start();
+
+		VideoFormat format = (VideoFormat) getFormat();
+		float frameRate = (format == null) ? Format.NOT_SPECIFIED : format.getFrameRate();
+
+		if (frameRate > 0) {
+			synchronized (this) {
+				clocked = true;
+				ticksRead = ticks;
+			}
+			MediaClock.getSharedInstance().addListener(clockListener, 1000.0 / frameRate);
+		}
+	}
+
+	/**
+	 * Stops the transfer of media data from this instance and unregisters it
+	 * from the shared <tt>MediaClock</tt>.
+	 *
+	 * @throws IOException
+	 *             if anything goes wrong while stopping the transfer of media
+	 *             from this instance
+	 */
+	@Override
+	public void stop() throws IOException {
+		MediaClock.getSharedInstance().removeListener(clockListener);
+		synchronized (this) {
+			clocked = false;
+			notifyAll();
+		}
+
+		super.stop();
 	}
 }
\ No newline at end of file
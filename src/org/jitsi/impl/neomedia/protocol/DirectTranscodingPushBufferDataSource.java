@@ -0,0 +1,459 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.protocol;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.media.Buffer;
+import javax.media.Codec;
+import javax.media.Format;
+import javax.media.PlugIn;
+import javax.media.format.AudioFormat;
+import javax.media.protocol.BufferTransferHandler;
+import javax.media.protocol.PushBufferDataSource;
+import javax.media.protocol.PushBufferStream;
+
+import net.sf.fmj.filtergraph.SimpleGraphBuilder;
+
+import org.jitsi.util.Logger;
+
+/**
+ * Implements a <tt>PushBufferDataSource</tt> which transcodes the streams of a
+ * specific <tt>PushBufferDataSource</tt> into a specific output
+ * <tt>Format</tt> by calling a chain of <tt>Codec</tt>s (e.g. depacketizer,
+ * decoder, resampler) directly in the thread which pushes the input media
+ * data. Unlike a <tt>Processor</tt>, it does not hand the media data over to
+ * threads of its own and is, consequently, limited to the well-known audio
+ * RTP encodings which are depacketized and decoded in one step each (which is
+ * what <tt>TranscodingDataSource</tt> transcodes for the audio mixer).
+ */
+public class DirectTranscodingPushBufferDataSource extends PushBufferDataSourceDelegate<PushBufferDataSource> {
+	/**
+	 * The <tt>Logger</tt> used by the
+	 * <tt>DirectTranscodingPushBufferDataSource</tt> class and its instances
+	 * for logging output.
+	 */
+	private static final Logger logger = Logger.getLogger(DirectTranscodingPushBufferDataSource.class);
+
+	/**
+	 * The (lower-case) encodings of the input <tt>Format</tt>s which are
+	 * transcoded by <tt>DirectTranscodingPushBufferDataSource</tt>.
+	 */
+	private static final Set<String> SUPPORTED_ENCODINGS = new HashSet<String>();
+
+	static {
+		for (String encoding : new String[] { AudioFormat.ALAW_RTP, AudioFormat.G722_RTP, AudioFormat.OPUS_RTP, AudioFormat.ULAW_RTP }) {
+			SUPPORTED_ENCODINGS.add(encoding.toLowerCase(Locale.ENGLISH));
+		}
+	}
+
+	/**
+	 * Initializes a new <tt>DirectTranscodingPushBufferDataSource</tt> which
+	 * is to transcode the streams of a specific connected
+	 * <tt>PushBufferDataSource</tt> into a specific output <tt>Format</tt> if
+	 * it supports all of them.
+	 *
+	 * @param dataSource
+	 *            the connected <tt>PushBufferDataSource</tt> to transcode
+	 * @param outputFormat
+	 *            the <tt>Format</tt> in which the streams of
+	 *            <tt>dataSource</tt> are to be transcoded
+	 * @return a new <tt>DirectTranscodingPushBufferDataSource</tt> which
+	 *         transcodes <tt>dataSource</tt> into <tt>outputFormat</tt> or
+	 *         <tt>null</tt> if the streams of <tt>dataSource</tt> are not in
+	 *         supported <tt>Format</tt>s or no chain of <tt>Codec</tt>s
+	 *         transcodes them into <tt>outputFormat</tt>
+	 */
+	public static DirectTranscodingPushBufferDataSource create(PushBufferDataSource dataSource, Format outputFormat) {
+		PushBufferStream[] inStreams = dataSource.getStreams();
+
+		if ((inStreams == null) || (inStreams.length == 0))
+			return null;
+
+		DirectTranscodingPushBufferStream[] streams = new DirectTranscodingPushBufferStream[inStreams.length];
+
+		for (int i = 0; i < inStreams.length; i++) {
+			PushBufferStream inStream = inStreams[i];
+			Format inFormat = (inStream == null) ? null : inStream.getFormat();
+			Codec[] codecs = null;
+			Format[] selectedOut = new Format[1];
+
+			if (isSupported(inFormat))
+				codecs = SimpleGraphBuilder.findCodecChain(inFormat, outputFormat, selectedOut);
+			if ((codecs == null) || (codecs.length == 0)) {
+				for (int j = 0; j < i; j++)
+					streams[j].close();
+				if (codecs != null)
+					close(codecs);
+				if (logger.isDebugEnabled())
+					logger.debug("Falling back to a Processor to transcode " + inFormat + " into " + outputFormat);
+				return null;
+			}
+			streams[i] = new DirectTranscodingPushBufferStream(inStream, codecs, selectedOut[0]);
+		}
+
+		if (logger.isDebugEnabled()) {
+			for (DirectTranscodingPushBufferStream stream : streams)
+				logger.debug("Transcoding " + stream.stream.getFormat() + " into " + stream.format + " with " + Arrays.toString(stream.codecs));
+		}
+		return new DirectTranscodingPushBufferDataSource(dataSource, streams);
+	}
+
+	/**
+	 * Closes a specific chain of <tt>Codec</tt>s.
+	 *
+	 * @param codecs
+	 *            the chain of <tt>Codec</tt>s to close
+	 */
+	private static void close(Codec[] codecs) {
+		for (Codec codec : codecs) {
+			try {
+				codec.close();
+			} catch (Throwable t) {
+				if (t instanceof ThreadDeath)
+					throw (ThreadDeath) t;
+				else
+					logger.warn("Failed to close " + codec, t);
+			}
+		}
+	}
+
+	/**
+	 * Determines whether <tt>DirectTranscodingPushBufferDataSource</tt>
+	 * transcodes a specific input <tt>Format</tt>.
+	 *
+	 * @param format
+	 *            the input <tt>Format</tt> to check
+	 * @return <tt>true</tt> if <tt>format</tt> is of one of the well-known RTP
+	 *         encodings transcoded by
+	 *         <tt>DirectTranscodingPushBufferDataSource</tt>; otherwise,
+	 *         <tt>false</tt>
+	 */
+	public static boolean isSupported(Format format) {
+		String encoding = (format == null) ? null : format.getEncoding();
+
+		return (encoding != null) && SUPPORTED_ENCODINGS.contains(encoding.toLowerCase(Locale.ENGLISH));
+	}
+
+	/**
+	 * The <tt>PushBufferStream</tt>s which transcode the streams of the
+	 * wrapped <tt>PushBufferDataSource</tt>.
+	 */
+	private final DirectTranscodingPushBufferStream[] streams;
+
+	/**
+	 * Initializes a new <tt>DirectTranscodingPushBufferDataSource</tt>
+	 * instance.
+	 *
+	 * @param dataSource
+	 *            the <tt>PushBufferDataSource</tt> to transcode
+	 * @param streams
+	 *            the <tt>PushBufferStream</tt>s which transcode the streams of
+	 *            <tt>dataSource</tt>
+	 */
+	private DirectTranscodingPushBufferDataSource(PushBufferDataSource dataSource, DirectTranscodingPushBufferStream[] streams) {
+		super(dataSource);
+
+		this.streams = streams;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Closes the <tt>Codec</tt>s of this instance.
+	 */
+	@Override
+	public void disconnect() {
+		for (DirectTranscodingPushBufferStream stream : streams)
+			stream.close();
+
+		super.disconnect();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Queries the <tt>Codec</tt>s of this instance (e.g. for the controls of
+	 * the decoders) before the wrapped <tt>PushBufferDataSource</tt>.
+	 */
+	@Override
+	public Object getControl(String controlType) {
+		for (DirectTranscodingPushBufferStream stream : streams) {
+			for (Codec codec : stream.codecs) {
+				Object control = codec.getControl(controlType);
+
+				if (control != null)
+					return control;
+			}
+		}
+		return super.getControl(controlType);
+	}
+
+	/**
+	 * Implements {@link PushBufferDataSource#getStreams()}.
+	 *
+	 * @return the <tt>PushBufferStream</tt>s which transcode the streams of the
+	 *         wrapped <tt>PushBufferDataSource</tt>
+	 */
+	@Override
+	public PushBufferStream[] getStreams() {
+		return streams.clone();
+	}
+
+	/**
+	 * Implements a <tt>PushBufferStream</tt> which transcodes a specific
+	 * <tt>PushBufferStream</tt> by calling a chain of <tt>Codec</tt>s from
+	 * within the notifications of the latter that media data is available.
+	 */
+	private static class DirectTranscodingPushBufferStream extends SourceStreamDelegate<PushBufferStream> implements BufferTransferHandler, PushBufferStream {
+		/**
+		 * The maximum number of transcoded <tt>Buffer</tt>s which wait in
+		 * {@link #readQueue} to be read. The oldest is dropped when a new one
+		 * does not fit.
+		 */
+		private static final int READ_QUEUE_CAPACITY = 8;
+
+		/**
+		 * The indicator which determines whether {@link #codecs} have been
+		 * closed.
+		 */
+		private boolean closed;
+
+		/**
+		 * The chain of <tt>Codec</tt>s which transcodes {@link #stream}.
+		 */
+		final Codec[] codecs;
+
+		/**
+		 * The <tt>Format</tt> of the media data output by this stream i.e. the
+		 * output <tt>Format</tt> of the last of {@link #codecs}.
+		 */
+		final Format format;
+
+		/**
+		 * The <tt>Buffer</tt> into which the media data of {@link #stream} is
+		 * read.
+		 */
+		private final Buffer inBuffer = new Buffer();
+
+		/**
+		 * The <tt>Buffer</tt>s into which {@link #codecs} output, one per
+		 * <tt>Codec</tt>.
+		 */
+		private final Buffer[] outBuffers;
+
+		/**
+		 * The <tt>Buffer</tt>s output by the last of {@link #codecs} which are
+		 * waiting to be read. A reader is not necessarily notified through
+		 * {@link #transferHandler} (e.g. the audio mixer reads most of its
+		 * inputs when another input pushes) so the transcoded media data is
+		 * kept until it is read. Access is synchronized on this array.
+		 */
+		private final Buffer[] readQueue = new Buffer[READ_QUEUE_CAPACITY];
+
+		/**
+		 * The index in {@link #readQueue} of the oldest <tt>Buffer</tt>
+		 * waiting to be read.
+		 */
+		private int readQueueHead;
+
+		/**
+		 * The number of <tt>Buffer</tt>s in {@link #readQueue} waiting to be
+		 * read.
+		 */
+		private int readQueueLength;
+
+		/**
+		 * The <tt>BufferTransferHandler</tt> to be notified by this stream when
+		 * transcoded media data is available for reading.
+		 */
+		private volatile BufferTransferHandler transferHandler;
+
+		/**
+		 * Initializes a new <tt>DirectTranscodingPushBufferStream</tt>
+		 * instance.
+		 *
+		 * @param stream
+		 *            the <tt>PushBufferStream</tt> to be transcoded
+		 * @param codecs
+		 *            the open chain of <tt>Codec</tt>s which transcodes
+		 *            <tt>stream</tt>
+		 * @param format
+		 *            the output <tt>Format</tt> of the last of
+		 *            <tt>codecs</tt>
+		 */
+		DirectTranscodingPushBufferStream(PushBufferStream stream, Codec[] codecs, Format format) {
+			super(stream);
+
+			this.codecs = codecs;
+			this.format = format;
+
+			outBuffers = new Buffer[codecs.length];
+			for (int i = 0; i < outBuffers.length; i++)
+				outBuffers[i] = new Buffer();
+		}
+
+		/**
+		 * Closes {@link #codecs}.
+		 */
+		synchronized void close() {
+			if (!closed) {
+				closed = true;
+				DirectTranscodingPushBufferDataSource.close(codecs);
+			}
+		}
+
+		/**
+		 * Implements {@link PushBufferStream#getFormat()}.
+		 *
+		 * @return the <tt>Format</tt> of the transcoded media data
+		 */
+		public Format getFormat() {
+			return format;
+		}
+
+		/**
+		 * Processes a specific <tt>Buffer</tt> with the <tt>Codec</tt> at a
+		 * specific index in {@link #codecs} and the output with the following
+		 * <tt>Codec</tt>s. Notifies {@link #transferHandler} about each
+		 * <tt>Buffer</tt> output by the last <tt>Codec</tt>.
+		 *
+		 * @param codecIndex
+		 *            the index in <tt>codecs</tt> of the <tt>Codec</tt> to
+		 *            process <tt>in</tt> with
+		 * @param in
+		 *            the <tt>Buffer</tt> to process
+		 */
+		private void process(int codecIndex, Buffer in) {
+			Codec codec = codecs[codecIndex];
+			Buffer out = outBuffers[codecIndex];
+
+			while (true) {
+				out.setDiscard(false);
+				out.setFlags(0);
+				out.setLength(0);
+				out.setOffset(0);
+
+				int result = codec.process(in, out);
+
+				if ((result & PlugIn.BUFFER_PROCESSED_FAILED) != 0)
+					break;
+				if (((result & PlugIn.OUTPUT_BUFFER_NOT_FILLED) == 0) && !out.isDiscard()) {
+					if (out.getFormat() == null)
+						out.setFormat((codecIndex == codecs.length - 1) ? format : null);
+					if (codecIndex == codecs.length - 1) {
+						BufferTransferHandler transferHandler = this.transferHandler;
+
+						if (transferHandler != null) {
+							enqueue(out);
+							transferHandler.transferData(this);
+						}
+					} else {
+						process(codecIndex + 1, out);
+					}
+				}
+				if ((result & PlugIn.INPUT_BUFFER_NOT_CONSUMED) == 0)
+					break;
+			}
+		}
+
+		/**
+		 * Adds a <tt>Buffer</tt> output by the last of {@link #codecs} to
+		 * {@link #readQueue}, dropping the oldest one if the queue is full.
+		 * The data is swapped so that the last <tt>Codec</tt> does not
+		 * overwrite it.
+		 *
+		 * @param out
+		 *            the <tt>Buffer</tt> output by the last of <tt>codecs</tt>
+		 */
+		private void enqueue(Buffer out) {
+			synchronized (readQueue) {
+				if (readQueueLength == readQueue.length) {
+					readQueueHead = (readQueueHead + 1) % readQueue.length;
+					readQueueLength--;
+					if (logger.isTraceEnabled())
+						logger.trace("Dropping transcoded media data which was not read in time.");
+				}
+
+				int index = (readQueueHead + readQueueLength) % readQueue.length;
+				Buffer buffer = readQueue[index];
+
+				if (buffer == null)
+					readQueue[index] = buffer = new Buffer();
+				buffer.copy(out, true);
+				readQueueLength++;
+			}
+		}
+
+		/**
+		 * Implements {@link PushBufferStream#read(Buffer)}. Hands the oldest
+		 * <tt>Buffer</tt> output by the last of {@link #codecs} which has not
+		 * been read yet over to the specified <tt>buffer</tt>.
+		 *
+		 * @param buffer
+		 *            the <tt>Buffer</tt> to receive the transcoded media data
+		 */
+		public void read(Buffer buffer) {
+			synchronized (readQueue) {
+				if (readQueueLength == 0) {
+					buffer.setDiscard(true);
+				} else {
+					/*
+					 * Swap the data so that the reader keeps the transcoded
+					 * media data and the queue reuses the array of the reader.
+					 */
+					buffer.copy(readQueue[readQueueHead], true);
+					readQueueHead = (readQueueHead + 1) % readQueue.length;
+					readQueueLength--;
+				}
+			}
+		}
+
+		/**
+		 * Implements {@link PushBufferStream#setTransferHandler(BufferTransferHandler)}.
+		 *
+		 * @param transferHandler
+		 *            the <tt>BufferTransferHandler</tt> to be notified by this
+		 *            stream when transcoded media data is available for reading
+		 */
+		public void setTransferHandler(BufferTransferHandler transferHandler) {
+			this.transferHandler = transferHandler;
+			stream.setTransferHandler((transferHandler == null) ? null : this);
+		}
+
+		/**
+		 * Implements {@link BufferTransferHandler#transferData(PushBufferStream)}.
+		 * Reads the media data of {@link #stream} and transcodes it in the
+		 * calling thread.
+		 *
+		 * @param stream
+		 *            the <tt>PushBufferStream</tt> which has media data
+		 *            available for reading
+		 */
+		public synchronized void transferData(PushBufferStream stream) {
+			if (closed)
+				return;
+
+			inBuffer.setDiscard(false);
+			inBuffer.setFlags(0);
+			inBuffer.setLength(0);
+			inBuffer.setOffset(0);
+			try {
+				stream.read(inBuffer);
+			} catch (IOException ioe) {
+				logger.error("Failed to read from " + stream, ioe);
+				return;
+			}
+			if (!inBuffer.isDiscard())
+				process(0, inBuffer);
+		}
+	}
+}
@@ -0,0 +1,422 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.protocol;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jitsi.impl.neomedia.jmfext.media.renderer.audio.AbstractAudioRenderer;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.util.LatencyHistogram;
+import org.jitsi.util.Logger;
+
+/**
+ * Implements a clock which paces the production of media such as silence,
+ * synthetic video and audio mixes. Instead of every such source sleeping on
+ * a thread of its own, the sources register as <tt>Listener</tt>s with a
+ * period and are ticked by a few threads (lanes) which wake up on a common
+ * grid of ticks. The deadlines of the ticks are computed from a fixed origin
+ * in the time base of {@link System#nanoTime()} so the clock neither drifts
+ * nor is affected by adjustments to the system time, and a late tick is
+ * skipped rather than made up for in a burst.
+ * <p>
+ * The deadlines of the <tt>Listener</tt>s are multiples of their periods so
+ * all <tt>Listener</tt>s with the same period (e.g. all <tt>AudioMixer</tt>s
+ * of a node) are ticked in the same pass. <tt>Listener</tt>s are ticked on
+ * the thread of their lane and must not block.
+ * </p>
+ * <p>
+ * The delays between the deadlines of the ticks and the times at which the
+ * passes started are recorded in a {@link LatencyHistogram}.
+ * </p>
+ */
+public class MediaClock {
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the number of threads of the shared <tt>MediaClock</tt>.
+	 */
+	public static final String LANE_COUNT_PNAME = MediaClock.class.getName() + ".laneCount";
+
+	/**
+	 * The <tt>Logger</tt> used by the <tt>MediaClock</tt> class and its
+	 * instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(MediaClock.class);
+
+	/**
+	 * The <tt>Registration</tt>s of a <tt>Lane</tt> without
+	 * <tt>Listener</tt>s.
+	 */
+	private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+	/**
+	 * The <tt>MediaClock</tt> shared by the media sources.
+	 */
+	private static MediaClock sharedInstance;
+
+	/**
+	 * The duration in milliseconds of a tick of the shared
+	 * <tt>MediaClock</tt>.
+	 */
+	public static final long TICK_INTERVAL = 10;
+
+	/**
+	 * Gets the <tt>MediaClock</tt> shared by the media sources such as the
+	 * audio silence and grey fading capture devices and the
+	 * <tt>AudioMixer</tt>s. Its ticks are {@link #TICK_INTERVAL} milliseconds
+	 * long and, unless specified otherwise by {@link #LANE_COUNT_PNAME}, it
+	 * has one thread per two processors but no more than four.
+	 *
+	 * @return the <tt>MediaClock</tt> shared by the media sources
+	 */
+	public static synchronized MediaClock getSharedInstance() {
+		if (sharedInstance == null) {
+			int laneCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+			ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+			if (cfg != null)
+				laneCount = cfg.getInt(LANE_COUNT_PNAME, laneCount);
+			sharedInstance = new MediaClock("MediaClock", TICK_INTERVAL, laneCount);
+		}
+		return sharedInstance;
+	}
+
+	/**
+	 * The histogram of the delays in milliseconds between the deadlines of the
+	 * ticks and the times at which the passes over the <tt>Listener</tt>s
+	 * started.
+	 */
+	private final LatencyHistogram lagHistogram = new LatencyHistogram(12);
+
+	/**
+	 * The threads which tick the <tt>Listener</tt>s of this instance.
+	 */
+	private final Lane[] lanes;
+
+	/**
+	 * The name of this instance which is used as the base of the names of its
+	 * threads.
+	 */
+	private final String name;
+
+	/**
+	 * The origin of the ticks in nanoseconds in the time base of
+	 * {@link System#nanoTime()}.
+	 */
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * The duration of a tick in nanoseconds.
+	 */
+	private final long tickInterval;
+
+	/**
+	 * Initializes a new <tt>MediaClock</tt> instance.
+	 *
+	 * @param name
+	 *            the name of the new instance which is to be used as the base
+	 *            of the names of its threads
+	 * @param tickIntervalMs
+	 *            the duration in milliseconds of a tick of the new instance
+	 * @param laneCount
+	 *            the number of threads which are to tick the
+	 *            <tt>Listener</tt>s of the new instance
+	 */
+	public MediaClock(String name, long tickIntervalMs, int laneCount) {
+		if (tickIntervalMs <= 0L)
+			throw new IllegalArgumentException("tickIntervalMs " + tickIntervalMs);
+		if (laneCount <= 0)
+			throw new IllegalArgumentException("laneCount " + laneCount);
+
+		this.name = name;
+		tickInterval = TimeUnit.MILLISECONDS.toNanos(tickIntervalMs);
+		lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++)
+			lanes[i] = new Lane(i);
+	}
+
+	/**
+	 * Registers a specific <tt>Listener</tt> to be ticked by this instance
+	 * with a specific period. Does nothing if <tt>listener</tt> is registered
+	 * already.
+	 *
+	 * @param listener
+	 *            the <tt>Listener</tt> to be ticked
+	 * @param periodMs
+	 *            the period in milliseconds at which <tt>listener</tt> is to
+	 *            be ticked. It does not have to be a multiple of the tick of
+	 *            this instance: <tt>listener</tt> is ticked by the first tick
+	 *            at or after each of its deadlines.
+	 */
+	public void addListener(Listener listener, double periodMs) {
+		if (listener == null)
+			throw new NullPointerException("listener");
+		if (!(periodMs > 0))
+			throw new IllegalArgumentException("periodMs " + periodMs);
+
+		synchronized (lanes) {
+			Lane lane = null;
+
+			for (Lane l : lanes) {
+				if (l.indexOf(listener) != -1)
+					return;
+				if ((lane == null) || (l.registrations.length < lane.registrations.length))
+					lane = l;
+			}
+
+			long period = Math.max(tickInterval, (long) (periodMs * 1000000D));
+			long now = System.nanoTime() - startTime;
+
+			lane.add(new Registration(listener, period, (now / period + 1) * period));
+		}
+	}
+
+	/**
+	 * Gets the histogram of the delays in milliseconds between the deadlines
+	 * of the ticks of this instance and the times at which the passes over
+	 * its <tt>Listener</tt>s started.
+	 *
+	 * @return the histogram of the tick lags of this instance
+	 */
+	public LatencyHistogram getTickLagHistogram() {
+		return lagHistogram;
+	}
+
+	/**
+	 * Unregisters a specific <tt>Listener</tt> from this instance. The
+	 * <tt>Listener</tt> may still be ticked by a pass which is in progress at
+	 * the time of the invocation.
+	 *
+	 * @param listener
+	 *            the <tt>Listener</tt> to no longer be ticked
+	 * @return <tt>true</tt> if <tt>listener</tt> was registered with this
+	 *         instance; otherwise, <tt>false</tt>
+	 */
+	public boolean removeListener(Listener listener) {
+		synchronized (lanes) {
+			for (Lane lane : lanes) {
+				if (lane.remove(listener))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Represents a media source which is to be ticked by a
+	 * <tt>MediaClock</tt>.
+	 */
+	public interface Listener {
+		/**
+		 * Notifies this <tt>Listener</tt> that one of its deadlines has come.
+		 * Invoked on a thread of the <tt>MediaClock</tt> which is shared with
+		 * other <tt>Listener</tt>s so it must not block.
+		 */
+		public void tick();
+	}
+
+	/**
+	 * Represents a thread of a <tt>MediaClock</tt> and the <tt>Listener</tt>s
+	 * it ticks. The thread is started with the first <tt>Listener</tt> and
+	 * waits without ticking while the lane has no <tt>Listener</tt>s.
+	 */
+	private class Lane implements Runnable {
+		/**
+		 * The index of this lane in {@link MediaClock#lanes}.
+		 */
+		private final int index;
+
+		/**
+		 * The <tt>Registration</tt>s of the <tt>Listener</tt>s of this lane.
+		 * Copied on write under the lock of this instance.
+		 */
+		volatile Registration[] registrations = NO_REGISTRATIONS;
+
+		/**
+		 * The <tt>Thread</tt> of this lane or <tt>null</tt> if it has not been
+		 * started yet.
+		 */
+		private Thread thread;
+
+		/**
+		 * Initializes a new <tt>Lane</tt> instance.
+		 *
+		 * @param index
+		 *            the index of the new instance in {@link MediaClock#lanes}
+		 */
+		Lane(int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Adds a specific <tt>Registration</tt> to this lane and starts its
+		 * thread if necessary.
+		 *
+		 * @param registration
+		 *            the <tt>Registration</tt> to add
+		 */
+		synchronized void add(Registration registration) {
+			Registration[] oldValue = registrations;
+			Registration[] newValue = new Registration[oldValue.length + 1];
+
+			System.arraycopy(oldValue, 0, newValue, 0, oldValue.length);
+			newValue[oldValue.length] = registration;
+			registrations = newValue;
+
+			if (thread == null) {
+				thread = new Thread(this, name + "-" + index);
+				thread.setDaemon(true);
+				thread.start();
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Gets the index in {@link #registrations} of the
+		 * <tt>Registration</tt> of a specific <tt>Listener</tt>.
+		 *
+		 * @param listener
+		 *            the <tt>Listener</tt> to get the index of
+		 * @return the index in <tt>registrations</tt> of the
+		 *         <tt>Registration</tt> of <tt>listener</tt> or <tt>-1</tt>
+		 */
+		int indexOf(Listener listener) {
+			Registration[] registrations = this.registrations;
+
+			for (int i = 0; i < registrations.length; i++) {
+				if (registrations[i].listener == listener)
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Removes the <tt>Registration</tt> of a specific <tt>Listener</tt>
+		 * from this lane.
+		 *
+		 * @param listener
+		 *            the <tt>Listener</tt> to remove
+		 * @return <tt>true</tt> if <tt>listener</tt> was registered with this
+		 *         lane; otherwise, <tt>false</tt>
+		 */
+		synchronized boolean remove(Listener listener) {
+			int i = indexOf(listener);
+
+			if (i == -1)
+				return false;
+
+			Registration[] oldValue = registrations;
+			Registration[] newValue = (oldValue.length == 1) ? NO_REGISTRATIONS : new Registration[oldValue.length - 1];
+
+			System.arraycopy(oldValue, 0, newValue, 0, i);
+			System.arraycopy(oldValue, i + 1, newValue, i, newValue.length - i);
+			registrations = newValue;
+			return true;
+		}
+
+		/**
+		 * Ticks the <tt>Listener</tt>s of this lane. Runs in {@link #thread}.
+		 */
+		@Override
+		public void run() {
+			/*
+			 * The lanes produce the audio of the node so use a thread priority
+			 * considered appropriate for audio processing.
+			 */
+			AbstractAudioRenderer.useAudioThreadPriority();
+
+			for (;;) {
+				synchronized (this) {
+					boolean interrupted = false;
+
+					while (registrations.length == 0) {
+						try {
+							wait();
+						} catch (InterruptedException ie) {
+							interrupted = true;
+						}
+					}
+					if (interrupted)
+						Thread.currentThread().interrupt();
+				}
+
+				long deadline = waitForNextTick();
+				long now = System.nanoTime() - startTime;
+
+				lagHistogram.record(TimeUnit.NANOSECONDS.toMillis(now - deadline));
+
+				for (Registration registration : registrations) {
+					if (registration.deadline > now)
+						continue;
+
+					// Skip the deadlines which have been missed altogether.
+					registration.deadline += registration.period;
+					if (registration.deadline <= now)
+						registration.deadline = (now / registration.period + 1) * registration.period;
+
+					try {
+						registration.listener.tick();
+					} catch (Throwable t) {
+						if (t instanceof ThreadDeath)
+							throw (ThreadDeath) t;
+						else
+							logger.error("The tick of " + registration.listener.getClass().getName() + " threw an exception.", t);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Waits for the start of the next tick of the grid of
+		 * {@link MediaClock#tickInterval}. Runs in {@link #thread}.
+		 *
+		 * @return the deadline of the tick relative to
+		 *         {@link MediaClock#startTime}
+		 */
+		private long waitForNextTick() {
+			long deadline = ((System.nanoTime() - startTime) / tickInterval + 1) * tickInterval;
+
+			for (;;) {
+				long sleepTime = deadline - (System.nanoTime() - startTime);
+
+				if (sleepTime <= 0L)
+					return deadline;
+				LockSupport.parkNanos(this, sleepTime);
+			}
+		}
+	}
+
+	/**
+	 * Represents the registration of a <tt>Listener</tt> with a
+	 * <tt>MediaClock</tt>.
+	 */
+	private static class Registration {
+		/**
+		 * The next deadline of {@link #listener} in nanoseconds relative to
+		 * {@link MediaClock#startTime}. Accessed by the thread of the lane of
+		 * this instance only.
+		 */
+		long deadline;
+
+		/**
+		 * The registered <tt>Listener</tt>.
+		 */
+		final Listener listener;
+
+		/**
+		 * The period of {@link #listener} in nanoseconds.
+		 */
+		final long period;
+
+		Registration(Listener listener, long period, long deadline) {
+			this.listener = listener;
+			this.period = period;
+			this.deadline = deadline;
+		}
+	}
+}
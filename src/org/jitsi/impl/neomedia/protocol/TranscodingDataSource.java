@@ -24,6 +24,8 @@ import javax.media.protocol.SourceStream;
 
 import org.jitsi.impl.neomedia.ProcessorUtility;
 import org.jitsi.impl.neomedia.control.ControlsAdapter;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
 
 /**
  * Represents a <tt>DataSource</tt> which transcodes the tracks of a specific
@@ -35,6 +37,16 @@ import org.jitsi.impl.neomedia.control.ControlsAdapter;
  */
 public class TranscodingDataSource extends DataSource {
 
+	/**
+	 * The name of the <tt>boolean</tt> <tt>ConfigurationService</tt> property
+	 * which indicates whether the tracks of the input <tt>DataSource</tt>s in
+	 * well-known RTP encodings are to be transcoded by calling the
+	 * <tt>Codec</tt>s directly (i.e. by a
+	 * <tt>DirectTranscodingPushBufferDataSource</tt>) rather than by a
+	 * <tt>Processor</tt>. The default value is <tt>true</tt>.
+	 */
+	public static final String DIRECT_PIPELINE_PNAME = TranscodingDataSource.class.getName() + ".directPipeline";
+
 	/**
 	 * The <tt>DataSource</tt> which has its tracks transcoded by this instance.
 	 */
@@ -55,7 +67,9 @@ public class TranscodingDataSource extends DataSource {
 
 	/**
 	 * The <tt>Processor</tt> which carries out the actual transcoding of the
-	 * tracks of <tt>inputDataSource</tt>.
+	 * tracks of <tt>inputDataSource</tt> or <tt>null</tt> if
+	 * <tt>outputDataSource</tt> is a
+	 * <tt>DirectTranscodingPushBufferDataSource</tt>.
 	 */
 	private Processor transcodingProcessor;
 
@@ -83,7 +97,9 @@ public class TranscodingDataSource extends DataSource {
 	 * process and just does not start it i.e. creates a <tt>Processor</tt> on
 	 * the <tt>inputDataSource</tt>, sets <tt>outputFormat</tt> on its tracks
 	 * (which support a <tt>Format</tt> compatible with <tt>outputFormat</tt>)
-	 * and connects to its <tt>output DataSource</tt>.
+	 * and connects to its <tt>output DataSource</tt>. If the tracks of
+	 * <tt>inputDataSource</tt> are in well-known RTP encodings, transcodes them
+	 * with a <tt>DirectTranscodingPushBufferDataSource</tt> instead.
 	 * 
 	 * @throws IOException
 	 *             if creating the transcoding <tt>Processor</tt>, setting its
@@ -100,6 +116,17 @@ public class TranscodingDataSource extends DataSource {
 		 */
 		inputDataSource.connect();
 
+		if ((inputDataSource instanceof PushBufferDataSource) && (outputFormat instanceof AudioFormat) && isDirectPipelineEnabled()) {
+			DirectTranscodingPushBufferDataSource directDataSource = DirectTranscodingPushBufferDataSource.create((PushBufferDataSource) inputDataSource, outputFormat);
+
+			if (directDataSource != null) {
+				directDataSource.connect();
+
+				outputDataSource = directDataSource;
+				return;
+			}
+		}
+
 		Processor processor;
 
 		try {
@@ -172,9 +199,11 @@ public class TranscodingDataSource extends DataSource {
 
 		outputDataSource.disconnect();
 
-		transcodingProcessor.deallocate();
-		transcodingProcessor.close();
-		transcodingProcessor = null;
+		if (transcodingProcessor != null) {
+			transcodingProcessor.deallocate();
+			transcodingProcessor.close();
+			transcodingProcessor = null;
+		}
 
 		outputDataSource = null;
 	}
@@ -271,7 +300,8 @@ public class TranscodingDataSource extends DataSource {
 		 * outputDataSource.
 		 */
 		outputDataSource.start();
-		transcodingProcessor.start();
+		if (transcodingProcessor != null)
+			transcodingProcessor.start();
 	}
 
 	/**
@@ -284,15 +314,31 @@ public class TranscodingDataSource extends DataSource {
 	@Override
 	public synchronized void stop() throws IOException {
 		if (outputDataSource != null) {
-			transcodingProcessor.stop();
+			if (transcodingProcessor != null)
+				transcodingProcessor.stop();
 			outputDataSource.stop();
 		}
 	}
 
+	/**
+	 * Determines whether the tracks of the input <tt>DataSource</tt>s in
+	 * well-known RTP encodings are to be transcoded without a
+	 * <tt>Processor</tt>.
+	 * 
+	 * @return <tt>true</tt> unless {@link #DIRECT_PIPELINE_PNAME} says
+	 *         otherwise
+	 */
+	private static boolean isDirectPipelineEnabled() {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		return (cfg == null) || cfg.getBoolean(DIRECT_PIPELINE_PNAME, true);
+	}
+
 	/**
 	 * Returns this instance's <tt>Processor</tt> object
 	 * 
-	 * @return this instance's <tt>Processor</tt> object
+	 * @return this instance's <tt>Processor</tt> object or <tt>null</tt> if
+	 *         the tracks are transcoded without a <tt>Processor</tt>
 	 */
 	public Processor getTranscodingProcessor() {
 		return transcodingProcessor;
@@ -0,0 +1,946 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.CaptureDeviceInfo;
+import javax.media.Format;
+import javax.media.format.AudioFormat;
+import javax.media.protocol.ContentDescriptor;
+import javax.media.protocol.PushSourceStream;
+import javax.media.protocol.SourceTransferHandler;
+import javax.media.rtp.OutputDataStream;
+import javax.media.rtp.RTPConnector;
+
+import net.sf.fmj.media.rtp.rtpmediaformat.RTPMediaType;
+
+import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.codec.video.vp8.VP8FrameAssembler;
+import org.jitsi.impl.neomedia.device.MediaDeviceImpl;
+import org.jitsi.impl.neomedia.rtp.StreamRTPManager;
+import org.jitsi.impl.neomedia.rtp.translator.RTCPFeedbackMessageSender;
+import org.jitsi.impl.neomedia.rtp.translator.RTPTranslatorImpl;
+import org.jitsi.impl.neomedia.transform.PacketTransformer;
+import org.jitsi.impl.neomedia.transform.REDTransformEngine;
+import org.jitsi.impl.neomedia.transform.TransformEngine;
+import org.jitsi.impl.neomedia.transform.TransformEngineChain;
+import org.jitsi.impl.neomedia.transform.fec.FECTransformEngine;
+import org.jitsi.impl.neomedia.transform.rtcp.CompoundPacketEngine;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.service.neomedia.MediaException;
+import org.jitsi.service.neomedia.MediaService;
+import org.jitsi.service.neomedia.MediaStream;
+import org.jitsi.service.neomedia.RTPTranslator;
+import org.jitsi.service.neomedia.recording.Recorder;
+import org.jitsi.service.neomedia.recording.RecorderEvent;
+import org.jitsi.service.neomedia.recording.RecorderEventHandler;
+import org.jitsi.service.neomedia.recording.Synchronizer;
+import org.jitsi.util.Logger;
+
+/**
+ * A <tt>Recorder</tt> implementation which attaches to an
+ * <tt>RTPTranslator</tt> and records the VP8 and Opus streams going through it
+ * without decoding them: the frames are reassembled out of the RTP packets and
+ * appended as they are to a single WebM file (per recorder i.e. per
+ * conference) with a track per SSRC.
+ * <p>
+ * Unlike {@link RecorderRtpImpl}, which receives every stream through an
+ * <tt>RTPManager</tt> and a <tt>Processor</tt> (with a jitter buffer, a
+ * depacketizer and a multiplexer of its own, and threads to drive them), the
+ * work done here is a single pass over the bytes of each packet on the thread
+ * which writes it, and the disk is written on a thread of its own by a
+ * {@link WriteBehindFileWriter}. Packets reordered across frames are not waited
+ * for: the frames they belong to are dropped and a keyframe is requested
+ * instead.
+ */
+public class PacketRecorderRtpImpl implements Recorder {
+	/**
+	 * The name of the property which enables the use of
+	 * <tt>PacketRecorderRtpImpl</tt> (instead of <tt>RecorderRtpImpl</tt>) by
+	 * <tt>MediaServiceImpl</tt> to record the media of an
+	 * <tt>RTPTranslator</tt>.
+	 */
+	public static final String ENABLE_PNAME = PacketRecorderRtpImpl.class.getName() + ".ENABLE";
+
+	/**
+	 * The minimum interval in milliseconds between two keyframe requests for
+	 * the same SSRC.
+	 */
+	private static final long KEYFRAME_REQUEST_INTERVAL = 1000;
+
+	/**
+	 * The <tt>Logger</tt> used by the <tt>PacketRecorderRtpImpl</tt> class and
+	 * its instances for logging output.
+	 */
+	private static final Logger logger = Logger.getLogger(PacketRecorderRtpImpl.class);
+
+	/**
+	 * The default maximum number of bytes which may be waiting to be written
+	 * to the file of a recorder.
+	 */
+	private static final long MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * The name of the property which specifies the maximum number of bytes
+	 * which may be waiting to be written to the file of a recorder. Clusters of
+	 * frames which would exceed it are dropped.
+	 */
+	public static final String MAX_PENDING_BYTES_PNAME = PacketRecorderRtpImpl.class.getName() + ".MAX_PENDING_BYTES";
+
+	// values hard-coded to match chrome (as in RecorderRtpImpl)
+	private static final byte opusPayloadType = 111;
+	private static final Format opusFormat = new AudioFormat(AudioFormat.OPUS_RTP, 48000, Format.NOT_SPECIFIED, Format.NOT_SPECIFIED);
+	private static final byte redPayloadType = 116;
+	private static final byte ulpfecPayloadType = 117;
+	private static final byte vp8PayloadType = 100;
+
+	/**
+	 * The suffix of the names of the recorded files.
+	 */
+	private static final String FILENAME_SUFFIX = ".webm";
+
+	/**
+	 * The <tt>RecorderEventHandler</tt> to notify about the recorded streams.
+	 */
+	private RecorderEventHandler eventHandler;
+
+	/**
+	 * The recorded file.
+	 */
+	private File file;
+
+	/**
+	 * The <tt>Recorder.Listener</tt>s interested in notifications from this
+	 * <tt>Recorder</tt>.
+	 */
+	private final List<Recorder.Listener> listeners = new ArrayList<Recorder.Listener>();
+
+	/**
+	 * The <tt>MediaStream</tt> which represents this recorder as a participant
+	 * of {@link #translator}.
+	 */
+	private MediaStream mediaStream;
+
+	/**
+	 * The <tt>RTCPFeedbackMessageSender</tt> which sends the keyframe
+	 * requests.
+	 */
+	private RTCPFeedbackMessageSender rtcpFeedbackSender;
+
+	/**
+	 * The <tt>PacketTransformer</tt> which splits the compound RTCP packets.
+	 */
+	private PacketTransformer rtcpTransformer;
+
+	/**
+	 * The <tt>PacketTransformer</tt> which recovers (with ulpfec) and
+	 * unwraps (out of RED) the RTP packets.
+	 */
+	private PacketTransformer rtpTransformer;
+
+	/**
+	 * The time in milliseconds at which the recording started i.e. the time
+	 * of the start of {@link #webm}.
+	 */
+	private long startTime;
+
+	/**
+	 * The <tt>StreamRTPManager</tt> through which this recorder is attached to
+	 * {@link #translator}.
+	 */
+	private StreamRTPManager streamRTPManager;
+
+	/**
+	 * The <tt>Synchronizer</tt> of this recorder.
+	 */
+	private SynchronizerImpl synchronizer;
+
+	/**
+	 * The recorded streams by SSRC.
+	 */
+	private final Map<Integer, Track> tracks = new HashMap<Integer, Track>();
+
+	/**
+	 * The <tt>RTPTranslator</tt> that this recorder is/will be attached to.
+	 */
+	private final RTPTranslatorImpl translator;
+
+	/**
+	 * The <tt>WebmFileWriter</tt> which writes {@link #file} or <tt>null</tt>
+	 * if this recorder is not started.
+	 */
+	private WebmFileWriter webm;
+
+	/**
+	 * Initializes a new <tt>PacketRecorderRtpImpl</tt>.
+	 *
+	 * @param translator
+	 *            the <tt>RTPTranslator</tt> to which the new instance will
+	 *            attach in order to record media
+	 */
+	public PacketRecorderRtpImpl(RTPTranslator translator) {
+		this.translator = (RTPTranslatorImpl) translator;
+	}
+
+	/**
+	 * Implements {@link Recorder#addListener(Recorder.Listener)}.
+	 */
+	@Override
+	public void addListener(Recorder.Listener listener) {
+		if (listener == null)
+			throw new NullPointerException("listener");
+
+		synchronized (listeners) {
+			if (!listeners.contains(listener))
+				listeners.add(listener);
+		}
+	}
+
+	/**
+	 * Notifies {@link #eventHandler} (if any) that the recording of a stream
+	 * has started or ended.
+	 *
+	 * @param type
+	 *            the type of the event
+	 * @param track
+	 *            the <tt>Track</tt> of the stream
+	 */
+	private void fireRecorderEvent(RecorderEvent.Type type, Track track) {
+		RecorderEventHandler eventHandler = this.eventHandler;
+
+		if (eventHandler == null)
+			return;
+
+		RecorderEvent event = new RecorderEvent();
+
+		event.setType(type);
+		event.setMediaType(track.mediaType);
+		event.setSsrc(track.ssrc & 0xFFFFFFFFL);
+		event.setRtpTimestamp(track.lastTimestamp);
+		event.setInstant(System.currentTimeMillis());
+		event.setFilename(file.getName());
+		eventHandler.handleEvent(event);
+	}
+
+	/**
+	 * Implements {@link Recorder#getFilename()}.
+	 */
+	@Override
+	public String getFilename() {
+		File file = this.file;
+
+		return (file == null) ? null : file.getPath();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public MediaStream getMediaStream() {
+		return mediaStream;
+	}
+
+	/**
+	 * Implements {@link Recorder#getSupportedFormats()}.
+	 */
+	@Override
+	public List<String> getSupportedFormats() {
+		return null;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public SynchronizerImpl getSynchronizer() {
+		if (synchronizer == null)
+			synchronizer = new SynchronizerImpl();
+		return synchronizer;
+	}
+
+	/**
+	 * Handles an RTCP packet written by {@link #translator}.
+	 *
+	 * @param pkt
+	 *            the RTCP packet
+	 */
+	private void handleRtcpPacket(RawPacket pkt) {
+		getSynchronizer().addRTCPPacket(pkt);
+	}
+
+	/**
+	 * Handles an RTP packet written by {@link #translator} (after ulpfec
+	 * recovery and RED unwrapping).
+	 *
+	 * @param pkt
+	 *            the RTP packet
+	 */
+	private synchronized void handleRtpPacket(RawPacket pkt) {
+		if (webm == null)
+			return;
+
+		int payloadType = pkt.getPayloadType();
+
+		if ((payloadType != vp8PayloadType) && (payloadType != opusPayloadType))
+			return;
+
+		int headerLength = pkt.getHeaderLength();
+		int payloadLength = pkt.getLength() - headerLength - (pkt.getPaddingSize() & 0xFF);
+
+		if (payloadLength <= 0)
+			return;
+
+		int ssrc = pkt.getSSRC();
+		Track track = tracks.get(ssrc);
+
+		if (track == null) {
+			track = (payloadType == vp8PayloadType) ? new Vp8Track(ssrc) : new OpusTrack(ssrc);
+			tracks.put(ssrc, track);
+		} else if (track.payloadType != payloadType) {
+			return;
+		}
+
+		track.packetReceived(pkt, pkt.getOffset() + headerLength, payloadLength);
+	}
+
+	/**
+	 * Implements {@link Recorder#removeListener(Recorder.Listener)}.
+	 */
+	@Override
+	public void removeListener(Recorder.Listener listener) {
+		if (listener != null) {
+			synchronized (listeners) {
+				listeners.remove(listener);
+			}
+		}
+	}
+
+	/**
+	 * Sets the instance which should be notified when events related to
+	 * recordings (such as the start or end of a recording) occur.
+	 */
+	@Override
+	public void setEventHandler(RecorderEventHandler eventHandler) {
+		this.eventHandler = eventHandler;
+	}
+
+	/**
+	 * Implements {@link Recorder#setMute(boolean)}.
+	 */
+	@Override
+	public void setMute(boolean mute) {
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void setSynchronizer(Synchronizer synchronizer) {
+		if (synchronizer instanceof SynchronizerImpl)
+			this.synchronizer = (SynchronizerImpl) synchronizer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @param format
+	 *            unused, since this implementation always records into WebM
+	 * @param dirname
+	 *            the path to the directory into which this <tt>Recorder</tt>
+	 *            will store the recorded file
+	 */
+	@Override
+	public synchronized void start(String format, String dirname) throws IOException, MediaException {
+		if (webm != null)
+			return;
+
+		long maxPendingBytes = MAX_PENDING_BYTES;
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		if (cfg != null)
+			maxPendingBytes = cfg.getLong(MAX_PENDING_BYTES_PNAME, maxPendingBytes);
+
+		startTime = System.currentTimeMillis();
+
+		File file = new File(dirname, startTime + FILENAME_SUFFIX);
+
+		for (int i = 1; file.exists(); i++)
+			file = new File(dirname, startTime + "-" + i + FILENAME_SUFFIX);
+		this.file = file;
+		webm = new WebmFileWriter(file, maxPendingBytes);
+		if (logger.isInfoEnabled())
+			logger.info("Starting, file=" + file + " " + hashCode());
+
+		// The chain of transformers will be applied in reverse order for
+		// incoming packets.
+		TransformEngine transformEngine = new TransformEngineChain(new TransformEngine[] { new CompoundPacketEngine(), new FECTransformEngine(ulpfecPayloadType, (byte) -1), new REDTransformEngine(redPayloadType, (byte) -1) });
+
+		rtpTransformer = transformEngine.getRTPTransformer();
+		rtcpTransformer = transformEngine.getRTCPTransformer();
+
+		MediaService mediaService = LibJitsi.getMediaService();
+
+		mediaStream = mediaService.createMediaStream(new MediaDeviceImpl(new CaptureDeviceInfo(), RTPMediaType.VIDEO));
+		streamRTPManager = new StreamRTPManager(mediaStream, translator);
+		streamRTPManager.initialize(new RTPConnectorImpl());
+		rtcpFeedbackSender = translator.getRtcpFeedbackMessageSender();
+		translator.addFormat(streamRTPManager, opusFormat, opusPayloadType);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void stop() {
+		// Stop new packets from being written to this recorder first.
+		StreamRTPManager streamRTPManager;
+
+		synchronized (this) {
+			streamRTPManager = this.streamRTPManager;
+			this.streamRTPManager = null;
+		}
+		if (streamRTPManager == null)
+			return;
+		streamRTPManager.dispose();
+
+		synchronized (this) {
+			if (logger.isInfoEnabled())
+				logger.info("Stopping " + hashCode());
+
+			for (Track track : tracks.values()) {
+				if (track.trackNumber > 0)
+					fireRecorderEvent(RecorderEvent.Type.RECORDING_ENDED, track);
+			}
+			tracks.clear();
+
+			webm.close();
+			webm = null;
+			rtpTransformer.close();
+			rtcpTransformer.close();
+		}
+
+		Recorder.Listener[] listeners;
+
+		synchronized (this.listeners) {
+			listeners = this.listeners.toArray(new Recorder.Listener[this.listeners.size()]);
+		}
+		for (Recorder.Listener listener : listeners)
+			listener.recorderStopped(this);
+	}
+
+	/**
+	 * Records the Opus stream of an SSRC. Every RTP packet carries a single
+	 * Opus packet which is written as a frame.
+	 */
+	private class OpusTrack extends Track {
+		/**
+		 * Initializes a new <tt>OpusTrack</tt> for a specific SSRC.
+		 *
+		 * @param ssrc
+		 *            the SSRC of the recorded stream
+		 */
+		OpusTrack(int ssrc) {
+			super(ssrc, opusPayloadType, RTPMediaType.AUDIO, 48000);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		void packetReceived(RawPacket pkt, int payloadOffset, int payloadLength) {
+			if (trackNumber == 0) {
+				// The OpusHead of RFC 7845 (in little endian): version 1, two
+				// channels, no pre-skip, 48 kHz, no gain, channel mapping 0.
+				byte[] opusHead = new byte[] { 'O', 'p', 'u', 's', 'H', 'e', 'a', 'd', 1, 2, 0, 0, (byte) 0x80, (byte) 0xBB, 0, 0, 0, 0, 0 };
+
+				if (!addTrack(webm.addAudioTrack("A_OPUS", 48000, 2, opusHead), pkt.getTimestamp()))
+					return;
+			}
+			if (trackNumber < 0)
+				return;
+
+			webm.startFrame(trackNumber, timeOf(pkt.getTimestamp()), true, payloadLength);
+			webm.writeFrameData(pkt.getBuffer(), payloadOffset, payloadLength);
+		}
+	}
+
+	/**
+	 * The <tt>RTPConnector</tt> through which this recorder is attached to
+	 * {@link #translator}. The latter writes the packets to be recorded to its
+	 * output streams. Its input streams never have anything to read because
+	 * this recorder does not send anything.
+	 */
+	private class RTPConnectorImpl implements RTPConnector {
+		/**
+		 * The input stream which has nothing to read.
+		 */
+		private final PushSourceStream inputStream = new PushSourceStream() {
+			@Override
+			public boolean endOfStream() {
+				return false;
+			}
+
+			@Override
+			public ContentDescriptor getContentDescriptor() {
+				return null;
+			}
+
+			@Override
+			public long getContentLength() {
+				return LENGTH_UNKNOWN;
+			}
+
+			@Override
+			public Object getControl(String controlType) {
+				return null;
+			}
+
+			@Override
+			public Object[] getControls() {
+				return new Object[0];
+			}
+
+			@Override
+			public int getMinimumTransferSize() {
+				return 0;
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) {
+				return 0;
+			}
+
+			@Override
+			public void setTransferHandler(SourceTransferHandler transferHandler) {
+			}
+		};
+
+		/**
+		 * The output stream to which {@link #translator} writes RTCP packets.
+		 */
+		private final OutputDataStreamImpl controlOutputStream = new OutputDataStreamImpl(true);
+
+		/**
+		 * The output stream to which {@link #translator} writes RTP packets.
+		 */
+		private final OutputDataStreamImpl dataOutputStream = new OutputDataStreamImpl(false);
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public PushSourceStream getControlInputStream() {
+			return inputStream;
+		}
+
+		@Override
+		public OutputDataStream getControlOutputStream() {
+			return controlOutputStream;
+		}
+
+		@Override
+		public PushSourceStream getDataInputStream() {
+			return inputStream;
+		}
+
+		@Override
+		public OutputDataStream getDataOutputStream() {
+			return dataOutputStream;
+		}
+
+		@Override
+		public double getRTCPBandwidthFraction() {
+			return -1;
+		}
+
+		@Override
+		public double getRTCPSenderBandwidthFraction() {
+			return -1;
+		}
+
+		@Override
+		public int getReceiveBufferSize() {
+			return 0;
+		}
+
+		@Override
+		public int getSendBufferSize() {
+			return 0;
+		}
+
+		@Override
+		public void setReceiveBufferSize(int size) {
+		}
+
+		@Override
+		public void setSendBufferSize(int size) {
+		}
+	}
+
+	/**
+	 * An <tt>OutputDataStream</tt> to which {@link #translator} writes the
+	 * packets to be recorded.
+	 */
+	private class OutputDataStreamImpl implements OutputDataStream {
+		/**
+		 * Whether this is the stream of the RTCP packets.
+		 */
+		private final boolean control;
+
+		/**
+		 * The array of a single <tt>RawPacket</tt> (reused for every write)
+		 * into which the written packets are copied in order to be
+		 * reverse-transformed.
+		 */
+		private RawPacket[] pkts = new RawPacket[1];
+
+		/**
+		 * Initializes a new <tt>OutputDataStreamImpl</tt>.
+		 *
+		 * @param control
+		 *            whether the new instance is the stream of the RTCP
+		 *            packets
+		 */
+		OutputDataStreamImpl(boolean control) {
+			this.control = control;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * Copies the packet (because the array it is in is written to the
+		 * other participants of {@link #translator} too), reverse-transforms
+		 * it and records the result.
+		 */
+		@Override
+		public synchronized int write(byte[] buffer, int offset, int length) {
+			PacketTransformer transformer = control ? rtcpTransformer : rtpTransformer;
+
+			if (transformer == null)
+				return length;
+
+			RawPacket pkt = pkts[0];
+
+			if (pkt == null)
+				pkts[0] = pkt = new RawPacket();
+
+			byte[] pktBuffer = pkt.getBuffer();
+
+			if ((pktBuffer == null) || (pktBuffer.length < length)) {
+				pktBuffer = new byte[length];
+				pkt.setBuffer(pktBuffer);
+			}
+			System.arraycopy(buffer, offset, pktBuffer, 0, length);
+			pkt.setOffset(0);
+			pkt.setLength(length);
+
+			pkts = transformer.reverseTransform(pkts);
+
+			for (int i = 0; i < pkts.length; i++) {
+				RawPacket p = pkts[i];
+
+				// Keep the first element for reuse.
+				if (i != 0)
+					pkts[i] = null;
+				if ((p != null) && (p.getLength() >= RawPacket.FIXED_HEADER_SIZE)) {
+					if (control)
+						handleRtcpPacket(p);
+					else
+						handleRtpPacket(p);
+				}
+			}
+			if (pkts.length == 0)
+				pkts = new RawPacket[1];
+			return length;
+		}
+	}
+
+	/**
+	 * Represents a stream (i.e. an SSRC) recorded by this recorder and maps
+	 * its RTP timestamps to the times of the file.
+	 */
+	private abstract class Track {
+		/**
+		 * The time in milliseconds from the start of the file of the first
+		 * frame of this track or <tt>-1</tt> if it has not been received yet.
+		 */
+		private long baseTime = -1;
+
+		/**
+		 * The RTP clock rate of this track.
+		 */
+		private final int clockRate;
+
+		/**
+		 * The number of RTP clock ticks from the first frame of this track to
+		 * the last one (i.e. the unwrapped RTP timestamp).
+		 */
+		private long extendedTimestamp;
+
+		/**
+		 * The time in milliseconds of the last keyframe request for this
+		 * track.
+		 */
+		private long lastKeyframeRequestTime = -1;
+
+		/**
+		 * The RTP timestamp of the last frame of this track.
+		 */
+		long lastTimestamp;
+
+		/**
+		 * The <tt>RTPMediaType</tt> of this track.
+		 */
+		final RTPMediaType mediaType;
+
+		/**
+		 * The RTP payload type of this track.
+		 */
+		final int payloadType;
+
+		/**
+		 * The SSRC of this track.
+		 */
+		final int ssrc;
+
+		/**
+		 * The track number of this track in the file, <tt>0</tt> if it has
+		 * not been added to the file yet or <tt>-1</tt> if it could not be.
+		 */
+		int trackNumber = 0;
+
+		/**
+		 * Initializes a new <tt>Track</tt>.
+		 *
+		 * @param ssrc
+		 *            the SSRC of the new instance
+		 * @param payloadType
+		 *            the RTP payload type of the new instance
+		 * @param mediaType
+		 *            the <tt>RTPMediaType</tt> of the new instance
+		 * @param clockRate
+		 *            the RTP clock rate of the new instance
+		 */
+		Track(int ssrc, int payloadType, RTPMediaType mediaType, int clockRate) {
+			this.ssrc = ssrc;
+			this.payloadType = payloadType;
+			this.mediaType = mediaType;
+			this.clockRate = clockRate;
+		}
+
+		/**
+		 * Records the result of an attempt to add this track to the file.
+		 *
+		 * @param trackNumber
+		 *            the track number returned by {@link #webm}
+		 * @param timestamp
+		 *            the RTP timestamp of the first frame of this track
+		 * @return <tt>true</tt> if this track has been added to the file
+		 */
+		boolean addTrack(int trackNumber, long timestamp) {
+			this.trackNumber = trackNumber;
+			if (trackNumber < 0) {
+				logger.warn("Not recording SSRC " + (ssrc & 0xFFFFFFFFL) + ": too many tracks in " + file);
+				return false;
+			}
+
+			lastTimestamp = timestamp;
+			fireRecorderEvent(RecorderEvent.Type.RECORDING_STARTED, this);
+			return true;
+		}
+
+		/**
+		 * Handles an RTP packet of this track.
+		 *
+		 * @param pkt
+		 *            the RTP packet
+		 * @param payloadOffset
+		 *            the offset in the buffer of <tt>pkt</tt> of its payload
+		 * @param payloadLength
+		 *            the length of the payload of <tt>pkt</tt> (without
+		 *            padding)
+		 */
+		abstract void packetReceived(RawPacket pkt, int payloadOffset, int payloadLength);
+
+		/**
+		 * Requests a keyframe for this track unless one has been requested
+		 * recently.
+		 */
+		void requestKeyframe() {
+			long now = System.currentTimeMillis();
+
+			if ((lastKeyframeRequestTime == -1) || (now - lastKeyframeRequestTime >= KEYFRAME_REQUEST_INTERVAL)) {
+				lastKeyframeRequestTime = now;
+				rtcpFeedbackSender.sendFIR(ssrc);
+			}
+		}
+
+		/**
+		 * Gets the time in milliseconds from the start of the file of a frame
+		 * of this track with a specific RTP timestamp. The first frame is
+		 * placed at the time of its arrival and the following ones according
+		 * to their RTP timestamps.
+		 *
+		 * @param timestamp
+		 *            the RTP timestamp of the frame
+		 * @return the time in milliseconds from the start of the file of the
+		 *         frame
+		 */
+		long timeOf(long timestamp) {
+			if (baseTime == -1) {
+				baseTime = System.currentTimeMillis() - startTime;
+				extendedTimestamp = 0;
+			} else {
+				extendedTimestamp += (int) (timestamp - lastTimestamp);
+			}
+			lastTimestamp = timestamp;
+			return baseTime + extendedTimestamp * 1000 / clockRate;
+		}
+	}
+
+	/**
+	 * Records the VP8 stream of an SSRC. The frames are reassembled by a
+	 * {@link VP8FrameAssembler} (which tolerates packets reordered within a
+	 * frame) and written without the VP8 payload descriptors (RFC 7741).
+	 * Nothing is written until the first keyframe, nor after a frame is lost
+	 * until the next keyframe.
+	 */
+	private class Vp8Track extends Track {
+		/**
+		 * The <tt>VP8FrameAssembler</tt> which reassembles the frames of this
+		 * track.
+		 */
+		private final VP8FrameAssembler assembler = new VP8FrameAssembler();
+
+		/**
+		 * The number of clusters dropped by {@link #webm} as of the last frame
+		 * written by this track.
+		 */
+		private int droppedClusterCount = 0;
+
+		/**
+		 * The VP8 PictureID of the last complete frame or <tt>-1</tt> if no
+		 * frame has been completed yet or it did not carry one.
+		 */
+		private int lastPictureId = -1;
+
+		/**
+		 * The RTP sequence number of the last packet of the last complete
+		 * frame or <tt>-1</tt> if no frame has been completed yet.
+		 */
+		private int lastSeq = -1;
+
+		/**
+		 * Whether the frames are to be dropped until the next keyframe.
+		 */
+		private boolean needKeyframe = true;
+
+		/**
+		 * Initializes a new <tt>Vp8Track</tt> for a specific SSRC.
+		 *
+		 * @param ssrc
+		 *            the SSRC of the recorded stream
+		 */
+		Vp8Track(int ssrc) {
+			super(ssrc, vp8PayloadType, RTPMediaType.VIDEO, 90000);
+		}
+
+		/**
+		 * Writes the frame which {@link #assembler} has completed, unless it
+		 * is not decodable.
+		 */
+		private void frameReceived() {
+			boolean keyframe = assembler.isKeyFrame();
+
+			// A frame (or more) went missing between the last complete frame
+			// and this one. The PictureIDs are consecutive per frame whereas
+			// the sequence numbers are shared with the ulpfec and padding
+			// packets which never reach this track, so the latter are only
+			// relied on when the frames do not carry a PictureID.
+			int pictureId = assembler.getPictureId();
+
+			if ((pictureId != -1) && (lastPictureId != -1)) {
+				// The PictureID is either 7 or 15 bits long.
+				int mask = ((pictureId > 0x7F) || (lastPictureId > 0x7F)) ? 0x7FFF : 0x7F;
+
+				if (pictureId != ((lastPictureId + 1) & mask))
+					needKeyframe = true;
+			} else if ((pictureId == -1) && (lastSeq != -1) && (assembler.getFirstSeq() != ((lastSeq + 1) & 0xFFFF))) {
+				needKeyframe = true;
+			}
+			lastPictureId = pictureId;
+			lastSeq = assembler.getLastSeq();
+
+			if (!keyframe && needKeyframe) {
+				requestKeyframe();
+				return;
+			}
+
+			byte[] frame = assembler.getFrame();
+			int length = assembler.getFrameLength();
+			long timestamp = assembler.getTimestamp();
+
+			if (keyframe) {
+				needKeyframe = false;
+				if (trackNumber == 0) {
+					// The uncompressed data chunk of a keyframe starts with the
+					// start code 0x9d 0x01 0x2a and the dimensions (RFC 6386).
+					if ((length < 10) || ((frame[3] & 0xFF) != 0x9D) || (frame[4] != 0x01) || (frame[5] != 0x2A))
+						return;
+
+					int width = ((frame[6] & 0xFF) | ((frame[7] & 0xFF) << 8)) & 0x3FFF;
+					int height = ((frame[8] & 0xFF) | ((frame[9] & 0xFF) << 8)) & 0x3FFF;
+
+					if (!addTrack(webm.addVideoTrack("V_VP8", width, height), timestamp))
+						return;
+				}
+			}
+			if (trackNumber <= 0)
+				return;
+
+			webm.startFrame(trackNumber, timeOf(timestamp), keyframe, length);
+			webm.writeFrameData(frame, 0, length);
+
+			// A cluster (with frames of this track) has not made it to the
+			// file and the following frames cannot be decoded without it.
+			int droppedClusterCount = webm.getDroppedClusterCount();
+
+			if (droppedClusterCount != this.droppedClusterCount) {
+				this.droppedClusterCount = droppedClusterCount;
+				if (!keyframe) {
+					logger.warn("Dropped a cluster of " + file + ", waiting for a keyframe of SSRC " + (ssrc & 0xFFFFFFFFL));
+					needKeyframe = true;
+					requestKeyframe();
+				}
+			}
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		void packetReceived(RawPacket pkt, int payloadOffset, int payloadLength) {
+			int result = assembler.add(pkt.getBuffer(), payloadOffset, payloadLength, pkt.getSequenceNumber(), pkt.getTimestamp(), pkt.isPacketMarked());
+
+			// The frame being assembled will not be complete.
+			if ((result & VP8FrameAssembler.DROPPED) != 0) {
+				needKeyframe = true;
+				requestKeyframe();
+			}
+			if ((result & VP8FrameAssembler.COMPLETE) != 0)
+				frameReceived();
+		}
+	}
+}
@@ -0,0 +1,794 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Muxes already encoded frames of any number of audio and video tracks into a
+ * single WebM (i.e. Matroska) file without decoding them. Unlike
+ * {@link WebmWriter}, which wraps the (video-only) native muxer of libvpx, the
+ * file is written in Java through a {@link WriteBehindFileWriter}, a whole
+ * cluster (of about a second of all tracks) at a time.
+ * <p>
+ * Tracks may be added while the file is being written: the Tracks element is
+ * kept in a region of fixed size (padded with a Void element) near the start of
+ * the file which is rewritten in place whenever a track is added. The size of
+ * the Segment and the Duration are filled in when the file is closed. Not
+ * thread-safe.
+ */
+class WebmFileWriter {
+	/**
+	 * The ID of the Audio element.
+	 */
+	private static final int AUDIO = 0xE1;
+
+	/**
+	 * The ID of the Channels element.
+	 */
+	private static final int CHANNELS = 0x9F;
+
+	/**
+	 * The ID of the Cluster element.
+	 */
+	private static final int CLUSTER = 0x1F43B675;
+
+	/**
+	 * The maximum duration in milliseconds of a cluster.
+	 */
+	private static final long CLUSTER_DURATION = 1000;
+
+	/**
+	 * The number of bytes of the header of a cluster i.e. its ID, its size
+	 * (always on 8 bytes) and its Timecode element (always on 10 bytes).
+	 */
+	private static final int CLUSTER_HEADER_LENGTH = 4 + 8 + 10;
+
+	/**
+	 * The maximum number of bytes of a cluster.
+	 */
+	private static final int CLUSTER_MAX_LENGTH = 4 * 1024 * 1024;
+
+	/**
+	 * The ID of the CodecID element.
+	 */
+	private static final int CODEC_ID = 0x86;
+
+	/**
+	 * The ID of the CodecPrivate element.
+	 */
+	private static final int CODEC_PRIVATE = 0x63A2;
+
+	/**
+	 * The ID of the DocType element.
+	 */
+	private static final int DOC_TYPE = 0x4282;
+
+	/**
+	 * The ID of the DocTypeReadVersion element.
+	 */
+	private static final int DOC_TYPE_READ_VERSION = 0x4285;
+
+	/**
+	 * The ID of the DocTypeVersion element.
+	 */
+	private static final int DOC_TYPE_VERSION = 0x4287;
+
+	/**
+	 * The ID of the Duration element.
+	 */
+	private static final int DURATION = 0x4489;
+
+	/**
+	 * The ID of the EBML (header) element.
+	 */
+	private static final int EBML = 0x1A45DFA3;
+
+	/**
+	 * The ID of the EBMLMaxIDLength element.
+	 */
+	private static final int EBML_MAX_ID_LENGTH = 0x42F2;
+
+	/**
+	 * The ID of the EBMLMaxSizeLength element.
+	 */
+	private static final int EBML_MAX_SIZE_LENGTH = 0x42F3;
+
+	/**
+	 * The ID of the EBMLReadVersion element.
+	 */
+	private static final int EBML_READ_VERSION = 0x42F7;
+
+	/**
+	 * The ID of the EBMLVersion element.
+	 */
+	private static final int EBML_VERSION = 0x4286;
+
+	/**
+	 * The ID of the FlagLacing element.
+	 */
+	private static final int FLAG_LACING = 0x9C;
+
+	/**
+	 * The ID of the Info element.
+	 */
+	private static final int INFO = 0x1549A966;
+
+	/**
+	 * The ID of the MuxingApp element.
+	 */
+	private static final int MUXING_APP = 0x4D80;
+
+	/**
+	 * The name of the application which writes the files.
+	 */
+	private static final String MUXING_APP_NAME = "libjitsi";
+
+	/**
+	 * The ID of the PixelHeight element.
+	 */
+	private static final int PIXEL_HEIGHT = 0xBA;
+
+	/**
+	 * The ID of the PixelWidth element.
+	 */
+	private static final int PIXEL_WIDTH = 0xB0;
+
+	/**
+	 * The ID of the SamplingFrequency element.
+	 */
+	private static final int SAMPLING_FREQUENCY = 0xB5;
+
+	/**
+	 * The ID of the Segment element.
+	 */
+	private static final int SEGMENT = 0x18538067;
+
+	/**
+	 * The ID of the SimpleBlock element.
+	 */
+	private static final int SIMPLE_BLOCK = 0xA3;
+
+	/**
+	 * The ID of the Timecode element (of a Cluster).
+	 */
+	private static final int TIMECODE = 0xE7;
+
+	/**
+	 * The ID of the TimecodeScale element.
+	 */
+	private static final int TIMECODE_SCALE = 0x2AD7B1;
+
+	/**
+	 * The ID of the TrackEntry element.
+	 */
+	private static final int TRACK_ENTRY = 0xAE;
+
+	/**
+	 * The ID of the TrackNumber element.
+	 */
+	private static final int TRACK_NUMBER = 0xD7;
+
+	/**
+	 * The ID of the TrackType element.
+	 */
+	private static final int TRACK_TYPE = 0x83;
+
+	/**
+	 * The value of the TrackType element of audio tracks.
+	 */
+	private static final int TRACK_TYPE_AUDIO = 2;
+
+	/**
+	 * The value of the TrackType element of video tracks.
+	 */
+	private static final int TRACK_TYPE_VIDEO = 1;
+
+	/**
+	 * The ID of the TrackUID element.
+	 */
+	private static final int TRACK_UID = 0x73C5;
+
+	/**
+	 * The ID of the Tracks element.
+	 */
+	private static final int TRACKS = 0x1654AE6B;
+
+	/**
+	 * The number of bytes reserved for the Tracks element (and the Void
+	 * element which pads it).
+	 */
+	private static final int TRACKS_LENGTH = 4096;
+
+	/**
+	 * The <tt>Charset</tt> of the strings written into the files.
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The ID of the Video element.
+	 */
+	private static final int VIDEO = 0xE0;
+
+	/**
+	 * The ID of the Void element.
+	 */
+	private static final int VOID = 0xEC;
+
+	/**
+	 * The ID of the WritingApp element.
+	 */
+	private static final int WRITING_APP = 0x5741;
+
+	/**
+	 * The cluster being built (in memory) or <tt>null</tt> if there is none.
+	 * Its first {@link #CLUSTER_HEADER_LENGTH} bytes are left for its header.
+	 */
+	private Buf cluster;
+
+	/**
+	 * The timecode in milliseconds of {@link #cluster}.
+	 */
+	private long clusterTime;
+
+	/**
+	 * The number of clusters which {@link #writer} has dropped because too
+	 * many bytes were waiting to be written.
+	 */
+	private int droppedClusterCount = 0;
+
+	/**
+	 * The position in the file of the (8-byte) value of the Duration element.
+	 */
+	private final long durationPosition;
+
+	/**
+	 * The number of bytes of the SimpleBlock started by
+	 * {@link #startFrame(int, long, boolean, int)} which have not been written
+	 * by {@link #writeFrameData(byte[], int, int)} yet.
+	 */
+	private int frameRemaining = 0;
+
+	/**
+	 * The greatest time in milliseconds of a frame written so far.
+	 */
+	private long maxTime = 0;
+
+	/**
+	 * The position in the file of the data of the Segment element.
+	 */
+	private final long segmentDataPosition;
+
+	/**
+	 * The position in the file of the (8-byte) size of the Segment element.
+	 */
+	private final long segmentSizePosition;
+
+	/**
+	 * The TrackEntry elements of the tracks added so far.
+	 */
+	private final Buf trackEntries = new Buf(256);
+
+	/**
+	 * The number of tracks added so far (which is also the track number of the
+	 * last one).
+	 */
+	private int trackCount = 0;
+
+	/**
+	 * The position in the file of the region reserved for the Tracks element.
+	 */
+	private final long tracksPosition;
+
+	/**
+	 * The <tt>WriteBehindFileWriter</tt> which writes the file.
+	 */
+	private final WriteBehindFileWriter writer;
+
+	/**
+	 * Initializes a new <tt>WebmFileWriter</tt> which (over)writes a specific
+	 * file and writes its header.
+	 *
+	 * @param file
+	 *            the file to be written by the new instance
+	 * @param maxPendingBytes
+	 *            the maximum number of bytes which may be waiting to be
+	 *            written to <tt>file</tt>. Clusters which would exceed it are
+	 *            dropped.
+	 * @throws IOException
+	 *             if <tt>file</tt> cannot be opened for writing
+	 */
+	WebmFileWriter(File file, long maxPendingBytes) throws IOException {
+		writer = new WriteBehindFileWriter(file, maxPendingBytes);
+
+		Buf header = new Buf(TRACKS_LENGTH + 256);
+		Buf ebml = new Buf(64);
+
+		ebml.writeUIntElement(EBML_VERSION, 1);
+		ebml.writeUIntElement(EBML_READ_VERSION, 1);
+		ebml.writeUIntElement(EBML_MAX_ID_LENGTH, 4);
+		ebml.writeUIntElement(EBML_MAX_SIZE_LENGTH, 8);
+		ebml.writeStringElement(DOC_TYPE, "webm");
+		ebml.writeUIntElement(DOC_TYPE_VERSION, 2);
+		ebml.writeUIntElement(DOC_TYPE_READ_VERSION, 2);
+		header.writeElement(EBML, ebml);
+
+		// The size of the Segment is unknown until the file is closed.
+		header.writeId(SEGMENT);
+		segmentSizePosition = header.length;
+		header.writeSize(0x00FFFFFFFFFFFFFFL, 8);
+
+		segmentDataPosition = header.length;
+
+		Buf info = new Buf(64);
+
+		info.writeUIntElement(TIMECODE_SCALE, 1000000);
+		info.writeStringElement(MUXING_APP, MUXING_APP_NAME);
+		info.writeStringElement(WRITING_APP, MUXING_APP_NAME);
+		info.writeId(DURATION);
+		info.writeSize(8, 1);
+
+		long durationOffset = info.length;
+
+		info.writeLong(Double.doubleToLongBits(0));
+		header.writeElement(INFO, info);
+		durationPosition = header.length - info.length + durationOffset;
+
+		tracksPosition = header.length;
+		header.writeVoid(TRACKS_LENGTH);
+
+		writer.append(header.bytes, 0, header.length);
+	}
+
+	/**
+	 * Adds an audio track to the file.
+	 *
+	 * @param codecId
+	 *            the Matroska codec ID of the track e.g. <tt>A_OPUS</tt>
+	 * @param samplingFrequency
+	 *            the sampling frequency in Hz of the track
+	 * @param channels
+	 *            the number of channels of the track
+	 * @param codecPrivate
+	 *            the codec-specific data of the track or <tt>null</tt>
+	 * @return the track number of the new track or <tt>-1</tt> if there is no
+	 *         room for it
+	 */
+	int addAudioTrack(String codecId, double samplingFrequency, int channels, byte[] codecPrivate) {
+		Buf audio = new Buf(32);
+
+		audio.writeId(SAMPLING_FREQUENCY);
+		audio.writeSize(8, 1);
+		audio.writeLong(Double.doubleToLongBits(samplingFrequency));
+		audio.writeUIntElement(CHANNELS, channels);
+		return addTrack(TRACK_TYPE_AUDIO, codecId, AUDIO, audio, codecPrivate);
+	}
+
+	/**
+	 * Adds a track to the file and rewrites the Tracks element.
+	 *
+	 * @param type
+	 *            the TrackType of the track
+	 * @param codecId
+	 *            the CodecID of the track
+	 * @param settingsId
+	 *            the ID of the Audio or Video element of the track
+	 * @param settings
+	 *            the data of the Audio or Video element of the track
+	 * @param codecPrivate
+	 *            the CodecPrivate of the track or <tt>null</tt>
+	 * @return the track number of the new track or <tt>-1</tt> if there is no
+	 *         room for it
+	 */
+	private int addTrack(int type, String codecId, int settingsId, Buf settings, byte[] codecPrivate) {
+		int trackNumber = trackCount + 1;
+
+		// The track number is written on a single byte in the SimpleBlocks.
+		if (trackNumber > 126)
+			return -1;
+
+		Buf entry = new Buf(64);
+
+		entry.writeUIntElement(TRACK_NUMBER, trackNumber);
+		entry.writeUIntElement(TRACK_UID, trackNumber);
+		entry.writeUIntElement(TRACK_TYPE, type);
+		entry.writeUIntElement(FLAG_LACING, 0);
+		entry.writeStringElement(CODEC_ID, codecId);
+		if (codecPrivate != null) {
+			entry.writeId(CODEC_PRIVATE);
+			entry.writeSize(codecPrivate.length, 0);
+			entry.write(codecPrivate, 0, codecPrivate.length);
+		}
+		entry.writeElement(settingsId, settings);
+
+		int entriesLength = trackEntries.length + 2 + Buf.sizeLength(entry.length) + entry.length;
+
+		// The Tracks element (with a size on up to 5 bytes) and at least one
+		// byte of the TrackEntry have to fit.
+		if (4 + 5 + entriesLength > TRACKS_LENGTH)
+			return -1;
+
+		trackEntries.writeElement(TRACK_ENTRY, entry);
+		trackCount = trackNumber;
+
+		// The region reserved for the Tracks element has to be filled up
+		// exactly by it and the Void element which follows it. A Void element
+		// is at least two bytes long so the size of the Tracks element is made
+		// one byte longer if the Void would have been a single byte.
+		Buf tracks = new Buf(TRACKS_LENGTH);
+		int sizeLength = Buf.sizeLength(trackEntries.length);
+		int voidLength = TRACKS_LENGTH - (4 + sizeLength + trackEntries.length);
+
+		if (voidLength == 1) {
+			sizeLength++;
+			voidLength--;
+		}
+		tracks.writeId(TRACKS);
+		tracks.writeSize(trackEntries.length, sizeLength);
+		tracks.write(trackEntries.bytes, 0, trackEntries.length);
+		if (voidLength > 0)
+			tracks.writeVoid(voidLength);
+		writer.writeAt(tracksPosition, tracks.toByteArray());
+		return trackNumber;
+	}
+
+	/**
+	 * Adds a video track to the file.
+	 *
+	 * @param codecId
+	 *            the Matroska codec ID of the track e.g. <tt>V_VP8</tt>
+	 * @param width
+	 *            the width in pixels of the track
+	 * @param height
+	 *            the height in pixels of the track
+	 * @return the track number of the new track or <tt>-1</tt> if there is no
+	 *         room for it
+	 */
+	int addVideoTrack(String codecId, int width, int height) {
+		Buf video = new Buf(16);
+
+		video.writeUIntElement(PIXEL_WIDTH, width);
+		video.writeUIntElement(PIXEL_HEIGHT, height);
+		return addTrack(TRACK_TYPE_VIDEO, codecId, VIDEO, video, null);
+	}
+
+	/**
+	 * Writes the cluster being built and the fields which are not known until
+	 * the end of the file, and closes the file.
+	 */
+	void close() {
+		flushCluster();
+
+		long segmentSize = writer.getAppendPosition() - segmentDataPosition;
+		Buf buf = new Buf(8);
+
+		buf.writeSize(segmentSize, 8);
+		writer.writeAt(segmentSizePosition, buf.toByteArray());
+
+		buf = new Buf(8);
+		buf.writeLong(Double.doubleToLongBits(maxTime));
+		writer.writeAt(durationPosition, buf.toByteArray());
+
+		writer.close();
+	}
+
+	/**
+	 * Hands the cluster being built (if any) over to {@link #writer}.
+	 *
+	 * @return <tt>false</tt> if the cluster has been dropped by
+	 *         <tt>writer</tt>; otherwise, <tt>true</tt>
+	 */
+	private boolean flushCluster() {
+		Buf cluster = this.cluster;
+
+		if (cluster == null)
+			return true;
+		this.cluster = null;
+
+		int length = cluster.length;
+
+		cluster.length = 0;
+		cluster.writeId(CLUSTER);
+		cluster.writeSize(length - 4 - 8, 8);
+		cluster.writeId(TIMECODE);
+		cluster.writeSize(8, 1);
+		cluster.writeLong(clusterTime);
+		cluster.length = length;
+
+		if (writer.append(cluster.bytes, 0, cluster.length))
+			return true;
+
+		droppedClusterCount++;
+		return false;
+	}
+
+	/**
+	 * Gets the number of clusters which have been dropped (rather than
+	 * written) because too many bytes were waiting to be written. The frames
+	 * written after a dropped cluster may reference frames which are missing
+	 * from the file.
+	 *
+	 * @return the number of clusters which have been dropped
+	 */
+	int getDroppedClusterCount() {
+		return droppedClusterCount;
+	}
+
+	/**
+	 * Starts a SimpleBlock for a frame of a specific track. The data of the
+	 * frame is then written by invocations of
+	 * {@link #writeFrameData(byte[], int, int)} totalling the specified
+	 * length. Allows a frame to be written out of multiple pieces without
+	 * assembling it first.
+	 *
+	 * @param trackNumber
+	 *            the track number of the frame
+	 * @param time
+	 *            the time of the frame in milliseconds from the start of the
+	 *            file
+	 * @param keyframe
+	 *            whether the frame is a keyframe
+	 * @param length
+	 *            the number of bytes of the frame
+	 */
+	void startFrame(int trackNumber, long time, boolean keyframe, int length) {
+		if (frameRemaining != 0)
+			throw new IllegalStateException("frameRemaining");
+
+		// The timecodes of the clusters are not to go back.
+		if (time < 0)
+			time = 0;
+
+		Buf cluster = this.cluster;
+
+		if ((cluster != null) && ((time - clusterTime > CLUSTER_DURATION) || (time - clusterTime < Short.MIN_VALUE) || (cluster.length + length > CLUSTER_MAX_LENGTH))) {
+			flushCluster();
+			cluster = null;
+			if (time < clusterTime)
+				time = clusterTime;
+		}
+		if (cluster == null) {
+			this.cluster = cluster = new Buf(CLUSTER_HEADER_LENGTH + Math.max(length, 64 * 1024));
+			cluster.length = CLUSTER_HEADER_LENGTH;
+			clusterTime = time;
+		}
+
+		cluster.writeId(SIMPLE_BLOCK);
+		cluster.writeSize(4 + length, 0);
+		cluster.writeSize(trackNumber, 1);
+
+		int relativeTime = (int) (time - clusterTime);
+
+		cluster.ensureCapacity(3 + length);
+		cluster.bytes[cluster.length++] = (byte) (relativeTime >> 8);
+		cluster.bytes[cluster.length++] = (byte) relativeTime;
+		cluster.bytes[cluster.length++] = (byte) (keyframe ? 0x80 : 0);
+
+		frameRemaining = length;
+		if (time > maxTime)
+			maxTime = time;
+	}
+
+	/**
+	 * Writes (a piece of) the data of the frame started by
+	 * {@link #startFrame(int, long, boolean, int)}.
+	 *
+	 * @param buf
+	 *            the array which contains the data to write
+	 * @param off
+	 *            the offset in <tt>buf</tt> of the data to write
+	 * @param len
+	 *            the number of bytes to write
+	 */
+	void writeFrameData(byte[] buf, int off, int len) {
+		if (len > frameRemaining)
+			throw new IllegalArgumentException("len");
+
+		cluster.write(buf, off, len);
+		frameRemaining -= len;
+	}
+
+	/**
+	 * A growable array of bytes into which EBML elements are written.
+	 */
+	private static class Buf {
+		/**
+		 * Gets the minimum number of bytes on which a specific size may be
+		 * written as an EBML variable-length integer.
+		 *
+		 * @param size
+		 *            the size to be written
+		 * @return the minimum number of bytes on which <tt>size</tt> may be
+		 *         written
+		 */
+		static int sizeLength(long size) {
+			int length = 1;
+
+			// All ones are reserved (for an unknown size).
+			while (size >= (1L << (7 * length)) - 1)
+				length++;
+			return length;
+		}
+
+		/**
+		 * The bytes of this <tt>Buf</tt>.
+		 */
+		byte[] bytes;
+
+		/**
+		 * The number of bytes written into {@link #bytes}.
+		 */
+		int length = 0;
+
+		Buf(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		/**
+		 * Makes sure that a specific number of bytes may be written into this
+		 * <tt>Buf</tt> without growing it.
+		 *
+		 * @param count
+		 *            the number of bytes to make room for
+		 */
+		void ensureCapacity(int count) {
+			if (length + count > bytes.length) {
+				byte[] newBytes = new byte[Math.max(length + count, 2 * bytes.length)];
+
+				System.arraycopy(bytes, 0, newBytes, 0, length);
+				bytes = newBytes;
+			}
+		}
+
+		/**
+		 * Gets a copy of the bytes written into this <tt>Buf</tt>.
+		 *
+		 * @return a copy of the bytes written into this <tt>Buf</tt>
+		 */
+		byte[] toByteArray() {
+			byte[] array = new byte[length];
+
+			System.arraycopy(bytes, 0, array, 0, length);
+			return array;
+		}
+
+		void write(byte[] buf, int off, int len) {
+			ensureCapacity(len);
+			System.arraycopy(buf, off, bytes, length, len);
+			length += len;
+		}
+
+		/**
+		 * Writes an element with a specific ID and the contents of a specific
+		 * <tt>Buf</tt> as its data.
+		 *
+		 * @param id
+		 *            the ID of the element
+		 * @param data
+		 *            the data of the element
+		 */
+		void writeElement(int id, Buf data) {
+			writeId(id);
+			writeSize(data.length, 0);
+			write(data.bytes, 0, data.length);
+		}
+
+		/**
+		 * Writes an EBML ID (which includes its length marker).
+		 *
+		 * @param id
+		 *            the ID to write
+		 */
+		void writeId(int id) {
+			int length;
+
+			if ((id & 0xFF000000) != 0)
+				length = 4;
+			else if ((id & 0xFF0000) != 0)
+				length = 3;
+			else if ((id & 0xFF00) != 0)
+				length = 2;
+			else
+				length = 1;
+
+			ensureCapacity(length);
+			for (int i = length - 1; i >= 0; i--)
+				bytes[this.length++] = (byte) (id >>> (8 * i));
+		}
+
+		/**
+		 * Writes a <tt>long</tt> on 8 bytes in network byte order.
+		 *
+		 * @param value
+		 *            the <tt>long</tt> to write
+		 */
+		void writeLong(long value) {
+			ensureCapacity(8);
+			for (int i = 7; i >= 0; i--)
+				bytes[length++] = (byte) (value >>> (8 * i));
+		}
+
+		/**
+		 * Writes a size as an EBML variable-length integer.
+		 *
+		 * @param size
+		 *            the size to write
+		 * @param sizeLength
+		 *            the number of bytes to write <tt>size</tt> on or
+		 *            <tt>0</tt> to use the minimum
+		 */
+		void writeSize(long size, int sizeLength) {
+			if (sizeLength == 0)
+				sizeLength = sizeLength(size);
+
+			ensureCapacity(sizeLength);
+
+			long value = size | (1L << (7 * sizeLength));
+
+			for (int i = sizeLength - 1; i >= 0; i--)
+				bytes[length++] = (byte) (value >>> (8 * i));
+		}
+
+		/**
+		 * Writes a string element.
+		 *
+		 * @param id
+		 *            the ID of the element
+		 * @param value
+		 *            the value of the element
+		 */
+		void writeStringElement(int id, String value) {
+			byte[] data = value.getBytes(UTF_8);
+
+			writeId(id);
+			writeSize(data.length, 0);
+			write(data, 0, data.length);
+		}
+
+		/**
+		 * Writes an unsigned integer element on the minimum number of bytes.
+		 *
+		 * @param id
+		 *            the ID of the element
+		 * @param value
+		 *            the value of the element
+		 */
+		void writeUIntElement(int id, long value) {
+			int length = 1;
+
+			while ((length < 8) && ((value >>> (8 * length)) != 0))
+				length++;
+
+			writeId(id);
+			writeSize(length, 1);
+			ensureCapacity(length);
+			for (int i = length - 1; i >= 0; i--)
+				bytes[this.length++] = (byte) (value >>> (8 * i));
+		}
+
+		/**
+		 * Writes a Void element of a specific total length (which has to be
+		 * at least two bytes).
+		 *
+		 * @param totalLength
+		 *            the number of bytes of the Void element including its ID
+		 *            and size
+		 */
+		void writeVoid(int totalLength) {
+			int sizeLength = (totalLength - 2 <= 126) ? 1 : 8;
+			int dataLength = totalLength - 1 - sizeLength;
+
+			writeId(VOID);
+			writeSize(dataLength, sizeLength);
+			ensureCapacity(dataLength);
+			for (int end = length + dataLength; length < end;)
+				bytes[length++] = 0;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.jitsi.util.Logger;
+
+/**
+ * Writes to a file on a thread of its own so that the threads which produce
+ * the data (e.g. the ones which receive RTP packets) never block on the disk.
+ * The data is queued in the arrays it is handed in (which the writer takes
+ * ownership of) and the number of queued bytes is bounded: data appended while
+ * the bound is exceeded is dropped (with a warning) rather than let the queue
+ * grow while the disk is falling behind.
+ */
+class WriteBehindFileWriter {
+	/**
+	 * The <tt>Logger</tt> used by the <tt>WriteBehindFileWriter</tt> class and
+	 * its instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(WriteBehindFileWriter.class);
+
+	/**
+	 * The position in the file at which the next appended array will be
+	 * written i.e. the length of the file once all accepted writes are done.
+	 */
+	private long appendPosition = 0;
+
+	/**
+	 * The <tt>FileChannel</tt> of {@link #file}.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * Whether {@link #close()} has been invoked.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The number of bytes dropped because {@link #maxPendingBytes} was
+	 * exceeded.
+	 */
+	private long droppedBytes = 0;
+
+	/**
+	 * Whether writing to {@link #channel} has failed. No further writes are
+	 * attempted then.
+	 */
+	private volatile boolean failed = false;
+
+	/**
+	 * The file written by this instance.
+	 */
+	private final File file;
+
+	/**
+	 * The maximum number of bytes which may be queued and not written yet.
+	 */
+	private final long maxPendingBytes;
+
+	/**
+	 * The number of bytes queued and not written yet.
+	 */
+	private long pendingBytes = 0;
+
+	/**
+	 * The writes queued and not done yet.
+	 */
+	private final Queue<Write> queue = new ArrayDeque<Write>();
+
+	/**
+	 * The thread which does the writes in {@link #queue}.
+	 */
+	private final Thread thread;
+
+	/**
+	 * Initializes a new <tt>WriteBehindFileWriter</tt> which (over)writes a
+	 * specific file.
+	 *
+	 * @param file
+	 *            the file to be written by the new instance
+	 * @param maxPendingBytes
+	 *            the maximum number of bytes which may be queued and not
+	 *            written yet
+	 * @throws IOException
+	 *             if <tt>file</tt> cannot be opened for writing
+	 */
+	WriteBehindFileWriter(File file, long maxPendingBytes) throws IOException {
+		this.file = file;
+		this.maxPendingBytes = maxPendingBytes;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		raf.setLength(0);
+		channel = raf.getChannel();
+
+		thread = new Thread("WriteBehindFileWriter " + file.getName()) {
+			@Override
+			public void run() {
+				runInThread();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues a specific array to be written at the end of the file unless
+	 * doing so would exceed the maximum number of pending bytes. The array is
+	 * not copied and must not be modified afterwards.
+	 *
+	 * @param buf
+	 *            the array to append
+	 * @param off
+	 *            the offset in <tt>buf</tt> of the bytes to append
+	 * @param len
+	 *            the number of bytes to append
+	 * @return <tt>true</tt> if the bytes have been queued; <tt>false</tt> if
+	 *         they have been dropped
+	 */
+	synchronized boolean append(byte[] buf, int off, int len) {
+		if (closed || failed)
+			return false;
+		if ((pendingBytes > 0) && (pendingBytes + len > maxPendingBytes)) {
+			if (droppedBytes == 0)
+				logger.warn("Dropping data for " + file + ": more than " + maxPendingBytes + " bytes are pending.");
+			droppedBytes += len;
+			return false;
+		}
+
+		queue.add(new Write(-1, buf, off, len));
+		pendingBytes += len;
+		appendPosition += len;
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Closes this instance after the queued writes are done.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			notifyAll();
+		}
+
+		boolean interrupted = false;
+
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException ie) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		try {
+			channel.close();
+		} catch (IOException ioe) {
+			logger.error("Failed to close " + file, ioe);
+		}
+		if (droppedBytes != 0)
+			logger.warn("Dropped " + droppedBytes + " bytes of " + file + " in total.");
+	}
+
+	/**
+	 * Gets the position in the file at which the next appended array will be
+	 * written.
+	 *
+	 * @return the position in the file at which the next appended array will
+	 *         be written
+	 */
+	synchronized long getAppendPosition() {
+		return appendPosition;
+	}
+
+	/**
+	 * Does the writes queued by {@link #append(byte[], int, int)} and
+	 * {@link #writeAt(long, byte[])} until this instance is closed.
+	 */
+	private void runInThread() {
+		long position = 0;
+
+		while (true) {
+			Write write;
+
+			synchronized (this) {
+				boolean interrupted = false;
+
+				while (queue.isEmpty() && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException ie) {
+						interrupted = true;
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+
+				write = queue.poll();
+				if (write == null)
+					break;
+			}
+
+			if (!failed) {
+				ByteBuffer src = ByteBuffer.wrap(write.buf, write.off, write.len);
+				long writePosition = (write.position < 0) ? position : write.position;
+
+				try {
+					while (src.hasRemaining())
+						writePosition += channel.write(src, writePosition);
+				} catch (IOException ioe) {
+					logger.error("Failed to write " + file, ioe);
+					failed = true;
+				}
+				if (write.position < 0)
+					position = writePosition;
+			}
+
+			synchronized (this) {
+				if (write.position < 0)
+					pendingBytes -= write.len;
+			}
+		}
+	}
+
+	/**
+	 * Queues a specific array to be written at a specific position in the
+	 * file (which has to have been appended already) e.g. to fill in a
+	 * placeholder. Such writes are never dropped. The array is not copied and
+	 * must not be modified afterwards.
+	 *
+	 * @param position
+	 *            the position in the file to write <tt>buf</tt> at
+	 * @param buf
+	 *            the bytes to write
+	 */
+	synchronized void writeAt(long position, byte[] buf) {
+		if (closed || failed)
+			return;
+
+		queue.add(new Write(position, buf, 0, buf.length));
+		notifyAll();
+	}
+
+	/**
+	 * Represents a write queued in a <tt>WriteBehindFileWriter</tt>.
+	 */
+	private static class Write {
+		/**
+		 * The array to write.
+		 */
+		final byte[] buf;
+
+		/**
+		 * The number of bytes of {@link #buf} to write.
+		 */
+		final int len;
+
+		/**
+		 * The offset in {@link #buf} of the bytes to write.
+		 */
+		final int off;
+
+		/**
+		 * The position in the file to write at or <tt>-1</tt> to append.
+		 */
+		final long position;
+
+		Write(long position, byte[] buf, int off, int len) {
+			this.position = position;
+			this.buf = buf;
+			this.off = off;
+			this.len = len;
+		}
+	}
+}
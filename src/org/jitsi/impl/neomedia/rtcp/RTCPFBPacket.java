@@ -92,9 +92,10 @@ public class RTCPFBPacket
         /*
          * Payload type (PT) (8 bits):   This is the RTCP packet type that
          *     identifies the packet as being an RTCP FB message.
-         *     Always PSFB (206), Payload-specific FB message.
+         *     Either RTPFB (205), Transport layer FB message, or PSFB (206),
+         *     Payload-specific FB message.
          */
-        buf[off++] = (byte) (0xCE);
+        buf[off++] = (byte) type;
 
         // Length (16 bits):  The length of this packet in 32-bit words minus
         // one, including the header and any padding. This is in
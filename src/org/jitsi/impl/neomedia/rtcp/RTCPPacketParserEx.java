@@ -65,7 +65,25 @@ public class RTCPPacketParserEx extends net.sf.fmj.media.rtp.RTCPPacketParser {
 			long sourceSSRC = in.readInt() & 0xffffffffL;
 
 			if (type == RTCPFBPacket.RTPFB) {
-				return parseRTCPFBPacket(base, firstbyte, RTCPFBPacket.RTPFB, length, in, senderSSRC, sourceSSRC);
+				switch (firstbyte) {
+				case RTCPTCCPacket.FMT: // transport-cc
+					RTCPTCCPacket tcc = new RTCPTCCPacket(base);
+
+					tcc.senderSSRC = senderSSRC;
+					tcc.sourceSSRC = sourceSSRC;
+
+					int fcilen = length - 12; // header + ssrc + ssrc
+
+					if (fcilen > 0) {
+						tcc.fci = new byte[fcilen];
+						in.readFully(tcc.fci);
+						if (!RTCPTCCPacket.parseFci(tcc, tcc.fci, 0, fcilen))
+							throw new BadFormatException("Malformed transport-cc FCI");
+					}
+					return tcc;
+				default:
+					return parseRTCPFBPacket(base, firstbyte, RTCPFBPacket.RTPFB, length, in, senderSSRC, sourceSSRC);
+				}
 			} else {
 				switch (firstbyte) {
 				case RTCPREMBPacket.FMT: // REMB
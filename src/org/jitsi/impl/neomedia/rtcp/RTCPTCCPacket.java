@@ -0,0 +1,292 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtcp;
+
+import net.sf.fmj.media.rtp.RTCPCompoundPacket;
+
+/**
+ * Implements the transport-wide congestion control feedback message of
+ * draft-holmer-rmcat-transport-wide-cc-extensions-01.
+ *
+ * 0                   1                   2                   3
+ * 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |V=2|P| FMT=15  |   PT=205      |           length              |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                     SSRC of packet sender                     |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                      SSRC of media source                     |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |      base sequence number     |      packet status count      |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |                 reference time                | fb pkt. count |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |          packet chunk         |         packet chunk          |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * .                                                               .
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * |         packet chunk          |  recv delta   |  recv delta   |
+ * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+ * .                                                               .
+ *
+ * The arrival times of the reported packets are kept in a single
+ * <tt>long</tt> array indexed by the distance of the transport-wide sequence
+ * number from {@link #baseSeq} with <tt>-1</tt> standing for a packet which
+ * has not been received.
+ */
+public class RTCPTCCPacket extends RTCPFBPacket {
+	/**
+	 * The feedback message type (FMT) of transport-wide congestion control
+	 * feedback messages.
+	 */
+	public static final int FMT = 15;
+
+	/**
+	 * The packet status symbol which indicates that a packet was not
+	 * received.
+	 */
+	private static final int SYMBOL_NOT_RECEIVED = 0;
+
+	/**
+	 * The packet status symbol which indicates that a packet was received with
+	 * a one-byte receive delta.
+	 */
+	private static final int SYMBOL_SMALL_DELTA = 1;
+
+	/**
+	 * The packet status symbol which indicates that a packet was received with
+	 * a two-byte (possibly negative) receive delta.
+	 */
+	private static final int SYMBOL_LARGE_DELTA = 2;
+
+	/**
+	 * The number of microseconds in a unit of a receive delta.
+	 */
+	private static final int DELTA_UNIT_US = 250;
+
+	/**
+	 * The number of milliseconds in a unit of the reference time.
+	 */
+	private static final int REFERENCE_TIME_UNIT_MS = 64;
+
+	/**
+	 * Parses the feedback control information (FCI) of a transport-wide
+	 * congestion control feedback message into a specific
+	 * <tt>RTCPTCCPacket</tt>.
+	 *
+	 * @param tcc
+	 *            the <tt>RTCPTCCPacket</tt> to receive the parsed values
+	 * @param fci
+	 *            the <tt>byte</tt> array which contains the FCI
+	 * @param off
+	 *            the offset in <tt>fci</tt> at which the FCI starts
+	 * @param len
+	 *            the number of bytes in <tt>fci</tt> which constitute the FCI
+	 * @return <tt>true</tt> if the FCI was successfully parsed; otherwise,
+	 *         <tt>false</tt>
+	 */
+	public static boolean parseFci(RTCPTCCPacket tcc, byte[] fci, int off, int len) {
+		if (fci == null || len < 8)
+			return false;
+
+		int end = off + len;
+		int baseSeq = ((fci[off] & 0xFF) << 8) | (fci[off + 1] & 0xFF);
+		int statusCount = ((fci[off + 2] & 0xFF) << 8) | (fci[off + 3] & 0xFF);
+		int referenceTime = ((fci[off + 4] & 0xFF) << 16) | ((fci[off + 5] & 0xFF) << 8) | (fci[off + 6] & 0xFF);
+		int fbPacketCount = fci[off + 7] & 0xFF;
+		int[] symbols = new int[statusCount];
+		int symbolCount = 0;
+
+		off += 8;
+		// Packet chunks.
+		while (symbolCount < statusCount) {
+			if (off + 1 >= end)
+				return false;
+
+			int chunk = ((fci[off] & 0xFF) << 8) | (fci[off + 1] & 0xFF);
+
+			off += 2;
+			if ((chunk & 0x8000) == 0) {
+				// Run length chunk.
+				int symbol = (chunk >> 13) & 0x3;
+				int runLength = chunk & 0x1FFF;
+
+				for (int i = 0; i < runLength && symbolCount < statusCount; i++)
+					symbols[symbolCount++] = symbol;
+			} else if ((chunk & 0x4000) == 0) {
+				// Status vector chunk with 14 one-bit symbols.
+				for (int i = 13; i >= 0 && symbolCount < statusCount; i--)
+					symbols[symbolCount++] = (chunk >> i) & 0x1;
+			} else {
+				// Status vector chunk with 7 two-bit symbols.
+				for (int i = 12; i >= 0 && symbolCount < statusCount; i -= 2)
+					symbols[symbolCount++] = (chunk >> i) & 0x3;
+			}
+		}
+
+		// Receive deltas.
+		long[] arrivalTimesUs = new long[statusCount];
+		long timeUs = referenceTime * (long) REFERENCE_TIME_UNIT_MS * 1000L;
+
+		for (int i = 0; i < statusCount; i++) {
+			switch (symbols[i]) {
+			case SYMBOL_SMALL_DELTA:
+				if (off >= end)
+					return false;
+				timeUs += (fci[off] & 0xFF) * DELTA_UNIT_US;
+				off++;
+				arrivalTimesUs[i] = timeUs;
+				break;
+			case SYMBOL_LARGE_DELTA:
+				if (off + 1 >= end)
+					return false;
+				timeUs += ((short) (((fci[off] & 0xFF) << 8) | (fci[off + 1] & 0xFF))) * DELTA_UNIT_US;
+				off += 2;
+				arrivalTimesUs[i] = timeUs;
+				break;
+			default:
+				arrivalTimesUs[i] = -1L;
+				break;
+			}
+		}
+
+		tcc.baseSeq = baseSeq;
+		tcc.fbPacketCount = fbPacketCount;
+		tcc.arrivalTimesUs = arrivalTimesUs;
+		return true;
+	}
+
+	/**
+	 * The arrival times in microseconds of the packets reported by this
+	 * feedback message indexed by the distance of their transport-wide
+	 * sequence numbers from {@link #baseSeq}. Packets which have not been
+	 * received have an arrival time of <tt>-1</tt>.
+	 */
+	public long[] arrivalTimesUs;
+
+	/**
+	 * The transport-wide sequence number of the first packet reported by this
+	 * feedback message.
+	 */
+	public int baseSeq;
+
+	/**
+	 * The sequence number of this feedback message modulo 256.
+	 */
+	public int fbPacketCount;
+
+	/**
+	 * The symbols and receive deltas of {@link #arrivalTimesUs} computed by
+	 * {@link #calcLength()} for the purposes of {@link #assemble(java.io.DataOutputStream)}.
+	 */
+	private byte[] encodedFci;
+
+	public RTCPTCCPacket(long senderSSRC, long sourceSSRC, int baseSeq, long[] arrivalTimesUs, int fbPacketCount) {
+		super(FMT, RTPFB, senderSSRC, sourceSSRC);
+
+		this.baseSeq = baseSeq;
+		this.arrivalTimesUs = arrivalTimesUs;
+		this.fbPacketCount = fbPacketCount;
+	}
+
+	public RTCPTCCPacket(RTCPCompoundPacket base) {
+		super(base);
+		super.fmt = FMT;
+		super.type = RTPFB;
+	}
+
+	@Override
+	public int calcLength() {
+		fci = encodeFci();
+		return super.calcLength();
+	}
+
+	/**
+	 * Encodes {@link #arrivalTimesUs} into the feedback control information
+	 * (FCI) of this feedback message. Uses status vector chunks of two-bit
+	 * symbols only.
+	 *
+	 * @return the FCI of this feedback message padded to a multiple of 32 bits
+	 */
+	private byte[] encodeFci() {
+		if (encodedFci != null)
+			return encodedFci;
+
+		long[] arrivalTimesUs = this.arrivalTimesUs;
+		int statusCount = (arrivalTimesUs == null) ? 0 : Math.min(arrivalTimesUs.length, 0xFFFF);
+
+		// The reference time is that of the first received packet.
+		long firstArrivalTimeUs = -1L;
+
+		for (int i = 0; i < statusCount; i++) {
+			if (arrivalTimesUs[i] >= 0L) {
+				firstArrivalTimeUs = arrivalTimesUs[i];
+				break;
+			}
+		}
+
+		long referenceTime = (firstArrivalTimeUs < 0L) ? 0L : firstArrivalTimeUs / (REFERENCE_TIME_UNIT_MS * 1000L);
+		long timeUs = referenceTime * REFERENCE_TIME_UNIT_MS * 1000L;
+		int chunkCount = (statusCount + 6) / 7;
+		byte[] deltas = new byte[2 * statusCount];
+		int deltasLength = 0;
+		byte[] chunks = new byte[2 * chunkCount];
+
+		for (int c = 0; c < chunkCount; c++) {
+			int chunk = 0xC000;
+
+			for (int j = 0; j < 7; j++) {
+				int i = 7 * c + j;
+				int symbol = SYMBOL_NOT_RECEIVED;
+
+				if (i < statusCount && arrivalTimesUs[i] >= 0L) {
+					long delta = (arrivalTimesUs[i] - timeUs) / DELTA_UNIT_US;
+
+					if (delta >= 0L && delta <= 0xFF) {
+						symbol = SYMBOL_SMALL_DELTA;
+						deltas[deltasLength++] = (byte) delta;
+					} else {
+						if (delta < Short.MIN_VALUE)
+							delta = Short.MIN_VALUE;
+						else if (delta > Short.MAX_VALUE)
+							delta = Short.MAX_VALUE;
+						symbol = SYMBOL_LARGE_DELTA;
+						deltas[deltasLength++] = (byte) (delta >> 8);
+						deltas[deltasLength++] = (byte) delta;
+					}
+					// Accumulate the quantized deltas in order to not drift.
+					timeUs += delta * DELTA_UNIT_US;
+				}
+				chunk |= symbol << (12 - 2 * j);
+			}
+			chunks[2 * c] = (byte) (chunk >> 8);
+			chunks[2 * c + 1] = (byte) chunk;
+		}
+
+		int len = 8 + chunks.length + deltasLength;
+		byte[] fci = new byte[(len + 3) & ~3];
+
+		fci[0] = (byte) (baseSeq >> 8);
+		fci[1] = (byte) baseSeq;
+		fci[2] = (byte) (statusCount >> 8);
+		fci[3] = (byte) statusCount;
+		fci[4] = (byte) (referenceTime >> 16);
+		fci[5] = (byte) (referenceTime >> 8);
+		fci[6] = (byte) referenceTime;
+		fci[7] = (byte) fbPacketCount;
+		System.arraycopy(chunks, 0, fci, 8, chunks.length);
+		System.arraycopy(deltas, 0, fci, 8 + chunks.length, deltasLength);
+
+		encodedFci = fci;
+		return fci;
+	}
+
+	@Override
+	public String toString() {
+		return "\tRTCP transport-cc packet from sync source " + senderSSRC + "\n\t\tbase seq: " + baseSeq + "\n\t\tpacket status count: " + ((arrivalTimesUs == null) ? 0 : arrivalTimesUs.length) + "\n\t\tfb pkt count: " + fbPacketCount;
+	}
+}
@@ -28,6 +28,26 @@ public class FeedbackCache {
 		return cache.entrySet();
 	}
 
+	/**
+	 * Gets the bitrate reported in the last REMB packet sent by a specific
+	 * SSRC.
+	 * 
+	 * @param ssrc
+	 *            the SSRC of the sender of the REMB packet
+	 * @param maxAge
+	 *            the age in milliseconds beyond which the REMB packet is
+	 *            disregarded
+	 * @return the bitrate in bits per second or <tt>-1</tt> if <tt>ssrc</tt>
+	 *         has not sent a REMB packet within <tt>maxAge</tt>
+	 */
+	public long getREMBBitrate(int ssrc, long maxAge) {
+		FeedbackCacheEntry item = cache.get(ssrc);
+
+		if ((item == null) || (item.remb == null) || (System.currentTimeMillis() - item.lastUpdate > maxAge))
+			return -1;
+		return item.remb.getBitrate();
+	}
+
 	public void update(Integer ssrc, RTCPReportBlock[] reports, RTCPREMBPacket remb) {
 		// Update the cache with the new data we've gathered.
 		if (ssrc != 0 && ((reports != null && reports.length != 0) || remb != null)) {
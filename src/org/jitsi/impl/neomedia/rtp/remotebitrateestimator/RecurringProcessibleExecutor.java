@@ -6,18 +6,27 @@
  */
 package org.jitsi.impl.neomedia.rtp.remotebitrateestimator;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
+import org.jitsi.util.HashedWheelTimer;
+import org.jitsi.util.LatencyHistogram;
 import org.jitsi.util.Logger;
 
 /**
+ * Executes {@link RecurringProcessible}s on a {@link HashedWheelTimer}. Each
+ * registered <tt>RecurringProcessible</tt> is scheduled individually for the
+ * time it reports through its
+ * {@link RecurringProcessible#getTimeUntilNextProcess()} so the cost of an
+ * execution does not depend on the number of registered
+ * <tt>RecurringProcessible</tt>s.
+ *
  * webrtc/webrtc/modules/utility/interface/process_thread.h
  * webrtc/webrtc/modules/utility/source/process_thread_impl.cc
  * webrtc/webrtc/modules/utility/source/process_thread_impl.h
- * 
+ *
  * @author Lyubomir Marinov
  */
 public class RecurringProcessibleExecutor implements Executor {
@@ -27,27 +36,75 @@ public class RecurringProcessibleExecutor implements Executor {
 	 */
 	private static final Logger logger = Logger.getLogger(RecurringProcessibleExecutor.class);
 
-	private final List<RecurringProcessible> recurringProcessibles = new LinkedList<RecurringProcessible>();
+	/**
+	 * The maximum number of milliseconds between two consecutive queries of
+	 * the time until the next process of a <tt>RecurringProcessible</tt>. A
+	 * <tt>RecurringProcessible</tt> may become due earlier than it has
+	 * reported e.g. when it receives packets.
+	 */
+	private static final long MAX_TIME_TO_NEXT = 100L;
+
+	/**
+	 * The histogram of the delays in milliseconds between the times at which
+	 * the registered <tt>RecurringProcessible</tt>s became due and the times
+	 * at which they were processed.
+	 */
+	private final LatencyHistogram lagHistogram = new LatencyHistogram(12);
+
+	private final Map<RecurringProcessible, Registration> recurringProcessibles = new HashMap<RecurringProcessible, Registration>();
+
+	/**
+	 * The <tt>HashedWheelTimer</tt> on which the registered
+	 * <tt>RecurringProcessible</tt>s are executed.
+	 */
+	private final HashedWheelTimer timer;
 
-	private Thread thread;
+	/**
+	 * Initializes a new <tt>RecurringProcessibleExecutor</tt> instance which is
+	 * to execute its <tt>RecurringProcessible</tt>s on the shared
+	 * <tt>HashedWheelTimer</tt>.
+	 */
+	public RecurringProcessibleExecutor() {
+		this(HashedWheelTimer.getSharedInstance());
+	}
+
+	/**
+	 * Initializes a new <tt>RecurringProcessibleExecutor</tt> instance which is
+	 * to execute its <tt>RecurringProcessible</tt>s on a specific
+	 * <tt>HashedWheelTimer</tt>.
+	 *
+	 * @param timer
+	 *            the <tt>HashedWheelTimer</tt> on which the new instance is to
+	 *            execute its <tt>RecurringProcessible</tt>s
+	 */
+	public RecurringProcessibleExecutor(HashedWheelTimer timer) {
+		if (timer == null)
+			throw new NullPointerException("timer");
+
+		this.timer = timer;
+	}
 
 	public boolean deRegisterRecurringProcessible(RecurringProcessible recurringProcessible) {
 		if (recurringProcessible == null) {
 			return false;
 		} else {
-			synchronized (recurringProcessibles) {
-				boolean removed = recurringProcessibles.remove(recurringProcessible);
+			Registration registration;
 
-				if (removed)
-					startOrNotifyThread();
-				return removed;
+			synchronized (recurringProcessibles) {
+				registration = recurringProcessibles.remove(recurringProcessible);
+			}
+			if (registration == null) {
+				return false;
+			} else {
+				registration.cancel();
+				return true;
 			}
 		}
 	}
 
 	/**
 	 * {@inheritDoc}
-	 * 
+	 *
 	 * Accepts for execution {@link RecurringProcessible}s only.
 	 */
 	@Override
@@ -61,131 +118,124 @@ public class RecurringProcessibleExecutor implements Executor {
 		}
 	}
 
-	private boolean process() {
-		// Wait for the recurringProcessible that should be called next, but
-		// don't block thread longer than 100 ms.
-		long minTimeToNext = 100L;
-
-		synchronized (recurringProcessibles) {
-			if (!Thread.currentThread().equals(thread) || recurringProcessibles.isEmpty()) {
-				return false;
-			}
-			for (RecurringProcessible recurringProcessible : recurringProcessibles) {
-				long timeToNext = recurringProcessible.getTimeUntilNextProcess();
-
-				if (minTimeToNext > timeToNext)
-					minTimeToNext = timeToNext;
-			}
-		}
-
-		if (minTimeToNext > 0L) {
-			synchronized (recurringProcessibles) {
-				if (!Thread.currentThread().equals(thread) || recurringProcessibles.isEmpty()) {
-					return false;
-				}
-				try {
-					recurringProcessibles.wait(minTimeToNext);
-				} catch (InterruptedException ie) {
-					Thread.currentThread().interrupt();
-				}
-				return true;
-			}
-		}
-		synchronized (recurringProcessibles) {
-			for (RecurringProcessible recurringProcessible : recurringProcessibles) {
-				long timeToNext = recurringProcessible.getTimeUntilNextProcess();
-
-				if (timeToNext < 1L) {
-					try {
-						recurringProcessible.process();
-					} catch (Throwable t) {
-						if (t instanceof InterruptedException) {
-							Thread.currentThread().interrupt();
-						} else if (t instanceof ThreadDeath) {
-							throw (ThreadDeath) t;
-						} else {
-							logger.error("The invocation of the method " + recurringProcessible.getClass().getName() + ".process() threw an exception.", t);
-						}
-					}
-				}
-			}
-		}
-		return true;
+	/**
+	 * Gets the histogram of the delays in milliseconds between the times at
+	 * which the <tt>RecurringProcessible</tt>s of this instance became due and
+	 * the times at which they were processed.
+	 *
+	 * @return the histogram of the scheduling lags of this instance
+	 */
+	public LatencyHistogram getSchedulingLagHistogram() {
+		return lagHistogram;
 	}
 
 	public boolean registerRecurringProcessible(RecurringProcessible recurringProcessible) {
 		if (recurringProcessible == null) {
 			throw new NullPointerException("recurringProcessible");
 		} else {
+			Registration registration;
+
 			synchronized (recurringProcessibles) {
 				// Only allow recurringProcessible to be registered once.
-				if (recurringProcessibles.contains(recurringProcessible)) {
+				if (recurringProcessibles.containsKey(recurringProcessible))
 					return false;
-				} else {
-					recurringProcessibles.add(0, recurringProcessible);
-
-					// Wake the thread calling process() to update the waiting
-					// time. The waiting time for the just registered
-					// recurringProcessible may be shorter than all other
-					// registered recurringProcessibles.
-					startOrNotifyThread();
-					return true;
-				}
+
+				registration = new Registration(recurringProcessible);
+				recurringProcessibles.put(recurringProcessible, registration);
 			}
+			// The just registered recurringProcessible may want to be
+			// processed right away.
+			registration.schedule(0L);
+			return true;
 		}
 	}
 
 	/**
-	 * Runs in {@link #thread}.
+	 * Represents the registration of a <tt>RecurringProcessible</tt> with a
+	 * <tt>RecurringProcessibleExecutor</tt> and schedules its executions on
+	 * the <tt>HashedWheelTimer</tt> of the latter.
 	 */
-	private void runInThread() {
-		try {
-			while (process())
-				;
-		} finally {
-			synchronized (recurringProcessibles) {
-				if (Thread.currentThread().equals(thread)) {
-					thread = null;
-					// If the (current) thread dies in an unexpected way, make
-					// sure that a new thread will replace it if necessary.
-					startOrNotifyThread();
-				}
+	private class Registration implements Runnable {
+		private boolean cancelled;
+
+		/**
+		 * The time in milliseconds at which {@link #recurringProcessible} is
+		 * due to be processed or <tt>-1</tt> if the current
+		 * <tt>Timeout</tt> has been scheduled to query it only.
+		 */
+		private long dueTime = -1L;
+
+		private final RecurringProcessible recurringProcessible;
+
+		private HashedWheelTimer.Timeout timeout;
+
+		public Registration(RecurringProcessible recurringProcessible) {
+			this.recurringProcessible = recurringProcessible;
+		}
+
+		public synchronized void cancel() {
+			cancelled = true;
+			if (timeout != null) {
+				timeout.cancel();
+				timeout = null;
 			}
 		}
-	}
 
-	/**
-	 * Starts or notifies {@link #thread} depending on and in accord with the
-	 * state of this instance.
-	 */
-	private void startOrNotifyThread() {
-		synchronized (recurringProcessibles) {
-			if (this.thread == null) {
-				if (!recurringProcessibles.isEmpty()) {
-					Thread thread = new Thread() {
-						@Override
-						public void run() {
-							RecurringProcessibleExecutor.this.runInThread();
-						}
-					};
-
-					thread.setDaemon(true);
-					thread.setName(RecurringProcessibleExecutor.class.getName() + ".thread");
-
-					boolean started = false;
-
-					this.thread = thread;
-					try {
-						thread.start();
-						started = true;
-					} finally {
-						if (!started && thread.equals(this.thread))
-							this.thread = null;
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (cancelled)
+					return;
+			}
+
+			long timeToNext = recurringProcessible.getTimeUntilNextProcess();
+
+			if (timeToNext < 1L) {
+				long dueTime;
+
+				synchronized (this) {
+					dueTime = this.dueTime;
+				}
+				if (dueTime != -1L)
+					lagHistogram.record(System.currentTimeMillis() - dueTime);
+
+				try {
+					recurringProcessible.process();
+				} catch (Throwable t) {
+					if (t instanceof InterruptedException) {
+						Thread.currentThread().interrupt();
+					} else if (t instanceof ThreadDeath) {
+						throw (ThreadDeath) t;
+					} else {
+						logger.error("The invocation of the method " + recurringProcessible.getClass().getName() + ".process() threw an exception.", t);
 					}
 				}
+				timeToNext = recurringProcessible.getTimeUntilNextProcess();
+			}
+			schedule(timeToNext);
+		}
+
+		/**
+		 * Schedules the next execution of this <tt>Registration</tt>.
+		 *
+		 * @param timeToNext
+		 *            the number of milliseconds until
+		 *            {@link #recurringProcessible} wants to be processed
+		 */
+		public synchronized void schedule(long timeToNext) {
+			if (cancelled)
+				return;
+
+			long delay;
+
+			if (timeToNext > MAX_TIME_TO_NEXT) {
+				delay = MAX_TIME_TO_NEXT;
+				dueTime = -1L;
 			} else {
-				recurringProcessibles.notifyAll();
+				delay = Math.max(0L, timeToNext);
+				dueTime = System.currentTimeMillis() + delay;
 			}
+			timeout = timer.newTimeout(this, delay);
 		}
 	}
 }
@@ -0,0 +1,643 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.remotebitrateestimator;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.sf.fmj.media.rtp.util.RTPPacket;
+
+import org.jitsi.service.neomedia.rtp.RemoteBitrateEstimator;
+
+/**
+ * Estimates the aggregate bitrate of all incoming RTP streams (SSRCs) of a
+ * transport from the abs-send-time RTP header extension. Since the send times
+ * of all SSRCs share one clock, a single over-use detector serves them all and
+ * packets of different SSRCs sent in a burst form the probe clusters which
+ * allow a quick initial ramp-up.
+ *
+ * Packets are ingested without taking a lock: {@link #incomingPacket(long,
+ * int, int, long, int)} only publishes them into a bounded ring of primitive
+ * arrays which {@link #process()} drains on the thread of the
+ * <tt>RecurringProcessibleExecutor</tt> the instance is registered with. The
+ * per-SSRC state is kept in an open-addressing table of primitive arrays.
+ *
+ * webrtc/webrtc/modules/remote_bitrate_estimator/
+ * remote_bitrate_estimator_abs_send_time.cc
+ */
+public class RemoteBitrateEstimatorAbsSendTime implements CallStatsObserver, RecurringProcessible, RemoteBitrateEstimator {
+	/**
+	 * The number of fractional bits of the abs-send-time (6.18 fixed point).
+	 */
+	private static final int kAbsSendTimeFraction = 18;
+
+	/**
+	 * The number of milliseconds between two consecutive drains of the ingest
+	 * ring.
+	 */
+	private static final int kDrainIntervalMs = 25;
+
+	/**
+	 * The capacity of the ingest ring. Must be a power of 2.
+	 */
+	private static final int kIngestCapacity = 1 << 12;
+
+	/**
+	 * The number of milliseconds after the first packet during which probes
+	 * are looked for.
+	 */
+	private static final int kInitialProbingIntervalMs = 2000;
+
+	/**
+	 * The maximum number of probes remembered.
+	 */
+	private static final int kMaxProbePackets = 15;
+
+	/**
+	 * The minimum number of probes in a cluster for the cluster to be used.
+	 */
+	private static final int kMinClusterSize = 4;
+
+	/**
+	 * The minimum payload size of a packet for the packet to be considered a
+	 * probe.
+	 */
+	private static final int kMinProbePacketSize = 200;
+
+	private static final int kProcessIntervalMs = 500;
+
+	private static final int kStreamTimeOutMs = 2000;
+
+	/**
+	 * The length in milliseconds of the groups of packets sent in a burst
+	 * which the over-use detector treats as frames.
+	 */
+	private static final int kTimestampGroupLengthMs = 5;
+
+	private final Object critSect = new Object();
+
+	/**
+	 * The number of packets dropped because the ingest ring was full.
+	 */
+	private final AtomicLong droppedPackets = new AtomicLong();
+
+	private long firstPacketTimeMs = -1L;
+
+	private final RateStatistics incomingBitrate = new RateStatistics(500, 8000F);
+
+	/**
+	 * The index of the next slot of the ingest ring to be drained. Accessed by
+	 * the draining thread only.
+	 */
+	private long ingestHead;
+
+	private final long[] ingestArrivalTimesMs = new long[kIngestCapacity];
+
+	private final int[] ingestAbsSendTimes = new int[kIngestCapacity];
+
+	private final int[] ingestPayloadSizes = new int[kIngestCapacity];
+
+	/**
+	 * The sequence numbers of the slots of the ingest ring which publish the
+	 * slots from the producers to the draining thread.
+	 */
+	private final AtomicLongArray ingestSequences = new AtomicLongArray(kIngestCapacity);
+
+	private final int[] ingestSsrcs = new int[kIngestCapacity];
+
+	/**
+	 * The index of the next slot of the ingest ring to be claimed by a
+	 * producer.
+	 */
+	private final AtomicLong ingestTail = new AtomicLong();
+
+	/**
+	 * Reduces the effects of allocations and garbage collection of the method
+	 * <tt>updateEstimate</tt>.
+	 */
+	private final RateControlInput input = new RateControlInput(BandwidthUsage.kBwNormal, 0L, 0D);
+
+	private long lastDrainTime = -1L;
+
+	private long lastProcessTime = -1L;
+
+	/**
+	 * The last unwrapped abs-send-time or <tt>-1</tt>.
+	 */
+	private long lastSendTime = -1L;
+
+	private final RemoteBitrateObserver observer;
+
+	private final OveruseDetector overuseDetector = new OveruseDetector();
+
+	/**
+	 * The number of probes in {@link #probeSendTimesMs},
+	 * {@link #probeRecvTimesMs} and {@link #probeSizes}.
+	 */
+	private int probeCount;
+
+	private final long[] probeRecvTimesMs = new long[kMaxProbePackets];
+
+	private final long[] probeSendTimesMs = new long[kMaxProbePackets];
+
+	private final int[] probeSizes = new int[kMaxProbePackets];
+
+	private final RemoteRateControl remoteRate;
+
+	/**
+	 * The number of SSRCs in {@link #ssrcKeys}.
+	 */
+	private int ssrcCount;
+
+	/**
+	 * The open-addressing table of the SSRCs being received.
+	 */
+	private int[] ssrcKeys = new int[16];
+
+	/**
+	 * The times in milliseconds at which the SSRCs in {@link #ssrcKeys} last
+	 * received a packet.
+	 */
+	private long[] ssrcLastPacketTimesMs = new long[16];
+
+	/**
+	 * The indicators which determine whether the slots of {@link #ssrcKeys}
+	 * are in use.
+	 */
+	private boolean[] ssrcUsed = new boolean[16];
+
+	/**
+	 * The set of synchronization source identifiers (SSRCs) currently being
+	 * received. Represents an unmodifiable copy/snapshot of the current keys of
+	 * {@link #ssrcKeys} suitable for public access.
+	 */
+	private Collection<Integer> ssrcs;
+
+	public RemoteBitrateEstimatorAbsSendTime(RemoteBitrateObserver observer, long minBitrateBps) {
+		this.observer = observer;
+		remoteRate = new RemoteRateControl(minBitrateBps);
+
+		for (int i = 0; i < kIngestCapacity; i++)
+			ingestSequences.set(i, i);
+	}
+
+	/**
+	 * Finds the best probe cluster among the probes received so far and, if
+	 * its bitrate is higher than the current estimate, makes it the current
+	 * estimate. Should be called with {@link #critSect} held.
+	 *
+	 * @param nowMs
+	 *            the local time
+	 * @return <tt>true</tt> if the estimate was changed; otherwise,
+	 *         <tt>false</tt>
+	 */
+	private boolean processClusters(long nowMs) {
+		long bestBitrate = -1L;
+		int clusterStart = 1;
+
+		// Split the probes into clusters of similar send deltas.
+		for (int i = 2; i <= probeCount; i++) {
+			boolean endOfCluster = (i == probeCount);
+
+			if (!endOfCluster) {
+				long sendDelta = probeSendTimesMs[i] - probeSendTimesMs[i - 1];
+				long prevSendDelta = probeSendTimesMs[i - 1] - probeSendTimesMs[i - 2];
+
+				endOfCluster = Math.abs(sendDelta - prevSendDelta) > 2;
+			}
+			if (!endOfCluster)
+				continue;
+
+			// The cluster consists of the deltas between the probes in
+			// [clusterStart - 1, i - 1].
+			int count = i - clusterStart;
+
+			if (count >= kMinClusterSize) {
+				long sendSpanMs = probeSendTimesMs[i - 1] - probeSendTimesMs[clusterStart - 1];
+				long recvSpanMs = probeRecvTimesMs[i - 1] - probeRecvTimesMs[clusterStart - 1];
+				long size = 0L;
+
+				for (int j = clusterStart; j < i; j++)
+					size += probeSizes[j];
+				if (sendSpanMs > 0L && recvSpanMs > 0L) {
+					long sendBitrate = size * 8L * 1000L / sendSpanMs;
+					long recvBitrate = size * 8L * 1000L / recvSpanMs;
+					long probeBitrate = Math.min(sendBitrate, recvBitrate);
+
+					// A cluster which was received much slower than it was sent
+					// has hit the capacity of the path and is not a measure
+					// of it.
+					if (recvSpanMs <= 2 * sendSpanMs && probeBitrate > bestBitrate)
+						bestBitrate = probeBitrate;
+				}
+			}
+			clusterStart = i;
+		}
+
+		if (bestBitrate > 0L && (!remoteRate.isValidEstimate() || bestBitrate > remoteRate.getLatestEstimate())) {
+			remoteRate.setEstimate(bestBitrate, nowMs);
+			probeCount = 0;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Drains the ingest ring and feeds the drained packets into the over-use
+	 * detector. Should be called with {@link #critSect} held.
+	 *
+	 * @param nowMs
+	 *            the local time
+	 */
+	private void drainIngestRing(long nowMs) {
+		AtomicLongArray ingestSequences = this.ingestSequences;
+		int mask = kIngestCapacity - 1;
+
+		for (;;) {
+			long head = ingestHead;
+			int index = (int) head & mask;
+
+			if (ingestSequences.get(index) != head + 1)
+				break;
+
+			long arrivalTimeMs = ingestArrivalTimesMs[index];
+			int absSendTime = ingestAbsSendTimes[index];
+			int payloadSize = ingestPayloadSizes[index];
+			int ssrc = ingestSsrcs[index];
+
+			// Release the slot to the producers.
+			ingestSequences.lazySet(index, head + kIngestCapacity);
+			ingestHead = head + 1;
+
+			processPacket(arrivalTimeMs, payloadSize, ssrc, absSendTime, nowMs);
+		}
+	}
+
+	/**
+	 * Gets the number of packets which were dropped because they arrived
+	 * faster than they could be processed.
+	 *
+	 * @return the number of dropped packets
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPackets.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLatestEstimate() {
+		long bitrateBps;
+
+		synchronized (critSect) {
+			if (remoteRate.isValidEstimate()) {
+				if (getSsrcs().isEmpty())
+					bitrateBps = 0L;
+				else
+					bitrateBps = remoteRate.getLatestEstimate();
+			} else {
+				bitrateBps = -1L;
+			}
+		}
+		return bitrateBps;
+	}
+
+	@Override
+	public Collection<Integer> getSsrcs() {
+		synchronized (critSect) {
+			if (ssrcs == null) {
+				List<Integer> ssrcs = new ArrayList<Integer>(ssrcCount);
+
+				for (int i = 0; i < ssrcKeys.length; i++) {
+					if (ssrcUsed[i])
+						ssrcs.add(Integer.valueOf(ssrcKeys[i]));
+				}
+				this.ssrcs = Collections.unmodifiableCollection(ssrcs);
+			}
+			return ssrcs;
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getTimeUntilNextProcess() {
+		return (lastDrainTime < 0L) ? 0L : lastDrainTime + kDrainIntervalMs - System.currentTimeMillis();
+	}
+
+	/**
+	 * Called for each incoming packet which carries the abs-send-time RTP
+	 * header extension. Does not take any lock.
+	 *
+	 * @param arrivalTimeMs
+	 *            can be of an arbitrary time base
+	 * @param payloadSize
+	 *            the packet size excluding headers
+	 * @param ssrc
+	 * @param rtpTimestamp
+	 * @param absSendTime
+	 *            the 24-bit value of the abs-send-time RTP header extension
+	 *            or <tt>-1</tt> if the packet does not carry it
+	 */
+	public void incomingPacket(long arrivalTimeMs, int payloadSize, int ssrc, long rtpTimestamp, int absSendTime) {
+		// Without abs-send-time the packet cannot be used by this estimator.
+		if (absSendTime < 0)
+			return;
+
+		AtomicLongArray ingestSequences = this.ingestSequences;
+		int mask = kIngestCapacity - 1;
+		long tail;
+		int index;
+
+		for (;;) {
+			tail = ingestTail.get();
+			index = (int) tail & mask;
+
+			long sequence = ingestSequences.get(index);
+
+			if (sequence == tail) {
+				if (ingestTail.compareAndSet(tail, tail + 1))
+					break;
+			} else if (sequence < tail) {
+				// The ring is full. Do not apply back-pressure on the
+				// receiving thread.
+				droppedPackets.incrementAndGet();
+				return;
+			}
+		}
+
+		ingestArrivalTimesMs[index] = arrivalTimeMs;
+		ingestAbsSendTimes[index] = absSendTime & 0xFFFFFF;
+		ingestPayloadSizes[index] = payloadSize;
+		ingestSsrcs[index] = ssrc;
+		// Publish the slot to the draining thread.
+		ingestSequences.lazySet(index, tail + 1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet carries no abs-send-time and is ignored.
+	 */
+	@Override
+	public void incomingPacket(long arrivalTimeMs, int payloadSize, int ssrc, long rtpTimestamp) {
+		incomingPacket(arrivalTimeMs, payloadSize, ssrc, rtpTimestamp, -1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet carries no abs-send-time and is ignored.
+	 */
+	@Override
+	public void incomingPacket(long arrivalTimeMs, int payloadSize, RTPPacket header) {
+		incomingPacket(arrivalTimeMs, payloadSize, header.ssrc, header.timestamp, -1);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onRttUpdate(long rtt) {
+		synchronized (critSect) {
+			remoteRate.setRtt(rtt);
+		}
+	}
+
+	/**
+	 * Drains the ingest ring and triggers a new estimate calculation
+	 * periodically.
+	 *
+	 * @return
+	 */
+	@Override
+	public long process() {
+		long nowMs = System.currentTimeMillis();
+
+		synchronized (critSect) {
+			drainIngestRing(nowMs);
+			lastDrainTime = nowMs;
+
+			if (lastProcessTime < 0L || nowMs - lastProcessTime >= kProcessIntervalMs) {
+				updateEstimate(nowMs);
+				lastProcessTime = nowMs;
+			}
+		}
+		return 0L;
+	}
+
+	/**
+	 * Processes a packet drained from the ingest ring. Should be called with
+	 * {@link #critSect} held.
+	 */
+	private void processPacket(long arrivalTimeMs, int payloadSize, int ssrc, int absSendTime, long nowMs) {
+		incomingBitrate.update(payloadSize, arrivalTimeMs);
+		touchSsrc(ssrc, nowMs);
+		if (firstPacketTimeMs < 0L)
+			firstPacketTimeMs = nowMs;
+
+		// Unwrap the 24-bit abs-send-time.
+		long sendTime;
+
+		if (lastSendTime < 0L) {
+			sendTime = absSendTime;
+		} else {
+			int diff = (absSendTime - (int) (lastSendTime & 0xFFFFFF)) << 8 >> 8;
+
+			sendTime = lastSendTime + diff;
+		}
+		if (sendTime > lastSendTime)
+			lastSendTime = sendTime;
+
+		long sendTimeMs = (sendTime * 1000L) >> kAbsSendTimeFraction;
+
+		// Look for probes during the initial ramp-up.
+		boolean estimateChanged = false;
+
+		if (payloadSize > kMinProbePacketSize && (!remoteRate.isValidEstimate() || nowMs - firstPacketTimeMs < kInitialProbingIntervalMs)) {
+			if (probeCount == kMaxProbePackets) {
+				System.arraycopy(probeSendTimesMs, 1, probeSendTimesMs, 0, probeCount - 1);
+				System.arraycopy(probeRecvTimesMs, 1, probeRecvTimesMs, 0, probeCount - 1);
+				System.arraycopy(probeSizes, 1, probeSizes, 0, probeCount - 1);
+				probeCount--;
+			}
+			probeSendTimesMs[probeCount] = sendTimeMs;
+			probeRecvTimesMs[probeCount] = arrivalTimeMs;
+			probeSizes[probeCount] = payloadSize;
+			probeCount++;
+			if (probeCount > kMinClusterSize)
+				estimateChanged = processClusters(nowMs);
+		}
+
+		BandwidthUsage priorState = overuseDetector.getState();
+		long groupTimeMs = sendTimeMs - (sendTimeMs % kTimestampGroupLengthMs);
+
+		overuseDetector.setPacketTimeMs(nowMs);
+		// Feed the timestamp groups as 90 kHz timestamps because the over-use
+		// detector drops packets with equal millisecond timestamps.
+		overuseDetector.update(payloadSize, -1L, groupTimeMs * 90L, arrivalTimeMs);
+		if (overuseDetector.getState() == BandwidthUsage.kBwOverusing) {
+			long incomingBitrate = this.incomingBitrate.getRate(arrivalTimeMs);
+
+			// The first overuse should immediately trigger a new estimate.
+			if (priorState != BandwidthUsage.kBwOverusing || remoteRate.isTimeToReduceFurther(nowMs, incomingBitrate)) {
+				updateEstimate(nowMs);
+				estimateChanged = false;
+			}
+		}
+		if (estimateChanged)
+			notifyObserver(remoteRate.getLatestEstimate());
+	}
+
+	/**
+	 * Notifies {@link #observer} about a new estimate. Should be called with
+	 * {@link #critSect} held.
+	 */
+	private void notifyObserver(long bitrate) {
+		RemoteBitrateObserver observer = this.observer;
+
+		if (observer != null)
+			observer.onReceiveBitrateChanged(getSsrcs(), bitrate);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeStream(int ssrc) {
+		synchronized (critSect) {
+			removeSsrc(ssrc);
+		}
+	}
+
+	/**
+	 * Removes a specific SSRC from the open-addressing SSRC table. Should be
+	 * called with {@link #critSect} held.
+	 */
+	private void removeSsrc(int ssrc) {
+		int mask = ssrcKeys.length - 1;
+		int i = (ssrc * 0x9E3779B9) >>> 16 & mask;
+
+		while (ssrcUsed[i]) {
+			if (ssrcKeys[i] == ssrc) {
+				ssrcUsed[i] = false;
+				ssrcCount--;
+				ssrcs = null;
+				// Re-insert the entries of the probe sequence which follows.
+				for (int j = (i + 1) & mask; ssrcUsed[j]; j = (j + 1) & mask) {
+					int key = ssrcKeys[j];
+					long lastPacketTimeMs = ssrcLastPacketTimesMs[j];
+
+					ssrcUsed[j] = false;
+					ssrcCount--;
+					putSsrc(key, lastPacketTimeMs);
+				}
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Puts a specific SSRC into the open-addressing SSRC table. Should be
+	 * called with {@link #critSect} held.
+	 */
+	private void putSsrc(int ssrc, long lastPacketTimeMs) {
+		if (2 * (ssrcCount + 1) > ssrcKeys.length) {
+			// Grow the table and rehash. Happens only when the number of SSRCs
+			// reaches a new maximum.
+			int[] oldKeys = ssrcKeys;
+			long[] oldLastPacketTimesMs = ssrcLastPacketTimesMs;
+			boolean[] oldUsed = ssrcUsed;
+
+			ssrcKeys = new int[2 * oldKeys.length];
+			ssrcLastPacketTimesMs = new long[ssrcKeys.length];
+			ssrcUsed = new boolean[ssrcKeys.length];
+			ssrcCount = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldUsed[i])
+					putSsrc(oldKeys[i], oldLastPacketTimesMs[i]);
+			}
+		}
+
+		int mask = ssrcKeys.length - 1;
+		int i = (ssrc * 0x9E3779B9) >>> 16 & mask;
+
+		while (ssrcUsed[i] && ssrcKeys[i] != ssrc)
+			i = (i + 1) & mask;
+		if (!ssrcUsed[i]) {
+			ssrcUsed[i] = true;
+			ssrcKeys[i] = ssrc;
+			ssrcCount++;
+			ssrcs = null;
+		}
+		ssrcLastPacketTimesMs[i] = lastPacketTimeMs;
+	}
+
+	/**
+	 * Records that a specific SSRC has received a packet. Should be called
+	 * with {@link #critSect} held.
+	 */
+	private void touchSsrc(int ssrc, long nowMs) {
+		int mask = ssrcKeys.length - 1;
+		int i = (ssrc * 0x9E3779B9) >>> 16 & mask;
+
+		while (ssrcUsed[i]) {
+			if (ssrcKeys[i] == ssrc) {
+				ssrcLastPacketTimesMs[i] = nowMs;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		// This is a new SSRC.
+		putSsrc(ssrc, nowMs);
+	}
+
+	/**
+	 * Triggers a new estimate calculation. Should be called with
+	 * {@link #critSect} held.
+	 *
+	 * @param nowMs
+	 */
+	private void updateEstimate(long nowMs) {
+		// Time out the SSRCs which haven't received packets for
+		// kStreamTimeOutMs milliseconds.
+		for (int i = 0; i < ssrcKeys.length; i++) {
+			if (ssrcUsed[i] && nowMs - ssrcLastPacketTimesMs[i] > kStreamTimeOutMs) {
+				removeSsrc(ssrcKeys[i]);
+				// The removal may have moved a later entry to i.
+				i--;
+			}
+		}
+		// We can't update the estimate if we don't have any active streams.
+		if (ssrcCount == 0) {
+			remoteRate.reset();
+			firstPacketTimeMs = -1L;
+			probeCount = 0;
+			return;
+		}
+
+		RateControlInput input = this.input;
+
+		input.bwState = overuseDetector.getState();
+		input.incomingBitRate = incomingBitrate.getRate(nowMs);
+		input.noiseVar = overuseDetector.getNoiseVar();
+
+		RateControlRegion region = remoteRate.update(input, nowMs);
+		long targetBitrate = remoteRate.updateBandwidthEstimate(nowMs);
+
+		if (remoteRate.isValidEstimate())
+			notifyObserver(targetBitrate);
+		overuseDetector.setRateControlRegion(region);
+	}
+}
@@ -274,6 +274,22 @@ public class RemoteRateControl {
 		rtt = kDefaultRttMs;
 	}
 
+	/**
+	 * Sets the current estimate to a specific value, e.g. to the bitrate of a
+	 * successful probe, and marks the estimate as valid.
+	 * 
+	 * @param bitrateBps
+	 *            the bitrate in bits per second to set as the current estimate
+	 * @param nowMs
+	 *            the local time
+	 */
+	public void setEstimate(long bitrateBps, long nowMs) {
+		updated = true;
+		initializedBitRate = true;
+		currentBitRate = Math.max(minConfiguredBitRate, Math.min(maxConfiguredBitRate, bitrateBps));
+		lastBitRateChange = nowMs;
+	}
+
 	public void setRtt(long rtt) {
 		this.rtt = rtt;
 	}
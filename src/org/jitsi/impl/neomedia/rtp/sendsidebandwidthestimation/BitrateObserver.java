@@ -0,0 +1,29 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+/**
+ * <tt>BitrateObserver</tt> is used to signal changes in the bitrate estimate
+ * of the outgoing streams.
+ * 
+ * webrtc/webrtc/modules/bitrate_controller/include/bitrate_controller.h
+ */
+public interface BitrateObserver {
+	/**
+	 * Called when the send-side bandwidth estimation has a new target bitrate
+	 * for the outgoing streams.
+	 * 
+	 * @param targetBitrateBps
+	 *            the new target bitrate in bits per second
+	 * @param fractionLoss
+	 *            the latest reported fraction of lost packets in units of
+	 *            1/256
+	 * @param rttMs
+	 *            the latest round-trip time in milliseconds
+	 */
+	void onNetworkChanged(long targetBitrateBps, int fractionLoss, long rttMs);
+}
@@ -0,0 +1,142 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.BandwidthUsage;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.OveruseDetector;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RateControlInput;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RateControlRegion;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RateStatistics;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RemoteRateControl;
+
+/**
+ * Estimates the available send bandwidth from the per-packet send and arrival
+ * times reported by transport-wide congestion control feedback. Reuses the
+ * {@link OveruseDetector} and {@link RemoteRateControl} of the receive-side
+ * estimation with the send times of the packets in place of their RTP
+ * timestamps.
+ * 
+ * webrtc/webrtc/modules/congestion_controller/delay_based_bwe.cc
+ */
+public class DelayBasedBandwidthEstimator {
+	/**
+	 * The length in milliseconds of the groups of packets sent in a burst
+	 * which the over-use detector treats as frames.
+	 */
+	private static final int kTimestampGroupLengthMs = 5;
+
+	/**
+	 * The minimum number of milliseconds between two consecutive updates of
+	 * the estimate in the absence of over-use.
+	 */
+	private static final int kUpdateIntervalMs = 100;
+
+	/**
+	 * The bitrate of the packets acknowledged by the remote endpoint measured
+	 * in the time base of their arrival times.
+	 */
+	private final RateStatistics ackedBitrate = new RateStatistics(500, 8000F);
+
+	/**
+	 * Reduces the effects of allocations and garbage collection of the method
+	 * <tt>updateEstimate</tt>.
+	 */
+	private final RateControlInput input = new RateControlInput(BandwidthUsage.kBwNormal, 0L, 0D);
+
+	private long lastArrivalTimeMs = -1L;
+
+	private long lastUpdateMs = -1L;
+
+	private final OveruseDetector overuseDetector = new OveruseDetector();
+
+	private final RemoteRateControl rateControl;
+
+	public DelayBasedBandwidthEstimator(long minBitrateBps) {
+		rateControl = new RemoteRateControl(minBitrateBps);
+	}
+
+	/**
+	 * Returns the estimated send bitrate in bits per second if a valid
+	 * estimate exists; otherwise, <tt>-1</tt>.
+	 * 
+	 * @return the estimated send bitrate in bits per second if a valid
+	 *         estimate exists; otherwise, <tt>-1</tt>
+	 */
+	public long getLatestEstimate() {
+		return rateControl.isValidEstimate() ? rateControl.getLatestEstimate() : -1L;
+	}
+
+	/**
+	 * Called for each packet reported as received by transport-wide congestion
+	 * control feedback, in the order of the transport-wide sequence numbers.
+	 * 
+	 * @param sendTimeMs
+	 *            the local time at which the packet was sent
+	 * @param arrivalTimeMs
+	 *            the time at which the packet arrived at the remote endpoint
+	 *            in the time base of the remote endpoint
+	 * @param payloadSize
+	 *            the size of the packet in bytes
+	 * @param nowMs
+	 *            the local time
+	 * @return <tt>true</tt> if the estimate was updated; otherwise,
+	 *         <tt>false</tt>
+	 */
+	public boolean incomingPacketFeedback(long sendTimeMs, long arrivalTimeMs, int payloadSize, long nowMs) {
+		// The arrival times are in the time base of the remote endpoint and may
+		// be reordered by the feedback; the rate statistics want them
+		// monotonic.
+		if (arrivalTimeMs > lastArrivalTimeMs)
+			lastArrivalTimeMs = arrivalTimeMs;
+		ackedBitrate.update(payloadSize, lastArrivalTimeMs);
+
+		BandwidthUsage priorState = overuseDetector.getState();
+
+		long groupTimeMs = sendTimeMs - (sendTimeMs % kTimestampGroupLengthMs);
+
+		overuseDetector.setPacketTimeMs(nowMs);
+		// Feed the timestamp groups as 90 kHz timestamps because the over-use
+		// detector drops packets with equal millisecond timestamps.
+		overuseDetector.update(payloadSize, -1L, groupTimeMs * 90L, arrivalTimeMs);
+
+		boolean update;
+
+		if (overuseDetector.getState() == BandwidthUsage.kBwOverusing) {
+			// The first overuse should immediately trigger a new estimate.
+			update = priorState != BandwidthUsage.kBwOverusing || rateControl.isTimeToReduceFurther(nowMs, ackedBitrate.getRate(lastArrivalTimeMs));
+		} else {
+			update = lastUpdateMs < 0L || nowMs - lastUpdateMs >= kUpdateIntervalMs;
+		}
+		if (update)
+			updateEstimate(nowMs);
+		return update;
+	}
+
+	/**
+	 * Notifies this instance about a new round-trip time.
+	 * 
+	 * @param rttMs
+	 *            the round-trip time in milliseconds
+	 */
+	public void onRttUpdate(long rttMs) {
+		rateControl.setRtt(rttMs);
+	}
+
+	private void updateEstimate(long nowMs) {
+		RateControlInput input = this.input;
+
+		input.bwState = overuseDetector.getState();
+		input.incomingBitRate = ackedBitrate.getRate(lastArrivalTimeMs);
+		input.noiseVar = overuseDetector.getNoiseVar();
+
+		RateControlRegion region = rateControl.update(input, nowMs);
+
+		rateControl.updateBandwidthEstimate(nowMs);
+		overuseDetector.setRateControlRegion(region);
+		lastUpdateMs = nowMs;
+	}
+}
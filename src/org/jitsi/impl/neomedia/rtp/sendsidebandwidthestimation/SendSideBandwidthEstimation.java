@@ -0,0 +1,257 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation;
+
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.CallStatsObserver;
+
+/**
+ * Implements the sender-side bandwidth estimation of the outgoing streams. The
+ * estimate is loss-based (driven by the fraction lost of RTCP report blocks)
+ * and capped by the delay-based estimate computed from transport-wide
+ * congestion control feedback and by the receiver estimate (REMB), if any.
+ *
+ * webrtc/webrtc/modules/bitrate_controller/send_side_bandwidth_estimation.cc
+ * webrtc/webrtc/modules/bitrate_controller/send_side_bandwidth_estimation.h
+ */
+public class SendSideBandwidthEstimation implements CallStatsObserver {
+	private static final long kBweIncreaseIntervalMs = 1000L;
+
+	private static final long kBweDecreaseIntervalMs = 300L;
+
+	private static final long kDefaultMaxBitrateBps = 1000000000L;
+
+	private static final long kDefaultMinBitrateBps = 10000L;
+
+	/**
+	 * The fraction lost (in units of 1/256) below which the estimate is
+	 * increased, i.e. 2%.
+	 */
+	private static final int kLowLossThreshold = 5;
+
+	/**
+	 * The fraction lost (in units of 1/256) above which the estimate is
+	 * decreased, i.e. 10%.
+	 */
+	private static final int kHighLossThreshold = 26;
+
+	private long bitrate;
+
+	private final Object critSect = new Object();
+
+	private final DelayBasedBandwidthEstimator delayBasedBwe;
+
+	/**
+	 * The delay-based estimate or <tt>-1</tt> if there is no valid one.
+	 */
+	private long delayBasedBitrate = -1L;
+
+	private int lastFractionLoss;
+
+	private long lastRttMs = 200L;
+
+	/**
+	 * The bitrate which has last been reported to {@link #observer}.
+	 */
+	private long lastReportedBitrate = -1L;
+
+	private long maxBitrateConfigured = kDefaultMaxBitrateBps;
+
+	private long minBitrateConfigured = kDefaultMinBitrateBps;
+
+	private final BitrateObserver observer;
+
+	/**
+	 * The receiver estimate (REMB) or <tt>-1</tt> if none has been received.
+	 */
+	private long receiverEstimate = -1L;
+
+	private long timeLastDecreaseMs = -1L;
+
+	private long timeLastIncreaseMs = -1L;
+
+	/**
+	 * Initializes a new <tt>SendSideBandwidthEstimation</tt> instance.
+	 *
+	 * @param observer
+	 *            the <tt>BitrateObserver</tt> to be notified about changes in
+	 *            the estimate or <tt>null</tt>
+	 * @param startBitrateBps
+	 *            the bitrate in bits per second to start the estimation with
+	 */
+	public SendSideBandwidthEstimation(BitrateObserver observer, long startBitrateBps) {
+		this.observer = observer;
+		bitrate = startBitrateBps;
+		delayBasedBwe = new DelayBasedBandwidthEstimator(minBitrateConfigured);
+	}
+
+	/**
+	 * Clamps {@link #bitrate} to the configured thresholds and to the
+	 * delay-based and receiver estimates.
+	 *
+	 * @param bitrate
+	 *            the bitrate to clamp
+	 * @return the clamped bitrate
+	 */
+	private long capBitrateToThresholds(long bitrate) {
+		if (receiverEstimate > 0L && bitrate > receiverEstimate)
+			bitrate = receiverEstimate;
+		if (delayBasedBitrate > 0L && bitrate > delayBasedBitrate)
+			bitrate = delayBasedBitrate;
+		if (bitrate > maxBitrateConfigured)
+			bitrate = maxBitrateConfigured;
+		if (bitrate < minBitrateConfigured)
+			bitrate = minBitrateConfigured;
+		return bitrate;
+	}
+
+	/**
+	 * Returns the current estimate of the available send bandwidth in bits per
+	 * second.
+	 *
+	 * @return the current estimate of the available send bandwidth in bits
+	 *         per second
+	 */
+	public long getLatestEstimate() {
+		synchronized (critSect) {
+			return bitrate;
+		}
+	}
+
+	/**
+	 * Called for each packet reported as received by transport-wide congestion
+	 * control feedback. Updates the delay-based estimate.
+	 *
+	 * @param sendTimeMs
+	 *            the local time at which the packet was sent
+	 * @param arrivalTimeMs
+	 *            the time at which the packet arrived at the remote endpoint
+	 *            in the time base of the remote endpoint
+	 * @param payloadSize
+	 *            the size of the packet in bytes
+	 */
+	public void incomingPacketFeedback(long sendTimeMs, long arrivalTimeMs, int payloadSize) {
+		long nowMs = System.currentTimeMillis();
+
+		synchronized (critSect) {
+			if (delayBasedBwe.incomingPacketFeedback(sendTimeMs, arrivalTimeMs, payloadSize, nowMs)) {
+				long delayBasedBitrate = delayBasedBwe.getLatestEstimate();
+
+				if (delayBasedBitrate > 0L && delayBasedBitrate != this.delayBasedBitrate) {
+					this.delayBasedBitrate = delayBasedBitrate;
+					bitrate = capBitrateToThresholds(bitrate);
+					notifyObserver();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Notifies {@link #observer} about the current estimate if it has changed
+	 * since the last notification. Should be called with {@link #critSect}
+	 * held.
+	 */
+	private void notifyObserver() {
+		if (bitrate != lastReportedBitrate) {
+			lastReportedBitrate = bitrate;
+
+			BitrateObserver observer = this.observer;
+
+			if (observer != null)
+				observer.onNetworkChanged(bitrate, lastFractionLoss, lastRttMs);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void onRttUpdate(long rttMs) {
+		synchronized (critSect) {
+			lastRttMs = rttMs;
+			delayBasedBwe.onRttUpdate(rttMs);
+		}
+	}
+
+	/**
+	 * Sets the minimum and maximum bitrates the estimate is to be kept within.
+	 *
+	 * @param minBitrateBps
+	 *            the minimum bitrate in bits per second
+	 * @param maxBitrateBps
+	 *            the maximum bitrate in bits per second or a non-positive value
+	 *            for no maximum
+	 */
+	public void setMinMaxBitrate(long minBitrateBps, long maxBitrateBps) {
+		synchronized (critSect) {
+			minBitrateConfigured = Math.max(minBitrateBps, kDefaultMinBitrateBps);
+			maxBitrateConfigured = (maxBitrateBps > 0L) ? Math.max(minBitrateConfigured, maxBitrateBps) : kDefaultMaxBitrateBps;
+			bitrate = capBitrateToThresholds(bitrate);
+		}
+	}
+
+	/**
+	 * Updates the loss-based estimate with the information of an RTCP report
+	 * block which reports on the outgoing stream.
+	 *
+	 * @param fractionLoss
+	 *            the fraction lost of the report block in units of 1/256
+	 * @param nowMs
+	 *            the local time
+	 */
+	public void updateReceiverBlock(int fractionLoss, long nowMs) {
+		synchronized (critSect) {
+			lastFractionLoss = fractionLoss & 0xFF;
+			updateEstimate(nowMs);
+		}
+	}
+
+	/**
+	 * Updates the receiver estimate with the bitrate of a received REMB.
+	 *
+	 * @param bitrateBps
+	 *            the bitrate in bits per second announced by the REMB
+	 */
+	public void updateReceiverEstimate(long bitrateBps) {
+		synchronized (critSect) {
+			receiverEstimate = bitrateBps;
+			bitrate = capBitrateToThresholds(bitrate);
+			notifyObserver();
+		}
+	}
+
+	/**
+	 * Updates the loss-based estimate in accord with the latest fraction lost.
+	 * Should be called with {@link #critSect} held.
+	 *
+	 * @param nowMs
+	 *            the local time
+	 */
+	private void updateEstimate(long nowMs) {
+		if (lastFractionLoss <= kLowLossThreshold) {
+			// Loss < 2%: Increase rate by 8% of the min bitrate in the last
+			// kBweIncreaseIntervalMs. Note that by remembering the bitrate
+			// over the last second one can increase at most 8% per second.
+			if (timeLastIncreaseMs < 0L || nowMs - timeLastIncreaseMs >= kBweIncreaseIntervalMs) {
+				timeLastIncreaseMs = nowMs;
+				bitrate = (long) (bitrate * 1.08D + 0.5D) + 1000L;
+			}
+		} else if (lastFractionLoss > kHighLossThreshold) {
+			// Loss > 10%: Limit the rate decreases to once a
+			// kBweDecreaseIntervalMs + rtt.
+			if (timeLastDecreaseMs < 0L || nowMs - timeLastDecreaseMs >= kBweDecreaseIntervalMs + lastRttMs) {
+				timeLastDecreaseMs = nowMs;
+				// Reduce rate: newRate = rate * (1 - 0.5 * lossRate); where
+				// packetLoss = 256 * lossRate.
+				bitrate = (bitrate * (512 - lastFractionLoss)) / 512;
+			}
+		}
+		// Loss between 2% and 10%: Do nothing.
+
+		bitrate = capBitrateToThresholds(bitrate);
+		notifyObserver();
+	}
+}
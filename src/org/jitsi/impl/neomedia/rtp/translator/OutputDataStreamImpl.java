@@ -59,6 +59,12 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable {
 	 */
 	private final boolean removeRTPHeaderExtensions;
 
+	/**
+	 * The bytes into which an RTCP compound packet is mapped for a destination
+	 * which sends or receives simulcast. Accessed by {@link #doWrite} only.
+	 */
+	private byte[] rtcpBuffer;
+
 	private final List<OutputDataStreamDesc> streams = new ArrayList<OutputDataStreamDesc>();
 
 	private final RTPTranslatorBuffer[] writeQueue = new RTPTranslatorBuffer[WRITE_QUEUE_CAPACITY];
@@ -113,6 +119,29 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable {
 		boolean removeRTPHeaderExtensions = this.removeRTPHeaderExtensions;
 		int written = 0;
 
+		/*
+		 * If the RTP packet belongs to a simulcast layer, each destination
+		 * receives a single layer with a header rewritten for it. The original
+		 * header fields are read once because the rewrites are done in place.
+		 */
+		SimulcastStream simulcastStream = (data && (exclusion != null)) ? exclusion.getSimulcastStream() : null;
+		int simulcastLayer = -1;
+		int seq = 0;
+		long timestamp = 0;
+		boolean startOfKeyFrame = false;
+		long now = 0;
+
+		if ((simulcastStream != null) && (length >= RTPHeader.SIZE)) {
+			simulcastLayer = simulcastStream.getLayer(RTPTranslatorImpl.readInt(buffer, offset + 8));
+			if (simulcastLayer != -1) {
+				now = System.currentTimeMillis();
+				seq = RTPTranslatorImpl.readUnsignedShort(buffer, offset + 2);
+				timestamp = RTPTranslatorImpl.readInt(buffer, offset + 4) & 0xFFFFFFFFL;
+				startOfKeyFrame = simulcastStream.isStartOfKeyFrame(buffer, offset, length, format);
+				simulcastStream.packetReceived(simulcastLayer, length, now);
+			}
+		}
+
 		for (int streamIndex = 0, streamCount = streams.size(); streamIndex < streamCount; streamIndex++) {
 			OutputDataStreamDesc streamDesc = streams.get(streamIndex);
 			StreamRTPManagerDesc streamRTPManagerDesc = streamDesc.connectorDesc.streamRTPManagerDesc;
@@ -121,6 +150,9 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable {
 				continue;
 
 			boolean write;
+			byte[] buf = buffer;
+			int off = offset;
+			int len = length;
 
 			if (data) {
 				/*
@@ -135,24 +167,49 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable {
 					length = removeRTPHeaderExtensions(buffer, offset, length);
 				}
 
+				len = length;
 				write = willWriteData(streamRTPManagerDesc, buffer, offset, length, format, exclusion);
 			} else {
-				write = willWriteControl(streamRTPManagerDesc, buffer, offset, length, format, exclusion);
+				if (exclusion != null) {
+					int mappedLength = mapSimulcastRTCP(translator, buffer, offset, length, streamRTPManagerDesc, exclusion);
+
+					if (mappedLength == 0)
+						continue;
+					if (mappedLength > 0) {
+						buf = rtcpBuffer;
+						off = 0;
+						len = mappedLength;
+					}
+				}
+				write = willWriteControl(streamRTPManagerDesc, buf, off, len, format, exclusion);
 			}
 			if (!write)
 				continue;
 
+			/*
+			 * Rewrite the header of a simulcast layer for the destination
+			 * before the RTPTranslatorImpl filters the packet so that the
+			 * filters see the packet the destination will receive rather than
+			 * the one rewritten for the previous destination.
+			 */
+			if (simulcastLayer != -1) {
+				SimulcastReceiver simulcastReceiver = streamRTPManagerDesc.getSimulcastReceiver(translator, simulcastStream, true);
+
+				if ((simulcastReceiver == null) || !simulcastReceiver.accept(buffer, offset, simulcastLayer, seq, timestamp, startOfKeyFrame, now))
+					continue;
+			}
+
 			/*
 			 * Allow the RTPTranslatorImpl a final chance to filter out the
 			 * packet on a source-destination basis.
 			 */
 			write = translator.willWrite(
-			/* source */exclusion, buffer, offset, length,
+			/* source */exclusion, buf, off, len,
 			/* destination */streamRTPManagerDesc, data);
 			if (!write)
 				continue;
 
-			int streamWritten = streamDesc.stream.write(buffer, offset, length);
+			int streamWritten = streamDesc.stream.write(buf, off, len);
 
 			if (written < streamWritten)
 				written = streamWritten;
@@ -160,6 +217,62 @@ class OutputDataStreamImpl implements OutputDataStream, Runnable {
 		return written;
 	}
 
+	/**
+	 * Maps an RTCP compound packet between the single stream seen by the
+	 * receivers of a <tt>SimulcastStream</tt> and the layers of its sender.
+	 * The feedback of a receiver is mapped to the layer forwarded to it and
+	 * the reports of the sender are mapped to the single stream. The mapping
+	 * is specific to each destination so it is written into
+	 * {@link #rtcpBuffer} rather than in place.
+	 *
+	 * @param translator
+	 *            the <tt>RTPTranslatorImpl</tt> which forwards the layers
+	 * @param buffer
+	 *            the bytes of the RTCP compound packet
+	 * @param offset
+	 *            the offset in <tt>buffer</tt> at which the RTCP compound
+	 *            packet begins
+	 * @param length
+	 *            the length of the RTCP compound packet
+	 * @param destination
+	 *            the <tt>StreamRTPManagerDesc</tt> into which the RTCP
+	 *            compound packet is to be written
+	 * @param source
+	 *            the <tt>StreamRTPManagerDesc</tt> which sent the RTCP
+	 *            compound packet
+	 * @return the length of the RTCP compound packet mapped into
+	 *         {@link #rtcpBuffer}, <tt>0</tt> if nothing is to be written into
+	 *         <tt>destination</tt> or <tt>-1</tt> if the RTCP compound packet
+	 *         is to be written unchanged
+	 */
+	private int mapSimulcastRTCP(RTPTranslatorImpl translator, byte[] buffer, int offset, int length, StreamRTPManagerDesc destination, StreamRTPManagerDesc source) {
+		SimulcastStream simulcastStream = destination.getSimulcastStream();
+
+		if (simulcastStream != null) {
+			SimulcastReceiver simulcastReceiver = source.getSimulcastReceiver(translator, simulcastStream, false);
+
+			if (simulcastReceiver != null)
+				return simulcastReceiver.mapFeedback(buffer, offset, length, getRTCPBuffer(length));
+		}
+
+		simulcastStream = source.getSimulcastStream();
+		if (simulcastStream != null) {
+			SimulcastReceiver simulcastReceiver = destination.getSimulcastReceiver(translator, simulcastStream, false);
+
+			if (simulcastReceiver == null)
+				return SimulcastReceiver.dropReports(simulcastStream, buffer, offset, length, getRTCPBuffer(length));
+			else
+				return simulcastReceiver.mapReports(buffer, offset, length, getRTCPBuffer(length));
+		}
+		return -1;
+	}
+
+	private byte[] getRTCPBuffer(int length) {
+		if ((rtcpBuffer == null) || (rtcpBuffer.length < length))
+			rtcpBuffer = new byte[length];
+		return rtcpBuffer;
+	}
+
 	private RTPTranslatorImpl getTranslator() {
 		return connector.translator;
 	}
@@ -36,6 +36,9 @@ import net.sf.fmj.media.rtp.RTCPHeader;
 import net.sf.fmj.media.rtp.RTPHeader;
 import net.sf.fmj.media.rtp.RTPSessionMgr;
 
+import org.jitsi.impl.neomedia.rtcp.RTCPREMBPacket;
+import org.jitsi.impl.neomedia.rtcp.termination.strategies.BasicRTCPTerminationStrategy;
+import org.jitsi.impl.neomedia.rtcp.termination.strategies.FeedbackCache;
 import org.jitsi.impl.neomedia.rtp.StreamRTPManager;
 import org.jitsi.service.neomedia.AbstractRTPTranslator;
 import org.jitsi.service.neomedia.MediaStream;
@@ -46,6 +49,15 @@ import org.jitsi.util.Logger;
 /**
  * Implements <tt>RTPTranslator</tt> which represents an RTP translator which
  * forwards RTP and RTCP traffic between multiple <tt>MediaStream</tt>s.
+ * <p>
+ * A <tt>MediaStream</tt> which sends simulcast (i.e. one and the same video at
+ * different qualities with different SSRCs) may have its layers declared with
+ * {@link #setSimulcastLayers(MediaStream, long[])}. Each of the other
+ * <tt>MediaStream</tt>s then receives a single one of the layers, picked in
+ * accord with the bandwidth it reports in RTCP REMB packets and the highest
+ * layer it wants (see
+ * {@link #setMaxSimulcastLayer(MediaStream, MediaStream, int)}).
+ * </p>
  * 
  * @author Lyubomir Marinov
  */
@@ -56,6 +68,12 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 	 */
 	private static final Logger logger = Logger.getLogger(RTPTranslatorImpl.class);
 
+	/**
+	 * The age in milliseconds beyond which the bandwidth reported by a
+	 * receiver in an RTCP REMB packet is disregarded.
+	 */
+	private static final long REMB_MAX_AGE = 5000;
+
 	public static long getPayloadLengthAndOffsetIfRTP(byte[] buf, int off, int len) {
 		final long PAYLOAD_LENGTH_AND_OFFSET_IF_NOT_RTP = -1L;
 
@@ -526,8 +544,10 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 
 					format = streamRTPManagerDesc.getFormat(pt);
 				}
-			} else if (logger.isTraceEnabled()) {
-				logRTCP(this, "read", buffer, offset, length);
+			} else {
+				readREMB(streamRTPManagerDesc, buffer, offset, length);
+				if (logger.isTraceEnabled())
+					logRTCP(this, "read", buffer, offset, length);
 			}
 
 			OutputDataStreamImpl outputStream = data ? connector.getDataOutputStream() : connector.getControlOutputStream();
@@ -600,6 +620,11 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 					}
 
 					streamRTPManagerIter.remove();
+
+					SimulcastStream simulcastStream = streamRTPManagerDesc.getSimulcastStream();
+
+					streamRTPManagerDesc.setSimulcastStream(null);
+					removeSimulcastReceivers(simulcastStream);
 					break;
 				}
 			}
@@ -609,6 +634,26 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		}
 	}
 
+	/**
+	 * Finds the <tt>StreamRTPManagerDesc</tt> of the <tt>StreamRTPManager</tt>
+	 * of a specific <tt>MediaStream</tt>. Should be called with {@link #lock}
+	 * held.
+	 * 
+	 * @param mediaStream
+	 *            the <tt>MediaStream</tt> to find the
+	 *            <tt>StreamRTPManagerDesc</tt> of
+	 * @return the <tt>StreamRTPManagerDesc</tt> of <tt>mediaStream</tt> or
+	 *         <tt>null</tt> if <tt>mediaStream</tt> is not attached to this
+	 *         <tt>RTPTranslator</tt>
+	 */
+	private StreamRTPManagerDesc findStreamRTPManagerDesc(MediaStream mediaStream) {
+		for (StreamRTPManagerDesc s : streamRTPManagers) {
+			if (s.streamRTPManager.getMediaStream() == mediaStream)
+				return s;
+		}
+		return null;
+	}
+
 	/**
 	 * Finds the first <tt>StreamRTPManager</tt> which is related to a specific
 	 * receive/remote SSRC.
@@ -645,6 +690,43 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		return ret;
 	}
 
+	/**
+	 * Gets the bandwidth available for sending to a specific receiver as
+	 * reported by the receiver in RTCP REMB packets. If the active
+	 * <tt>RTCPTerminationStrategy</tt> consumes the REMB packets, the
+	 * bandwidth is looked up in its <tt>FeedbackCache</tt>.
+	 * 
+	 * @param receiver
+	 *            the <tt>StreamRTPManagerDesc</tt> of the receiver
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the bandwidth available for sending to <tt>receiver</tt> in bits
+	 *         per second or <tt>-1</tt> if it is not known
+	 */
+	long getAvailableBandwidth(StreamRTPManagerDesc receiver, long now) {
+		long bandwidth = receiver.getREMBBitrate(now, REMB_MAX_AGE);
+
+		if (bandwidth < 0) {
+			RTCPTerminationStrategy rtcpTerminationStrategy = getRTCPTerminationStrategy();
+
+			if (rtcpTerminationStrategy instanceof BasicRTCPTerminationStrategy) {
+				FeedbackCache feedbackCache = ((BasicRTCPTerminationStrategy) rtcpTerminationStrategy).getFeedbackCache();
+				int rtcpSenderSSRC = receiver.getRTCPSenderSSRC();
+
+				if (rtcpSenderSSRC != 0)
+					bandwidth = feedbackCache.getREMBBitrate(rtcpSenderSSRC, REMB_MAX_AGE);
+				if (bandwidth < 0) {
+					for (int ssrc : receiver.getReceiveSSRCs()) {
+						bandwidth = feedbackCache.getREMBBitrate(ssrc, REMB_MAX_AGE);
+						if (bandwidth >= 0)
+							break;
+					}
+				}
+			}
+		}
+		return bandwidth;
+	}
+
 	/**
 	 * Exposes {@link RTPManager#getControl(String)} on the internal/underlying
 	 * <tt>RTPManager</tt>.
@@ -901,6 +983,43 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		}
 	}
 
+	/**
+	 * Notes the SSRC of the sender of a specific RTCP compound packet and the
+	 * bandwidth reported in its REMB packet, if any, for the purposes of the
+	 * selection of simulcast layers.
+	 * 
+	 * @param streamRTPManagerDesc
+	 *            the <tt>StreamRTPManagerDesc</tt> from which the RTCP
+	 *            compound packet has been received
+	 * @param buffer
+	 *            the bytes of the RTCP compound packet
+	 * @param offset
+	 *            the offset in <tt>buffer</tt> at which the RTCP compound
+	 *            packet begins
+	 * @param length
+	 *            the length of the RTCP compound packet
+	 */
+	private void readREMB(StreamRTPManagerDesc streamRTPManagerDesc, byte[] buffer, int offset, int length) {
+		if ((length < 8) || (((buffer[offset] & 0xc0) >>> 6) != RTCPHeader.VERSION))
+			return;
+
+		streamRTPManagerDesc.setRTCPSenderSSRC(readInt(buffer, offset + 4));
+
+		for (int end = offset + length; offset + 4 <= end;) {
+			int rtcpLength = (readUnsignedShort(buffer, offset + 2) + 1) * 4;
+
+			if (offset + rtcpLength > end)
+				break;
+			if ((rtcpLength >= 20) && ((buffer[offset + 1] & 0xff) == 206 /* PSFB */) && ((buffer[offset] & 0x1f) == RTCPREMBPacket.FMT) && (buffer[offset + 12] == 'R') && (buffer[offset + 13] == 'E') && (buffer[offset + 14] == 'M') && (buffer[offset + 15] == 'B')) {
+				int exp = (buffer[offset + 17] & 0xfc) >>> 2;
+				long mantissa = ((buffer[offset + 17] & 0x03) << 16) | ((buffer[offset + 18] & 0xff) << 8) | (buffer[offset + 19] & 0xff);
+
+				streamRTPManagerDesc.setREMBBitrate(mantissa << exp, System.currentTimeMillis());
+			}
+			offset += rtcpLength;
+		}
+	}
+
 	/**
 	 * Removes a <tt>ReceiveStreamListener</tt> to no longer be notified about
 	 * <tt>ReceiveStreamEvent</tt>s related to a specific neomedia
@@ -977,6 +1096,21 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		// TODO Auto-generated method stub
 	}
 
+	/**
+	 * Stops forwarding a specific <tt>SimulcastStream</tt> to the
+	 * <tt>StreamRTPManager</tt>s attached to this instance. Should be called
+	 * with the write lock of {@link #lock} held.
+	 * 
+	 * @param simulcastStream
+	 *            the <tt>SimulcastStream</tt> to stop forwarding
+	 */
+	private void removeSimulcastReceivers(SimulcastStream simulcastStream) {
+		if (simulcastStream != null) {
+			for (StreamRTPManagerDesc s : streamRTPManagers)
+				s.removeSimulcastReceiver(simulcastStream);
+		}
+	}
+
 	/**
 	 * Sets the local SSRC for this <tt>RTPTranslatorImpl</tt>.
 	 * 
@@ -987,6 +1121,37 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		this.localSSRC = localSSRC;
 	}
 
+	/**
+	 * Sets the index of the highest simulcast layer of a specific sender which
+	 * a specific receiver wants e.g. <tt>0</tt> if the receiver displays the
+	 * video of the sender as a thumbnail.
+	 * 
+	 * @param receiver
+	 *            the <tt>MediaStream</tt> which receives the simulcast layers
+	 * @param sender
+	 *            the <tt>MediaStream</tt> which sends the simulcast layers
+	 * @param maxLayer
+	 *            the index of the highest simulcast layer of <tt>sender</tt>
+	 *            to be forwarded to <tt>receiver</tt> or <tt>-1</tt> for no
+	 *            limit
+	 */
+	public void setMaxSimulcastLayer(MediaStream receiver, MediaStream sender, int maxLayer) {
+		Lock lock = this.lock.readLock();
+
+		lock.lock();
+		try {
+
+			StreamRTPManagerDesc receiverDesc = findStreamRTPManagerDesc(receiver);
+			StreamRTPManagerDesc senderDesc = findStreamRTPManagerDesc(sender);
+
+			if ((receiverDesc != null) && (senderDesc != null))
+				receiverDesc.setMaxSimulcastLayer(senderDesc, maxLayer);
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Sets the current active <tt>RTCPTerminationStrategy</tt> which is to
 	 * inspect and modify RTCP traffic between multiple <tt>MediaStream</tt>s.
@@ -1002,6 +1167,51 @@ public class RTPTranslatorImpl extends AbstractRTPTranslator implements ReceiveS
 		}
 	}
 
+	/**
+	 * Declares the simulcast layers sent by a specific <tt>MediaStream</tt>.
+	 * The other <tt>MediaStream</tt>s attached to this instance receive one
+	 * of the layers at a time (with the SSRC of the base layer) instead of all
+	 * of them and their RTCP is mapped between that single stream and the
+	 * layer being forwarded. Simulcast is not forwarded unless this method is
+	 * called.
+	 * 
+	 * @param sender
+	 *            the <tt>MediaStream</tt> which sends the simulcast layers
+	 * @param ssrcs
+	 *            the SSRCs of the simulcast layers ordered from the lowest
+	 *            quality to the highest or <tt>null</tt> if <tt>sender</tt>
+	 *            does not send simulcast
+	 */
+	public void setSimulcastLayers(MediaStream sender, long[] ssrcs) {
+		Lock lock = this.lock.writeLock();
+
+		lock.lock();
+		try {
+
+			StreamRTPManagerDesc senderDesc = findStreamRTPManagerDesc(sender);
+
+			if (senderDesc != null) {
+				SimulcastStream simulcastStream = null;
+
+				if ((ssrcs != null) && (ssrcs.length > 1)) {
+					int[] intSSRCs = new int[ssrcs.length];
+
+					for (int i = 0; i < ssrcs.length; i++)
+						intSSRCs[i] = (int) ssrcs[i];
+					simulcastStream = new SimulcastStream(this, senderDesc, intSSRCs);
+				}
+
+				SimulcastStream oldSimulcastStream = senderDesc.getSimulcastStream();
+
+				senderDesc.setSimulcastStream(simulcastStream);
+				removeSimulcastReceivers(oldSimulcastStream);
+			}
+
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	/**
 	 * Sets the <tt>SSRCFactory</tt> which is to generate new synchronization
 	 * source (SSRC) identifiers.
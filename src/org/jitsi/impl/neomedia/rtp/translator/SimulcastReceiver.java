@@ -0,0 +1,622 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.translator;
+
+/**
+ * Selects the layer of a <tt>SimulcastStream</tt> which is forwarded to a
+ * specific receiver. The layer is picked in accord with the bandwidth of the
+ * receiver and the highest layer the receiver wants (e.g. a thumbnail needs
+ * the base layer only). The receiver is switched to another layer at the
+ * beginning of a key frame only and sees a single stream: the SSRC of the base
+ * layer with continuous sequence numbers and timestamps. The selection state is
+ * accessed by the thread which writes the RTP packets of an
+ * <tt>RTPTranslatorImpl</tt> only. The RTCP exchanged between the receiver and
+ * the sender is mapped between the single stream and the layer being forwarded
+ * by the thread which writes the RTCP packets through an immutable
+ * {@link LayerMapping}.
+ */
+class SimulcastReceiver {
+	/**
+	 * Describes how the sequence numbers and timestamps of a layer are
+	 * rewritten while it is forwarded to the receiver. Instances are immutable
+	 * so that they may be published to the thread which writes the RTCP
+	 * packets.
+	 */
+	private static class LayerMapping {
+		/**
+		 * The sequence number of the first RTP packet of {@link #layer}
+		 * forwarded to the receiver i.e. with {@link #seqDelta} added.
+		 */
+		final int firstOutputSeq;
+
+		/**
+		 * The index of the layer being forwarded.
+		 */
+		final int layer;
+
+		/**
+		 * The <tt>LayerMapping</tt> which was in effect before this one or
+		 * <tt>null</tt>. Kept so that late feedback on the previous layer may
+		 * still be mapped back to it.
+		 */
+		final LayerMapping previous;
+
+		/**
+		 * The number which is added to the sequence numbers of
+		 * {@link #layer}.
+		 */
+		final int seqDelta;
+
+		/**
+		 * The number which is added to the RTP timestamps of {@link #layer}.
+		 */
+		final long timestampDelta;
+
+		LayerMapping(int layer, int seqDelta, long timestampDelta, int firstOutputSeq, LayerMapping previous) {
+			this.layer = layer;
+			this.seqDelta = seqDelta;
+			this.timestampDelta = timestampDelta;
+			this.firstOutputSeq = firstOutputSeq;
+			this.previous = (previous == null) ? null : new LayerMapping(previous.layer, previous.seqDelta, previous.timestampDelta, previous.firstOutputSeq, null);
+		}
+
+		/**
+		 * Gets the <tt>LayerMapping</tt> under which a specific sequence
+		 * number was forwarded to the receiver.
+		 *
+		 * @param outputSeq
+		 *            the sequence number as seen by the receiver
+		 * @return the <tt>LayerMapping</tt> under which <tt>outputSeq</tt> was
+		 *         forwarded or <tt>null</tt> if it is too old to be known
+		 */
+		LayerMapping getMapping(int outputSeq) {
+			if ((short) (outputSeq - firstOutputSeq) >= 0)
+				return this;
+			if ((previous != null) && ((short) (outputSeq - previous.firstOutputSeq) >= 0))
+				return previous;
+			return null;
+		}
+	}
+
+	/**
+	 * The factor by which the bandwidth of the receiver has to exceed the
+	 * bitrate of a layer higher than the one being forwarded for the receiver
+	 * to be switched up to it. Keeps the receiver from oscillating between two
+	 * layers.
+	 */
+	private static final double SWITCH_UP_FACTOR = 1.2;
+
+	/**
+	 * The interval of time in milliseconds at which the layer to be forwarded
+	 * is reconsidered.
+	 */
+	private static final long SELECTION_INTERVAL = 500;
+
+	/**
+	 * The number of RTP timestamp units per millisecond of video (the RTP
+	 * clock rate of video is 90 kHz).
+	 */
+	private static final int VIDEO_TIMESTAMP_UNITS_PER_MILLIS = 90;
+
+	/**
+	 * The index of the layer being forwarded or <tt>-1</tt> if none has been
+	 * forwarded yet.
+	 */
+	private int layer = -1;
+
+	/**
+	 * The time in milliseconds at which the last RTP packet was forwarded.
+	 */
+	private long lastOutputTime = -1;
+
+	/**
+	 * The sequence number of the newest RTP packet forwarded.
+	 */
+	private int lastOutputSeq;
+
+	/**
+	 * The RTP timestamp of the newest RTP packet forwarded.
+	 */
+	private long lastOutputTimestamp;
+
+	/**
+	 * The time in milliseconds at which the layer to be forwarded was last
+	 * considered.
+	 */
+	private long lastSelectionTime = -1;
+
+	/**
+	 * The <tt>LayerMapping</tt> of the layer being forwarded or <tt>null</tt>
+	 * if none has been forwarded yet.
+	 */
+	private volatile LayerMapping mapping;
+
+	/**
+	 * The <tt>StreamRTPManagerDesc</tt> of the receiver.
+	 */
+	private final StreamRTPManagerDesc receiver;
+
+	/**
+	 * The number which is added to the sequence numbers of the layer being
+	 * forwarded.
+	 */
+	private int seqDelta;
+
+	/**
+	 * The <tt>SimulcastStream</tt> the layers of which are forwarded to
+	 * {@link #receiver}.
+	 */
+	final SimulcastStream stream;
+
+	/**
+	 * The index of the layer to switch to at the next key frame.
+	 */
+	private int targetLayer = -1;
+
+	/**
+	 * The number which is added to the RTP timestamps of the layer being
+	 * forwarded.
+	 */
+	private long timestampDelta;
+
+	/**
+	 * The <tt>RTPTranslatorImpl</tt> which forwards the layers.
+	 */
+	private final RTPTranslatorImpl translator;
+
+	/**
+	 * Initializes a new <tt>SimulcastReceiver</tt> instance.
+	 *
+	 * @param translator
+	 *            the <tt>RTPTranslatorImpl</tt> which forwards the layers
+	 * @param receiver
+	 *            the <tt>StreamRTPManagerDesc</tt> of the receiver
+	 * @param stream
+	 *            the <tt>SimulcastStream</tt> the layers of which are to be
+	 *            forwarded to <tt>receiver</tt>
+	 */
+	SimulcastReceiver(RTPTranslatorImpl translator, StreamRTPManagerDesc receiver, SimulcastStream stream) {
+		this.translator = translator;
+		this.receiver = receiver;
+		this.stream = stream;
+	}
+
+	/**
+	 * Determines whether an RTP packet of a specific layer is to be forwarded
+	 * to the receiver and, if it is, rewrites its SSRC, sequence number and
+	 * timestamp for the receiver. The original values are passed in because
+	 * the packet is written into multiple receivers one after the other.
+	 *
+	 * @param buf
+	 *            the bytes of the RTP packet
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTP packet begins
+	 * @param layer
+	 *            the index of the layer of the RTP packet
+	 * @param seq
+	 *            the sequence number of the RTP packet as sent
+	 * @param timestamp
+	 *            the RTP timestamp of the RTP packet as sent
+	 * @param startOfKeyFrame
+	 *            <tt>true</tt> if the RTP packet begins a key frame
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return <tt>true</tt> if the RTP packet is to be forwarded to the
+	 *         receiver
+	 */
+	boolean accept(byte[] buf, int off, int layer, int seq, long timestamp, boolean startOfKeyFrame, long now) {
+		if ((lastSelectionTime == -1) || (now - lastSelectionTime >= SELECTION_INTERVAL)) {
+			lastSelectionTime = now;
+			targetLayer = selectLayer(now);
+			if (targetLayer == this.layer)
+				targetLayer = -1;
+			else
+				stream.requestKeyFrame(targetLayer, now);
+		}
+
+		if (layer != this.layer) {
+			if ((layer != targetLayer) || !startOfKeyFrame)
+				return false;
+
+			// Switch to the layer of the key frame.
+			if (lastOutputTime == -1) {
+				seqDelta = 0;
+				timestampDelta = 0;
+			} else {
+				long elapsed = Math.max(1, now - lastOutputTime);
+
+				seqDelta = (lastOutputSeq + 1 - seq) & 0xFFFF;
+				timestampDelta = (lastOutputTimestamp + elapsed * VIDEO_TIMESTAMP_UNITS_PER_MILLIS - timestamp) & 0xFFFFFFFFL;
+			}
+			this.layer = layer;
+			targetLayer = -1;
+			mapping = new LayerMapping(layer, seqDelta, timestampDelta, (seq + seqDelta) & 0xFFFF, mapping);
+		}
+
+		int outputSeq = (seq + seqDelta) & 0xFFFF;
+		long outputTimestamp = (timestamp + timestampDelta) & 0xFFFFFFFFL;
+
+		// Remember the newest packet forwarded (as opposed to a reordered one).
+		if ((lastOutputTime == -1) || ((short) (outputSeq - lastOutputSeq) > 0)) {
+			lastOutputSeq = outputSeq;
+			lastOutputTimestamp = outputTimestamp;
+			lastOutputTime = now;
+		}
+
+		int ssrc = stream.getOutputSSRC();
+
+		buf[off + 2] = (byte) (outputSeq >> 8);
+		buf[off + 3] = (byte) outputSeq;
+		buf[off + 4] = (byte) (outputTimestamp >> 24);
+		buf[off + 5] = (byte) (outputTimestamp >> 16);
+		buf[off + 6] = (byte) (outputTimestamp >> 8);
+		buf[off + 7] = (byte) outputTimestamp;
+		buf[off + 8] = (byte) (ssrc >> 24);
+		buf[off + 9] = (byte) (ssrc >> 16);
+		buf[off + 10] = (byte) (ssrc >> 8);
+		buf[off + 11] = (byte) ssrc;
+		return true;
+	}
+
+	/**
+	 * Maps the feedback of the receiver on the single stream it sees to the
+	 * layer being forwarded to it so that e.g. a PLI or a FIR makes the sender
+	 * produce a key frame on that layer and a NACK retransmits the packets the
+	 * receiver has actually lost. The report blocks of the SRs and RRs of the
+	 * receiver are mapped likewise so that the sender sees the reception
+	 * statistics of the layer being forwarded. Feedback about the single
+	 * stream sent before any layer has been forwarded is dropped because the
+	 * switching to the first layer requests a key frame anyway.
+	 *
+	 * @param buf
+	 *            the bytes of the RTCP compound packet sent by the receiver
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTCP compound packet
+	 *            begins
+	 * @param len
+	 *            the length of the RTCP compound packet
+	 * @param out
+	 *            the bytes into which the mapped RTCP compound packet is to be
+	 *            written beginning at offset <tt>0</tt>
+	 * @return the length of the mapped RTCP compound packet written into
+	 *         <tt>out</tt>
+	 */
+	int mapFeedback(byte[] buf, int off, int len, byte[] out) {
+		LayerMapping mapping = this.mapping;
+		int outputSSRC = stream.getOutputSSRC();
+		int outLen = 0;
+
+		for (int end = off + len; off + 4 <= end;) {
+			int rtcpLength = (RTPTranslatorImpl.readUnsignedShort(buf, off + 2) + 1) * 4;
+
+			if (off + rtcpLength > end)
+				break;
+
+			int pt = buf[off + 1] & 0xff;
+			int fmt = buf[off] & 0x1f;
+			int written = rtcpLength;
+
+			System.arraycopy(buf, off, out, outLen, rtcpLength);
+			if ((pt == 200 /* SR */) || (pt == 201 /* RR */)) {
+				int blocksOff = (pt == 200) ? 28 : 8;
+
+				if (rtcpLength >= blocksOff)
+					written = mapReportBlocks(out, outLen, rtcpLength, blocksOff, mapping);
+			} else if ((rtcpLength >= 12) && ((pt == 205 /* RTPFB */) || (pt == 206 /* PSFB */))) {
+				if ((pt == 206) && (fmt == 4 /* FIR */)) {
+					// The SSRCs of a FIR are in its FCI entries.
+					for (int i = 12; i + 8 <= rtcpLength; i += 8) {
+						if (RTPTranslatorImpl.readInt(out, outLen + i) == outputSSRC) {
+							if (mapping == null) {
+								written = 0;
+								break;
+							}
+							writeInt(out, outLen + i, stream.getSSRC(mapping.layer));
+						}
+					}
+				} else if (RTPTranslatorImpl.readInt(out, outLen + 8) == outputSSRC) {
+					if (mapping == null)
+						written = 0;
+					else if ((pt == 205) && (fmt == 1 /* Generic NACK */))
+						written = mapNACK(out, outLen, rtcpLength, mapping);
+					else
+						writeInt(out, outLen + 8, stream.getSSRC(mapping.layer));
+				}
+			}
+			outLen += written;
+			off += rtcpLength;
+		}
+		return outLen;
+	}
+
+	/**
+	 * Maps the sequence numbers of a Generic NACK sent by the receiver back to
+	 * the sequence numbers of the layer they were forwarded from. A NACK names
+	 * a single media source so the FCI entries which were forwarded from
+	 * another layer than the first entry are removed.
+	 *
+	 * @param buf
+	 *            the bytes of the Generic NACK
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the Generic NACK begins
+	 * @param len
+	 *            the length of the Generic NACK
+	 * @param mapping
+	 *            the <tt>LayerMapping</tt> currently in effect
+	 * @return the length of the mapped Generic NACK or <tt>0</tt> if none of
+	 *         its FCI entries could be mapped
+	 */
+	private int mapNACK(byte[] buf, int off, int len, LayerMapping mapping) {
+		LayerMapping nackMapping = null;
+		int outLen = 12;
+
+		for (int i = 12; i + 4 <= len; i += 4) {
+			int pid = RTPTranslatorImpl.readUnsignedShort(buf, off + i);
+			int blp = RTPTranslatorImpl.readUnsignedShort(buf, off + i + 2);
+			LayerMapping pidMapping = mapping.getMapping(pid);
+
+			if (pidMapping == null)
+				continue;
+			if (nackMapping == null)
+				nackMapping = pidMapping;
+			else if (pidMapping != nackMapping)
+				continue;
+			if (pidMapping != mapping) {
+				// Do not NACK the packets which were forwarded from the
+				// current layer as if they were from the previous one.
+				for (int b = 0; b < 16; b++) {
+					if ((short) (pid + b + 1 - mapping.firstOutputSeq) >= 0)
+						blp &= ~(1 << b);
+				}
+			}
+
+			int seq = (pid - pidMapping.seqDelta) & 0xFFFF;
+
+			buf[off + outLen] = (byte) (seq >> 8);
+			buf[off + outLen + 1] = (byte) seq;
+			buf[off + outLen + 2] = (byte) (blp >> 8);
+			buf[off + outLen + 3] = (byte) blp;
+			outLen += 4;
+		}
+		if (nackMapping == null)
+			return 0;
+
+		int length = outLen / 4 - 1;
+
+		buf[off + 2] = (byte) (length >> 8);
+		buf[off + 3] = (byte) length;
+		writeInt(buf, off + 8, stream.getSSRC(nackMapping.layer));
+		return outLen;
+	}
+
+	/**
+	 * Maps the report blocks of an SR or an RR sent by the receiver about the
+	 * single stream to the layer it was forwarded from: the SSRC is replaced
+	 * with the SSRC of the layer and the extended highest sequence number
+	 * received is mapped back through the <tt>seqDelta</tt> of the layer.
+	 * The report blocks about the single stream which cannot be mapped are
+	 * removed.
+	 *
+	 * @param buf
+	 *            the bytes of the SR or the RR
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the SR or the RR begins
+	 * @param len
+	 *            the length of the SR or the RR
+	 * @param blocksOff
+	 *            the offset from <tt>off</tt> at which the report blocks begin
+	 * @param mapping
+	 *            the <tt>LayerMapping</tt> currently in effect or
+	 *            <tt>null</tt> if no layer has been forwarded yet
+	 * @return the length of the mapped SR or RR
+	 */
+	private int mapReportBlocks(byte[] buf, int off, int len, int blocksOff, LayerMapping mapping) {
+		int outputSSRC = stream.getOutputSSRC();
+		int rc = buf[off] & 0x1f;
+		int blocksEnd = blocksOff + Math.min(rc, (len - blocksOff) / 24) * 24;
+		int outLen = blocksOff;
+		int outRC = 0;
+
+		for (int i = blocksOff; i + 24 <= blocksEnd; i += 24) {
+			if (RTPTranslatorImpl.readInt(buf, off + i) == outputSSRC) {
+				int extendedSeq = RTPTranslatorImpl.readInt(buf, off + i + 8);
+				LayerMapping seqMapping = (mapping == null) ? null : mapping.getMapping(extendedSeq & 0xFFFF);
+
+				if (seqMapping == null)
+					continue;
+
+				writeInt(buf, off + i, stream.getSSRC(seqMapping.layer));
+				writeInt(buf, off + i + 8, (extendedSeq & 0xFFFF0000) | ((extendedSeq - seqMapping.seqDelta) & 0xFFFF));
+			}
+			if (outLen != i)
+				System.arraycopy(buf, off + i, buf, off + outLen, 24);
+			outLen += 24;
+			outRC++;
+		}
+		if (outRC == rc)
+			return len;
+
+		// Keep the profile-specific extensions which follow the report blocks.
+		if (blocksEnd < len) {
+			System.arraycopy(buf, off + blocksEnd, buf, off + outLen, len - blocksEnd);
+			outLen += len - blocksEnd;
+		}
+
+		int length = outLen / 4 - 1;
+
+		buf[off] = (byte) ((buf[off] & 0xe0) | outRC);
+		buf[off + 2] = (byte) (length >> 8);
+		buf[off + 3] = (byte) length;
+		return outLen;
+	}
+
+	/**
+	 * Maps the RTCP reports of the sender of the layers to the single stream
+	 * seen by the receiver. The reports of the layer being forwarded are given
+	 * the SSRC of the single stream and, in the case of SRs, an RTP timestamp
+	 * rewritten the way the RTP packets are so that the receiver keeps
+	 * synchronizing the video with the audio. The SRs, SDES and BYE packets of
+	 * the other layers are dropped.
+	 *
+	 * @param buf
+	 *            the bytes of the RTCP compound packet sent by the sender
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTCP compound packet
+	 *            begins
+	 * @param len
+	 *            the length of the RTCP compound packet
+	 * @param out
+	 *            the bytes into which the mapped RTCP compound packet is to be
+	 *            written beginning at offset <tt>0</tt>
+	 * @return the length of the mapped RTCP compound packet written into
+	 *         <tt>out</tt>
+	 */
+	int mapReports(byte[] buf, int off, int len, byte[] out) {
+		return mapReports(stream, mapping, buf, off, len, out);
+	}
+
+	/**
+	 * Drops the RTCP reports of the layers of a specific
+	 * <tt>SimulcastStream</tt> for a receiver which is not forwarded any of
+	 * them yet.
+	 *
+	 * @param stream
+	 *            the <tt>SimulcastStream</tt> the reports of the sender of
+	 *            which are to be dropped
+	 * @param buf
+	 *            the bytes of the RTCP compound packet sent by the sender
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTCP compound packet
+	 *            begins
+	 * @param len
+	 *            the length of the RTCP compound packet
+	 * @param out
+	 *            the bytes into which the remaining RTCP compound packet is to
+	 *            be written beginning at offset <tt>0</tt>
+	 * @return the length of the remaining RTCP compound packet written into
+	 *         <tt>out</tt>
+	 */
+	static int dropReports(SimulcastStream stream, byte[] buf, int off, int len, byte[] out) {
+		return mapReports(stream, null, buf, off, len, out);
+	}
+
+	/**
+	 * Maps the RTCP reports of the sender of the layers of a specific
+	 * <tt>SimulcastStream</tt> to the single stream seen by a receiver.
+	 *
+	 * @param stream
+	 *            the <tt>SimulcastStream</tt> the reports of the sender of
+	 *            which are to be mapped
+	 * @param mapping
+	 *            the <tt>LayerMapping</tt> of the layer being forwarded to the
+	 *            receiver or <tt>null</tt> if none is being forwarded
+	 * @param buf
+	 *            the bytes of the RTCP compound packet sent by the sender
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTCP compound packet
+	 *            begins
+	 * @param len
+	 *            the length of the RTCP compound packet
+	 * @param out
+	 *            the bytes into which the mapped RTCP compound packet is to be
+	 *            written beginning at offset <tt>0</tt>
+	 * @return the length of the mapped RTCP compound packet written into
+	 *         <tt>out</tt>
+	 * @see #mapReports(byte[], int, int, byte[])
+	 */
+	private static int mapReports(SimulcastStream stream, LayerMapping mapping, byte[] buf, int off, int len, byte[] out) {
+		int outputSSRC = stream.getOutputSSRC();
+		int outLen = 0;
+
+		for (int end = off + len; off + 4 <= end;) {
+			int rtcpLength = (RTPTranslatorImpl.readUnsignedShort(buf, off + 2) + 1) * 4;
+
+			if (off + rtcpLength > end)
+				break;
+
+			int pt = buf[off + 1] & 0xff;
+			int written = rtcpLength;
+
+			System.arraycopy(buf, off, out, outLen, rtcpLength);
+			if ((rtcpLength >= 8) && ((pt == 200 /* SR */) || (pt == 202 /* SDES */) || (pt == 203 /* BYE */))) {
+				int layer = stream.getLayer(RTPTranslatorImpl.readInt(out, outLen + 4));
+
+				if (layer != -1) {
+					if ((mapping == null) || (layer != mapping.layer)) {
+						written = 0;
+					} else {
+						writeInt(out, outLen + 4, outputSSRC);
+						if ((pt == 200) && (rtcpLength >= 28)) {
+							long timestamp = RTPTranslatorImpl.readInt(out, outLen + 16) & 0xFFFFFFFFL;
+
+							writeInt(out, outLen + 16, (int) (timestamp + mapping.timestampDelta));
+						}
+					}
+				}
+			}
+			outLen += written;
+			off += rtcpLength;
+		}
+		return outLen;
+	}
+
+	/**
+	 * Writes a specific <tt>int</tt> into a specific <tt>byte</tt> array in
+	 * network byte order.
+	 *
+	 * @param buf
+	 *            the <tt>byte</tt> array to write <tt>i</tt> into
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which <tt>i</tt> is to be
+	 *            written
+	 * @param i
+	 *            the <tt>int</tt> to write
+	 */
+	private static void writeInt(byte[] buf, int off, int i) {
+		buf[off] = (byte) (i >> 24);
+		buf[off + 1] = (byte) (i >> 16);
+		buf[off + 2] = (byte) (i >> 8);
+		buf[off + 3] = (byte) i;
+	}
+
+	/**
+	 * Picks the layer to be forwarded to the receiver: the highest layer up
+	 * to the one the receiver wants which is being sent and fits into the
+	 * share of the receiver's bandwidth available to {@link #stream}. If the
+	 * bandwidth is not known, the highest layer the receiver wants is picked.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the index of the layer to be forwarded to the receiver
+	 */
+	private int selectLayer(long now) {
+		int maxLayer = Math.min(receiver.getMaxSimulcastLayer(stream.sender), stream.getLayerCount() - 1);
+		long bandwidth = translator.getAvailableBandwidth(receiver, now);
+
+		if (bandwidth >= 0) {
+			int simulcastReceiverCount = receiver.getSimulcastReceiverCount();
+
+			if (simulcastReceiverCount > 1)
+				bandwidth /= simulcastReceiverCount;
+		}
+
+		for (int layer = maxLayer; layer > 0; layer--) {
+			long bitrate = stream.getBitrate(layer, now);
+
+			// A layer which is not being sent cannot be switched to.
+			if (bitrate <= 0)
+				continue;
+			if (bandwidth < 0)
+				return layer;
+			if (layer > this.layer)
+				bitrate = (long) (bitrate * SWITCH_UP_FACTOR);
+			if (bitrate <= bandwidth)
+				return layer;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.rtp.translator;
+
+import javax.media.Format;
+import javax.media.format.VideoFormat;
+
+import org.jitsi.impl.neomedia.codec.video.vp8.DePacketizer.VP8PayloadDescriptor;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RateStatistics;
+
+/**
+ * Describes the simulcast layers sent by the <tt>MediaStream</tt> of a
+ * <tt>StreamRTPManagerDesc</tt> i.e. a group of SSRCs which carry one and the
+ * same video at different qualities, ordered from the lowest quality (the base
+ * layer) to the highest. Measures the bitrate of each layer so that the
+ * receivers can pick the layer which fits their bandwidth. Accessed by the
+ * thread which writes the RTP packets of an <tt>RTPTranslatorImpl</tt> only
+ * (except for the immutable SSRCs).
+ */
+class SimulcastStream {
+	/**
+	 * The minimum interval of time in milliseconds between two consecutive
+	 * requests for a key frame on one and the same layer.
+	 */
+	private static final long TIME_BETWEEN_REQUEST_KEY_FRAME = 1000;
+
+	/**
+	 * The bitrates of the layers in bits per second.
+	 */
+	private final RateStatistics[] bitrates;
+
+	/**
+	 * The times in milliseconds of the last requests for a key frame on the
+	 * layers.
+	 */
+	private final long[] requestKeyFrameTimes;
+
+	/**
+	 * The <tt>StreamRTPManagerDesc</tt> which sends the layers.
+	 */
+	final StreamRTPManagerDesc sender;
+
+	/**
+	 * The SSRCs of the layers ordered from the lowest quality to the highest.
+	 */
+	private final int[] ssrcs;
+
+	/**
+	 * The <tt>RTPTranslatorImpl</tt> which forwards the layers.
+	 */
+	private final RTPTranslatorImpl translator;
+
+	/**
+	 * Initializes a new <tt>SimulcastStream</tt> instance.
+	 *
+	 * @param translator
+	 *            the <tt>RTPTranslatorImpl</tt> which forwards the layers
+	 * @param sender
+	 *            the <tt>StreamRTPManagerDesc</tt> which sends the layers
+	 * @param ssrcs
+	 *            the SSRCs of the layers ordered from the lowest quality to
+	 *            the highest
+	 */
+	SimulcastStream(RTPTranslatorImpl translator, StreamRTPManagerDesc sender, int[] ssrcs) {
+		this.translator = translator;
+		this.sender = sender;
+		this.ssrcs = ssrcs.clone();
+
+		bitrates = new RateStatistics[ssrcs.length];
+		for (int i = 0; i < bitrates.length; i++)
+			bitrates[i] = new RateStatistics(1000, 8000F);
+		requestKeyFrameTimes = new long[ssrcs.length];
+	}
+
+	/**
+	 * Gets the bitrate of a specific layer measured over the last second.
+	 *
+	 * @param layer
+	 *            the index of the layer
+	 * @param now
+	 *            the current time in milliseconds
+	 * @return the bitrate of <tt>layer</tt> in bits per second
+	 */
+	long getBitrate(int layer, long now) {
+		return bitrates[layer].getRate(now);
+	}
+
+	/**
+	 * Gets the index of the layer sent with a specific SSRC.
+	 *
+	 * @param ssrc
+	 *            the SSRC to get the layer of
+	 * @return the index of the layer sent with <tt>ssrc</tt> or <tt>-1</tt> if
+	 *         <tt>ssrc</tt> is not one of the SSRCs of this
+	 *         <tt>SimulcastStream</tt>
+	 */
+	int getLayer(int ssrc) {
+		for (int i = 0; i < ssrcs.length; i++) {
+			if (ssrcs[i] == ssrc)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the number of layers of this <tt>SimulcastStream</tt>.
+	 *
+	 * @return the number of layers of this <tt>SimulcastStream</tt>
+	 */
+	int getLayerCount() {
+		return ssrcs.length;
+	}
+
+	/**
+	 * Gets the SSRC with which the layers are forwarded to the receivers i.e.
+	 * the SSRC of the base layer.
+	 *
+	 * @return the SSRC with which the layers are forwarded to the receivers
+	 */
+	int getOutputSSRC() {
+		return ssrcs[0];
+	}
+
+	/**
+	 * Gets the SSRC with which a specific layer is sent.
+	 *
+	 * @param layer
+	 *            the index of the layer
+	 * @return the SSRC with which <tt>layer</tt> is sent
+	 */
+	int getSSRC(int layer) {
+		return ssrcs[layer];
+	}
+
+	/**
+	 * Determines whether a specific RTP packet begins a key frame i.e. whether
+	 * a receiver may be switched to the layer of the packet starting with it.
+	 * VP8 and H.264 are recognized, also when encapsulated in RED (RFC 2198).
+	 * A packet of another format is never considered to be a switching point
+	 * because switching in the middle of a frame corrupts the decoder of the
+	 * receiver.
+	 *
+	 * @param buf
+	 *            the bytes of the RTP packet
+	 * @param off
+	 *            the offset in <tt>buf</tt> at which the RTP packet begins
+	 * @param len
+	 *            the length of the RTP packet
+	 * @param format
+	 *            the <tt>Format</tt> of the RTP packet or <tt>null</tt> if it
+	 *            is not known
+	 * @return <tt>true</tt> if the RTP packet begins a key frame
+	 */
+	boolean isStartOfKeyFrame(byte[] buf, int off, int len, Format format) {
+		long payloadLengthAndOffset = RTPTranslatorImpl.getPayloadLengthAndOffsetIfRTP(buf, off, len);
+
+		if (payloadLengthAndOffset == -1L)
+			return false;
+
+		int payloadLen = (int) (payloadLengthAndOffset >> 32);
+		int payloadOff = (int) payloadLengthAndOffset;
+		String encoding = (format == null) ? null : format.getEncoding();
+
+		if (VideoFormat.RED.equalsIgnoreCase(encoding)) {
+			// Skip the headers and the blocks of the redundant encodings to
+			// the block of the primary encoding.
+			int end = payloadOff + payloadLen;
+			int headerOff = payloadOff;
+			int blockLengths = 0;
+
+			while ((headerOff < end) && ((buf[headerOff] & 0x80) != 0)) {
+				if (headerOff + 4 > end)
+					return false;
+				blockLengths += ((buf[headerOff + 2] & 0x03) << 8) | (buf[headerOff + 3] & 0xFF);
+				headerOff += 4;
+			}
+			if (headerOff >= end)
+				return false;
+
+			format = sender.getFormat(buf[headerOff] & 0x7F);
+			encoding = (format == null) ? null : format.getEncoding();
+			payloadOff = headerOff + 1 + blockLengths;
+			payloadLen = end - payloadOff;
+		}
+		if (encoding == null)
+			return false;
+
+		boolean vp8 = VideoFormat.VP8_RTP.equalsIgnoreCase(encoding) || VideoFormat.VP8.equalsIgnoreCase(encoding);
+		boolean h264 = VideoFormat.H264_RTP.equalsIgnoreCase(encoding) || VideoFormat.H264.equalsIgnoreCase(encoding);
+
+		if ((!vp8 && !h264) || (payloadLen < 2))
+			return false;
+
+		if (vp8) {
+			// A key frame does not fit into the maximum size of the descriptor.
+			if ((payloadLen <= VP8PayloadDescriptor.MAX_LENGTH) || !VP8PayloadDescriptor.isStartOfFrame(buf, payloadOff))
+				return false;
+
+			int descriptorSize = VP8PayloadDescriptor.getSize(buf, payloadOff);
+
+			// The P bit of the VP8 payload header (RFC 6386) is inverted.
+			return (descriptorSize > 0) && (descriptorSize < payloadLen) && ((buf[payloadOff + descriptorSize] & 0x01) == 0);
+		}
+
+		int nal_unit_type = buf[payloadOff] & 0x1F;
+
+		switch (nal_unit_type) {
+		case 24 /* STAP-A */:
+			if (payloadLen < 4)
+				return false;
+			nal_unit_type = buf[payloadOff + 3] & 0x1F;
+			break;
+		case 28 /* FU-A */:
+			if ((buf[payloadOff + 1] & 0x80 /* Start bit */) == 0)
+				return false;
+			nal_unit_type = buf[payloadOff + 1] & 0x1F;
+			break;
+		}
+		return (nal_unit_type == 5 /* IDR */) || (nal_unit_type == 7 /* SPS */);
+	}
+
+	/**
+	 * Notifies this instance that an RTP packet of a specific layer is being
+	 * forwarded.
+	 *
+	 * @param layer
+	 *            the index of the layer of the RTP packet
+	 * @param length
+	 *            the length of the RTP packet
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	void packetReceived(int layer, int length, long now) {
+		bitrates[layer].update(length, now);
+	}
+
+	/**
+	 * Requests a key frame on a specific layer from {@link #sender} unless one
+	 * has been requested recently.
+	 *
+	 * @param layer
+	 *            the index of the layer to request a key frame on
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	void requestKeyFrame(int layer, long now) {
+		if (now - requestKeyFrameTimes[layer] < TIME_BETWEEN_REQUEST_KEY_FRAME)
+			return;
+
+		requestKeyFrameTimes[layer] = now;
+		translator.getRtcpFeedbackMessageSender().sendFIR(sender.streamRTPManager.getMediaStream(), ssrcs[layer]);
+	}
+}
@@ -34,6 +34,13 @@ class StreamRTPManagerDesc {
 
 	private final Map<Integer, Format> formats = new HashMap<Integer, Format>();
 
+	/**
+	 * The indices of the highest simulcast layers the associated
+	 * <tt>StreamRTPManager</tt> wants to receive from the
+	 * <tt>StreamRTPManagerDesc</tt>s which send simulcast.
+	 */
+	private final Map<StreamRTPManagerDesc, Integer> maxSimulcastLayers = new HashMap<StreamRTPManagerDesc, Integer>();
+
 	/**
 	 * The list of synchronization source (SSRC) identifiers received by
 	 * {@link #streamRTPManager} (as <tt>ReceiveStream</tt>s).
@@ -42,6 +49,37 @@ class StreamRTPManagerDesc {
 
 	private final List<ReceiveStreamListener> receiveStreamListeners = new LinkedList<ReceiveStreamListener>();
 
+	/**
+	 * The bitrate in bits per second last reported by the associated
+	 * <tt>StreamRTPManager</tt> in an RTCP REMB packet or <tt>-1</tt> if none
+	 * has been reported.
+	 */
+	private volatile long rembBitrate = -1;
+
+	/**
+	 * The time in milliseconds at which {@link #rembBitrate} was reported.
+	 */
+	private volatile long rembTime = -1;
+
+	/**
+	 * The SSRC with which the associated <tt>StreamRTPManager</tt> sends RTCP
+	 * packets or <tt>0</tt> if it has not sent any yet.
+	 */
+	private volatile int rtcpSenderSSRC;
+
+	/**
+	 * The <tt>SimulcastReceiver</tt>s which select the layers of the
+	 * <tt>SimulcastStream</tt>s forwarded to the associated
+	 * <tt>StreamRTPManager</tt>.
+	 */
+	private final Map<SimulcastStream, SimulcastReceiver> simulcastReceivers = new HashMap<SimulcastStream, SimulcastReceiver>();
+
+	/**
+	 * The simulcast layers sent by the associated <tt>StreamRTPManager</tt> or
+	 * <tt>null</tt> if it does not send simulcast.
+	 */
+	private volatile SimulcastStream simulcastStream;
+
 	public final StreamRTPManager streamRTPManager;
 
 	/**
@@ -134,15 +172,203 @@ class StreamRTPManagerDesc {
 		return null;
 	}
 
+	/**
+	 * Gets the index of the highest simulcast layer the associated
+	 * <tt>StreamRTPManager</tt> wants to receive from a specific sender.
+	 * 
+	 * @param sender
+	 *            the <tt>StreamRTPManagerDesc</tt> which sends simulcast
+	 * @return the index of the highest simulcast layer the associated
+	 *         <tt>StreamRTPManager</tt> wants to receive from <tt>sender</tt>
+	 */
+	public int getMaxSimulcastLayer(StreamRTPManagerDesc sender) {
+		synchronized (maxSimulcastLayers) {
+			Integer maxSimulcastLayer = maxSimulcastLayers.get(sender);
+
+			return (maxSimulcastLayer == null) ? Integer.MAX_VALUE : maxSimulcastLayer.intValue();
+		}
+	}
+
+	/**
+	 * Gets the synchronization source (SSRC) identifiers received by the
+	 * associated <tt>StreamRTPManager</tt>. The returned array is not to be
+	 * modified.
+	 * 
+	 * @return the SSRCs received by the associated <tt>StreamRTPManager</tt>
+	 */
+	public synchronized int[] getReceiveSSRCs() {
+		return receiveSSRCs;
+	}
+
 	public ReceiveStreamListener[] getReceiveStreamListeners() {
 		synchronized (receiveStreamListeners) {
 			return receiveStreamListeners.toArray(new ReceiveStreamListener[receiveStreamListeners.size()]);
 		}
 	}
 
+	/**
+	 * Gets the bitrate last reported by the associated
+	 * <tt>StreamRTPManager</tt> in an RTCP REMB packet unless it is older than
+	 * a specific age.
+	 * 
+	 * @param now
+	 *            the current time in milliseconds
+	 * @param maxAge
+	 *            the age in milliseconds beyond which the reported bitrate is
+	 *            disregarded
+	 * @return the reported bitrate in bits per second or <tt>-1</tt> if none
+	 *         has been reported within <tt>maxAge</tt>
+	 */
+	public long getREMBBitrate(long now, long maxAge) {
+		long rembTime = this.rembTime;
+
+		return ((rembTime == -1) || (now - rembTime > maxAge)) ? -1 : rembBitrate;
+	}
+
+	/**
+	 * Gets the SSRC with which the associated <tt>StreamRTPManager</tt> sends
+	 * RTCP packets.
+	 * 
+	 * @return the SSRC with which the associated <tt>StreamRTPManager</tt>
+	 *         sends RTCP packets or <tt>0</tt> if it has not sent any yet
+	 */
+	public int getRTCPSenderSSRC() {
+		return rtcpSenderSSRC;
+	}
+
+	/**
+	 * Gets the <tt>SimulcastReceiver</tt> which selects the layers of a
+	 * specific <tt>SimulcastStream</tt> forwarded to the associated
+	 * <tt>StreamRTPManager</tt>.
+	 * 
+	 * @param translator
+	 *            the <tt>RTPTranslatorImpl</tt> which forwards the layers
+	 * @param simulcastStream
+	 *            the <tt>SimulcastStream</tt> to get the
+	 *            <tt>SimulcastReceiver</tt> of
+	 * @param create
+	 *            <tt>true</tt> to create the <tt>SimulcastReceiver</tt> if it
+	 *            does not exist yet
+	 * @return the <tt>SimulcastReceiver</tt> of <tt>simulcastStream</tt> or
+	 *         <tt>null</tt> if it does not exist and either <tt>create</tt> is
+	 *         <tt>false</tt> or <tt>simulcastStream</tt> is no longer sent
+	 */
+	public SimulcastReceiver getSimulcastReceiver(RTPTranslatorImpl translator, SimulcastStream simulcastStream, boolean create) {
+		synchronized (simulcastReceivers) {
+			SimulcastReceiver simulcastReceiver = simulcastReceivers.get(simulcastStream);
+
+			/*
+			 * Do not resurrect the SimulcastReceiver of a SimulcastStream which
+			 * has been replaced or removed in the meantime.
+			 */
+			if ((simulcastReceiver == null) && create && (simulcastStream.sender.getSimulcastStream() == simulcastStream)) {
+				simulcastReceiver = new SimulcastReceiver(translator, this, simulcastStream);
+				simulcastReceivers.put(simulcastStream, simulcastReceiver);
+			}
+			return simulcastReceiver;
+		}
+	}
+
+	/**
+	 * Gets the number of <tt>SimulcastStream</tt>s forwarded to the associated
+	 * <tt>StreamRTPManager</tt>.
+	 * 
+	 * @return the number of <tt>SimulcastStream</tt>s forwarded to the
+	 *         associated <tt>StreamRTPManager</tt>
+	 */
+	public int getSimulcastReceiverCount() {
+		synchronized (simulcastReceivers) {
+			return simulcastReceivers.size();
+		}
+	}
+
+	/**
+	 * Gets the simulcast layers sent by the associated
+	 * <tt>StreamRTPManager</tt>.
+	 * 
+	 * @return the simulcast layers sent by the associated
+	 *         <tt>StreamRTPManager</tt> or <tt>null</tt> if it does not send
+	 *         simulcast
+	 */
+	public SimulcastStream getSimulcastStream() {
+		return simulcastStream;
+	}
+
 	public void removeReceiveStreamListener(ReceiveStreamListener listener) {
 		synchronized (receiveStreamListeners) {
 			receiveStreamListeners.remove(listener);
 		}
 	}
+
+	/**
+	 * Stops forwarding a specific <tt>SimulcastStream</tt> to the associated
+	 * <tt>StreamRTPManager</tt>.
+	 * 
+	 * @param simulcastStream
+	 *            the <tt>SimulcastStream</tt> to stop forwarding
+	 */
+	public void removeSimulcastReceiver(SimulcastStream simulcastStream) {
+		synchronized (simulcastReceivers) {
+			simulcastReceivers.remove(simulcastStream);
+		}
+	}
+
+	/**
+	 * Sets the index of the highest simulcast layer the associated
+	 * <tt>StreamRTPManager</tt> wants to receive from a specific sender.
+	 * 
+	 * @param sender
+	 *            the <tt>StreamRTPManagerDesc</tt> which sends simulcast
+	 * @param maxLayer
+	 *            the index of the highest simulcast layer the associated
+	 *            <tt>StreamRTPManager</tt> wants to receive from
+	 *            <tt>sender</tt> or <tt>-1</tt> for no limit
+	 */
+	public void setMaxSimulcastLayer(StreamRTPManagerDesc sender, int maxLayer) {
+		synchronized (maxSimulcastLayers) {
+			if (maxLayer < 0)
+				maxSimulcastLayers.remove(sender);
+			else
+				maxSimulcastLayers.put(sender, Integer.valueOf(maxLayer));
+		}
+	}
+
+	/**
+	 * Sets the bitrate reported by the associated <tt>StreamRTPManager</tt> in
+	 * an RTCP REMB packet.
+	 * 
+	 * @param bitrate
+	 *            the reported bitrate in bits per second
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	public void setREMBBitrate(long bitrate, long now) {
+		rembBitrate = bitrate;
+		rembTime = now;
+	}
+
+	/**
+	 * Sets the SSRC with which the associated <tt>StreamRTPManager</tt> sends
+	 * RTCP packets.
+	 * 
+	 * @param rtcpSenderSSRC
+	 *            the SSRC with which the associated <tt>StreamRTPManager</tt>
+	 *            sends RTCP packets
+	 */
+	public void setRTCPSenderSSRC(int rtcpSenderSSRC) {
+		this.rtcpSenderSSRC = rtcpSenderSSRC;
+	}
+
+	/**
+	 * Sets the simulcast layers sent by the associated
+	 * <tt>StreamRTPManager</tt>.
+	 * 
+	 * @param simulcastStream
+	 *            the simulcast layers sent by the associated
+	 *            <tt>StreamRTPManager</tt> or <tt>null</tt> if it does not send
+	 *            simulcast
+	 */
+	public void setSimulcastStream(SimulcastStream simulcastStream) {
+		this.simulcastStream = simulcastStream;
+	}
 }
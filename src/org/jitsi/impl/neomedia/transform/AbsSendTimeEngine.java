@@ -16,7 +16,7 @@ import org.jitsi.impl.neomedia.RawPacket;
  * 
  * @author Boris Grozev
  */
-public class AbsSendTimeEngine extends SinglePacketTransformer implements TransformEngine {
+public class AbsSendTimeEngine extends SinglePacketTransformer implements ChainablePacketTransformer, TransformEngine {
 	/**
 	 * One billion.
 	 */
@@ -74,6 +74,24 @@ public class AbsSendTimeEngine extends SinglePacketTransformer implements Transf
 		return null;
 	}
 
+	/**
+	 * Implements {@link ChainablePacketTransformer#isReverseTransforming()}.
+	 * 
+	 * This transformer does not perform transformation on incoming packets.
+	 */
+	@Override
+	public boolean isReverseTransforming() {
+		return false;
+	}
+
+	/**
+	 * Implements {@link ChainablePacketTransformer#isTransforming()}.
+	 */
+	@Override
+	public boolean isTransforming() {
+		return extensionID != -1;
+	}
+
 	/**
 	 * Tries to find an RTP header extensions with an ID of {@link #extensionID}
 	 * in <tt>pkt</tt> and tries to replace its timestamp with one generated
@@ -83,41 +101,10 @@ public class AbsSendTimeEngine extends SinglePacketTransformer implements Transf
 	 *            the packet to work on.
 	 */
 	private void replaceAbsSendTime(RawPacket pkt) {
-		byte[] buf = pkt.getBuffer();
-		int extensionOffset = pkt.getOffset();
-
-		// Skip the fixed header.
-		extensionOffset += RawPacket.FIXED_HEADER_SIZE;
-		// Skip the list of CSRCs.
-		extensionOffset += pkt.getCsrcCount() * 4;
-
-		// Skip the 16-bit "defined by profile" field (RFC3550).
-		extensionOffset += 2;
-
-		if (extensionOffset + 1 < buf.length) // we can read 'length'
-		{
-			int lengthInWords = buf[extensionOffset] << 8 | buf[extensionOffset + 1];
-			// Length in bytes of the header extensions
-			int lengthInBytes = 4 * (1 + lengthInWords);
-			extensionOffset += 2;
-
-			int innerOffset = 0;
-			while (extensionOffset < buf.length && innerOffset < lengthInBytes) {
-				int id = (buf[extensionOffset] & 0xf0) >> 4;
-				int len = buf[extensionOffset] & 0x0f;
-				if (id == extensionID) {
-					if (len == 2 && extensionOffset + 3 < buf.length) {
-						setTimestamp(buf, extensionOffset + 1);
-					}
-					return;
-				} else {
-					// 1 byte for id/len, one more byte by the definition of
-					// len, see RFC5285
-					innerOffset += 1 + len + 1;
-					extensionOffset += 1 + len + 1;
-				}
-			}
-		}
+		int off = pkt.getExtensionOffset(extensionID);
+
+		if (off != -1 && pkt.getExtensionDataLength(extensionID) == 3)
+			setTimestamp(pkt.getBuffer(), off);
 	}
 
 	/**
@@ -0,0 +1,36 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform;
+
+/**
+ * Represents a <tt>PacketTransformer</tt> which a {@link TransformEngineChain}
+ * may apply more cheaply than an arbitrary one. Such a transformer does not
+ * block and leaves synchronization to the chain which applies it (under a lock
+ * per direction shared by all <tt>ChainablePacketTransformer</tt>s of the
+ * chain), tells whether it would currently do anything at all so that the
+ * chain may skip it and, if it is a {@link SinglePacketTransformer}, may be
+ * applied in the same pass over the packets as its neighbours of the kind.
+ */
+public interface ChainablePacketTransformer extends PacketTransformer {
+	/**
+	 * Determines whether {@link #reverseTransform(org.jitsi.impl.neomedia.RawPacket[])}
+	 * would currently do anything other than return the packets unchanged.
+	 *
+	 * @return <tt>true</tt> if <tt>reverseTransform</tt> is to be applied;
+	 *         <tt>false</tt> if it may be skipped
+	 */
+	public boolean isReverseTransforming();
+
+	/**
+	 * Determines whether {@link #transform(org.jitsi.impl.neomedia.RawPacket[])}
+	 * would currently do anything other than return the packets unchanged.
+	 *
+	 * @return <tt>true</tt> if <tt>transform</tt> is to be applied;
+	 *         <tt>false</tt> if it may be skipped
+	 */
+	public boolean isTransforming();
+}
@@ -15,7 +15,7 @@ import org.jitsi.util.Logger;
  * 
  * @author Boris Grozev
  */
-public class REDTransformEngine implements TransformEngine, PacketTransformer {
+public class REDTransformEngine implements TransformEngine, ChainablePacketTransformer {
 	/**
 	 * The <tt>Logger</tt> used by the <tt>REDTransformEngine</tt> class and its
 	 * instances to print debug information.
@@ -92,6 +92,22 @@ public class REDTransformEngine implements TransformEngine, PacketTransformer {
 	public void close() {
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isReverseTransforming() {
+		return incomingPT != -1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isTransforming() {
+		return outgoingPT != -1;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * 
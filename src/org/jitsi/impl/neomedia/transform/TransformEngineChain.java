@@ -6,16 +6,36 @@
  */
 package org.jitsi.impl.neomedia.transform;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.util.LatencyHistogram;
 
 /**
  * The engine chain allows using numerous <tt>TransformEngine</tt>s on a single
  * stream.
+ * <p>
+ * The <tt>PacketTransformer</tt>s which are {@link ChainablePacketTransformer}s
+ * are skipped while they would not do anything, are applied under a single
+ * lock per direction rather than under monitors of their own and, if they are
+ * <tt>SinglePacketTransformer</tt>s next to each other, in a single pass over
+ * the packets. The other <tt>PacketTransformer</tt>s (e.g. the SRTP ones,
+ * which have their own synchronization) are applied as they are, outside of
+ * the lock.
  * 
  * @author Emil Ivov
  * @author Lubomir Marinov
  */
 public class TransformEngineChain implements TransformEngine {
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * whether the time spent in each <tt>PacketTransformer</tt> of a chain is
+	 * to be measured. The measurement costs two {@link System#nanoTime()} calls
+	 * per packet and transformer so it is disabled by default.
+	 */
+	public static final String ENGINE_TIMING_PNAME = TransformEngineChain.class.getName() + ".engineTiming";
 
 	/**
 	 * The sequence of <tt>TransformEngine</tt>s whose
@@ -24,6 +44,12 @@ public class TransformEngineChain implements TransformEngine {
 	 */
 	private final TransformEngine[] engineChain;
 
+	/**
+	 * Whether the time spent in each <tt>PacketTransformer</tt> of this chain
+	 * is measured.
+	 */
+	private final boolean engineTiming;
+
 	/**
 	 * The sequence of <tt>PacketTransformer</tt>s that this engine chain will
 	 * be applying to RTP packets.
@@ -48,6 +74,64 @@ public class TransformEngineChain implements TransformEngine {
 	 */
 	public TransformEngineChain(TransformEngine[] engineChain) {
 		this.engineChain = engineChain.clone();
+
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		engineTiming = (cfg != null) && cfg.getBoolean(ENGINE_TIMING_PNAME, false);
+	}
+
+	/**
+	 * Gets a <tt>String</tt> representation of the time spent in the
+	 * <tt>PacketTransformer</tt>s of this chain suitable for logging.
+	 * 
+	 * @return a <tt>String</tt> representation of the time spent in the
+	 *         <tt>PacketTransformer</tt>s of this chain or <tt>null</tt> if
+	 *         the measurement is disabled
+	 */
+	public String dumpEngineTimes() {
+		if (!engineTiming)
+			return null;
+
+		PacketTransformerChain rtpTransformChain;
+		PacketTransformerChain rtcpTransformChain;
+
+		synchronized (this) {
+			rtpTransformChain = this.rtpTransformChain;
+			rtcpTransformChain = this.rtcpTransformChain;
+		}
+
+		StringBuilder s = new StringBuilder("transform engine times (ns per packet) of chain ");
+
+		s.append(hashCode());
+		if (rtpTransformChain != null) {
+			dumpEngineTimes(s, "RTP transform ", rtpTransformChain.transformTimes);
+			dumpEngineTimes(s, "RTP reverseTransform ", rtpTransformChain.reverseTransformTimes);
+		}
+		if (rtcpTransformChain != null) {
+			dumpEngineTimes(s, "RTCP transform ", rtcpTransformChain.transformTimes);
+			dumpEngineTimes(s, "RTCP reverseTransform ", rtcpTransformChain.reverseTransformTimes);
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Appends to a specific <tt>StringBuilder</tt> the times spent in the
+	 * <tt>PacketTransformer</tt>s of this chain in one direction.
+	 * 
+	 * @param s
+	 *            the <tt>StringBuilder</tt> to append to
+	 * @param direction
+	 *            the prefix describing the direction
+	 * @param times
+	 *            the histograms of the times indexed by engine
+	 */
+	private void dumpEngineTimes(StringBuilder s, String direction, LatencyHistogram[] times) {
+		for (int i = 0; i < times.length; i++) {
+			LatencyHistogram time = times[i];
+
+			if (time.getTotalCount() != 0)
+				s.append("\n\t").append(direction).append(engineChain[i].getClass().getSimpleName()).append(": ").append(time).append(" p50=").append(time.getPercentile(50)).append(" p99=").append(time.getPercentile(99));
+		}
 	}
 
 	/**
@@ -124,6 +208,55 @@ public class TransformEngineChain implements TransformEngine {
 		return rtpTransformer;
 	}
 
+	/**
+	 * Represents the <tt>PacketTransformer</tt>s of the engines of a
+	 * <tt>TransformEngineChain</tt> in one of RTP or RTCP as they were last
+	 * resolved so that which of them are <tt>ChainablePacketTransformer</tt>s
+	 * and <tt>SinglePacketTransformer</tt>s is not determined per packet.
+	 */
+	private static class Plan {
+		/**
+		 * The <tt>ChainablePacketTransformer</tt>s indexed by engine or
+		 * <tt>null</tt> where the <tt>PacketTransformer</tt> is not one.
+		 */
+		final ChainablePacketTransformer[] chainables;
+
+		/**
+		 * The <tt>ChainablePacketTransformer</tt>s which are also
+		 * <tt>SinglePacketTransformer</tt>s indexed by engine or <tt>null</tt>
+		 * where the <tt>PacketTransformer</tt> is not one.
+		 */
+		final SinglePacketTransformer[] singles;
+
+		/**
+		 * The <tt>PacketTransformer</tt>s indexed by engine or <tt>null</tt>
+		 * where the engine does not transform packets of the kind.
+		 */
+		final PacketTransformer[] transformers;
+
+		/**
+		 * Initializes a new <tt>Plan</tt> instance for specific
+		 * <tt>PacketTransformer</tt>s.
+		 * 
+		 * @param transformers
+		 *            the <tt>PacketTransformer</tt>s indexed by engine
+		 */
+		Plan(PacketTransformer[] transformers) {
+			this.transformers = transformers;
+			chainables = new ChainablePacketTransformer[transformers.length];
+			singles = new SinglePacketTransformer[transformers.length];
+			for (int i = 0; i < transformers.length; i++) {
+				PacketTransformer transformer = transformers[i];
+
+				if (transformer instanceof ChainablePacketTransformer) {
+					chainables[i] = (ChainablePacketTransformer) transformer;
+					if (transformer instanceof SinglePacketTransformer)
+						singles[i] = (SinglePacketTransformer) transformer;
+				}
+			}
+		}
+	}
+
 	/**
 	 * A <tt>PacketTransformerChain</tt> is a meta <tt>PacketTransformer</tt>
 	 * that applies all transformers present in this engine chain. The class
@@ -138,6 +271,62 @@ public class TransformEngineChain implements TransformEngine {
 		 */
 		private final boolean isRtp;
 
+		/**
+		 * The <tt>PacketTransformer</tt>s of the engines of this chain as they
+		 * were last resolved.
+		 */
+		private volatile Plan plan;
+
+		/**
+		 * The lock under which the <tt>ChainablePacketTransformer</tt>s
+		 * reverse-transform packets.
+		 */
+		private final ReentrantLock reverseTransformLock = new ReentrantLock();
+
+		/**
+		 * The <tt>SinglePacketTransformer</tt>s being applied in a single pass
+		 * by {@link #reverseTransform(RawPacket[])}. Guarded by
+		 * {@link #reverseTransformLock}.
+		 */
+		private final SinglePacketTransformer[] reverseTransformSingles;
+
+		/**
+		 * The engine indexes of {@link #reverseTransformSingles}.
+		 */
+		private final int[] reverseTransformSinglesIndexes;
+
+		/**
+		 * The histograms of the times in nanoseconds per packet spent in
+		 * reverse-transforming indexed by engine or <tt>null</tt> if the
+		 * measurement is disabled.
+		 */
+		final LatencyHistogram[] reverseTransformTimes;
+
+		/**
+		 * The lock under which the <tt>ChainablePacketTransformer</tt>s
+		 * transform packets.
+		 */
+		private final ReentrantLock transformLock = new ReentrantLock();
+
+		/**
+		 * The <tt>SinglePacketTransformer</tt>s being applied in a single pass
+		 * by {@link #transform(RawPacket[])}. Guarded by
+		 * {@link #transformLock}.
+		 */
+		private final SinglePacketTransformer[] transformSingles;
+
+		/**
+		 * The engine indexes of {@link #transformSingles}.
+		 */
+		private final int[] transformSinglesIndexes;
+
+		/**
+		 * The histograms of the times in nanoseconds per packet spent in
+		 * transforming indexed by engine or <tt>null</tt> if the measurement is
+		 * disabled.
+		 */
+		final LatencyHistogram[] transformTimes;
+
 		/**
 		 * Creates an instance of this packet transformer and prepares it to
 		 * deal with RTP or RTCP according to the <tt>isRtp</tt> arg.
@@ -150,6 +339,190 @@ public class TransformEngineChain implements TransformEngine {
 		 */
 		public PacketTransformerChain(boolean isRtp) {
 			this.isRtp = isRtp;
+
+			int length = engineChain.length;
+
+			reverseTransformSingles = new SinglePacketTransformer[length];
+			reverseTransformSinglesIndexes = new int[length];
+			transformSingles = new SinglePacketTransformer[length];
+			transformSinglesIndexes = new int[length];
+			if (engineTiming) {
+				reverseTransformTimes = new LatencyHistogram[length];
+				transformTimes = new LatencyHistogram[length];
+				for (int i = 0; i < length; i++) {
+					reverseTransformTimes[i] = new LatencyHistogram();
+					transformTimes[i] = new LatencyHistogram();
+				}
+			} else {
+				reverseTransformTimes = null;
+				transformTimes = null;
+			}
+		}
+
+		/**
+		 * Applies the <tt>PacketTransformer</tt>s of the engines of this chain
+		 * to specific packets in a specific direction.
+		 * 
+		 * @param pkts
+		 *            the packets to transform
+		 * @param reverse
+		 *            <tt>true</tt> to reverse-transform <tt>pkts</tt> in the
+		 *            reverse order of the engines; <tt>false</tt> to transform
+		 *            them in the order of the engines
+		 * @return the transformed packets
+		 */
+		private RawPacket[] apply(RawPacket[] pkts, boolean reverse) {
+			Plan plan = resolve();
+			PacketTransformer[] transformers = plan.transformers;
+			int count = transformers.length;
+			ReentrantLock lock = reverse ? reverseTransformLock : transformLock;
+			SinglePacketTransformer[] singles = reverse ? reverseTransformSingles : transformSingles;
+			int[] singlesIndexes = reverse ? reverseTransformSinglesIndexes : transformSinglesIndexes;
+			LatencyHistogram[] times = reverse ? reverseTransformTimes : transformTimes;
+			boolean locked = false;
+
+			try {
+				for (int step = 0; step < count; step++) {
+					int i = reverse ? (count - 1 - step) : step;
+					PacketTransformer transformer = transformers[i];
+
+					// the packet transformer may be null if for example the
+					// engine only does RTP transformations and this is an RTCP
+					// transformer.
+					if (transformer == null)
+						continue;
+
+					ChainablePacketTransformer chainable = plan.chainables[i];
+
+					if (chainable == null) {
+						// Do not hold the lock while in a transformer with its
+						// own synchronization (e.g. SRTP, DTLS, ZRTP).
+						if (locked) {
+							lock.unlock();
+							locked = false;
+						}
+						pkts = apply(transformer, pkts, reverse, times, i);
+						continue;
+					}
+
+					if (!locked) {
+						lock.lock();
+						locked = true;
+					}
+					if (!(reverse ? chainable.isReverseTransforming() : chainable.isTransforming()))
+						continue;
+					if (plan.singles[i] == null) {
+						pkts = apply(transformer, pkts, reverse, times, i);
+						continue;
+					}
+
+					// Gather the SinglePacketTransformers which follow (and
+					// are not to be skipped) in order to apply them in a
+					// single pass over the packets.
+					int singleCount = 0;
+
+					singles[singleCount] = plan.singles[i];
+					singlesIndexes[singleCount++] = i;
+					while (step + 1 < count) {
+						int j = reverse ? (count - 2 - step) : (step + 1);
+
+						if (transformers[j] != null) {
+							SinglePacketTransformer single = plan.singles[j];
+
+							if (single == null)
+								break;
+							if (reverse ? plan.chainables[j].isReverseTransforming() : plan.chainables[j].isTransforming()) {
+								singles[singleCount] = single;
+								singlesIndexes[singleCount++] = j;
+							}
+						}
+						step++;
+					}
+					pkts = apply(singles, singlesIndexes, singleCount, pkts, reverse, times);
+				}
+			} finally {
+				if (locked)
+					lock.unlock();
+			}
+
+			return pkts;
+		}
+
+		/**
+		 * Applies a specific <tt>PacketTransformer</tt> to specific packets.
+		 * 
+		 * @param transformer
+		 *            the <tt>PacketTransformer</tt> to apply
+		 * @param pkts
+		 *            the packets to transform
+		 * @param reverse
+		 *            <tt>true</tt> to reverse-transform <tt>pkts</tt>;
+		 *            <tt>false</tt> to transform them
+		 * @param times
+		 *            the histograms to record the time spent in
+		 *            <tt>transformer</tt> into or <tt>null</tt>
+		 * @param index
+		 *            the index of the engine of <tt>transformer</tt>
+		 * @return the transformed packets
+		 */
+		private RawPacket[] apply(PacketTransformer transformer, RawPacket[] pkts, boolean reverse, LatencyHistogram[] times, int index) {
+			if (times == null)
+				return reverse ? transformer.reverseTransform(pkts) : transformer.transform(pkts);
+
+			int pktCount = (pkts == null) ? 0 : pkts.length;
+			long start = System.nanoTime();
+
+			pkts = reverse ? transformer.reverseTransform(pkts) : transformer.transform(pkts);
+			times[index].record((System.nanoTime() - start) / Math.max(1, pktCount));
+			return pkts;
+		}
+
+		/**
+		 * Applies specific <tt>SinglePacketTransformer</tt>s to specific
+		 * packets in a single pass over the packets. A packet which a
+		 * transformer drops is not passed to the transformers which follow.
+		 * 
+		 * @param singles
+		 *            the <tt>SinglePacketTransformer</tt>s to apply in order
+		 * @param singlesIndexes
+		 *            the indexes of the engines of <tt>singles</tt>
+		 * @param singleCount
+		 *            the number of <tt>singles</tt> to apply
+		 * @param pkts
+		 *            the packets to transform
+		 * @param reverse
+		 *            <tt>true</tt> to reverse-transform <tt>pkts</tt>;
+		 *            <tt>false</tt> to transform them
+		 * @param times
+		 *            the histograms to record the time spent in
+		 *            <tt>singles</tt> into or <tt>null</tt>
+		 * @return the transformed packets
+		 */
+		private RawPacket[] apply(SinglePacketTransformer[] singles, int[] singlesIndexes, int singleCount, RawPacket[] pkts, boolean reverse, LatencyHistogram[] times) {
+			if (pkts == null)
+				return pkts;
+
+			for (int p = 0; p < pkts.length; p++) {
+				RawPacket pkt = pkts[p];
+
+				if (pkt == null)
+					continue;
+				for (int k = 0; (k < singleCount) && (pkt != null); k++) {
+					SinglePacketTransformer single = singles[k];
+
+					if (times == null) {
+						pkt = reverse ? single.reverseTransform(pkt) : single.transform(pkt);
+					} else {
+						long start = System.nanoTime();
+
+						pkt = reverse ? single.reverseTransform(pkt) : single.transform(pkt);
+						times[singlesIndexes[k]].record(System.nanoTime() - start);
+					}
+				}
+				pkts[p] = pkt;
+			}
+
+			return pkts;
 		}
 
 		/**
@@ -170,23 +543,37 @@ public class TransformEngineChain implements TransformEngine {
 		}
 
 		/**
-		 * {@inheritDoc}
+		 * Resolves the <tt>PacketTransformer</tt>s of the engines of this
+		 * chain. The engines may change their <tt>PacketTransformer</tt>s at
+		 * any time (e.g. DTLS-SRTP when the handshake completes) so they are
+		 * asked once per call and the <tt>Plan</tt> is rebuilt only if any of
+		 * them has changed.
 		 * 
-		 * Transforms the given packets using each of the
-		 * <tt>TransformEngine</tt>-s in the engine chain in order.
+		 * @return the <tt>Plan</tt> of the current <tt>PacketTransformer</tt>s
+		 *         of the engines of this chain
 		 */
-		public RawPacket[] transform(RawPacket[] pkts) {
-			for (TransformEngine engine : engineChain) {
-				PacketTransformer pTransformer = isRtp ? engine.getRTPTransformer() : engine.getRTCPTransformer();
+		private Plan resolve() {
+			Plan plan = this.plan;
+			PacketTransformer[] transformers = null;
 
-				// the packet transformer may be null if for example the engine
-				// only does RTP transformations and this is an RTCP
-				// transformer.
-				if (pTransformer != null)
-					pkts = pTransformer.transform(pkts);
-			}
+			for (int i = 0; i < engineChain.length; i++) {
+				TransformEngine engine = engineChain[i];
+				PacketTransformer transformer = isRtp ? engine.getRTPTransformer() : engine.getRTCPTransformer();
 
-			return pkts;
+				if (transformers != null) {
+					transformers[i] = transformer;
+				} else if ((plan == null) || (plan.transformers[i] != transformer)) {
+					transformers = new PacketTransformer[engineChain.length];
+					if (plan != null)
+						System.arraycopy(plan.transformers, 0, transformers, 0, i);
+					transformers[i] = transformer;
+				}
+			}
+			if ((transformers != null) || (plan == null)) {
+				plan = new Plan((transformers == null) ? new PacketTransformer[0] : transformers);
+				this.plan = plan;
+			}
+			return plan;
 		}
 
 		/**
@@ -196,18 +583,17 @@ public class TransformEngineChain implements TransformEngine {
 		 * <tt>TransformEngine</tt>-s in the engine chain in reverse order.
 		 */
 		public RawPacket[] reverseTransform(RawPacket pkts[]) {
-			for (int i = engineChain.length - 1; i >= 0; i--) {
-				TransformEngine engine = engineChain[i];
-				PacketTransformer pTransformer = isRtp ? engine.getRTPTransformer() : engine.getRTCPTransformer();
-
-				// the packet transformer may be null if for example the engine
-				// only does RTP transformations and this is an RTCP
-				// transformer.
-				if (pTransformer != null)
-					pkts = pTransformer.reverseTransform(pkts);
-			}
+			return apply(pkts, true);
+		}
 
-			return pkts;
+		/**
+		 * {@inheritDoc}
+		 * 
+		 * Transforms the given packets using each of the
+		 * <tt>TransformEngine</tt>-s in the engine chain in order.
+		 */
+		public RawPacket[] transform(RawPacket[] pkts) {
+			return apply(pkts, false);
 		}
 	}
 }
@@ -0,0 +1,526 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.jitsi.impl.neomedia.AbstractRTPConnector;
+import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.rtcp.RTCPFBPacket;
+import org.jitsi.impl.neomedia.rtcp.RTCPREMBPacket;
+import org.jitsi.impl.neomedia.rtcp.RTCPTCCPacket;
+import org.jitsi.impl.neomedia.rtp.remotebitrateestimator.RecurringProcessible;
+import org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation.BitrateObserver;
+import org.jitsi.impl.neomedia.rtp.sendsidebandwidthestimation.SendSideBandwidthEstimation;
+import org.jitsi.impl.neomedia.rtp.translator.RTPTranslatorImpl;
+import org.jitsi.service.neomedia.MediaStream;
+import org.jitsi.util.Logger;
+
+/**
+ * Implements a <tt>TransformEngine</tt> which stamps outgoing RTP packets with
+ * a transport-wide sequence number, reports the arrival times of incoming RTP
+ * packets in transport-wide congestion control feedback and feeds the
+ * feedback, report blocks and REMBs it receives into a
+ * {@link SendSideBandwidthEstimation}.
+ *
+ * The feedback is sent by {@link #process()} which is to be invoked by a
+ * <tt>RecurringProcessibleExecutor</tt>.
+ *
+ * See
+ * http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01
+ */
+public class TransportCCEngine implements TransformEngine, RecurringProcessible {
+	/**
+	 * The <tt>Logger</tt> used by the <tt>TransportCCEngine</tt> class and its
+	 * instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(TransportCCEngine.class);
+
+	/**
+	 * The number of milliseconds between two consecutive feedback messages.
+	 */
+	private static final int FEEDBACK_INTERVAL_MS = 100;
+
+	/**
+	 * The number of packets remembered by the send and the receive histories.
+	 * Must be a power of 2.
+	 */
+	private static final int HISTORY_SIZE = 1 << 12;
+
+	private static final int HISTORY_MASK = HISTORY_SIZE - 1;
+
+	/**
+	 * The bitrate in bits per second to start the send-side bandwidth
+	 * estimation with.
+	 */
+	private static final long START_BITRATE_BPS = 300000L;
+
+	/**
+	 * The estimation of the available send bandwidth driven by this engine.
+	 */
+	private final SendSideBandwidthEstimation bandwidthEstimation;
+
+	/**
+	 * The <tt>AbstractRTPConnector</tt> through which the feedback is sent.
+	 */
+	private AbstractRTPConnector connector;
+
+	/**
+	 * The ID of the transport-wide sequence number RTP header extension.
+	 */
+	private int extensionID = -1;
+
+	/**
+	 * The sequence number of the next feedback message to be sent.
+	 */
+	private int fbPacketCount;
+
+	/**
+	 * The extended transport-wide sequence number of the first received packet
+	 * which has not been reported yet or <tt>-1</tt>.
+	 */
+	private long firstUnreportedSeq = -1L;
+
+	/**
+	 * The highest extended transport-wide sequence number received or
+	 * <tt>-1</tt>.
+	 */
+	private long highestSeq = -1L;
+
+	/**
+	 * The time in milliseconds at which {@link #process()} last sent feedback.
+	 */
+	private long lastFeedbackTimeMs = -1L;
+
+	/**
+	 * The SSRC of the last RTP packet received with a transport-wide sequence
+	 * number.
+	 */
+	private int mediaSSRC;
+
+	/**
+	 * The <tt>MediaStream</tt> this engine works for.
+	 */
+	private final MediaStream mediaStream;
+
+	/**
+	 * The transport-wide sequence number to be assigned to the next outgoing
+	 * RTP packet.
+	 */
+	private int outgoingSeq;
+
+	/**
+	 * The arrival times in microseconds of the received packets indexed by
+	 * their extended transport-wide sequence numbers modulo
+	 * {@link #HISTORY_SIZE}. Guarded by itself.
+	 */
+	private final long[] receivedTimesUs = new long[HISTORY_SIZE];
+
+	/**
+	 * The <tt>PacketTransformer</tt> for RTCP packets.
+	 */
+	private final PacketTransformer rtcpTransformer = new RTCPTransformer();
+
+	/**
+	 * The <tt>PacketTransformer</tt> for RTP packets.
+	 */
+	private final PacketTransformer rtpTransformer = new RTPTransformer();
+
+	/**
+	 * The transport-wide sequence numbers of the sent packets indexed by the
+	 * same index as {@link #sentTimesMs} and {@link #sentSizes} so that
+	 * overwritten history entries can be detected. Guarded by
+	 * {@link #sentTimesMs}.
+	 */
+	private final int[] sentSeqs = new int[HISTORY_SIZE];
+
+	/**
+	 * The sizes in bytes of the sent packets.
+	 */
+	private final int[] sentSizes = new int[HISTORY_SIZE];
+
+	/**
+	 * The times in milliseconds at which the packets were sent.
+	 */
+	private final long[] sentTimesMs = new long[HISTORY_SIZE];
+
+	/**
+	 * Initializes a new <tt>TransportCCEngine</tt> instance.
+	 *
+	 * @param mediaStream
+	 *            the <tt>MediaStream</tt> the new instance is to work for
+	 * @param observer
+	 *            the <tt>BitrateObserver</tt> to be notified about changes in
+	 *            the send-side bandwidth estimate or <tt>null</tt>
+	 */
+	public TransportCCEngine(MediaStream mediaStream, BitrateObserver observer) {
+		this.mediaStream = mediaStream;
+		bandwidthEstimation = new SendSideBandwidthEstimation(observer, START_BITRATE_BPS);
+
+		Arrays.fill(receivedTimesUs, -1L);
+		Arrays.fill(sentSeqs, -1);
+	}
+
+	/**
+	 * Gets the send-side bandwidth estimation driven by this engine.
+	 *
+	 * @return the send-side bandwidth estimation driven by this engine
+	 */
+	public SendSideBandwidthEstimation getBandwidthEstimation() {
+		return bandwidthEstimation;
+	}
+
+	/**
+	 * Implements {@link TransformEngine#getRTCPTransformer()}.
+	 */
+	@Override
+	public PacketTransformer getRTCPTransformer() {
+		return rtcpTransformer;
+	}
+
+	/**
+	 * Implements {@link TransformEngine#getRTPTransformer()}.
+	 */
+	@Override
+	public PacketTransformer getRTPTransformer() {
+		return rtpTransformer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getTimeUntilNextProcess() {
+		return (lastFeedbackTimeMs < 0L) ? 0L : lastFeedbackTimeMs + FEEDBACK_INTERVAL_MS - System.currentTimeMillis();
+	}
+
+	/**
+	 * Makes the transport-wide congestion control feedback which reports the
+	 * packets received since the last feedback.
+	 *
+	 * @return the feedback to be sent or <tt>null</tt> if there is nothing to
+	 *         report
+	 */
+	private RTCPTCCPacket makeFeedback() {
+		int baseSeq;
+		long[] arrivalTimesUs;
+		int fbPacketCount;
+		int mediaSSRC;
+
+		synchronized (receivedTimesUs) {
+			if (firstUnreportedSeq < 0L || firstUnreportedSeq > highestSeq)
+				return null;
+
+			int count = (int) (highestSeq - firstUnreportedSeq + 1);
+
+			arrivalTimesUs = new long[count];
+			for (int i = 0; i < count; i++) {
+				int index = (int) (firstUnreportedSeq + i) & HISTORY_MASK;
+
+				arrivalTimesUs[i] = receivedTimesUs[index];
+				receivedTimesUs[index] = -1L;
+			}
+			baseSeq = (int) firstUnreportedSeq & 0xFFFF;
+			firstUnreportedSeq = highestSeq + 1;
+			fbPacketCount = this.fbPacketCount++ & 0xFF;
+			mediaSSRC = this.mediaSSRC;
+		}
+
+		return new RTCPTCCPacket(mediaStream.getLocalSourceID(), mediaSSRC & 0xFFFFFFFFL, baseSeq, arrivalTimesUs, fbPacketCount);
+	}
+
+	/**
+	 * Sends transport-wide congestion control feedback about the packets
+	 * received since the last invocation.
+	 *
+	 * @return
+	 */
+	@Override
+	public long process() {
+		lastFeedbackTimeMs = System.currentTimeMillis();
+
+		AbstractRTPConnector connector = this.connector;
+
+		if (extensionID == -1 || connector == null)
+			return 0L;
+
+		RTCPTCCPacket feedback = makeFeedback();
+
+		if (feedback == null)
+			return 0L;
+
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(feedback.calcLength());
+
+			feedback.assemble(new DataOutputStream(baos));
+
+			byte[] buf = baos.toByteArray();
+
+			connector.getControlOutputStream().write(buf, 0, buf.length);
+		} catch (IOException ioe) {
+			logger.error("Failed to send transport-cc feedback.", ioe);
+		}
+		return 0L;
+	}
+
+	/**
+	 * Notifies this instance that a packet with a specific transport-wide
+	 * sequence number has been received.
+	 *
+	 * @param seq
+	 *            the transport-wide sequence number of the received packet
+	 * @param ssrc
+	 *            the SSRC of the received packet
+	 */
+	private void packetReceived(int seq, int ssrc) {
+		long nowUs = System.nanoTime() / 1000L;
+
+		synchronized (receivedTimesUs) {
+			long extSeq;
+
+			if (highestSeq < 0L) {
+				extSeq = seq;
+			} else {
+				// Unwrap relative to the highest sequence number received.
+				extSeq = highestSeq + (short) (seq - (int) (highestSeq & 0xFFFF));
+				if (extSeq < 0L)
+					return;
+			}
+			if (firstUnreportedSeq < 0L)
+				firstUnreportedSeq = extSeq;
+			else if (extSeq < firstUnreportedSeq)
+				return; // It has already been reported as lost.
+
+			if (extSeq > highestSeq) {
+				// Do not let the unreported range outgrow the history.
+				for (long s = Math.max(highestSeq + 1, firstUnreportedSeq); s < extSeq; s++)
+					receivedTimesUs[(int) s & HISTORY_MASK] = -1L;
+				highestSeq = extSeq;
+				if (highestSeq - firstUnreportedSeq >= HISTORY_SIZE)
+					firstUnreportedSeq = highestSeq - HISTORY_SIZE + 1;
+			}
+			receivedTimesUs[(int) extSeq & HISTORY_MASK] = nowUs;
+			mediaSSRC = ssrc;
+		}
+	}
+
+	/**
+	 * Notifies this instance that a packet with a specific transport-wide
+	 * sequence number is about to be sent.
+	 *
+	 * @param seq
+	 *            the transport-wide sequence number of the packet
+	 * @param size
+	 *            the size of the packet in bytes
+	 */
+	private void packetSent(int seq, int size) {
+		int index = seq & HISTORY_MASK;
+
+		synchronized (sentTimesMs) {
+			sentSeqs[index] = seq;
+			sentSizes[index] = size;
+			sentTimesMs[index] = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Feeds a specific received transport-wide congestion control feedback
+	 * message into {@link #bandwidthEstimation}.
+	 *
+	 * @param tcc
+	 *            the received feedback message
+	 */
+	private void processFeedback(RTCPTCCPacket tcc) {
+		long[] arrivalTimesUs = tcc.arrivalTimesUs;
+
+		if (arrivalTimesUs == null)
+			return;
+
+		for (int i = 0; i < arrivalTimesUs.length; i++) {
+			long arrivalTimeUs = arrivalTimesUs[i];
+
+			if (arrivalTimeUs < 0L)
+				continue;
+
+			int seq = (tcc.baseSeq + i) & 0xFFFF;
+			int index = seq & HISTORY_MASK;
+			long sendTimeMs;
+			int size;
+
+			synchronized (sentTimesMs) {
+				if (sentSeqs[index] != seq)
+					continue;
+				sendTimeMs = sentTimesMs[index];
+				size = sentSizes[index];
+			}
+			bandwidthEstimation.incomingPacketFeedback(sendTimeMs, arrivalTimeUs / 1000L, size);
+		}
+	}
+
+	/**
+	 * Inspects a received (compound) RTCP packet for transport-wide congestion
+	 * control feedback, REMBs and report blocks about the outgoing stream.
+	 *
+	 * @param pkt
+	 *            the received RTCP packet
+	 */
+	private void rtcpReceived(RawPacket pkt) {
+		byte[] buf = pkt.getBuffer();
+		int off = pkt.getOffset();
+		int end = off + pkt.getLength();
+		long localSSRC = mediaStream.getLocalSourceID();
+
+		while (off + 4 <= end) {
+			int fmtOrRc = buf[off] & 0x1F;
+			int pt = buf[off + 1] & 0xFF;
+			int len = ((((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF)) + 1) * 4;
+
+			if (len <= 0 || off + len > end)
+				break;
+
+			switch (pt) {
+			case 200: // SR
+			case 201: // RR
+				int blockOff = off + ((pt == 200) ? 28 : 8);
+
+				for (int i = 0; i < fmtOrRc && blockOff + 24 <= off + len; i++, blockOff += 24) {
+					long ssrc = RTPTranslatorImpl.readInt(buf, blockOff) & 0xFFFFFFFFL;
+
+					if (ssrc == localSSRC)
+						bandwidthEstimation.updateReceiverBlock(buf[blockOff + 4] & 0xFF, System.currentTimeMillis());
+				}
+				break;
+			case RTCPFBPacket.RTPFB:
+				if (fmtOrRc == RTCPTCCPacket.FMT && extensionID != -1) {
+					RTCPTCCPacket tcc = new RTCPTCCPacket(0L, 0L, 0, null, 0);
+
+					if (RTCPTCCPacket.parseFci(tcc, buf, off + 12, len - 12))
+						processFeedback(tcc);
+				}
+				break;
+			case RTCPFBPacket.PSFB:
+				if (fmtOrRc == RTCPREMBPacket.FMT && len >= 20 && buf[off + 12] == 'R' && buf[off + 13] == 'E' && buf[off + 14] == 'M' && buf[off + 15] == 'B') {
+					int exp = (buf[off + 17] & 0xFC) >> 2;
+					long mantissa = ((buf[off + 17] & 0x3) << 16) | ((buf[off + 18] & 0xFF) << 8) | (buf[off + 19] & 0xFF);
+
+					bandwidthEstimation.updateReceiverEstimate(mantissa << exp);
+				}
+				break;
+			}
+			off += len;
+		}
+	}
+
+	/**
+	 * Sets the <tt>AbstractRTPConnector</tt> through which this engine is to
+	 * send feedback.
+	 *
+	 * @param connector
+	 *            the <tt>AbstractRTPConnector</tt> through which this engine
+	 *            is to send feedback
+	 */
+	public void setConnector(AbstractRTPConnector connector) {
+		this.connector = connector;
+	}
+
+	/**
+	 * Sets the ID of the transport-wide sequence number RTP header extension.
+	 * Set to -1 to effectively disable this engine.
+	 *
+	 * @param id
+	 *            the ID to set.
+	 */
+	public void setExtensionID(int id) {
+		extensionID = id;
+	}
+
+	/**
+	 * The <tt>PacketTransformer</tt> which reads the feedback, the report
+	 * blocks and the REMBs out of received RTCP packets.
+	 */
+	private class RTCPTransformer extends SinglePacketTransformer {
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public RawPacket reverseTransform(RawPacket pkt) {
+			rtcpReceived(pkt);
+			return pkt;
+		}
+
+		@Override
+		public RawPacket transform(RawPacket pkt) {
+			return pkt;
+		}
+	}
+
+	/**
+	 * The <tt>PacketTransformer</tt> which stamps sent RTP packets with
+	 * transport-wide sequence numbers and records the arrival of received RTP
+	 * packets.
+	 */
+	private class RTPTransformer extends SinglePacketTransformer implements ChainablePacketTransformer {
+		/**
+		 * The data of the transport-wide sequence number header extension
+		 * element written into the RTP packets being sent.
+		 */
+		private final byte[] ext = new byte[2];
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean isReverseTransforming() {
+			return extensionID != -1;
+		}
+
+		@Override
+		public boolean isTransforming() {
+			return extensionID != -1;
+		}
+
+		@Override
+		public RawPacket reverseTransform(RawPacket pkt) {
+			int extensionID = TransportCCEngine.this.extensionID;
+
+			if (extensionID != -1) {
+				int off = pkt.getExtensionOffset(extensionID);
+
+				if (off != -1 && pkt.getExtensionDataLength(extensionID) >= 2) {
+					byte[] buf = pkt.getBuffer();
+
+					packetReceived(((buf[off] & 0xFF) << 8) | (buf[off + 1] & 0xFF), pkt.getSSRC());
+				}
+			}
+			return pkt;
+		}
+
+		@Override
+		public RawPacket transform(RawPacket pkt) {
+			int extensionID = TransportCCEngine.this.extensionID;
+
+			if (extensionID != -1) {
+				int seq = outgoingSeq;
+
+				outgoingSeq = (seq + 1) & 0xFFFF;
+
+				byte[] ext = this.ext;
+
+				ext[0] = (byte) (seq >> 8);
+				ext[1] = (byte) seq;
+				pkt.setExtension(extensionID, ext, 0, 2);
+				packetSent(seq, pkt.getLength());
+			}
+			return pkt;
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.util.Map;
 import org.jitsi.impl.neomedia.AudioMediaStreamImpl;
 import org.jitsi.impl.neomedia.MediaStreamImpl;
 import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.transform.ChainablePacketTransformer;
 import org.jitsi.impl.neomedia.transform.PacketTransformer;
 import org.jitsi.impl.neomedia.transform.SinglePacketTransformer;
 import org.jitsi.impl.neomedia.transform.TransformEngine;
@@ -24,7 +25,7 @@ import org.jitsi.service.neomedia.RTPExtension;
  * @author Emil Ivov
  * @author Lyubomir Marinov
  */
-public class CsrcTransformEngine extends SinglePacketTransformer implements TransformEngine {
+public class CsrcTransformEngine extends SinglePacketTransformer implements ChainablePacketTransformer, TransformEngine {
 	/**
 	 * The direction that we are supposed to handle audio levels in.
 	 */
@@ -43,15 +44,10 @@ public class CsrcTransformEngine extends SinglePacketTransformer implements Tran
 	private final CsrcAudioLevelDispatcher csrcAudioLevelDispatcher;
 
 	/**
-	 * The buffer that we use to encode the csrc audio level extensions.
+	 * The buffer that we use to encode the data of the csrc audio level
+	 * extensions i.e. one level per CSRC (of which there are at most 15).
 	 */
-	private byte[] extensionBuff = null;
-
-	/**
-	 * Indicates the length that we are currently using in the
-	 * <tt>extensionBuff</tt> buffer.
-	 */
-	private int extensionBuffLen = 0;
+	private final byte[] levels = new byte[15];
 
 	/**
 	 * The <tt>MediaStreamImpl</tt> that this transform engine was created to
@@ -108,60 +104,24 @@ public class CsrcTransformEngine extends SinglePacketTransformer implements Tran
 	}
 
 	/**
-	 * Creates a audio level extension buffer containing the level extension
-	 * header and the audio levels corresponding to (and in the same order as)
-	 * the <tt>CSRC</tt> IDs in the <tt>csrcList</tt>
+	 * Encodes into {@link #levels} the audio levels corresponding to (and in
+	 * the same order as) the <tt>CSRC</tt> IDs in the <tt>csrcList</tt>.
 	 * 
 	 * @param csrcList
 	 *            the list of CSRC IDs whose level we'd like the extension to
 	 *            contain.
-	 * @return the extension buffer in the form that it should be added to the
-	 *         RTP packet.
+	 * @return the number of levels encoded into <tt>levels</tt>
 	 */
-	private byte[] createLevelExtensionBuffer(long[] csrcList) {
-		int buffLen = 1 + // CSRC one byte extension hdr
-		csrcList.length;
-
-		// calculate extension padding
-		int padLen = 4 - buffLen % 4;
-
-		if (padLen == 4)
-			padLen = 0;
-
-		buffLen += padLen;
-
-		byte[] extensionBuff = getExtensionBuff(buffLen);
-
-		extensionBuff[0] = (byte) ((csrcAudioLevelExtID << 4) | (csrcList.length - 1));
+	private int encodeLevels(long[] csrcList) {
+		int count = Math.min(csrcList.length, levels.length);
 
-		int csrcOffset = 1; // initial offset is equal to ext hdr size
-
-		for (int i = 0; i < csrcList.length; i++) {
+		for (int i = 0; i < count; i++) {
 			long csrc = csrcList[i];
-			byte level = (byte) ((AudioMediaStreamImpl) mediaStream).getLastMeasuredAudioLevel(csrc);
 
-			extensionBuff[csrcOffset] = level;
-			csrcOffset++;
+			levels[i] = (byte) ((AudioMediaStreamImpl) mediaStream).getLastMeasuredAudioLevel(csrc);
 		}
 
-		return extensionBuff;
-	}
-
-	/**
-	 * Returns a reusable byte array which is guaranteed to have the requested
-	 * <tt>ensureCapacity</tt> length and sets our internal length keeping var.
-	 * 
-	 * @param ensureCapacity
-	 *            the minimum length that we need the returned buffer to have.
-	 * @return a reusable <tt>byte[]</tt> array guaranteed to have a length
-	 *         equal to or greater than <tt>ensureCapacity</tt>.
-	 */
-	private byte[] getExtensionBuff(int ensureCapacity) {
-		if ((extensionBuff == null) || (extensionBuff.length < ensureCapacity))
-			extensionBuff = new byte[ensureCapacity];
-
-		extensionBuffLen = ensureCapacity;
-		return extensionBuff;
+		return count;
 	}
 
 	/**
@@ -188,6 +148,31 @@ public class CsrcTransformEngine extends SinglePacketTransformer implements Tran
 		return this;
 	}
 
+	/**
+	 * Determines whether audio levels are to be extracted from the received
+	 * packets.
+	 * 
+	 * @return <tt>true</tt> if the audio levels in the received packets are to
+	 *         be dispatched; otherwise, <tt>false</tt>
+	 */
+	@Override
+	public boolean isReverseTransforming() {
+		return (csrcAudioLevelExtID > 0) && csrcAudioLevelDirection.allowsReceiving() && (csrcAudioLevelDispatcher != null);
+	}
+
+	/**
+	 * Determines whether there are CSRCs to be added to the sent packets.
+	 * 
+	 * @return <tt>true</tt> if the <tt>MediaStream</tt> of this engine has
+	 *         contributing sources; otherwise, <tt>false</tt>
+	 */
+	@Override
+	public boolean isTransforming() {
+		long[] csrcList = mediaStream.getLocalContributingSourceIDs();
+
+		return (csrcList != null) && (csrcList.length != 0);
+	}
+
 	/**
 	 * Extracts the list of CSRC identifiers and passes it to the
 	 * <tt>MediaStream</tt> associated with this engine. Other than that the
@@ -246,7 +231,9 @@ public class CsrcTransformEngine extends SinglePacketTransformer implements Tran
 	 *         CSRC identifiers.
 	 */
 	@Override
-	public synchronized RawPacket transform(RawPacket pkt) {
+	public RawPacket transform(RawPacket pkt) {
+		// TransformEngineChain serializes the calls (which share levels).
+
 		// if somebody has modified the packet and added an extension
 		// don't process it. As ZRTP creates special RTP packets carrying no
 		// RTP data and those packets are used only by ZRTP we don't use them.
@@ -264,9 +251,9 @@ public class CsrcTransformEngine extends SinglePacketTransformer implements Tran
 
 		// attach audio levels if we are expected to do so.
 		if ((csrcAudioLevelExtID > 0) && csrcAudioLevelDirection.allowsSending() && (mediaStream instanceof AudioMediaStreamImpl)) {
-			byte[] levelsExt = createLevelExtensionBuffer(csrcList);
+			int levelCount = encodeLevels(csrcList);
 
-			pkt.addExtension(levelsExt, extensionBuffLen);
+			pkt.setExtension(csrcAudioLevelExtID, levels, 0, levelCount);
 		}
 
 		return pkt;
@@ -15,6 +15,7 @@ import net.sf.fmj.media.rtp.RTPHeader;
 import org.jitsi.impl.neomedia.AudioMediaStreamImpl;
 import org.jitsi.impl.neomedia.MediaStreamImpl;
 import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.transform.ChainablePacketTransformer;
 import org.jitsi.impl.neomedia.transform.PacketTransformer;
 import org.jitsi.impl.neomedia.transform.SinglePacketTransformer;
 import org.jitsi.impl.neomedia.transform.TransformEngine;
@@ -33,7 +34,7 @@ import org.jitsi.service.neomedia.RTPExtension;
  * @author Emil Ivov
  * @author Lyubomir Marinov
  */
-public class SsrcTransformEngine extends SinglePacketTransformer implements TransformEngine {
+public class SsrcTransformEngine extends SinglePacketTransformer implements ChainablePacketTransformer, TransformEngine {
 	/**
 	 * The name of the <tt>ConfigurationService</tt> property which specifies
 	 * whether <tt>SsrcTransformEngine</tt> is to drop RTP packets indicated as
@@ -159,6 +160,29 @@ public class SsrcTransformEngine extends SinglePacketTransformer implements Tran
 		return this;
 	}
 
+	/**
+	 * Determines whether audio levels are to be read from the received
+	 * packets.
+	 * 
+	 * @return <tt>true</tt> if the audio levels in the received packets are to
+	 *         be read; otherwise, <tt>false</tt>
+	 */
+	@Override
+	public boolean isReverseTransforming() {
+		return (ssrcAudioLevelExtID > 0) && ssrcAudioLevelDirection.allowsReceiving();
+	}
+
+	/**
+	 * Always returns <tt>false</tt> since this engine does not modify the sent
+	 * packets.
+	 * 
+	 * @return <tt>false</tt>
+	 */
+	@Override
+	public boolean isTransforming() {
+		return false;
+	}
+
 	/**
 	 * Reads the values of certain <tt>ConfigurationService</tt> properties of
 	 * concern to <tt>SsrcTransformEngine</tt> once during the initialization of
@@ -0,0 +1,97 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform.dtls;
+
+import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
+import org.bouncycastle.crypto.tls.Certificate;
+
+/**
+ * Represents an identity with which a local endpoint authenticates its ends of
+ * DTLS sessions i.e. a (self-signed) certificate, its private and public keys
+ * and its fingerprint (which is computed once and cached).
+ */
+class CertificateInfo {
+	/**
+	 * The certificate of this identity.
+	 */
+	private final Certificate certificate;
+
+	/**
+	 * The time in milliseconds at which this identity was generated.
+	 */
+	private final long creationTime;
+
+	/**
+	 * The private and public keys of {@link #certificate}.
+	 */
+	private final AsymmetricCipherKeyPair keyPair;
+
+	/**
+	 * The fingerprint of {@link #certificate}.
+	 */
+	private final String localFingerprint;
+
+	/**
+	 * The hash function of {@link #localFingerprint}.
+	 */
+	private final String localFingerprintHashFunction;
+
+	/**
+	 * The <tt>SignatureAlgorithm</tt> of {@link #keyPair}.
+	 */
+	private final short signatureAlgorithm;
+
+	/**
+	 * Initializes a new <tt>CertificateInfo</tt> instance.
+	 *
+	 * @param keyPair
+	 *            the private and public keys of <tt>certificate</tt>
+	 * @param certificate
+	 *            the certificate of the new identity
+	 * @param signatureAlgorithm
+	 *            the <tt>SignatureAlgorithm</tt> of <tt>keyPair</tt>
+	 * @param localFingerprintHashFunction
+	 *            the hash function of <tt>localFingerprint</tt>
+	 * @param localFingerprint
+	 *            the fingerprint of <tt>certificate</tt>
+	 * @param creationTime
+	 *            the time in milliseconds at which the new identity was
+	 *            generated
+	 */
+	public CertificateInfo(AsymmetricCipherKeyPair keyPair, Certificate certificate, short signatureAlgorithm, String localFingerprintHashFunction, String localFingerprint, long creationTime) {
+		this.keyPair = keyPair;
+		this.certificate = certificate;
+		this.signatureAlgorithm = signatureAlgorithm;
+		this.localFingerprintHashFunction = localFingerprintHashFunction;
+		this.localFingerprint = localFingerprint;
+		this.creationTime = creationTime;
+	}
+
+	public Certificate getCertificate() {
+		return certificate;
+	}
+
+	public long getCreationTime() {
+		return creationTime;
+	}
+
+	public AsymmetricCipherKeyPair getKeyPair() {
+		return keyPair;
+	}
+
+	public String getLocalFingerprint() {
+		return localFingerprint;
+	}
+
+	public String getLocalFingerprintHashFunction() {
+		return localFingerprintHashFunction;
+	}
+
+	public short getSignatureAlgorithm() {
+		return signatureAlgorithm;
+	}
+}
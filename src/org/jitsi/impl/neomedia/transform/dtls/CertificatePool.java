@@ -0,0 +1,331 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform.dtls;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.util.Logger;
+
+/**
+ * Pre-generates in a background thread the identities (i.e.
+ * <tt>CertificateInfo</tt>s) with which <tt>DtlsControlImpl</tt>s authenticate
+ * their ends of DTLS sessions so that the initialization of a new
+ * <tt>DtlsControlImpl</tt> does not have to wait for the generation of a key
+ * pair and the signing of a certificate. An identity may be handed out to a
+ * configurable number of <tt>DtlsControlImpl</tt>s and is retired after a
+ * configurable age.
+ */
+public class CertificatePool {
+	/**
+	 * The number of milliseconds to wait before retrying the generation of an
+	 * identity which has failed.
+	 */
+	private static final long GENERATION_RETRY_DELAY = 1000L;
+
+	/**
+	 * The <tt>CertificatePool</tt> shared by all <tt>DtlsControlImpl</tt>s.
+	 */
+	private static CertificatePool instance;
+
+	/**
+	 * The <tt>Logger</tt> used by the <tt>CertificatePool</tt> class and its
+	 * instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(CertificatePool.class);
+
+	/**
+	 * Gets the <tt>CertificatePool</tt> shared by all
+	 * <tt>DtlsControlImpl</tt>s.
+	 *
+	 * @return the <tt>CertificatePool</tt> shared by all
+	 *         <tt>DtlsControlImpl</tt>s
+	 */
+	public static synchronized CertificatePool getInstance() {
+		if (instance == null)
+			instance = new CertificatePool();
+		return instance;
+	}
+
+	/**
+	 * The identity which is currently being handed out to multiple
+	 * <tt>DtlsControlImpl</tt>s if {@link #maxUses} is greater than
+	 * <tt>1</tt>.
+	 */
+	private CertificateInfo current;
+
+	/**
+	 * The number of times {@link #current} has been handed out.
+	 */
+	private int currentUses;
+
+	/**
+	 * The number of identities which were generated.
+	 */
+	private final AtomicLong generatedCount = new AtomicLong();
+
+	/**
+	 * The number of identities which were taken from this pool.
+	 */
+	private final AtomicLong hitCount = new AtomicLong();
+
+	/**
+	 * The type of the keys of the identities i.e. either
+	 * {@link DtlsControlImpl#KEY_TYPE_ECDSA} or
+	 * {@link DtlsControlImpl#KEY_TYPE_RSA}.
+	 */
+	private final String keyType;
+
+	/**
+	 * The maximum age in milliseconds of an identity after which it is no
+	 * longer handed out.
+	 */
+	private final long maxAge;
+
+	/**
+	 * The maximum number of <tt>DtlsControlImpl</tt>s to which an identity is
+	 * handed out.
+	 */
+	private final int maxUses;
+
+	/**
+	 * The number of identities which had to be generated synchronously because
+	 * this pool was empty.
+	 */
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * The pre-generated identities, oldest first.
+	 */
+	private final LinkedList<CertificateInfo> pool = new LinkedList<CertificateInfo>();
+
+	/**
+	 * The number of identities to keep pre-generated.
+	 */
+	private final int poolSize;
+
+	/**
+	 * Initializes a new <tt>CertificatePool</tt> instance configured through
+	 * the <tt>ConfigurationService</tt> of <tt>LibJitsi</tt>.
+	 */
+	private CertificatePool() {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+		String keyType = null;
+		long maxAge = DtlsControlImpl.DEFAULT_CERTIFICATE_MAX_AGE;
+		int maxUses = 1;
+		int poolSize = 4;
+
+		if (cfg != null) {
+			keyType = cfg.getString(DtlsControlImpl.KEY_TYPE_PNAME);
+			maxAge = cfg.getLong(DtlsControlImpl.CERTIFICATE_MAX_AGE_PNAME, maxAge);
+			maxUses = cfg.getInt(DtlsControlImpl.CERTIFICATE_MAX_USES_PNAME, maxUses);
+			poolSize = cfg.getInt(DtlsControlImpl.CERTIFICATE_POOL_SIZE_PNAME, poolSize);
+		}
+
+		this.keyType = DtlsControlImpl.KEY_TYPE_ECDSA.equalsIgnoreCase(keyType) ? DtlsControlImpl.KEY_TYPE_ECDSA : DtlsControlImpl.KEY_TYPE_RSA;
+		/*
+		 * The certificates expire some days after their generation and have
+		 * to remain valid throughout the calls which use them.
+		 */
+		this.maxAge = Math.max(1000L, Math.min(maxAge, DtlsControlImpl.MAX_CERTIFICATE_MAX_AGE));
+		this.maxUses = Math.max(1, maxUses);
+		this.poolSize = Math.max(0, poolSize);
+
+		startGeneratorThread();
+	}
+
+	/**
+	 * Gets an identity for a new <tt>DtlsControlImpl</tt>. Takes it from this
+	 * pool if possible or generates it synchronously otherwise.
+	 *
+	 * @return a <tt>CertificateInfo</tt> for a new <tt>DtlsControlImpl</tt>
+	 */
+	CertificateInfo acquire() {
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+
+			if ((current != null) && (currentUses < maxUses) && !isExpired(current, now)) {
+				currentUses++;
+				hitCount.incrementAndGet();
+				return current;
+			}
+			current = null;
+
+			CertificateInfo certificateInfo;
+
+			while ((certificateInfo = pool.poll()) != null) {
+				if (!isExpired(certificateInfo, now)) {
+					// Have the generator thread replace the identity.
+					notifyAll();
+					setCurrent(certificateInfo);
+					hitCount.incrementAndGet();
+					return certificateInfo;
+				}
+			}
+			notifyAll();
+		}
+
+		missCount.incrementAndGet();
+
+		CertificateInfo certificateInfo = generate();
+
+		synchronized (this) {
+			if (current == null)
+				setCurrent(certificateInfo);
+		}
+		return certificateInfo;
+	}
+
+	/**
+	 * Removes the identities which have expired from {@link #pool}.
+	 *
+	 * @param now
+	 *            the current time in milliseconds
+	 */
+	private void evictExpired(long now) {
+		for (Iterator<CertificateInfo> i = pool.iterator(); i.hasNext();) {
+			if (isExpired(i.next(), now))
+				i.remove();
+		}
+	}
+
+	/**
+	 * Generates a new identity of type {@link #keyType}.
+	 *
+	 * @return a new <tt>CertificateInfo</tt>
+	 */
+	private CertificateInfo generate() {
+		CertificateInfo certificateInfo = DtlsControlImpl.generateCertificateInfo(keyType);
+
+		generatedCount.incrementAndGet();
+		return certificateInfo;
+	}
+
+	/**
+	 * Gets the number of identities which were generated by this pool.
+	 *
+	 * @return the number of identities which were generated by this pool
+	 */
+	public long getGeneratedCount() {
+		return generatedCount.get();
+	}
+
+	/**
+	 * Gets the number of identities which were handed out without having to
+	 * be generated on demand.
+	 *
+	 * @return the number of identities which were handed out without having
+	 *         to be generated on demand
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Gets the number of identities which had to be generated on demand
+	 * because this pool was empty.
+	 *
+	 * @return the number of identities which had to be generated on demand
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Determines whether a specific identity is too old to be handed out.
+	 */
+	private boolean isExpired(CertificateInfo certificateInfo, long now) {
+		return now - certificateInfo.getCreationTime() >= maxAge;
+	}
+
+	/**
+	 * Runs in the background <tt>Thread</tt> of this pool and keeps {@link #pool} filled up to
+	 * {@link #poolSize} identities.
+	 */
+	private void runInGeneratorThread() {
+		for (;;) {
+			synchronized (this) {
+				for (;;) {
+					long now = System.currentTimeMillis();
+
+					evictExpired(now);
+					if (pool.size() < poolSize)
+						break;
+
+					// Wake up when the oldest identity expires.
+					long timeout = pool.getFirst().getCreationTime() + maxAge - now;
+
+					try {
+						wait(Math.max(1L, timeout));
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+
+			try {
+				CertificateInfo certificateInfo = generate();
+
+				synchronized (this) {
+					pool.add(certificateInfo);
+				}
+			} catch (Throwable t) {
+				if (t instanceof ThreadDeath) {
+					throw (ThreadDeath) t;
+				} else {
+					logger.error("Failed to pre-generate a DTLS certificate.", t);
+					try {
+						Thread.sleep(GENERATION_RETRY_DELAY);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the identity which is to be handed out to subsequent
+	 * <tt>DtlsControlImpl</tt>s (if {@link #maxUses} allows).
+	 */
+	private void setCurrent(CertificateInfo certificateInfo) {
+		current = certificateInfo;
+		currentUses = 1;
+	}
+
+	/**
+	 * Starts the background <tt>Thread</tt> which generates the identities of
+	 * this pool unless pre-generation is disabled.
+	 */
+	private void startGeneratorThread() {
+		if (poolSize == 0)
+			return;
+
+		Thread generatorThread = new Thread(CertificatePool.class.getName() + ".generatorThread") {
+			@Override
+			public void run() {
+				runInGeneratorThread();
+			}
+		};
+		generatorThread.setDaemon(true);
+		generatorThread.setPriority(Thread.MIN_PRIORITY);
+		generatorThread.start();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "keyType=" + keyType + " hits=" + getHitCount() + " misses=" + getMissCount() + " generated=" + getGeneratedCount();
+	}
+}
@@ -49,6 +49,29 @@ public class DatagramTransportImpl implements DatagramTransport {
 	 */
 	private AbstractRTPConnector connector;
 
+	/**
+	 * The time in milliseconds after which {@link #receive(byte[], int, int,
+	 * int)} fails in order to abandon a DTLS handshake which takes too long or
+	 * <tt>0</tt> if there is no such limit.
+	 */
+	private volatile long handshakeDeadline;
+
+	/**
+	 * The greatest <tt>message_seq</tt> and <tt>fragment_offset</tt> (as
+	 * returned by {@link #getHandshakeFragment(byte[], int, int)}) of the
+	 * unencrypted handshake records received through this instance. Guarded
+	 * by {@link #receiveQ}.
+	 */
+	private long maxReceivedHandshakeFragment = -1L;
+
+	/**
+	 * The greatest <tt>message_seq</tt> and <tt>fragment_offset</tt> (as
+	 * returned by {@link #getHandshakeFragment(byte[], int, int)}) of the
+	 * unencrypted handshake records sent through this instance. Guarded by
+	 * {@link #sendBufSyncRoot}.
+	 */
+	private long maxSentHandshakeFragment = -1L;
+
 	/**
 	 * The pool of <tt>RawPacket</tt>s instances to reduce their allocations and
 	 * garbage collection.
@@ -67,6 +90,12 @@ public class DatagramTransportImpl implements DatagramTransport {
 	 */
 	private final int receiveQCapacity;
 
+	/**
+	 * The number of handshake records received through this instance which
+	 * were retransmissions. Guarded by {@link #receiveQ}.
+	 */
+	private long receivedRetransmissionCount;
+
 	/**
 	 * The <tt>byte</tt> buffer which represents a datagram to be sent. It may
 	 * consist of multiple DTLS records which are simple encoded consecutively.
@@ -85,6 +114,12 @@ public class DatagramTransportImpl implements DatagramTransport {
 	 */
 	private final Object sendBufSyncRoot = new Object();
 
+	/**
+	 * The number of handshake records sent through this instance which were
+	 * retransmissions. Guarded by {@link #sendBufSyncRoot}.
+	 */
+	private long sentRetransmissionCount;
+
 	/**
 	 * Initializes a new <tt>DatagramTransportImpl</tt>.
 	 * 
@@ -107,6 +142,74 @@ public class DatagramTransportImpl implements DatagramTransport {
 		receiveQ = new ArrayBlockingQueue<RawPacket>(receiveQCapacity);
 	}
 
+	/**
+	 * Gets the <tt>message_seq</tt> and the <tt>fragment_offset</tt> of a
+	 * specific DTLS record if it is an unencrypted (i.e. epoch <tt>0</tt>)
+	 * handshake record. A retransmitted handshake record repeats them.
+	 * 
+	 * @param buf
+	 *            the array of <tt>byte</tt>s which contains the DTLS record
+	 * @param off
+	 *            the offset within <tt>buf</tt> at which the DTLS record starts
+	 * @param len
+	 *            the number of bytes within <tt>buf</tt> starting at
+	 *            <tt>off</tt> which are available
+	 * @return the <tt>message_seq</tt> shifted to the left by 24 bits and
+	 *         combined with the <tt>fragment_offset</tt> of the specified DTLS
+	 *         record or <tt>-1</tt> if it is not an unencrypted handshake
+	 *         record
+	 */
+	private static long getHandshakeFragment(byte[] buf, int off, int len) {
+		/*
+		 * The handshake header consists of msg_type, length, message_seq,
+		 * fragment_offset and fragment_length.
+		 */
+		if ((len < DtlsPacketTransformer.DTLS_RECORD_HEADER_LENGTH + 12) || (TlsUtils.readUint8(buf, off) != ContentType.handshake) || (TlsUtils.readUint16(buf, off + 3) != 0)) {
+			return -1L;
+		} else {
+			int handshakeOff = off + DtlsPacketTransformer.DTLS_RECORD_HEADER_LENGTH;
+
+			return ((long) TlsUtils.readUint16(buf, handshakeOff + 4) << 24) | TlsUtils.readUint24(buf, handshakeOff + 6);
+		}
+	}
+
+	/**
+	 * Counts the handshake records in a specific datagram which are
+	 * retransmissions.
+	 * 
+	 * @param buf
+	 *            the array of <tt>byte</tt>s which contains the datagram
+	 * @param off
+	 *            the offset within <tt>buf</tt> at which the datagram starts
+	 * @param len
+	 *            the length of the datagram
+	 * @param maxHandshakeFragment
+	 *            the greatest {@link #getHandshakeFragment(byte[], int, int)}
+	 *            seen in the same direction before the specified datagram
+	 * @param sent
+	 *            <tt>true</tt> if the datagram is being sent; <tt>false</tt>
+	 *            if it has been received
+	 * @return the greatest {@link #getHandshakeFragment(byte[], int, int)}
+	 *         seen in the same direction including the specified datagram
+	 */
+	private long countRetransmissions(byte[] buf, int off, int len, long maxHandshakeFragment, boolean sent) {
+		for (int end = off + len; end - off >= DtlsPacketTransformer.DTLS_RECORD_HEADER_LENGTH;) {
+			int recordLen = DtlsPacketTransformer.DTLS_RECORD_HEADER_LENGTH + TlsUtils.readUint16(buf, off + 11);
+			long handshakeFragment = getHandshakeFragment(buf, off, Math.min(recordLen, end - off));
+
+			if (handshakeFragment >= 0L) {
+				if (handshakeFragment > maxHandshakeFragment)
+					maxHandshakeFragment = handshakeFragment;
+				else if (sent)
+					sentRetransmissionCount++;
+				else
+					receivedRetransmissionCount++;
+			}
+			off += recordLen;
+		}
+		return maxHandshakeFragment;
+	}
+
 	private AbstractRTPConnector assertNotClosed(boolean breakOutOfDTLSReliableHandshakeReceiveMessage) throws IOException {
 		AbstractRTPConnector connector = this.connector;
 
@@ -167,6 +270,9 @@ public class DatagramTransportImpl implements DatagramTransport {
 			throw ise;
 		}
 
+		synchronized (sendBufSyncRoot) {
+			maxSentHandshakeFragment = countRetransmissions(buf, off, len, maxSentHandshakeFragment, true);
+		}
 		outputStream.write(buf, off, len);
 	}
 
@@ -198,6 +304,18 @@ public class DatagramTransportImpl implements DatagramTransport {
 		}
 	}
 
+	/**
+	 * Gets the number of handshake records received through this instance
+	 * which were retransmissions of earlier records by the remote peer.
+	 * 
+	 * @return the number of received handshake retransmissions
+	 */
+	long getReceivedRetransmissionCount() {
+		synchronized (receiveQ) {
+			return receivedRetransmissionCount;
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -263,6 +381,9 @@ public class DatagramTransportImpl implements DatagramTransport {
 				}
 				System.arraycopy(buf, off, pktBuf, 0, len);
 
+				// Count the retransmissions of the remote peer.
+				maxReceivedHandshakeFragment = countRetransmissions(buf, off, len, maxReceivedHandshakeFragment, false);
+
 				if (receiveQ.size() == receiveQCapacity) {
 					RawPacket oldPkt = receiveQ.remove();
 
@@ -279,6 +400,14 @@ public class DatagramTransportImpl implements DatagramTransport {
 	 */
 	public int receive(byte[] buf, int off, int len, int waitMillis) throws IOException {
 		long enterTime = System.currentTimeMillis();
+		long handshakeDeadline = this.handshakeDeadline;
+
+		if ((handshakeDeadline != 0L) && (enterTime >= handshakeDeadline)) {
+			IOException ioe = new IOException("The DTLS handshake has timed out!");
+
+			breakOutOfDTLSReliableHandshakeReceiveMessage(ioe);
+			throw ioe;
+		}
 
 		/*
 		 * If this DatagramTransportImpl is to be received from, then what is to
@@ -463,6 +592,18 @@ public class DatagramTransportImpl implements DatagramTransport {
 		}
 	}
 
+	/**
+	 * Gets the number of handshake records sent through this instance which
+	 * were retransmissions of earlier records.
+	 * 
+	 * @return the number of sent handshake retransmissions
+	 */
+	long getSentRetransmissionCount() {
+		synchronized (sendBufSyncRoot) {
+			return sentRetransmissionCount;
+		}
+	}
+
 	/**
 	 * Sets the <tt>RTPConnector</tt> which represents and implements the actual
 	 * <tt>DatagramSocket</tt> to be adapted by this instance.
@@ -477,4 +618,17 @@ public class DatagramTransportImpl implements DatagramTransport {
 			receiveQ.notifyAll();
 		}
 	}
+
+	/**
+	 * Sets the time after which the DTLS handshake performed through this
+	 * instance is to be abandoned.
+	 * 
+	 * @param handshakeDeadline
+	 *            the time in milliseconds after which the DTLS handshake is to
+	 *            be abandoned or <tt>0</tt> if there is no such limit (e.g.
+	 *            because the handshake has completed)
+	 */
+	void setHandshakeDeadline(long handshakeDeadline) {
+		this.handshakeDeadline = handshakeDeadline;
+	}
 }
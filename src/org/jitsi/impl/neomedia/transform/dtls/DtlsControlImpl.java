@@ -19,20 +19,32 @@ import java.util.Set;
 import net.sf.fmj.media.rtp.rtpmediaformat.RTPMediaType;
 
 import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.sec.SECObjectIdentifiers;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x500.X500NameBuilder;
 import org.bouncycastle.asn1.x500.style.BCStyle;
 import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
 import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.Signer;
+import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
 import org.bouncycastle.crypto.generators.RSAKeyPairGenerator;
+import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
+import org.bouncycastle.crypto.params.ECNamedDomainParameters;
 import org.bouncycastle.crypto.params.RSAKeyGenerationParameters;
+import org.bouncycastle.crypto.signers.DSADigestSigner;
+import org.bouncycastle.crypto.signers.ECDSASigner;
 import org.bouncycastle.crypto.tls.SRTPProtectionProfile;
+import org.bouncycastle.crypto.tls.SignatureAlgorithm;
 import org.bouncycastle.crypto.util.SubjectPublicKeyInfoFactory;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.DefaultSignatureAlgorithmIdentifierFinder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.bc.BcContentSignerBuilder;
 import org.bouncycastle.operator.bc.BcDefaultDigestProvider;
 import org.bouncycastle.operator.bc.BcRSAContentSignerBuilder;
 import org.jitsi.impl.neomedia.AbstractRTPConnector;
@@ -50,11 +62,57 @@ import org.jitsi.util.StringUtils;
  * @author Lyubomir Marinov
  */
 public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> implements DtlsControl {
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum age in milliseconds of a (pre-generated) certificate after
+	 * which it is no longer used for new <tt>DtlsControlImpl</tt>s.
+	 */
+	public static final String CERTIFICATE_MAX_AGE_PNAME = DtlsControlImpl.class.getName() + ".certificateMaxAge";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of <tt>DtlsControlImpl</tt>s which use the same
+	 * certificate. The default is <tt>1</tt> i.e. each
+	 * <tt>DtlsControlImpl</tt> uses its own certificate.
+	 */
+	public static final String CERTIFICATE_MAX_USES_PNAME = DtlsControlImpl.class.getName() + ".certificateMaxUses";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the number of certificates to be pre-generated in the background. The
+	 * value <tt>0</tt> disables the pre-generation.
+	 */
+	public static final String CERTIFICATE_POOL_SIZE_PNAME = DtlsControlImpl.class.getName() + ".certificatePoolSize";
+
+	/**
+	 * The default maximum age in milliseconds of a (pre-generated)
+	 * certificate.
+	 */
+	static final long DEFAULT_CERTIFICATE_MAX_AGE = 1000L * 60L * 60L * 24L;
+
 	/**
 	 * The table which maps half-<tt>byte</tt>s to their hex characters.
 	 */
 	private static final char[] HEX_ENCODE_TABLE = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
 
+	/**
+	 * The value of {@link #KEY_TYPE_PNAME} which selects ECDSA keys on the
+	 * NIST P-256 curve.
+	 */
+	public static final String KEY_TYPE_ECDSA = "ECDSA";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the type of the keys of the certificates i.e. either
+	 * {@link #KEY_TYPE_RSA} (the default) or {@link #KEY_TYPE_ECDSA}.
+	 */
+	public static final String KEY_TYPE_PNAME = DtlsControlImpl.class.getName() + ".keyType";
+
+	/**
+	 * The value of {@link #KEY_TYPE_PNAME} which selects 1024-bit RSA keys.
+	 */
+	public static final String KEY_TYPE_RSA = "RSA";
+
 	/**
 	 * The <tt>Logger</tt> used by the <tt>DtlsControlImpl</tt> class and its
 	 * instances to print debug information.
@@ -66,6 +124,12 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 */
 	private static final long ONE_DAY = 1000L * 60L * 60L * 24L;
 
+	/**
+	 * The maximum value of {@link #CERTIFICATE_MAX_AGE_PNAME} which leaves the
+	 * certificates valid for at least one more day.
+	 */
+	static final long MAX_CERTIFICATE_MAX_AGE = 5 * ONE_DAY;
+
 	/**
 	 * The <tt>SRTPProtectionProfile</tt>s supported by <tt>DtlsControlImpl</tt>
 	 * .
@@ -228,7 +292,44 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	}
 
 	/**
-	 * Generates a new pair of private and public keys.
+	 * Generates a new identity i.e. a new pair of private and public keys and
+	 * a new self-signed certificate with them, and computes the fingerprint of
+	 * the certificate.
+	 * 
+	 * @param keyType
+	 *            {@link #KEY_TYPE_ECDSA} or {@link #KEY_TYPE_RSA}
+	 * @return a new <tt>CertificateInfo</tt> of the specified
+	 *         <tt>keyType</tt>
+	 */
+	static CertificateInfo generateCertificateInfo(String keyType) {
+		boolean ecdsa = KEY_TYPE_ECDSA.equals(keyType);
+		long now = System.currentTimeMillis();
+		AsymmetricCipherKeyPair keyPair = ecdsa ? generateECKeyPair() : generateKeyPair();
+		org.bouncycastle.asn1.x509.Certificate x509Certificate = generateX509Certificate(generateCN(), keyPair, ecdsa ? "SHA256withECDSA" : "SHA1withRSA", now);
+		org.bouncycastle.crypto.tls.Certificate certificate = new org.bouncycastle.crypto.tls.Certificate(new org.bouncycastle.asn1.x509.Certificate[] { x509Certificate });
+		String localFingerprintHashFunction = findHashFunction(x509Certificate);
+		String localFingerprint = computeFingerprint(x509Certificate, localFingerprintHashFunction);
+
+		return new CertificateInfo(keyPair, certificate, ecdsa ? SignatureAlgorithm.ecdsa : SignatureAlgorithm.rsa, localFingerprintHashFunction, localFingerprint, now);
+	}
+
+	/**
+	 * Generates a new pair of private and public ECDSA keys on the NIST P-256
+	 * curve.
+	 * 
+	 * @return a new pair of private and public keys
+	 */
+	private static AsymmetricCipherKeyPair generateECKeyPair() {
+		X9ECParameters x9 = SECNamedCurves.getByOID(SECObjectIdentifiers.secp256r1);
+		ECNamedDomainParameters domainParameters = new ECNamedDomainParameters(SECObjectIdentifiers.secp256r1, x9.getCurve(), x9.getG(), x9.getN(), x9.getH(), x9.getSeed());
+		ECKeyPairGenerator generator = new ECKeyPairGenerator();
+
+		generator.init(new ECKeyGenerationParameters(domainParameters, createSecureRandom()));
+		return generator.generateKeyPair();
+	}
+
+	/**
+	 * Generates a new pair of private and public RSA keys.
 	 * 
 	 * @return a new pair of private and public keys
 	 */
@@ -249,12 +350,17 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 * @param keyPair
 	 *            the pair of private and public keys of the certificate to be
 	 *            generated
+	 * @param signatureAlgorithm
+	 *            the name of the algorithm with which the certificate is to be
+	 *            signed e.g. <tt>SHA1withRSA</tt>
+	 * @param now
+	 *            the time in milliseconds from which the validity of the
+	 *            certificate is to be computed
 	 * @return a new self-signed certificate with the specified <tt>subject</tt>
 	 *         and <tt>keyPair</tt>
 	 */
-	private static org.bouncycastle.asn1.x509.Certificate generateX509Certificate(X500Name subject, AsymmetricCipherKeyPair keyPair) {
+	private static org.bouncycastle.asn1.x509.Certificate generateX509Certificate(X500Name subject, AsymmetricCipherKeyPair keyPair, String signatureAlgorithm, long now) {
 		try {
-			long now = System.currentTimeMillis();
 			Date notBefore = new Date(now - ONE_DAY);
 			Date notAfter = new Date(now + 6 * ONE_DAY);
 			X509v3CertificateBuilder builder = new X509v3CertificateBuilder(
@@ -262,9 +368,23 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 			/* serial */BigInteger.valueOf(now), notBefore, notAfter, subject,
 			/* publicKeyInfo */
 			SubjectPublicKeyInfoFactory.createSubjectPublicKeyInfo(keyPair.getPublic()));
-			AlgorithmIdentifier sigAlgId = new DefaultSignatureAlgorithmIdentifierFinder().find("SHA1withRSA");
+			AlgorithmIdentifier sigAlgId = new DefaultSignatureAlgorithmIdentifierFinder().find(signatureAlgorithm);
 			AlgorithmIdentifier digAlgId = new DefaultDigestAlgorithmIdentifierFinder().find(sigAlgId);
-			ContentSigner signer = new BcRSAContentSignerBuilder(sigAlgId, digAlgId).build(keyPair.getPrivate());
+			BcContentSignerBuilder signerBuilder;
+
+			if (signatureAlgorithm.endsWith("ECDSA")) {
+				// Bouncy Castle 1.51 does not provide a BcECContentSignerBuilder.
+				signerBuilder = new BcContentSignerBuilder(sigAlgId, digAlgId) {
+					@Override
+					protected Signer createSigner(AlgorithmIdentifier sigAlgId, AlgorithmIdentifier digAlgId) throws OperatorCreationException {
+						return new DSADigestSigner(new ECDSASigner(), digestProvider.get(digAlgId));
+					}
+				};
+			} else {
+				signerBuilder = new BcRSAContentSignerBuilder(sigAlgId, digAlgId);
+			}
+
+			ContentSigner signer = signerBuilder.setSecureRandom(createSecureRandom()).build(keyPair.getPrivate());
 
 			return builder.build(signer).toASN1Structure();
 		} catch (Throwable t) {
@@ -309,10 +429,11 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	}
 
 	/**
-	 * The certificate with which the local endpoint represented by this
-	 * instance authenticates its ends of DTLS sessions.
+	 * The identity i.e. the certificate, its keys and its fingerprint with
+	 * which the local endpoint represented by this instance authenticates its
+	 * ends of DTLS sessions.
 	 */
-	private final org.bouncycastle.crypto.tls.Certificate certificate;
+	private final CertificateInfo certificateInfo;
 
 	/**
 	 * The <tt>RTPConnector</tt> which uses the <tt>TransformEngine</tt> of this
@@ -332,28 +453,11 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 */
 	private boolean disposed = false;
 
-	/**
-	 * The private and public keys of {@link #certificate}.
-	 */
-	private final AsymmetricCipherKeyPair keyPair;
-
-	/**
-	 * The fingerprint of {@link #certificate}.
-	 */
-	private final String localFingerprint;
-
 	/**
 	 * Whether rtcp-mux is in use.
 	 */
 	private boolean rtcpmux = false;
 
-	/**
-	 * The hash function of {@link #localFingerprint} (which is the same as the
-	 * digest algorithm of the signature algorithm of {@link #certificate} in
-	 * accord with RFC 4572).
-	 */
-	private final String localFingerprintHashFunction;
-
 	/**
 	 * The fingerprints presented by the remote endpoint via the signaling path.
 	 */
@@ -393,13 +497,7 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 
 		this.disableSRTP = disableSRTP;
 
-		keyPair = generateKeyPair();
-
-		org.bouncycastle.asn1.x509.Certificate x509Certificate = generateX509Certificate(generateCN(), keyPair);
-
-		certificate = new org.bouncycastle.crypto.tls.Certificate(new org.bouncycastle.asn1.x509.Certificate[] { x509Certificate });
-		localFingerprintHashFunction = findHashFunction(x509Certificate);
-		localFingerprint = computeFingerprint(x509Certificate, localFingerprintHashFunction);
+		certificateInfo = CertificatePool.getInstance().acquire();
 	}
 
 	/**
@@ -452,7 +550,7 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 *         instance authenticates its ends of DTLS sessions.
 	 */
 	org.bouncycastle.crypto.tls.Certificate getCertificate() {
-		return certificate;
+		return certificateInfo.getCertificate();
 	}
 
 	/**
@@ -462,7 +560,7 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 *         instance
 	 */
 	AsymmetricCipherKeyPair getKeyPair() {
-		return keyPair;
+		return certificateInfo.getKeyPair();
 	}
 
 	/**
@@ -470,7 +568,7 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 */
 	@Override
 	public String getLocalFingerprint() {
-		return localFingerprint;
+		return certificateInfo.getLocalFingerprint();
 	}
 
 	/**
@@ -478,7 +576,18 @@ public class DtlsControlImpl extends AbstractSrtpControl<DtlsTransformEngine> im
 	 */
 	@Override
 	public String getLocalFingerprintHashFunction() {
-		return localFingerprintHashFunction;
+		return certificateInfo.getLocalFingerprintHashFunction();
+	}
+
+	/**
+	 * Gets the <tt>SignatureAlgorithm</tt> of the keys of the
+	 * <tt>certificate</tt> of this instance.
+	 * 
+	 * @return <tt>SignatureAlgorithm.ecdsa</tt> or
+	 *         <tt>SignatureAlgorithm.rsa</tt>
+	 */
+	short getSignatureAlgorithm() {
+		return certificateInfo.getSignatureAlgorithm();
 	}
 
 	/**
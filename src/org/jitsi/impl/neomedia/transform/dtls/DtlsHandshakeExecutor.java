@@ -0,0 +1,463 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform.dtls;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.util.LatencyHistogram;
+import org.jitsi.util.Logger;
+
+/**
+ * Runs the (blocking) DTLS handshakes of all <tt>DtlsPacketTransformer</tt>s
+ * on a bounded number of shared threads. Queued handshakes are started in the
+ * order of their priorities (e.g. audio before video and RTP before RTCP) and
+ * are rejected when too many are queued already. Collects the durations of the
+ * handshakes and the numbers of retransmitted handshake records.
+ */
+public class DtlsHandshakeExecutor {
+	/**
+	 * The <tt>DtlsHandshakeExecutor</tt> shared by all
+	 * <tt>DtlsPacketTransformer</tt>s.
+	 */
+	private static DtlsHandshakeExecutor instance;
+
+	/**
+	 * The <tt>Logger</tt> used by the <tt>DtlsHandshakeExecutor</tt> class and
+	 * its instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(DtlsHandshakeExecutor.class);
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of milliseconds a DTLS handshake may take before it
+	 * is abandoned. The value <tt>0</tt> disables the limit.
+	 */
+	public static final String HANDSHAKE_TIMEOUT_PNAME = DtlsHandshakeExecutor.class.getName() + ".handshakeTimeout";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of DTLS handshakes which may wait to be started. The
+	 * handshakes in excess are rejected.
+	 */
+	public static final String MAX_QUEUE_SIZE_PNAME = DtlsHandshakeExecutor.class.getName() + ".maxQueueSize";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of DTLS handshakes which are performed at the same
+	 * time.
+	 */
+	public static final String MAX_THREADS_PNAME = DtlsHandshakeExecutor.class.getName() + ".maxThreads";
+
+	/**
+	 * Gets the <tt>DtlsHandshakeExecutor</tt> shared by all
+	 * <tt>DtlsPacketTransformer</tt>s.
+	 *
+	 * @return the <tt>DtlsHandshakeExecutor</tt> shared by all
+	 *         <tt>DtlsPacketTransformer</tt>s
+	 */
+	public static synchronized DtlsHandshakeExecutor getInstance() {
+		if (instance == null)
+			instance = new DtlsHandshakeExecutor();
+		return instance;
+	}
+
+	/**
+	 * The number of handshakes which have completed successfully.
+	 */
+	private final AtomicLong completedCount = new AtomicLong();
+
+	/**
+	 * The number of handshakes which have failed.
+	 */
+	private final AtomicLong failedCount = new AtomicLong();
+
+	/**
+	 * The histogram of the durations in milliseconds of the handshakes.
+	 */
+	private final LatencyHistogram handshakeDurationHistogram = new LatencyHistogram(18);
+
+	/**
+	 * The maximum number of milliseconds a handshake may take.
+	 */
+	private final long handshakeTimeout;
+
+	/**
+	 * The maximum number of handshakes which may wait to be started.
+	 */
+	private final int maxQueueSize;
+
+	/**
+	 * The number of handshakes which are waiting to be started.
+	 */
+	private final AtomicInteger queuedCount = new AtomicInteger();
+
+	/**
+	 * The histogram of the times in milliseconds the handshakes have waited to
+	 * be started.
+	 */
+	private final LatencyHistogram queueTimeHistogram = new LatencyHistogram(18);
+
+	/**
+	 * The number of handshake records received from the remote peers which
+	 * were retransmissions.
+	 */
+	private final AtomicLong receivedRetransmissionCount = new AtomicLong();
+
+	/**
+	 * The number of handshakes which were rejected because too many were
+	 * queued.
+	 */
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * The sequence number of the next submitted <tt>Task</tt> which keeps the
+	 * order of submission among <tt>Task</tt>s with equal priorities.
+	 */
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * The number of handshake records sent to the remote peers which were
+	 * retransmissions.
+	 */
+	private final AtomicLong sentRetransmissionCount = new AtomicLong();
+
+	/**
+	 * The <tt>ThreadPoolExecutor</tt> which runs the handshakes.
+	 */
+	private final ThreadPoolExecutor threadPool;
+
+	/**
+	 * Initializes a new <tt>DtlsHandshakeExecutor</tt> instance configured
+	 * through the <tt>ConfigurationService</tt> of <tt>LibJitsi</tt>.
+	 */
+	private DtlsHandshakeExecutor() {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+		long handshakeTimeout = 60000L;
+		int maxQueueSize = 1024;
+		int maxThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+		if (cfg != null) {
+			handshakeTimeout = cfg.getLong(HANDSHAKE_TIMEOUT_PNAME, handshakeTimeout);
+			maxQueueSize = cfg.getInt(MAX_QUEUE_SIZE_PNAME, maxQueueSize);
+			maxThreads = cfg.getInt(MAX_THREADS_PNAME, maxThreads);
+		}
+
+		this.handshakeTimeout = Math.max(0L, handshakeTimeout);
+		this.maxQueueSize = Math.max(1, maxQueueSize);
+		maxThreads = Math.max(1, maxThreads);
+
+		threadPool = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, DtlsHandshakeExecutor.class.getName() + "-" + threadCount.incrementAndGet());
+
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		threadPool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Cancels a specific <tt>Task</tt> if it has not been started yet.
+	 *
+	 * @param task
+	 *            the <tt>Task</tt> to cancel
+	 * @return <tt>true</tt> if <tt>task</tt> was cancelled before it was
+	 *         started; otherwise, <tt>false</tt>
+	 */
+	public boolean cancel(Task task) {
+		if (task.state.compareAndSet(Task.QUEUED, Task.CANCELLED)) {
+			queuedCount.decrementAndGet();
+			threadPool.remove(task);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Submits a specific <tt>Task</tt> for execution unless too many
+	 * <tt>Task</tt>s are waiting to be started.
+	 *
+	 * @param task
+	 *            the <tt>Task</tt> to execute
+	 * @return <tt>true</tt> if <tt>task</tt> has been accepted for execution;
+	 *         <tt>false</tt> if it has been rejected
+	 */
+	public boolean execute(Task task) {
+		if (queuedCount.incrementAndGet() > maxQueueSize) {
+			queuedCount.decrementAndGet();
+			rejectedCount.incrementAndGet();
+			logger.warn("Rejected a DTLS handshake because " + maxQueueSize + " are queued already.");
+			return false;
+		}
+
+		task.sequence = sequence.getAndIncrement();
+		task.submitTime = System.currentTimeMillis();
+		task.state.set(Task.QUEUED);
+		threadPool.execute(task);
+		return true;
+	}
+
+	/**
+	 * Gets the number of handshakes which have completed successfully.
+	 *
+	 * @return the number of handshakes which have completed successfully
+	 */
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+
+	/**
+	 * Gets the number of handshakes which have failed.
+	 *
+	 * @return the number of handshakes which have failed
+	 */
+	public long getFailedCount() {
+		return failedCount.get();
+	}
+
+	/**
+	 * Gets the histogram of the durations in milliseconds of the handshakes.
+	 *
+	 * @return the histogram of the durations in milliseconds of the handshakes
+	 */
+	public LatencyHistogram getHandshakeDurationHistogram() {
+		return handshakeDurationHistogram;
+	}
+
+	/**
+	 * Gets the maximum number of milliseconds a handshake may take.
+	 *
+	 * @return the maximum number of milliseconds a handshake may take or
+	 *         <tt>0</tt> if there is no limit
+	 */
+	public long getHandshakeTimeout() {
+		return handshakeTimeout;
+	}
+
+	/**
+	 * Gets the number of handshakes which are waiting to be started.
+	 *
+	 * @return the number of handshakes which are waiting to be started
+	 */
+	public int getQueuedCount() {
+		return queuedCount.get();
+	}
+
+	/**
+	 * Gets the histogram of the times in milliseconds the handshakes have
+	 * waited to be started.
+	 *
+	 * @return the histogram of the times in milliseconds the handshakes have
+	 *         waited to be started
+	 */
+	public LatencyHistogram getQueueTimeHistogram() {
+		return queueTimeHistogram;
+	}
+
+	/**
+	 * Gets the number of handshake records received from the remote peers
+	 * which were retransmissions.
+	 *
+	 * @return the number of received handshake retransmissions
+	 */
+	public long getReceivedRetransmissionCount() {
+		return receivedRetransmissionCount.get();
+	}
+
+	/**
+	 * Gets the number of handshakes which were rejected because too many were
+	 * queued.
+	 *
+	 * @return the number of rejected handshakes
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Gets the number of handshake records sent to the remote peers which were
+	 * retransmissions.
+	 *
+	 * @return the number of sent handshake retransmissions
+	 */
+	public long getSentRetransmissionCount() {
+		return sentRetransmissionCount.get();
+	}
+
+	/**
+	 * Records the numbers of retransmitted handshake records of a handshake.
+	 *
+	 * @param sent
+	 *            the number of handshake records sent to the remote peer which
+	 *            were retransmissions
+	 * @param received
+	 *            the number of handshake records received from the remote peer
+	 *            which were retransmissions
+	 */
+	void recordRetransmissions(long sent, long received) {
+		if (sent != 0L)
+			sentRetransmissionCount.addAndGet(sent);
+		if (received != 0L)
+			receivedRetransmissionCount.addAndGet(received);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "completed=" + getCompletedCount() + " failed=" + getFailedCount() + " rejected=" + getRejectedCount() + " queued=" + getQueuedCount() + " sentRetransmissions=" + getSentRetransmissionCount() + " receivedRetransmissions=" + getReceivedRetransmissionCount() + " duration(ms): " + handshakeDurationHistogram + " queueTime(ms): " + queueTimeHistogram;
+	}
+
+	/**
+	 * Represents a DTLS handshake to be executed by a
+	 * <tt>DtlsHandshakeExecutor</tt>.
+	 */
+	public static abstract class Task implements Comparable<Task>, Runnable {
+		/**
+		 * The state of a <tt>Task</tt> which has been cancelled before it was
+		 * started.
+		 */
+		private static final int CANCELLED = 3;
+
+		/**
+		 * The state of a <tt>Task</tt> which has not been submitted yet.
+		 */
+		private static final int NEW = 0;
+
+		/**
+		 * The state of a <tt>Task</tt> which is waiting to be started.
+		 */
+		private static final int QUEUED = 1;
+
+		/**
+		 * The state of a <tt>Task</tt> which has been started.
+		 */
+		private static final int STARTED = 2;
+
+		/**
+		 * The <tt>DtlsHandshakeExecutor</tt> which executes this
+		 * <tt>Task</tt>.
+		 */
+		private final DtlsHandshakeExecutor executor;
+
+		/**
+		 * The priority of this <tt>Task</tt>. The lower the value, the earlier
+		 * this <tt>Task</tt> is started.
+		 */
+		private final int priority;
+
+		/**
+		 * The order of the submission of this <tt>Task</tt>.
+		 */
+		private long sequence;
+
+		/**
+		 * The state of this <tt>Task</tt>.
+		 */
+		private final AtomicInteger state = new AtomicInteger(NEW);
+
+		/**
+		 * The time in milliseconds at which this <tt>Task</tt> was submitted.
+		 */
+		private long submitTime;
+
+		/**
+		 * Initializes a new <tt>Task</tt> instance.
+		 *
+		 * @param executor
+		 *            the <tt>DtlsHandshakeExecutor</tt> which is to execute the
+		 *            new instance
+		 * @param priority
+		 *            the priority of the new instance. The lower the value, the
+		 *            earlier the new instance is started.
+		 */
+		protected Task(DtlsHandshakeExecutor executor, int priority) {
+			this.executor = executor;
+			this.priority = priority;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int compareTo(Task other) {
+			if (priority != other.priority)
+				return (priority < other.priority) ? -1 : 1;
+			else if (sequence != other.sequence)
+				return (sequence < other.sequence) ? -1 : 1;
+			else
+				return 0;
+		}
+
+		/**
+		 * Determines whether this <tt>Task</tt> has been submitted to its
+		 * <tt>DtlsHandshakeExecutor</tt>.
+		 *
+		 * @return <tt>true</tt> if this <tt>Task</tt> has been submitted;
+		 *         otherwise, <tt>false</tt>
+		 */
+		public boolean isSubmitted() {
+			return state.get() != NEW;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 *
+		 * Performs the handshake and records its duration and outcome.
+		 */
+		@Override
+		public final void run() {
+			if (!state.compareAndSet(QUEUED, STARTED))
+				return;
+
+			DtlsHandshakeExecutor executor = this.executor;
+			long startTime = System.currentTimeMillis();
+			boolean success = false;
+
+			executor.queuedCount.decrementAndGet();
+			executor.queueTimeHistogram.record(startTime - submitTime);
+			try {
+				success = runHandshake();
+			} catch (Throwable t) {
+				if (t instanceof ThreadDeath) {
+					throw (ThreadDeath) t;
+				} else if (t instanceof InterruptedException) {
+					Thread.currentThread().interrupt();
+				} else {
+					logger.info("A DTLS handshake was aborted: " + t);
+				}
+			} finally {
+				executor.handshakeDurationHistogram.record(System.currentTimeMillis() - startTime);
+				if (success)
+					executor.completedCount.incrementAndGet();
+				else
+					executor.failedCount.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Performs the DTLS handshake represented by this <tt>Task</tt>.
+		 *
+		 * @return <tt>true</tt> if the handshake completed successfully;
+		 *         otherwise, <tt>false</tt>
+		 */
+		protected abstract boolean runHandshake();
+	}
+}
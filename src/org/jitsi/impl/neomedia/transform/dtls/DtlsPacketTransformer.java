@@ -52,8 +52,8 @@ import org.jitsi.util.Logger;
 public class DtlsPacketTransformer extends SinglePacketTransformer {
 	/**
 	 * The maximum number of times that
-	 * {@link #runInConnectThread(DTLSProtocol, TlsPeer, DatagramTransport)} is
-	 * to retry the invocations of
+	 * {@link #runInConnectThread(ConnectTask, DTLSProtocol, TlsPeer, DatagramTransportImpl)}
+	 * is to retry the invocations of
 	 * {@link DTLSClientProtocol#connect(TlsClient, DatagramTransport)} and
 	 * {@link DTLSServerProtocol#accept(TlsServer, DatagramTransport)} in
 	 * anticipation of a successful connection.
@@ -134,15 +134,38 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		return b;
 	}
 
+	/**
+	 * Determines whether a specific array of <tt>byte</tt>s appears to contain
+	 * an RTP or an RTCP packet rather than a DTLS record. RFC 5764 &quot;DTLS
+	 * Extension to Establish Keys for SRTP&quot; demultiplexes the two by the
+	 * value of the first byte: 20 to 63 for DTLS and 128 to 191 for RTP and
+	 * RTCP.
+	 * 
+	 * @param buf
+	 *            the array of <tt>byte</tt>s to be analyzed
+	 * @param off
+	 *            the offset within <tt>buf</tt> at which the analysis is to
+	 *            start
+	 * @param len
+	 *            the number of bytes within <tt>buf</tt> starting at
+	 *            <tt>off</tt> to be analyzed
+	 * @return <tt>true</tt> if the specified <tt>buf</tt> appears to contain an
+	 *         RTP or an RTCP packet
+	 */
+	private static boolean isRtpOrRtcp(byte[] buf, int off, int len) {
+		return (len > 0) && ((buf[off] & 0xC0) == 0x80);
+	}
+
 	/**
 	 * The ID of the component which this instance works for/is associated with.
 	 */
 	private final int componentID;
 
 	/**
-	 * The background <tt>Thread</tt> which initializes {@link #dtlsTransport}.
+	 * The <tt>ConnectTask</tt> which initializes {@link #dtlsTransport} on the
+	 * shared <tt>DtlsHandshakeExecutor</tt>.
 	 */
-	private Thread connectThread;
+	private ConnectTask connectTask;
 
 	/**
 	 * The <tt>RTPConnector</tt> which uses this <tt>PacketTransformer</tt>.
@@ -160,7 +183,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	 * The <tt>DTLSTransport</tt> through which the actual packet
 	 * transformations are being performed by this instance.
 	 */
-	private DTLSTransport dtlsTransport;
+	private volatile DTLSTransport dtlsTransport;
 
 	/**
 	 * The <tt>MediaType</tt> of the stream which this instance works for/is
@@ -169,9 +192,11 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	private RTPMediaType mediaType;
 
 	/**
-	 * The <tt>SRTPTransformer</tt> to be used by this instance.
+	 * The <tt>SRTPTransformer</tt> to be used by this instance. Published once
+	 * the DTLS handshake has completed and read without a lock on the path of
+	 * every RTP and RTCP packet.
 	 */
-	private SinglePacketTransformer srtpTransformer;
+	private volatile SinglePacketTransformer srtpTransformer;
 
 	/**
 	 * The value of the <tt>setup</tt> SDP attribute defined by RFC 4145
@@ -252,16 +277,19 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 
 	/**
 	 * Determines whether
-	 * {@link #runInConnectThread(DTLSProtocol, TlsPeer, DatagramTransport)} is
-	 * to try to establish a DTLS connection.
+	 * {@link #runInConnectThread(ConnectTask, DTLSProtocol, TlsPeer, DatagramTransportImpl)}
+	 * is to try to establish a DTLS connection.
 	 * 
+	 * @param connectTask
+	 *            the <tt>ConnectTask</tt> which is trying to establish the DTLS
+	 *            connection
 	 * @param i
 	 *            the number of tries remaining after the current one
 	 * @param datagramTransport
 	 * @return <tt>true</tt> to try to establish a DTLS connection; otherwise,
 	 *         <tt>false</tt>
 	 */
-	private boolean enterRunInConnectThreadLoop(int i, DatagramTransport datagramTransport) {
+	private boolean enterRunInConnectThreadLoop(ConnectTask connectTask, int i, DatagramTransport datagramTransport) {
 		if ((i < 0) || (i > CONNECT_TRIES)) {
 			return false;
 		} else {
@@ -280,7 +308,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 						currentThread.interrupt();
 				}
 
-				return currentThread.equals(this.connectThread) && datagramTransport.equals(this.datagramTransport);
+				return (connectTask == this.connectTask) && datagramTransport.equals(this.datagramTransport);
 			}
 		}
 	}
@@ -308,9 +336,12 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	/**
 	 * Handles a specific <tt>IOException</tt> which was thrown during the
 	 * execution of
-	 * {@link #runInConnectThread(DTLSProtocol, TlsPeer, DatagramTransport)}
+	 * {@link #runInConnectThread(ConnectTask, DTLSProtocol, TlsPeer, DatagramTransportImpl)}
 	 * while trying to establish a DTLS connection
 	 * 
+	 * @param connectTask
+	 *            the <tt>ConnectTask</tt> which is trying to establish the DTLS
+	 *            connection
 	 * @param ioe
 	 *            the <tt>IOException</tt> to handle
 	 * @param msg
@@ -321,7 +352,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	 * @return <tt>true</tt> if the specified <tt>ioe</tt> was successfully
 	 *         handled; <tt>false</tt>, otherwise
 	 */
-	private boolean handleRunInConnectThreadException(IOException ioe, String msg, int i) {
+	private boolean handleRunInConnectThreadException(ConnectTask connectTask, IOException ioe, String msg, int i) {
 		/*
 		 * SrtpControl.start(MediaType) starts its associated TransformEngine.
 		 * We will use that mediaType to signal the normal stop then as well
@@ -337,7 +368,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 
 			if (alertDescription == AlertDescription.unexpected_message) {
 				msg += " Received fatal unexpected message.";
-				if ((i == 0) || !Thread.currentThread().equals(connectThread) || (connector == null) || (mediaType == null)) {
+				if ((i == 0) || (connectTask != this.connectTask) || (connector == null) || (mediaType == null)) {
 					msg += " Giving up after " + (CONNECT_TRIES - i) + " retries.";
 				} else {
 					msg += " Will retry.";
@@ -501,6 +532,15 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		byte[] buf = pkt.getBuffer();
 		int off = pkt.getOffset();
 		int len = pkt.getLength();
+		SinglePacketTransformer srtpTransformer = this.srtpTransformer;
+
+		/*
+		 * Once DTLS-SRTP has been established, RTP and RTCP go straight to the
+		 * SRTPTransformer. Only DTLS records (e.g. alerts, renegotiations)
+		 * take the slow path below.
+		 */
+		if ((srtpTransformer != null) && isRtpOrRtcp(buf, off, len))
+			return srtpTransformer.reverseTransform(pkt);
 
 		if (isDtlsRecord(buf, off, len)) {
 			if (rtcpmux && Component.RTCP == componentID) {
@@ -517,6 +557,15 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 				} else {
 					datagramTransport.queueReceive(buf, off, len);
 					receive = true;
+
+					/*
+					 * A DTLS server starts its handshake upon receiving the
+					 * first flight of its client.
+					 */
+					ConnectTask connectTask = this.connectTask;
+
+					if ((connectTask != null) && !connectTask.isSubmitted())
+						submitConnectTask(connectTask);
 				}
 			}
 			if (receive) {
@@ -590,8 +639,6 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 			 * pass through and rely on the SrtpListener to notify the user that
 			 * the session is not secured.
 			 */
-			SinglePacketTransformer srtpTransformer = this.srtpTransformer;
-
 			if (srtpTransformer == null && rtcpmux && Component.RTCP == componentID) {
 				srtpTransformer = initializeSRTCPTransformerFromRtp();
 			}
@@ -603,13 +650,16 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	}
 
 	/**
-	 * Runs in {@link #connectThread} to initialize {@link #dtlsTransport}.
+	 * Runs in {@link #connectTask} to initialize {@link #dtlsTransport}.
 	 * 
+	 * @param connectTask
 	 * @param dtlsProtocol
 	 * @param tlsPeer
 	 * @param datagramTransport
+	 * @return <tt>true</tt> if the DTLS connection was established; otherwise,
+	 *         <tt>false</tt>
 	 */
-	private void runInConnectThread(DTLSProtocol dtlsProtocol, TlsPeer tlsPeer, DatagramTransport datagramTransport) {
+	private boolean runInConnectThread(ConnectTask connectTask, DTLSProtocol dtlsProtocol, TlsPeer tlsPeer, DatagramTransportImpl datagramTransport) {
 		DTLSTransport dtlsTransport = null;
 		int srtpProtectionProfile = 0;
 		TlsContext tlsContext = null;
@@ -619,13 +669,13 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 			TlsClientImpl tlsClient = (TlsClientImpl) tlsPeer;
 
 			for (int i = CONNECT_TRIES - 1; i >= 0; i--) {
-				if (!enterRunInConnectThreadLoop(i, datagramTransport))
+				if (!enterRunInConnectThreadLoop(connectTask, i, datagramTransport))
 					break;
 				try {
 					dtlsTransport = dtlsClientProtocol.connect(tlsClient, datagramTransport);
 					break;
 				} catch (IOException ioe) {
-					if (handleRunInConnectThreadException(ioe, "Failed to connect this DTLS client to a DTLS" + " server!", i)) {
+					if (handleRunInConnectThreadException(connectTask, ioe, "Failed to connect this DTLS client to a DTLS" + " server!", i)) {
 						continue;
 					} else {
 						break;
@@ -641,13 +691,13 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 			TlsServerImpl tlsServer = (TlsServerImpl) tlsPeer;
 
 			for (int i = CONNECT_TRIES - 1; i >= 0; i--) {
-				if (!enterRunInConnectThreadLoop(i, datagramTransport))
+				if (!enterRunInConnectThreadLoop(connectTask, i, datagramTransport))
 					break;
 				try {
 					dtlsTransport = dtlsServerProtocol.accept(tlsServer, datagramTransport);
 					break;
 				} catch (IOException ioe) {
-					if (handleRunInConnectThreadException(ioe, "Failed to accept a connection from a DTLS client!", i)) {
+					if (handleRunInConnectThreadException(connectTask, ioe, "Failed to accept a connection from a DTLS client!", i)) {
 						continue;
 					} else {
 						break;
@@ -664,8 +714,11 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		SinglePacketTransformer srtpTransformer = (dtlsTransport == null || transformEngine.isSrtpDisabled()) ? null : initializeSRTPTransformer(srtpProtectionProfile, tlsContext);
 		boolean closeSRTPTransformer;
 
+		// The DTLSTransport continues to receive through datagramTransport.
+		datagramTransport.setHandshakeDeadline(0L);
+
 		synchronized (this) {
-			if (Thread.currentThread().equals(this.connectThread) && datagramTransport.equals(this.datagramTransport)) {
+			if ((connectTask == this.connectTask) && datagramTransport.equals(this.datagramTransport)) {
 				this.dtlsTransport = dtlsTransport;
 				this.srtpTransformer = srtpTransformer;
 				notifyAll();
@@ -674,6 +727,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		}
 		if (closeSRTPTransformer && (srtpTransformer != null))
 			srtpTransformer.close();
+		return (dtlsTransport != null);
 	}
 
 	/**
@@ -736,7 +790,7 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	 */
 	private synchronized void start() {
 		if (this.datagramTransport != null) {
-			if ((this.connectThread == null) && (dtlsTransport == null)) {
+			if ((this.connectTask == null) && (dtlsTransport == null)) {
 				logger.warn(getClass().getName() + " has been started but has failed to establish" + " the DTLS connection!");
 			}
 			return;
@@ -774,38 +828,18 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 
 		datagramTransport.setConnector(connector);
 
-		Thread connectThread = new Thread() {
-			@Override
-			public void run() {
-				try {
-					runInConnectThread(dtlsProtocolObj, tlsPeer, datagramTransport);
-				} finally {
-					if (Thread.currentThread().equals(DtlsPacketTransformer.this.connectThread)) {
-						DtlsPacketTransformer.this.connectThread = null;
-					}
-				}
-			}
-		};
+		ConnectTask connectTask = new ConnectTask(dtlsProtocolObj, tlsPeer, datagramTransport);
 
-		connectThread.setDaemon(true);
-		connectThread.setName(DtlsPacketTransformer.class.getName() + ".connectThread");
-
-		this.connectThread = connectThread;
+		this.connectTask = connectTask;
 		this.datagramTransport = datagramTransport;
 
-		boolean started = false;
-
-		try {
-			connectThread.start();
-			started = true;
-		} finally {
-			if (!started) {
-				if (connectThread.equals(this.connectThread))
-					this.connectThread = null;
-				if (datagramTransport.equals(this.datagramTransport))
-					this.datagramTransport = null;
-			}
-		}
+		/*
+		 * A DTLS client starts its handshake right away. A DTLS server waits
+		 * for the first flight of its client in order to not occupy a thread of
+		 * the shared DtlsHandshakeExecutor in vain.
+		 */
+		if (dtlsProtocolObj instanceof DTLSClientProtocol)
+			submitConnectTask(connectTask);
 
 		notifyAll();
 	}
@@ -814,8 +848,10 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 	 * Stops this <tt>PacketTransformer</tt>.
 	 */
 	private synchronized void stop() {
-		if (connectThread != null)
-			connectThread = null;
+		if (connectTask != null) {
+			DtlsHandshakeExecutor.getInstance().cancel(connectTask);
+			connectTask = null;
+		}
 		try {
 			/*
 			 * The dtlsTransport and srtpTransformer SHOULD be closed, of
@@ -842,6 +878,22 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		}
 	}
 
+	/**
+	 * Submits a specific <tt>ConnectTask</tt> of this instance to the shared
+	 * <tt>DtlsHandshakeExecutor</tt>. If the latter rejects it, this instance
+	 * fails to establish the DTLS connection.
+	 * 
+	 * @param connectTask
+	 *            the <tt>ConnectTask</tt> to submit
+	 */
+	private synchronized void submitConnectTask(ConnectTask connectTask) {
+		if (!DtlsHandshakeExecutor.getInstance().execute(connectTask)) {
+			if (connectTask == this.connectTask)
+				this.connectTask = null;
+			logger.error("Failed to start the DTLS handshake of " + mediaType + " component " + componentID + " because too many handshakes are pending!");
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -849,6 +901,11 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 		byte[] buf = pkt.getBuffer();
 		int off = pkt.getOffset();
 		int len = pkt.getLength();
+		SinglePacketTransformer srtpTransformer = this.srtpTransformer;
+
+		// Once DTLS-SRTP has been established, see reverseTransform.
+		if ((srtpTransformer != null) && isRtpOrRtcp(buf, off, len))
+			return srtpTransformer.transform(pkt);
 
 		/*
 		 * If the specified pkt represents a DTLS record, then it should pass
@@ -866,8 +923,6 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 			 * pass through and rely on the SrtpListener to notify the user that
 			 * the session is not secured.
 			 */
-			SinglePacketTransformer srtpTransformer = this.srtpTransformer;
-
 			if (srtpTransformer == null && rtcpmux && Component.RTCP == componentID) {
 				srtpTransformer = initializeSRTCPTransformerFromRtp();
 			}
@@ -980,4 +1035,47 @@ public class DtlsPacketTransformer extends SinglePacketTransformer {
 
 		return srtpTransformer;
 	}
+
+	/**
+	 * Initializes {@link #dtlsTransport} on the shared
+	 * <tt>DtlsHandshakeExecutor</tt>. Audio is preferred to video and RTP to
+	 * RTCP.
+	 */
+	private class ConnectTask extends DtlsHandshakeExecutor.Task {
+		private final DatagramTransportImpl datagramTransport;
+
+		private final DTLSProtocol dtlsProtocol;
+
+		private final TlsPeer tlsPeer;
+
+		public ConnectTask(DTLSProtocol dtlsProtocol, TlsPeer tlsPeer, DatagramTransportImpl datagramTransport) {
+			super(DtlsHandshakeExecutor.getInstance(), (RTPMediaType.AUDIO.equals(mediaType) ? 0 : 2) + ((componentID == Component.RTP) ? 0 : 1));
+
+			this.dtlsProtocol = dtlsProtocol;
+			this.tlsPeer = tlsPeer;
+			this.datagramTransport = datagramTransport;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		protected boolean runHandshake() {
+			DtlsHandshakeExecutor executor = DtlsHandshakeExecutor.getInstance();
+			long timeout = executor.getHandshakeTimeout();
+
+			if (timeout > 0)
+				datagramTransport.setHandshakeDeadline(System.currentTimeMillis() + timeout);
+			try {
+				return runInConnectThread(this, dtlsProtocol, tlsPeer, datagramTransport);
+			} finally {
+				datagramTransport.setHandshakeDeadline(0L);
+				executor.recordRetransmissions(datagramTransport.getSentRetransmissionCount(), datagramTransport.getReceivedRetransmissionCount());
+				synchronized (DtlsPacketTransformer.this) {
+					if (this == connectTask)
+						connectTask = null;
+				}
+			}
+		}
+	}
 }
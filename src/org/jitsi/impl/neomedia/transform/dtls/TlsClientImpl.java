@@ -18,7 +18,6 @@ import org.bouncycastle.crypto.tls.DefaultTlsClient;
 import org.bouncycastle.crypto.tls.DefaultTlsSignerCredentials;
 import org.bouncycastle.crypto.tls.HashAlgorithm;
 import org.bouncycastle.crypto.tls.ProtocolVersion;
-import org.bouncycastle.crypto.tls.SignatureAlgorithm;
 import org.bouncycastle.crypto.tls.SignatureAndHashAlgorithm;
 import org.bouncycastle.crypto.tls.TlsAuthentication;
 import org.bouncycastle.crypto.tls.TlsClient;
@@ -104,6 +103,7 @@ public class TlsClientImpl extends DefaultTlsClient {
 	@Override
 	public int[] getCipherSuites() {
 		return new int[] {
+		CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA,
 		/* core/src/main/java/org/bouncycastle/crypto/tls/DefaultTlsClient.java */
 		CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA, CipherSuite.TLS_RSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA };
 	}
@@ -270,7 +270,7 @@ public class TlsClientImpl extends DefaultTlsClient {
 				 * FIXME The signature and hash algorithms should be retrieved
 				 * from the certificate.
 				 */
-				clientCredentials = new DefaultTlsSignerCredentials(context, dtlsControl.getCertificate(), dtlsControl.getKeyPair().getPrivate(), new SignatureAndHashAlgorithm(HashAlgorithm.sha1, SignatureAlgorithm.rsa));
+				clientCredentials = new DefaultTlsSignerCredentials(context, dtlsControl.getCertificate(), dtlsControl.getKeyPair().getPrivate(), new SignatureAndHashAlgorithm(HashAlgorithm.sha1, dtlsControl.getSignatureAlgorithm()));
 			}
 			return clientCredentials;
 		}
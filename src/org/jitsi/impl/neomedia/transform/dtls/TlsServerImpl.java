@@ -24,6 +24,7 @@ import org.bouncycastle.crypto.tls.ProtocolVersion;
 import org.bouncycastle.crypto.tls.SignatureAlgorithm;
 import org.bouncycastle.crypto.tls.SignatureAndHashAlgorithm;
 import org.bouncycastle.crypto.tls.TlsContext;
+import org.bouncycastle.crypto.tls.TlsCredentials;
 import org.bouncycastle.crypto.tls.TlsECCUtils;
 import org.bouncycastle.crypto.tls.TlsEncryptionCredentials;
 import org.bouncycastle.crypto.tls.TlsExtensionsUtils;
@@ -48,11 +49,34 @@ public class TlsServerImpl extends DefaultTlsServer {
 	 */
 	private static final Logger logger = Logger.getLogger(TlsServerImpl.class);
 
+	/**
+	 * The cipher suites which are offered when the certificate of the
+	 * associated <tt>DtlsControlImpl</tt> has ECDSA keys.
+	 */
+	private static final int[] ECDSA_CIPHER_SUITES = { CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_GCM_SHA384, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA384, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_256_CBC_SHA, CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CBC_SHA };
+
+	/**
+	 * Determines whether a specific cipher suite is one of
+	 * {@link #ECDSA_CIPHER_SUITES}.
+	 * 
+	 * @param cipherSuite
+	 *            the cipher suite to check
+	 * @return <tt>true</tt> if <tt>cipherSuite</tt> is one of
+	 *         {@link #ECDSA_CIPHER_SUITES}; otherwise, <tt>false</tt>
+	 */
+	private static boolean isECDSACipherSuite(int cipherSuite) {
+		for (int ecdsaCipherSuite : ECDSA_CIPHER_SUITES) {
+			if (ecdsaCipherSuite == cipherSuite)
+				return true;
+		}
+		return false;
+	}
+
 	/**
 	 * 
 	 * @see TlsServer#getCertificateRequest()
 	 */
-	private final CertificateRequest certificateRequest = new CertificateRequest(new short[] { ClientCertificateType.rsa_sign },
+	private final CertificateRequest certificateRequest = new CertificateRequest(new short[] { ClientCertificateType.rsa_sign, ClientCertificateType.ecdsa_sign },
 	/* supportedSignatureAlgorithms */null,
 	/* certificateAuthorities */null);
 
@@ -62,6 +86,12 @@ public class TlsServerImpl extends DefaultTlsServer {
 	 */
 	private int chosenProtectionProfile;
 
+	/**
+	 * The <tt>TlsSignerCredentials</tt> which are required by the cipher
+	 * suites in {@link #ECDSA_CIPHER_SUITES}.
+	 */
+	private TlsSignerCredentials ecdsaSignerCredentials;
+
 	/**
 	 * The <tt>PacketTransformer</tt> which has initialized this instance.
 	 */
@@ -119,6 +149,9 @@ public class TlsServerImpl extends DefaultTlsServer {
 	 */
 	@Override
 	protected int[] getCipherSuites() {
+		if (getDtlsControl().getSignatureAlgorithm() == SignatureAlgorithm.ecdsa)
+			return ECDSA_CIPHER_SUITES.clone();
+
 		return new int[] {
 		/* core/src/main/java/org/bouncycastle/crypto/tls/DefaultTlsServer.java */
 		CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_GCM_SHA384, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA384, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_AES_256_CBC_SHA, CipherSuite.TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA, CipherSuite.TLS_RSA_WITH_AES_256_GCM_SHA384, CipherSuite.TLS_RSA_WITH_AES_128_GCM_SHA256, CipherSuite.TLS_RSA_WITH_AES_256_CBC_SHA256, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA256, CipherSuite.TLS_RSA_WITH_AES_256_CBC_SHA, CipherSuite.TLS_RSA_WITH_AES_128_CBC_SHA,
@@ -128,6 +161,25 @@ public class TlsServerImpl extends DefaultTlsServer {
 		CipherSuite.TLS_ECDHE_RSA_WITH_CHACHA20_POLY1305_SHA256, CipherSuite.TLS_ECDHE_RSA_WITH_ESTREAM_SALSA20_SHA1, CipherSuite.TLS_ECDHE_RSA_WITH_SALSA20_SHA1, CipherSuite.TLS_RSA_WITH_ESTREAM_SALSA20_SHA1, CipherSuite.TLS_RSA_WITH_SALSA20_SHA1 };
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * <tt>DefaultTlsServer</tt> does not implement the credentials of the
+	 * cipher suites in {@link #ECDSA_CIPHER_SUITES}.
+	 */
+	@Override
+	public TlsCredentials getCredentials() throws IOException {
+		if (isECDSACipherSuite(selectedCipherSuite)) {
+			if (ecdsaSignerCredentials == null) {
+				DtlsControlImpl dtlsControl = getDtlsControl();
+
+				ecdsaSignerCredentials = new DefaultTlsSignerCredentials(context, dtlsControl.getCertificate(), dtlsControl.getKeyPair().getPrivate(), new SignatureAndHashAlgorithm(HashAlgorithm.sha1, SignatureAlgorithm.ecdsa));
+			}
+			return ecdsaSignerCredentials;
+		}
+		return super.getCredentials();
+	}
+
 	/**
 	 * Gets the <tt>TlsContext</tt> with which this <tt>TlsServer</tt> has been
 	 * initialized.
@@ -0,0 +1,148 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.neomedia.transform.fec;
+
+import net.sf.fmj.media.rtp.RTCPFeedback;
+import net.sf.fmj.media.rtp.RTCPReport;
+
+import org.jitsi.service.neomedia.rtp.RTCPExtendedReport;
+import org.jitsi.service.neomedia.rtp.RTCPReportAdapter;
+import org.jitsi.util.Logger;
+
+/**
+ * Adapts the protection of the packets sent by a <tt>FECTransformEngine</tt> to
+ * the loss reported by the remote peer in RTCP receiver reports and to the
+ * bursts of losses reported in RTCP XR VoIP metrics.
+ * <p>
+ * The rows are made short enough for a row to lose no more than half a packet
+ * on average (a row ulpfec packet recovers a single loss). If the losses come
+ * in bursts, column ulpfec packets are added over as many rows as fit in the
+ * long ulpfec mask so that a burst of up to a row of losses is recovered too.
+ */
+class FECProtectionController extends RTCPReportAdapter {
+	/**
+	 * The <tt>Logger</tt> used by the <tt>FECProtectionController</tt> class
+	 * and its instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(FECProtectionController.class);
+
+	/**
+	 * The longest row, used when there is (almost) no loss.
+	 */
+	private static final int MAX_FEC_RATE = FECSender.MAX_FEC_RATE;
+
+	/**
+	 * The shortest row.
+	 */
+	private static final int MIN_FEC_RATE = 2;
+
+	/**
+	 * Whether the remote peer last reported the losses to come in bursts.
+	 */
+	private boolean bursty = false;
+
+	/**
+	 * The <tt>FECTransformEngine</tt> of which the protection is adapted.
+	 */
+	private final FECTransformEngine engine;
+
+	/**
+	 * The fraction of the sent packets which the remote peer reports lost,
+	 * following increases immediately and decreases slowly.
+	 */
+	private double loss = 0;
+
+	/**
+	 * Initializes a new <tt>FECProtectionController</tt> instance.
+	 *
+	 * @param engine
+	 *            the <tt>FECTransformEngine</tt> of which the protection is to
+	 *            be adapted
+	 */
+	FECProtectionController(FECTransformEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Sets the protection of {@link #engine} according to {@link #loss} and
+	 * {@link #bursty}.
+	 */
+	private void adapt() {
+		int fecRate = (loss > 0) ? (int) Math.round(0.5 / loss) : MAX_FEC_RATE;
+
+		fecRate = Math.max(MIN_FEC_RATE, Math.min(fecRate, MAX_FEC_RATE));
+
+		int fecDepth = bursty ? Math.min(fecRate, FECSender.getMaxFecDepth(fecRate)) : 0;
+
+		if ((fecRate != engine.getFecRate()) || (fecDepth != engine.getFecDepth())) {
+			if (logger.isDebugEnabled())
+				logger.debug("Setting ulpfec protection to rows of " + fecRate + " packets, " + fecDepth + " rows per column (loss " + loss + ", bursty " + bursty + ")");
+			engine.setProtection(fecRate, fecDepth);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Determines whether the remote peer reports the losses of the packets
+	 * protected by {@link #engine} to come in bursts.
+	 */
+	@Override
+	public synchronized void rtcpExtendedReportReceived(RTCPExtendedReport extendedReport) {
+		if (!engine.isAdaptive())
+			return;
+
+		boolean found = false;
+
+		for (RTCPExtendedReport.ReportBlock reportBlock : extendedReport.getReportBlocks()) {
+			if (!(reportBlock instanceof RTCPExtendedReport.VoIPMetricsReportBlock))
+				continue;
+
+			RTCPExtendedReport.VoIPMetricsReportBlock voipMetrics = (RTCPExtendedReport.VoIPMetricsReportBlock) reportBlock;
+
+			if (!engine.isProtecting(voipMetrics.getSourceSSRC() & 0xffffffffL))
+				continue;
+
+			// Both are fractions in units of 1/256. The losses are bursty if
+			// they are (much) denser within the bursts than overall.
+			int burstDensity = voipMetrics.getBurstDensity() & 0xff;
+			int lossRate = voipMetrics.getLossRate() & 0xff;
+
+			found = true;
+			bursty = (voipMetrics.getBurstDuration() > 0) && (burstDensity > 0) && (burstDensity >= 2 * lossRate);
+			break;
+		}
+		if (found)
+			adapt();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Updates the loss of the packets protected by {@link #engine} with the
+	 * fraction lost reported by the remote peer.
+	 */
+	@Override
+	public synchronized void rtcpReportReceived(RTCPReport report) {
+		if (!engine.isAdaptive())
+			return;
+
+		double fractionLost = -1;
+
+		for (Object o : report.getFeedbackReports()) {
+			RTCPFeedback feedback = (RTCPFeedback) o;
+
+			if (engine.isProtecting(feedback.getSSRC() & 0xffffffffL))
+				fractionLost = Math.max(fractionLost, feedback.getFractionLost() / 256.0);
+		}
+		if (fractionLost < 0)
+			return;
+
+		loss = (fractionLost >= loss) ? fractionLost : (0.75 * loss + 0.25 * fractionLost);
+		adapt();
+	}
+}
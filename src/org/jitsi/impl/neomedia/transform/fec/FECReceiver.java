@@ -6,12 +6,7 @@
  */
 package org.jitsi.impl.neomedia.transform.fec;
 
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import org.jitsi.impl.neomedia.RawPacket;
 import org.jitsi.impl.neomedia.transform.PacketTransformer;
@@ -30,35 +25,6 @@ class FECReceiver implements PacketTransformer {
 	 */
 	private static final Logger logger = Logger.getLogger(FECReceiver.class);
 
-	/**
-	 * A <tt>Comparator</tt> implementation for RTP sequence numbers. Compares
-	 * <tt>a</tt> and <tt>b</tt>, taking into account the wrap at 2^16.
-	 * 
-	 * IMPORTANT: This is a valid <tt>Comparator</tt> implementation only if
-	 * used for subsets of [0, 2^16) which don't span more than 2^15 elements.
-	 * 
-	 * E.g. it works for: [0, 2^15-1] and ([50000, 2^16) u [0, 10000]) Doesn't
-	 * work for: [0, 2^15] and ([0, 2^15-1] u {2^16-1}) and [0, 2^16)
-	 */
-	private static final Comparator<? super Integer> seqNumComparator = new Comparator<Integer>() {
-		@Override
-		public int compare(Integer a, Integer b) {
-			if (a.equals(b))
-				return 0;
-			else if (a > b) {
-				if (a - b < 32768)
-					return 1;
-				else
-					return -1;
-			} else // a < b
-			{
-				if (b - a < 32768)
-					return -1;
-				else
-					return 1;
-			}
-		}
-	};
 	/**
 	 * Number of received ulpfec packets.
 	 */
@@ -75,14 +41,16 @@ class FECReceiver implements PacketTransformer {
 	private long ssrc;
 
 	/**
-	 * The number of media packets to keep.
+	 * The number of media packets to keep (a power of two). It covers the 48
+	 * sequence numbers of the long ulpfec mask.
 	 */
-	private static final int MEDIA_BUFF_SIZE = 16;
+	private static final int MEDIA_BUFF_SIZE = 64;
 
 	/**
-	 * The maximum number of ulpfec packets to keep.
+	 * The maximum number of ulpfec packets to keep (a power of two). It covers
+	 * the row and the column ulpfec packets of a block.
 	 */
-	private static final int FEC_BUFF_SIZE = 4;
+	private static final int FEC_BUFF_SIZE = 32;
 
 	/**
 	 * Output buffer maximum size.
@@ -92,26 +60,27 @@ class FECReceiver implements PacketTransformer {
 	/**
 	 * Buffer which keeps (copies of) received media packets.
 	 * 
-	 * We keep them ordered by their RTP sequence numbers, so that we can easily
-	 * select the oldest one to discard when the buffer is full (when the map
-	 * has more than <tt>MEDIA_BUFF_SIZE</tt> entries.
-	 * 
-	 * We keep them in a <tt>Map</tt> so that we can easily search for a packet
-	 * with a specific sequence number.
+	 * A packet is kept at the index of the low bits of its RTP sequence number
+	 * so that a packet with a specific sequence number is found (and the
+	 * packet <tt>MEDIA_BUFF_SIZE</tt> sequence numbers older is discarded and
+	 * its copy reused) without searching.
 	 */
-	private final SortedMap<Integer, RawPacket> mediaPackets = new TreeMap<Integer, RawPacket>(seqNumComparator);
+	private final RawPacket[] mediaPackets = new RawPacket[MEDIA_BUFF_SIZE];
 
 	/**
-	 * Buffer which keeps (copies of) received fec packets.
-	 * 
-	 * We keep them ordered by their RTP sequence numbers, so that we can easily
-	 * select the oldest one to discard when the buffer is full (when the map
-	 * has more than <tt>FEC_BUFF_SIZE</tt> entries.
+	 * The RTP sequence numbers of {@link #mediaPackets} or <tt>-1</tt> where
+	 * there is no packet.
+	 */
+	private final int[] mediaSeqs = new int[MEDIA_BUFF_SIZE];
+
+	/**
+	 * Buffer which keeps received fec packets.
 	 * 
-	 * We keep them in a <tt>Map</tt> so that we can easily search for a packet
-	 * with a specific sequence number.
+	 * A packet is kept at the index of the low bits of its RTP sequence number
+	 * so that the packet <tt>FEC_BUFF_SIZE</tt> sequence numbers older is
+	 * discarded.
 	 */
-	private final SortedMap<Integer, RawPacket> fecPackets = new TreeMap<Integer, RawPacket>(seqNumComparator);
+	private final RawPacket[] fecPackets = new RawPacket[FEC_BUFF_SIZE];
 
 	/**
 	 * Used to check whether a media packet can be recovered using available
@@ -119,13 +88,6 @@ class FECReceiver implements PacketTransformer {
 	 */
 	private final Reconstructor reconstructor;
 
-	/**
-	 * A <tt>Set</tt> of packets which will be reused every time a packet is
-	 * recovered. Defined here to avoid recreating it on every call to
-	 * <tt>reverseTransform</tt>.
-	 */
-	private final Set<RawPacket> packetsToRemove = new HashSet<RawPacket>();
-
 	/**
 	 * Allow disabling of handling of ulpfec packets for testing purposes.
 	 */
@@ -146,7 +108,8 @@ class FECReceiver implements PacketTransformer {
 	FECReceiver(long ssrc, byte ulpfecPT) {
 		this.ssrc = ssrc;
 		this.ulpfecPT = ulpfecPT;
-		reconstructor = new Reconstructor(mediaPackets, ssrc);
+		Arrays.fill(mediaSeqs, -1);
+		reconstructor = new Reconstructor(this, ssrc);
 		if (logger.isInfoEnabled())
 			logger.info("New FECReceiver for SSRC=" + ssrc);
 	}
@@ -174,9 +137,12 @@ class FECReceiver implements PacketTransformer {
 	 * M6 M7 Seq: 1 2 3 4 5 6 7 8 9
 	 * 
 	 * Into Packets: M1 M2 M3 M4 M5 M6 M7 Seq: 1 2 3 4 5 6 7
+	 * 
+	 * The calls are serialized by the <tt>TransformEngineChain</tt> of the
+	 * <tt>FECTransformEngine</tt>.
 	 */
 	@Override
-	public synchronized RawPacket[] reverseTransform(RawPacket[] pkts) {
+	public RawPacket[] reverseTransform(RawPacket[] pkts) {
 		// first read all input packets
 		for (int i = 0; i < pkts.length; i++) {
 			RawPacket pkt = pkts[i];
@@ -200,51 +166,61 @@ class FECReceiver implements PacketTransformer {
 		// we could recover
 		if (handleFec) {
 			// go over our saved fec packets and see if any of them can be
-			// used to recover a media packet. Add packets which aren't
-			// needed anymore to packetsToRemove
-			packetsToRemove.clear();
-			for (Map.Entry<Integer, RawPacket> entry : fecPackets.entrySet()) {
-				RawPacket fecPacket = entry.getValue();
-				reconstructor.setFecPacket(fecPacket);
-				if (reconstructor.numMissing == 0) {
-					// We already have all media packets for this fec packet,
-					// no need to keep it and keep checking.
-					packetsToRemove.add(fecPacket);
-					continue;
-				}
+			// used to recover a media packet. Drop the packets which aren't
+			// needed anymore. A recovered packet may complete what another fec
+			// packet needs (e.g. a row fec packet may recover a packet which
+			// leaves a single packet missing in a column) so go over them
+			// again as long as packets get recovered.
+			boolean recoveredAny;
+
+			do {
+				recoveredAny = false;
+				for (int f = 0; f < FEC_BUFF_SIZE; f++) {
+					RawPacket fecPacket = fecPackets[f];
+
+					if (fecPacket == null)
+						continue;
+
+					reconstructor.setFecPacket(fecPacket);
+					if (reconstructor.numMissing == 0) {
+						// We already have all media packets for this fec
+						// packet, no need to keep it and keep checking.
+						fecPackets[f] = null;
+						continue;
+					}
 
-				if (reconstructor.canRecover()) {
-					packetsToRemove.add(fecPacket);
-					RawPacket recovered = reconstructor.recover();
-
-					// save it
-					if (recovered != null) {
-						nbRecovered++;
-						saveMedia(recovered);
-
-						// search for an empty spot in pkts where to place
-						// recovered
-						boolean found = false;
-						for (int i = 0; i < pkts.length; i++) {
-							if (pkts[i] == null) {
-								pkts[i] = recovered;
-								found = true;
-								break;
+					if (reconstructor.canRecover()) {
+						fecPackets[f] = null;
+
+						RawPacket recovered = reconstructor.recover();
+
+						// save it
+						if (recovered != null) {
+							nbRecovered++;
+							saveMedia(recovered);
+							recoveredAny = true;
+
+							// search for an empty spot in pkts where to place
+							// recovered
+							boolean found = false;
+							for (int i = 0; i < pkts.length; i++) {
+								if (pkts[i] == null) {
+									pkts[i] = recovered;
+									found = true;
+									break;
+								}
 							}
-						}
 
-						if (!found) {
-							RawPacket[] pkts2 = new RawPacket[pkts.length + 1];
-							System.arraycopy(pkts, 0, pkts2, 0, pkts.length);
-							pkts2[pkts.length] = recovered;
-							pkts = pkts2;
+							if (!found) {
+								RawPacket[] pkts2 = new RawPacket[pkts.length + 1];
+								System.arraycopy(pkts, 0, pkts2, 0, pkts.length);
+								pkts2[pkts.length] = recovered;
+								pkts = pkts2;
+							}
 						}
 					}
 				}
-			}
-
-			for (RawPacket p : packetsToRemove)
-				fecPackets.remove(p.getSequenceNumber());
+			} while (recoveredAny);
 		}
 
 		return pkts;
@@ -271,36 +247,48 @@ class FECReceiver implements PacketTransformer {
 	}
 
 	/**
-	 * Saves <tt>p</tt> into <tt>fecPackets</tt>. If the size of
-	 * <tt>fecPackets</tt> has reached <tt>FEC_BUFF_SIZE</tt> discards the
-	 * oldest packet from it.
+	 * Gets the saved media packet with a specific RTP sequence number.
+	 * 
+	 * @param seq
+	 *            the RTP sequence number of the packet to get.
+	 * @return the saved media packet with RTP sequence number <tt>seq</tt> or
+	 *         <tt>null</tt> if there is no such packet.
+	 */
+	private RawPacket getMedia(int seq) {
+		int index = seq & (MEDIA_BUFF_SIZE - 1);
+
+		return (mediaSeqs[index] == seq) ? mediaPackets[index] : null;
+	}
+
+	/**
+	 * Saves <tt>p</tt> into <tt>fecPackets</tt>, discarding the packet
+	 * <tt>FEC_BUFF_SIZE</tt> sequence numbers older, if any.
 	 * 
 	 * @param p
 	 *            the packet to save.
 	 */
 	private void saveFec(RawPacket p) {
-		if (fecPackets.size() >= FEC_BUFF_SIZE)
-			fecPackets.remove(fecPackets.firstKey());
-
-		fecPackets.put(p.getSequenceNumber(), p);
+		fecPackets[p.getSequenceNumber() & (FEC_BUFF_SIZE - 1)] = p;
 	}
 
 	/**
-	 * Makes a copy of <tt>p</tt> into <tt>mediaPackets</tt>. If the size of
-	 * <tt>mediaPackets</tt> has reached <tt>MEDIA_BUFF_SIZE</tt> discards the
-	 * oldest packet from it and reuses it.
+	 * Makes a copy of <tt>p</tt> into <tt>mediaPackets</tt>, discarding (and
+	 * reusing) the packet <tt>MEDIA_BUFF_SIZE</tt> sequence numbers older, if
+	 * any.
 	 * 
 	 * @param p
 	 *            the packet to copy.
 	 */
 	private void saveMedia(RawPacket p) {
-		RawPacket newMedia;
-		if (mediaPackets.size() < MEDIA_BUFF_SIZE) {
+		int seq = p.getSequenceNumber();
+		int index = seq & (MEDIA_BUFF_SIZE - 1);
+		RawPacket newMedia = mediaPackets[index];
+
+		if (newMedia == null) {
 			newMedia = new RawPacket();
 			newMedia.setBuffer(new byte[FECTransformEngine.INITIAL_BUFFER_SIZE]);
 			newMedia.setOffset(0);
-		} else {
-			newMedia = mediaPackets.remove(mediaPackets.firstKey());
+			mediaPackets[index] = newMedia;
 		}
 
 		int pLen = p.getLength();
@@ -310,8 +298,7 @@ class FECReceiver implements PacketTransformer {
 
 		System.arraycopy(p.getBuffer(), p.getOffset(), newMedia.getBuffer(), 0, pLen);
 		newMedia.setLength(pLen);
-
-		mediaPackets.put(newMedia.getSequenceNumber(), newMedia);
+		mediaSeqs[index] = seq;
 	}
 
 	/**
@@ -330,7 +317,12 @@ class FECReceiver implements PacketTransformer {
 		 * Subset of the media packets which is needed for recovery, given a
 		 * specific value of <tt>fecPacket</tt>.
 		 */
-		private Set<RawPacket> neededPackets = new HashSet<RawPacket>();
+		private final RawPacket[] neededPackets = new RawPacket[48];
+
+		/**
+		 * Number of packets in <tt>neededPackets</tt>.
+		 */
+		private int numNeeded = 0;
 
 		/**
 		 * The ulpfec packet to be used for recovery.
@@ -356,20 +348,21 @@ class FECReceiver implements PacketTransformer {
 		private long ssrc;
 
 		/**
-		 * All available media packets.
+		 * The <tt>FECReceiver</tt> which keeps all available media packets.
 		 */
-		private Map<Integer, RawPacket> mediaPackets;
+		private final FECReceiver receiver;
 
 		/**
 		 * Initializes a new instance.
 		 * 
-		 * @param mediaPackets
-		 *            all available media packets.
+		 * @param receiver
+		 *            the <tt>FECReceiver</tt> which keeps all available media
+		 *            packets.
 		 * @param ssrc
 		 *            the ssrc to use
 		 */
-		Reconstructor(Map<Integer, RawPacket> mediaPackets, long ssrc) {
-			this.mediaPackets = mediaPackets;
+		Reconstructor(FECReceiver receiver, long ssrc) {
+			this.receiver = receiver;
 			this.ssrc = ssrc;
 		}
 
@@ -396,7 +389,7 @@ class FECReceiver implements PacketTransformer {
 		 */
 		private void setFecPacket(RawPacket p) {
 			// reset all fields specific to fecPacket
-			neededPackets.clear();
+			numNeeded = 0;
 			numMissing = 0;
 			sequenceNumber = -1;
 			fecPacket = p;
@@ -416,11 +409,13 @@ class FECReceiver implements PacketTransformer {
 				for (int j = 0; j < 8; j++) {
 					if ((buf[idx + i] & (1 << (7 - j) & 0xff)) != 0) {
 						// j-th bit in i-th byte in the mask is set
-						pkt = mediaPackets.get(base + i * 8 + j);
+						int seq = (base + i * 8 + j) & 0xffff;
+
+						pkt = receiver.getMedia(seq);
 						if (pkt != null) {
-							neededPackets.add(pkt);
+							neededPackets[numNeeded++] = pkt;
 						} else {
-							sequenceNumber = base + i * 8 + j;
+							sequenceNumber = seq;
 							numMissing++;
 						}
 					}
@@ -447,8 +442,8 @@ class FECReceiver implements PacketTransformer {
 			int idx = fecPacket.getOffset() + fecPacket.getHeaderLength();
 
 			int lengthRecovery = (fecBuf[idx + 8] & 0xff) << 8 | (fecBuf[idx + 9] & 0xff);
-			for (RawPacket p : neededPackets)
-				lengthRecovery ^= p.getLength() - 12;
+			for (int n = 0; n < numNeeded; n++)
+				lengthRecovery ^= neededPackets[n].getLength() - 12;
 			lengthRecovery &= 0xffff;
 
 			byte[] recoveredBuf = new byte[lengthRecovery + 12]; // include RTP
@@ -456,7 +451,8 @@ class FECReceiver implements PacketTransformer {
 
 			// restore the first 8 bytes of the header
 			System.arraycopy(fecBuf, idx, recoveredBuf, 0, 8);
-			for (RawPacket p : neededPackets) {
+			for (int n = 0; n < numNeeded; n++) {
+				RawPacket p = neededPackets[n];
 				int pOffset = p.getOffset();
 				byte[] pBuf = p.getBuffer();
 				for (int i = 0; i < 8; i++)
@@ -488,7 +484,8 @@ class FECReceiver implements PacketTransformer {
 			System.arraycopy(fecBuf, idx, recoveredBuf, 12, lengthRecovery);
 
 			// restore payload from media packets
-			for (RawPacket p : neededPackets) {
+			for (int n = 0; n < numNeeded; n++) {
+				RawPacket p = neededPackets[n];
 				byte[] pBuf = p.getBuffer();
 				int pLen = p.getLength();
 				int pOff = p.getOffset();
@@ -13,6 +13,16 @@ import org.jitsi.util.Logger;
 /**
  * <tt>PacketTransformer</tt> which adds ulpfec packets. Works for a specific
  * SSRC.
+ * <p>
+ * The media packets are protected in blocks of <tt>fecDepth</tt> rows of
+ * <tt>fecRate</tt> packets each. An ulpfec packet protecting a row is sent
+ * after each row and, if <tt>fecDepth</tt> is greater than one, an ulpfec
+ * packet protecting each column (i.e. the packets at the same position in the
+ * rows of the block) is sent after the last row. A row packet recovers a
+ * single loss in its row, a column packet a single loss in its column so the
+ * columns recover bursts of up to <tt>fecRate</tt> consecutive losses. The
+ * column packets use the long (48-bit) ulpfec mask so that any receiver of
+ * RFC5109 can use them.
  * 
  * @author Boris Grozev
  */
@@ -23,6 +33,14 @@ class FECSender implements PacketTransformer {
 	 */
 	private static final Logger logger = Logger.getLogger(FECSender.class);
 
+	/**
+	 * The maximum number of media packets per row. The rows, together with the
+	 * columns limited by {@link #getMaxFecDepth(int)}, then fit into the
+	 * 64-packet media buffer and the 32-packet ulpfec buffer of a
+	 * <tt>FECReceiver</tt>.
+	 */
+	static final int MAX_FEC_RATE = 16;
+
 	/**
 	 * The single SSRC with which this <tt>FECSender</tt> works.
 	 */
@@ -39,6 +57,19 @@ class FECSender implements PacketTransformer {
 	 */
 	private int fecRate;
 
+	/**
+	 * The number of rows of <tt>fecRate</tt> media packets protected by a
+	 * column ulpfec packet. If set to 0 or 1, no column ulpfec packets will be
+	 * generated.
+	 */
+	private int fecDepth;
+
+	/**
+	 * The column fec packets of the current block or <tt>null</tt> if
+	 * <tt>fecDepth</tt> does not call for column fec packets.
+	 */
+	private FECPacket[] columnPackets;
+
 	/**
 	 * A counter of packets. Incremented for every media packet.
 	 */
@@ -63,14 +94,80 @@ class FECSender implements PacketTransformer {
 	 *            the SSRC with which this <tt>FECSender</tt> will work.
 	 * @param fecRate
 	 *            the rate at which to add ulpfec packets.
+	 * @param fecDepth
+	 *            the number of rows of <tt>fecRate</tt> media packets to be
+	 *            protected by column ulpfec packets.
 	 * @param ulpfecPT
 	 *            the payload to use for ulpfec packets.
 	 */
-	FECSender(long ssrc, int fecRate, byte ulpfecPT) {
+	FECSender(long ssrc, int fecRate, int fecDepth, byte ulpfecPT) {
 		this.ssrc = ssrc;
-		this.fecRate = fecRate;
 		this.ulpfecPT = ulpfecPT;
-		fecPacket = new FECPacket(ssrc, ulpfecPT);
+		fecPacket = new FECPacket(ssrc, ulpfecPT, false);
+		setProtection(fecRate, fecDepth);
+	}
+
+	/**
+	 * Adds a specific packet to the first empty spot of an array of packets.
+	 * 
+	 * @param pkts
+	 *            the array to try to add <tt>pkt</tt> to
+	 * @param pkt
+	 *            the packet to add
+	 * @return <tt>pkts</tt> or, if there was no empty spot in it, a copy of it
+	 *         with <tt>pkt</tt> appended
+	 */
+	private static RawPacket[] add(RawPacket[] pkts, RawPacket pkt) {
+		for (int i = 0; i < pkts.length; i++) {
+			if (pkts[i] == null) {
+				pkts[i] = pkt;
+				return pkts;
+			}
+		}
+
+		RawPacket[] pkts2 = new RawPacket[pkts.length + 1];
+		System.arraycopy(pkts, 0, pkts2, 0, pkts.length);
+		pkts2[pkts.length] = pkt;
+		return pkts2;
+	}
+
+	/**
+	 * Gets a rate limited to [0, {@link #MAX_FEC_RATE}].
+	 * 
+	 * @param fecRate
+	 *            the number of media packets per row
+	 * @return <tt>fecRate</tt> limited to [0, <tt>MAX_FEC_RATE</tt>]
+	 */
+	static int clampFecRate(int fecRate) {
+		return Math.max(0, Math.min(fecRate, MAX_FEC_RATE));
+	}
+
+	/**
+	 * Gets a number of rows limited to what a column ulpfec packet may protect
+	 * with a specific rate.
+	 * 
+	 * @param fecRate
+	 *            the number of media packets per row
+	 * @param fecDepth
+	 *            the number of rows
+	 * @return <tt>fecDepth</tt> limited to [0, <tt>getMaxFecDepth(fecRate)</tt>]
+	 */
+	static int clampFecDepth(int fecRate, int fecDepth) {
+		return Math.max(0, Math.min(fecDepth, getMaxFecDepth(fecRate)));
+	}
+
+	/**
+	 * Gets the maximum number of rows of <tt>fecRate</tt> media packets which a
+	 * column ulpfec packet may protect. The media packets of a column are
+	 * <tt>fecRate + 1</tt> sequence numbers apart (because of the row ulpfec
+	 * packets in between) and the long ulpfec mask covers 48 of them.
+	 * 
+	 * @param fecRate
+	 *            the number of media packets per row
+	 * @return the maximum number of rows for <tt>fecRate</tt>
+	 */
+	static int getMaxFecDepth(int fecRate) {
+		return (fecRate <= 0) ? 0 : (47 / (fecRate + 1) + 1);
 	}
 
 	/**
@@ -83,9 +180,12 @@ class FECSender implements PacketTransformer {
 
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * The calls are serialized by the <tt>TransformEngineChain</tt> of the
+	 * <tt>FECTransformEngine</tt>.
 	 */
 	@Override
-	public synchronized RawPacket[] transform(RawPacket[] pkts) {
+	public RawPacket[] transform(RawPacket[] pkts) {
 		RawPacket pkt = null;
 		for (RawPacket p : pkts) {
 			if (p != null && p.getPayloadType() != 0) // might be ZRTP
@@ -117,30 +217,34 @@ class FECSender implements PacketTransformer {
 		counter++;
 		pkt.setSequenceNumber(pkt.getSequenceNumber() + nbFec);
 
-		if (fecRate != 0)
-			fecPacket.addMedia(pkt);
-
-		if (fecRate != 0 && (counter % fecRate) == 0) {
-			fecPacket.finish();
+		if (fecRate == 0)
+			return pkts;
 
-			boolean found = false;
-			for (int i = 0; i < pkts.length; i++) {
-				if (pkts[i] == null) {
-					found = true;
-					pkts[i] = fecPacket;
-					break;
-				}
-			}
+		int seq = pkt.getSequenceNumber();
+		int column = (counter - 1) % fecRate;
 
-			if (!found) {
-				RawPacket[] pkts2 = new RawPacket[pkts.length + 1];
-				System.arraycopy(pkts, 0, pkts2, 0, pkts.length);
-				pkts2[pkts.length] = fecPacket;
-				pkts = pkts2;
-			}
+		fecPacket.addMedia(pkt);
+		if (columnPackets != null) {
+			if (columnPackets[column] == null)
+				columnPackets[column] = new FECPacket(ssrc, ulpfecPT, true);
+			columnPackets[column].addMedia(pkt);
+		}
 
-			fecPacket = new FECPacket(ssrc, ulpfecPT);
+		if (column == fecRate - 1) {
+			pkts = add(pkts, fecPacket.finish(++seq));
+			fecPacket = new FECPacket(ssrc, ulpfecPT, false);
 			nbFec++;
+
+			if (columnPackets == null) {
+				counter = 0;
+			} else if (counter == fecRate * fecDepth) {
+				for (int i = 0; i < columnPackets.length; i++) {
+					pkts = add(pkts, columnPackets[i].finish(++seq));
+					columnPackets[i] = null;
+					nbFec++;
+				}
+				counter = 0;
+			}
 		}
 
 		return pkts;
@@ -166,6 +270,12 @@ class FECSender implements PacketTransformer {
 		this.ulpfecPT = ulpfecPT;
 		if (fecPacket != null)
 			fecPacket.payloadType = ulpfecPT;
+		if (columnPackets != null) {
+			for (FECPacket columnPacket : columnPackets) {
+				if (columnPacket != null)
+					columnPacket.payloadType = ulpfecPT;
+			}
+		}
 	}
 
 	/**
@@ -175,9 +285,30 @@ class FECSender implements PacketTransformer {
 	 *            the new rate to set.
 	 */
 	public void setFecRate(int newFecRate) {
-		if (fecRate != newFecRate) {
-			fecPacket = new FECPacket(ssrc, ulpfecPT); // reset it
+		setProtection(newFecRate, fecDepth);
+	}
+
+	/**
+	 * Updates the <tt>fecRate</tt> and <tt>fecDepth</tt> properties. Starts a
+	 * new block, if needed.
+	 * 
+	 * @param newFecRate
+	 *            the new rate to set. It is limited to [0,
+	 *            {@link #MAX_FEC_RATE}].
+	 * @param newFecDepth
+	 *            the new number of rows per column ulpfec packet to set. It is
+	 *            limited to what the long ulpfec mask can cover.
+	 */
+	public void setProtection(int newFecRate, int newFecDepth) {
+		newFecRate = clampFecRate(newFecRate);
+		newFecDepth = clampFecDepth(newFecRate, newFecDepth);
+		if (newFecDepth < 2)
+			newFecDepth = 0;
+		if ((fecRate != newFecRate) || (fecDepth != newFecDepth)) {
 			fecRate = newFecRate;
+			fecPacket = new FECPacket(ssrc, ulpfecPT, false); // reset it
+			fecDepth = newFecDepth;
+			columnPackets = (newFecDepth == 0) ? null : new FECPacket[newFecRate];
 			counter = 0;
 		}
 	}
@@ -207,7 +338,7 @@ class FECSender implements PacketTransformer {
 	 * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ |
 	 * length recovery | +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
 	 * 
-	 * 4 byte FEC Level 0 Header (the short mask is always used): 0 1 2 3 0 1 2
+	 * 4 byte FEC Level 0 Header (8 bytes if the long mask is used): 0 1 2 3 0 1 2
 	 * 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
 	 * +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+ |
 	 * Protection Length | mask |
@@ -226,6 +357,18 @@ class FECSender implements PacketTransformer {
 		 */
 		int numPackets = 0;
 
+		/**
+		 * Whether the long (48-bit) mask is used rather than the short
+		 * (16-bit) one.
+		 */
+		private final boolean longMask;
+
+		/**
+		 * The mask of the media packets added. The most significant of its 48
+		 * bits is for <tt>base</tt>.
+		 */
+		private long mask = 0;
+
 		/**
 		 * The biggest payload (in the sense of RFC5109) of the media packets
 		 * added.
@@ -264,9 +407,10 @@ class FECSender implements PacketTransformer {
 
 		/**
 		 * Length of the additional headers added to this packet (in bytes): 10
-		 * bytes FEC Header + 4 bytes FEC Level 0 Header (short mask)
+		 * bytes FEC Header + 4 bytes FEC Level 0 Header (short mask) or 8 bytes
+		 * FEC Level 0 Header (long mask)
 		 */
-		private static final int FEC_HDR_LEN = 14;
+		private final int fecHdrLen;
 
 		/**
 		 * Creates a new instance, initialized with a buffer obtained using
@@ -274,13 +418,19 @@ class FECSender implements PacketTransformer {
 		 * 
 		 * @param ssrc
 		 *            the SSRC
+		 * @param longMask
+		 *            <tt>true</tt> to use the long (48-bit) mask which allows
+		 *            protecting packets up to 47 sequence numbers after the
+		 *            first one; <tt>false</tt> for the short (16-bit) mask
 		 */
-		FECPacket(long ssrc, byte payloadType) {
+		FECPacket(long ssrc, byte payloadType, boolean longMask) {
 			super(new byte[FECTransformEngine.INITIAL_BUFFER_SIZE], 0, FECTransformEngine.INITIAL_BUFFER_SIZE);
 
 			buf = getBuffer();
 			this.ssrc = ssrc;
 			this.payloadType = payloadType;
+			this.longMask = longMask;
+			fecHdrLen = longMask ? 18 : 14;
 		}
 
 		/**
@@ -296,8 +446,8 @@ class FECSender implements PacketTransformer {
 			int mediaPayloadLen = media.getLength() - 12;
 
 			// make sure that the buffer is big enough
-			if (buf.length < mediaPayloadLen + RTP_HDR_LEN + FEC_HDR_LEN) {
-				byte[] newBuff = new byte[mediaPayloadLen + RTP_HDR_LEN + FEC_HDR_LEN];
+			if (buf.length < mediaPayloadLen + RTP_HDR_LEN + fecHdrLen) {
+				byte[] newBuff = new byte[mediaPayloadLen + RTP_HDR_LEN + fecHdrLen];
 				System.arraycopy(buf, 0, newBuff, 0, buf.length);
 				for (int i = buf.length; i < newBuff.length; i++)
 					newBuff[i] = (byte) 0;
@@ -316,7 +466,7 @@ class FECSender implements PacketTransformer {
 				buf[RTP_HDR_LEN + 9] = (byte) (mediaPayloadLen & 0xff);
 
 				// copy the payload
-				System.arraycopy(mediaBuf, mediaOff + RTP_HDR_LEN, buf, RTP_HDR_LEN + FEC_HDR_LEN, mediaPayloadLen);
+				System.arraycopy(mediaBuf, mediaOff + RTP_HDR_LEN, buf, RTP_HDR_LEN + fecHdrLen, mediaPayloadLen);
 			} else {
 				// not the first packet, do XOR
 
@@ -330,10 +480,11 @@ class FECSender implements PacketTransformer {
 
 				// payload
 				for (int i = 0; i < mediaPayloadLen; i++) {
-					buf[RTP_HDR_LEN + FEC_HDR_LEN + i] ^= mediaBuf[mediaOff + RTP_HDR_LEN + i];
+					buf[RTP_HDR_LEN + fecHdrLen + i] ^= mediaBuf[mediaOff + RTP_HDR_LEN + i];
 				}
 			}
 
+			mask |= 1L << (47 - ((media.getSequenceNumber() - base) & 0xffff));
 			lastAddedSeq = media.getSequenceNumber();
 			lastAddedTS = media.getTimestamp();
 			if (mediaPayloadLen > protectionLength)
@@ -345,18 +496,21 @@ class FECSender implements PacketTransformer {
 		 * Fill in the required header fields and prepare this packet to be
 		 * sent.
 		 * 
+		 * @param seq
+		 *            the sequence number of this packet.
 		 * @return the finished packet.
 		 */
-		private RawPacket finish() {
+		private RawPacket finish(int seq) {
 			// RTP header fields
 			buf[0] = (byte) 0x80; // no Padding, no Extension, no CSRCs
 			setPayloadType(payloadType);
-			setSequenceNumber(lastAddedSeq + 1);
+			setSequenceNumber(seq);
 			setSSRC((int) ssrc);
 			setTimestamp(lastAddedTS); // TODO: check 5109 -- which TS should be
 										// used?
 
-			// FEC Header
+			// FEC Header: E is always 0, L tells the length of the mask
+			buf[RTP_HDR_LEN] = (byte) ((buf[RTP_HDR_LEN] & 0x3f) | (longMask ? 0x40 : 0));
 			buf[RTP_HDR_LEN + 2] = (byte) (base >> 8 & 0xff);
 			buf[RTP_HDR_LEN + 3] = (byte) (base & 0xff);
 
@@ -364,13 +518,10 @@ class FECSender implements PacketTransformer {
 			buf[RTP_HDR_LEN + 10] = (byte) (protectionLength >> 8 & 0xff);
 			buf[RTP_HDR_LEN + 11] = (byte) (protectionLength & 0xff);
 
-			// assume all packets from base to lastAddedSeq were added
-			int mask = ((1 << numPackets) - 1) << (16 - numPackets);
-
-			buf[RTP_HDR_LEN + 12] = (byte) (mask >> 8 & 0xff);
-			buf[RTP_HDR_LEN + 13] = (byte) (mask & 0xff);
+			for (int i = 0, maskLen = fecHdrLen - 12; i < maskLen; i++)
+				buf[RTP_HDR_LEN + 12 + i] = (byte) (mask >> (40 - 8 * i) & 0xff);
 
-			setLength(RTP_HDR_LEN + FEC_HDR_LEN + protectionLength);
+			setLength(RTP_HDR_LEN + fecHdrLen + protectionLength);
 			return this;
 		}
 	}
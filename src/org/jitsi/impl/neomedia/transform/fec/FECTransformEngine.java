@@ -10,8 +10,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.transform.ChainablePacketTransformer;
 import org.jitsi.impl.neomedia.transform.PacketTransformer;
 import org.jitsi.impl.neomedia.transform.TransformEngine;
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.service.neomedia.rtp.RTCPReportListener;
 import org.jitsi.util.Logger;
 
 /**
@@ -22,13 +26,20 @@ import org.jitsi.util.Logger;
  * 
  * @author Boris Grozev
  */
-public class FECTransformEngine implements TransformEngine, PacketTransformer {
+public class FECTransformEngine implements TransformEngine, ChainablePacketTransformer {
 	/**
 	 * The <tt>Logger</tt> used by the <tt>FECTransformEngine</tt> class and its
 	 * instances to print debug information.
 	 */
 	private static final Logger logger = Logger.getLogger(FECTransformEngine.class);
 
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * whether the protection of the outgoing packets adapts to the loss
+	 * reported by the remote peer by default.
+	 */
+	public static final String ADAPTIVE_PNAME = FECTransformEngine.class.getName() + ".adaptive";
+
 	/**
 	 * Initial size for newly allocated byte arrays.
 	 */
@@ -51,12 +62,24 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 	private byte outgoingPT = -1;
 
 	/**
-	 * The rate at which ulpfec packets will be generated and added to the
-	 * stream by this <tt>PacketTransformer</tt>. An ulpfec packet will be
-	 * generated for every <tt>fecRate</tt> media packets. If set to 0, no
-	 * ulpfec packets will be generated.
+	 * The rate and the depth of the ulpfec packets to be generated and added
+	 * to the stream by this <tt>PacketTransformer</tt>. They are published
+	 * together so that the sending thread never sees the rate of one setting
+	 * with the depth of another.
+	 */
+	private volatile Protection protection = new Protection(0, 0);
+
+	/**
+	 * Whether {@link #protectionController} sets the rate and the depth of
+	 * {@link #protection}.
+	 */
+	private volatile boolean adaptive;
+
+	/**
+	 * The <tt>FECProtectionController</tt> which adapts the protection of the
+	 * outgoing packets to the loss reported by the remote peer.
 	 */
-	private int fecRate = 0;
+	private final FECProtectionController protectionController = new FECProtectionController(this);
 
 	/**
 	 * Maps an SSRC to a <tt>FECReceiver</tt> to be used for packets with that
@@ -81,6 +104,10 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 	public FECTransformEngine(byte incomingPT, byte outgoingPT) {
 		setIncomingPT(incomingPT);
 		setOutgoingPT(outgoingPT);
+
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+
+		adaptive = (cfg != null) && cfg.getBoolean(ADAPTIVE_PNAME, false);
 	}
 
 	/**
@@ -123,7 +150,8 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 	 * {@inheritDoc}
 	 * 
 	 * Adds ulpfec packets to the stream (one ulpfec packet after every
-	 * <tt>fecRate</tt> media packets.
+	 * <tt>fecRate</tt> media packets and, if <tt>fecDepth</tt> is greater than
+	 * one, one ulpfec packet per column after every <tt>fecDepth</tt> rows).
 	 */
 	@Override
 	public RawPacket[] transform(RawPacket[] pkts) {
@@ -134,18 +162,38 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 		if (ssrc == null)
 			return pkts;
 
+		Protection protection = this.protection;
 		FECSender fpt;
 		synchronized (fecSenders) {
 			fpt = fecSenders.get(ssrc);
 			if (fpt == null) {
-				fpt = new FECSender(ssrc, fecRate, outgoingPT);
+				fpt = new FECSender(ssrc, protection.fecRate, protection.fecDepth, outgoingPT);
 				fecSenders.put(ssrc, fpt);
 			}
 		}
 
+		// The protection is changed by the sending thread only, between two
+		// packets.
+		fpt.setProtection(protection.fecRate, protection.fecDepth);
 		return fpt.transform(pkts);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isReverseTransforming() {
+		return incomingPT != -1;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isTransforming() {
+		return outgoingPT != -1;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -212,15 +260,90 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 	 * stream by this <tt>PacketTransformer</tt>.
 	 * 
 	 * @param fecRate
-	 *            the rate to set, should be in [0, 16]
+	 *            the rate to set. It is limited to [0, 16].
 	 */
 	public void setFecRate(int fecRate) {
+		setProtection(fecRate, protection.fecDepth);
+	}
+
+	/**
+	 * Sets the rate at which row ulpfec packets and the number of rows after
+	 * which column ulpfec packets will be generated and added to the stream by
+	 * this <tt>PacketTransformer</tt>.
+	 * 
+	 * @param fecRate
+	 *            the rate to set. It is limited to [0, 16].
+	 * @param fecDepth
+	 *            the number of rows to set, 0 to generate row ulpfec packets
+	 *            only. It is limited so that a column spans at most 48 sequence
+	 *            numbers.
+	 */
+	public void setProtection(int fecRate, int fecDepth) {
+		fecRate = FECSender.clampFecRate(fecRate);
+		protection = new Protection(fecRate, FECSender.clampFecDepth(fecRate, fecDepth));
+	}
+
+	/**
+	 * Gets the number of rows of <tt>fecRate</tt> media packets after which
+	 * column ulpfec packets will be generated and added to the stream by this
+	 * <tt>PacketTransformer</tt>.
+	 * 
+	 * @return the number of rows per column ulpfec packet or 0 if only row
+	 *         ulpfec packets are generated
+	 */
+	public int getFecDepth() {
+		return protection.fecDepth;
+	}
+
+	/**
+	 * Gets the <tt>RTCPReportListener</tt> which, if this engine is adaptive,
+	 * sets the protection of the outgoing packets according to the loss
+	 * reported by the remote peer. It is to be added to the
+	 * <tt>RTCPReports</tt> of the stream of this engine.
+	 * 
+	 * @return the <tt>RTCPReportListener</tt> which adapts the protection of
+	 *         the outgoing packets
+	 */
+	public RTCPReportListener getRTCPReportListener() {
+		return protectionController;
+	}
+
+	/**
+	 * Determines whether the protection of the outgoing packets adapts to the
+	 * loss reported by the remote peer.
+	 * 
+	 * @return <tt>true</tt> if the protection adapts; otherwise,
+	 *         <tt>false</tt>
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Determines whether this engine adds ulpfec packets to the packets with a
+	 * specific SSRC.
+	 * 
+	 * @param ssrc
+	 *            the SSRC to check
+	 * @return <tt>true</tt> if this engine protects the packets with
+	 *         <tt>ssrc</tt>; otherwise, <tt>false</tt>
+	 */
+	boolean isProtecting(long ssrc) {
 		synchronized (fecSenders) {
-			for (FECSender f : fecSenders.values())
-				f.setFecRate(fecRate);
+			return fecSenders.containsKey(ssrc);
 		}
+	}
 
-		this.fecRate = fecRate;
+	/**
+	 * Sets whether the protection of the outgoing packets adapts to the loss
+	 * reported by the remote peer.
+	 * 
+	 * @param adaptive
+	 *            <tt>true</tt> to adapt the protection; otherwise,
+	 *            <tt>false</tt>
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
 	}
 
 	/**
@@ -231,7 +354,7 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 	 *         the stream by this <tt>PacketTransformer</tt>.
 	 */
 	public int getFecRate() {
-		return fecRate;
+		return protection.fecRate;
 	}
 
 	/**
@@ -256,4 +379,36 @@ public class FECTransformEngine implements TransformEngine, PacketTransformer {
 
 		return ret;
 	}
+
+	/**
+	 * Represents an immutable pair of the rate and the depth of the ulpfec
+	 * packets generated by a <tt>FECTransformEngine</tt>.
+	 */
+	private static class Protection {
+		/**
+		 * An ulpfec packet will be generated for every <tt>fecRate</tt> media
+		 * packets. If set to 0, no ulpfec packets will be generated.
+		 */
+		final int fecRate;
+
+		/**
+		 * The number of rows of <tt>fecRate</tt> media packets protected by a
+		 * column ulpfec packet. If set to 0 or 1, no column ulpfec packets will
+		 * be generated.
+		 */
+		final int fecDepth;
+
+		/**
+		 * Initializes a new <tt>Protection</tt> instance.
+		 * 
+		 * @param fecRate
+		 *            the rate of the row ulpfec packets
+		 * @param fecDepth
+		 *            the number of rows per column ulpfec packet
+		 */
+		Protection(int fecRate, int fecDepth) {
+			this.fecRate = fecRate;
+			this.fecDepth = fecDepth;
+		}
+	}
 }
@@ -10,6 +10,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.jitsi.impl.neomedia.RawPacket;
+import org.jitsi.impl.neomedia.transform.ChainablePacketTransformer;
 import org.jitsi.impl.neomedia.transform.PacketTransformer;
 import org.jitsi.impl.neomedia.transform.SinglePacketTransformer;
 import org.jitsi.impl.neomedia.transform.TransformEngine;
@@ -27,7 +28,8 @@ import org.jitsi.impl.neomedia.transform.TransformEngine;
  */
 public class PayloadTypeTransformEngine
     extends SinglePacketTransformer
-    implements TransformEngine
+    implements ChainablePacketTransformer,
+               TransformEngine
 {
     /**
      * The mapping we use to override payloads. By default it is empty
@@ -110,6 +112,30 @@ public class PayloadTypeTransformEngine
         return null;
     }
 
+    /**
+     * Always returns <tt>false</tt> since incoming packets are passed through.
+     *
+     * @return <tt>false</tt>
+     */
+    public boolean isReverseTransforming()
+    {
+        return false;
+    }
+
+    /**
+     * Checks if there are any override mappings.
+     *
+     * @return <tt>true</tt> if the payload types of outgoing packets may have
+     * to be overridden; otherwise, <tt>false</tt>
+     */
+    public boolean isTransforming()
+    {
+        Map<Byte, Byte> mappingOverridesCopy = this.mappingOverridesCopy;
+
+        return (mappingOverridesCopy != null)
+            && !mappingOverridesCopy.isEmpty();
+    }
+
     /**
      * Adds an additional RTP payload type mapping used to override the payload
      * type of outgoing RTP packets. If an override for <tt>originalPT<tt/>,
@@ -6,9 +6,9 @@
  */
 package org.jitsi.impl.neomedia.transform.srtp;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jitsi.impl.neomedia.RawPacket;
 import org.jitsi.impl.neomedia.transform.SinglePacketTransformer;
@@ -25,7 +25,8 @@ public class SRTCPTransformer extends SinglePacketTransformer {
 	private final SRTPContextFactory reverseFactory;
 
 	/**
-	 * All the known SSRC's corresponding SRTCPCryptoContexts
+	 * All the known SSRC's corresponding SRTCPCryptoContexts. Looked up without a lock
+	 * on the path of every packet and modified under its own monitor.
 	 */
 	private final Map<Integer, SRTCPCryptoContext> contexts;
 
@@ -64,7 +65,7 @@ public class SRTCPTransformer extends SinglePacketTransformer {
 	public SRTCPTransformer(SRTPContextFactory forwardFactory, SRTPContextFactory reverseFactory) {
 		this.forwardFactory = forwardFactory;
 		this.reverseFactory = reverseFactory;
-		this.contexts = new HashMap<Integer, SRTCPCryptoContext>();
+		this.contexts = new ConcurrentHashMap<Integer, SRTCPCryptoContext>();
 	}
 
 	/**
@@ -90,7 +91,10 @@ public class SRTCPTransformer extends SinglePacketTransformer {
 
 	private SRTCPCryptoContext getContext(RawPacket pkt, SRTPContextFactory engine) {
 		int ssrc = pkt.getRTCPSSRC();
-		SRTCPCryptoContext context = null;
+		SRTCPCryptoContext context = contexts.get(ssrc);
+
+		if (context != null)
+			return context;
 
 		synchronized (contexts) {
 			context = contexts.get(ssrc);
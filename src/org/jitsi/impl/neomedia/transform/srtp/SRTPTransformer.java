@@ -25,9 +25,9 @@
  */
 package org.jitsi.impl.neomedia.transform.srtp;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.jitsi.impl.neomedia.RawPacket;
 import org.jitsi.impl.neomedia.transform.SinglePacketTransformer;
@@ -48,7 +48,8 @@ public class SRTPTransformer extends SinglePacketTransformer {
 	final SRTPContextFactory reverseFactory;
 
 	/**
-	 * All the known SSRC's corresponding SRTPCryptoContexts
+	 * All the known SSRC's corresponding SRTPCryptoContexts. Looked up without a lock
+	 * on the path of every packet and modified under its own monitor.
 	 */
 	private final Map<Integer, SRTPCryptoContext> contexts;
 
@@ -74,7 +75,7 @@ public class SRTPTransformer extends SinglePacketTransformer {
 	public SRTPTransformer(SRTPContextFactory forwardFactory, SRTPContextFactory reverseFactory) {
 		this.forwardFactory = forwardFactory;
 		this.reverseFactory = reverseFactory;
-		this.contexts = new HashMap<Integer, SRTPCryptoContext>();
+		this.contexts = new ConcurrentHashMap<Integer, SRTPCryptoContext>();
 	}
 
 	/**
@@ -99,7 +100,10 @@ public class SRTPTransformer extends SinglePacketTransformer {
 	}
 
 	private SRTPCryptoContext getContext(int ssrc, SRTPContextFactory engine, int deriveSrtpKeysIndex) {
-		SRTPCryptoContext context;
+		SRTPCryptoContext context = contexts.get(ssrc);
+
+		if (context != null)
+			return context;
 
 		synchronized (contexts) {
 			context = contexts.get(ssrc);
@@ -0,0 +1,728 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.impl.packetlogging;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jitsi.service.configuration.ConfigurationService;
+import org.jitsi.service.fileaccess.FileAccessService;
+import org.jitsi.service.fileaccess.FileCategory;
+import org.jitsi.service.libjitsi.LibJitsi;
+import org.jitsi.service.packetlogging.PacketLoggingService;
+import org.jitsi.util.Logger;
+
+/**
+ * Implements a <tt>PacketLoggingService</tt> which writes the logged packets
+ * into pcapng files without blocking the threads which log them. The packets
+ * are copied (up to a snapshot length) into a bounded lock-free ring of
+ * preallocated slots and a background thread writes them in batches with a
+ * <tt>FileChannel</tt>, rotating the files by size and age. When the ring is
+ * full, packets are dropped and counted rather than applying back-pressure on
+ * the media threads.
+ * <p>
+ * The packets are written with synthesized IPv4/IPv6 and UDP/TCP headers
+ * (link type raw IP) so that they may be dissected by the usual tools.
+ * </p>
+ */
+public class PacketLoggingServiceImpl implements PacketLoggingService {
+	/**
+	 * The <tt>Logger</tt> used by the <tt>PacketLoggingServiceImpl</tt> class
+	 * and its instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(PacketLoggingServiceImpl.class);
+
+	/**
+	 * The prefix of the names of the <tt>ConfigurationService</tt> properties
+	 * of <tt>PacketLoggingServiceImpl</tt>.
+	 */
+	private static final String PNAME_PREFIX = PacketLoggingServiceImpl.class.getName() + ".";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which indicates
+	 * whether packet logging is enabled. The default is <tt>false</tt>.
+	 */
+	public static final String ENABLED_PNAME = PNAME_PREFIX + "enabled";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the directory in which the pcapng files are to be written. The default
+	 * is the <tt>log</tt> directory of the <tt>FileAccessService</tt>.
+	 */
+	public static final String DIRECTORY_PNAME = PNAME_PREFIX + "directory";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of pcapng files to be kept.
+	 */
+	public static final String MAX_FILE_COUNT_PNAME = PNAME_PREFIX + "maxFileCount";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum age in seconds of a pcapng file before it is rotated.
+	 */
+	public static final String MAX_FILE_AGE_PNAME = PNAME_PREFIX + "maxFileAge";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum size in bytes of a pcapng file before it is rotated.
+	 */
+	public static final String MAX_FILE_SIZE_PNAME = PNAME_PREFIX + "maxFileSize";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the number of slots of the ring. Rounded up to a power of 2.
+	 */
+	public static final String RING_CAPACITY_PNAME = PNAME_PREFIX + "ringCapacity";
+
+	/**
+	 * The name of the <tt>ConfigurationService</tt> property which specifies
+	 * the maximum number of bytes of a packet to be logged.
+	 */
+	public static final String SNAPSHOT_LENGTH_PNAME = PNAME_PREFIX + "snapshotLength";
+
+	/**
+	 * The suffix of the names of the <tt>ConfigurationService</tt> properties
+	 * which indicate whether the packets of a specific <tt>ProtocolName</tt>
+	 * are to be logged e.g. <tt>...PacketLoggingServiceImpl.RTP.enabled</tt>.
+	 * The default is <tt>true</tt>.
+	 */
+	private static final String PROTOCOL_ENABLED_PNAME_SUFFIX = ".enabled";
+
+	/**
+	 * The size of the batches in which the packets are written.
+	 */
+	private static final int BATCH_SIZE = 256 * 1024;
+
+	/**
+	 * The pcapng block type of Enhanced Packet Blocks.
+	 */
+	private static final int BLOCK_TYPE_EPB = 6;
+
+	/**
+	 * The pcapng block type of Interface Description Blocks.
+	 */
+	private static final int BLOCK_TYPE_IDB = 1;
+
+	/**
+	 * The pcapng block type of Section Header Blocks.
+	 */
+	private static final int BLOCK_TYPE_SHB = 0x0A0D0D0A;
+
+	/**
+	 * The pcapng link type of raw IPv4/IPv6 packets.
+	 */
+	private static final int LINKTYPE_RAW = 101;
+
+	/**
+	 * The maximum length of the synthesized IP and transport headers.
+	 */
+	private static final int MAX_HEADERS_LENGTH = 40 + 20;
+
+	/**
+	 * The number of nanoseconds the writer thread sleeps for when the ring is
+	 * empty.
+	 */
+	private static final long WRITER_IDLE_NANOS = 2000000L;
+
+	/**
+	 * The (IPv4 or IPv6) addresses of the slots: the source address followed
+	 * by the destination address, 16 bytes each.
+	 */
+	private byte[] addresses;
+
+	/**
+	 * The lengths of the source and destination addresses of the slots
+	 * (<tt>4</tt> or <tt>16</tt>).
+	 */
+	private byte[] addressLengths;
+
+	/**
+	 * The directory in which the pcapng files are written.
+	 */
+	private final File directory;
+
+	/**
+	 * The number of packets which were dropped because the ring was full.
+	 */
+	private final AtomicLong droppedPackets = new AtomicLong();
+
+	/**
+	 * The indicator which determines whether packet logging is enabled.
+	 */
+	private final boolean enabled;
+
+	/**
+	 * The number of pcapng files which were created.
+	 */
+	private int fileCount;
+
+	/**
+	 * The <tt>FileChannel</tt> of the current pcapng file.
+	 */
+	private FileChannel fileChannel;
+
+	/**
+	 * The time in milliseconds at which the current pcapng file was created.
+	 */
+	private long fileCreationTime;
+
+	/**
+	 * The pcapng files which were written, oldest first.
+	 */
+	private final LinkedList<File> files = new LinkedList<File>();
+
+	/**
+	 * The number of bytes written into the current pcapng file.
+	 */
+	private long fileSize;
+
+	/**
+	 * The indicators which determine whether the <tt>ProtocolName</tt>s are
+	 * to be logged indexed by their ordinals.
+	 */
+	private final boolean[] loggedProtocols;
+
+	/**
+	 * The number of packets which were written.
+	 */
+	private final AtomicLong loggedPackets = new AtomicLong();
+
+	/**
+	 * The mask which maps an index of the ring to a slot.
+	 */
+	private final int mask;
+
+	/**
+	 * The maximum age in milliseconds of a pcapng file.
+	 */
+	private final long maxFileAge;
+
+	/**
+	 * The maximum number of pcapng files kept.
+	 */
+	private final int maxFileCount;
+
+	/**
+	 * The maximum size in bytes of a pcapng file.
+	 */
+	private final long maxFileSize;
+
+	/**
+	 * The original lengths of the packets in the slots.
+	 */
+	private int[] lengths;
+
+	/**
+	 * The ports of the slots: the source port followed by the destination
+	 * port.
+	 */
+	private int[] ports;
+
+	/**
+	 * The index of the next slot to be read by the writer thread. Accessed by
+	 * the writer thread only.
+	 */
+	private long ringHead;
+
+	/**
+	 * The sequence numbers which publish the slots from the producers to the
+	 * writer thread. Assigned after the slot arrays so that a producer which
+	 * sees it sees the slot arrays as well.
+	 */
+	private volatile AtomicLongArray ringSequences;
+
+	/**
+	 * The index of the next slot to be claimed by a producer.
+	 */
+	private final AtomicLong ringTail = new AtomicLong();
+
+	/**
+	 * The contents of the packets in the slots, {@link #snapshotLength} bytes
+	 * per slot.
+	 */
+	private byte[] snapshots;
+
+	/**
+	 * The maximum number of bytes of a packet to be logged.
+	 */
+	private final int snapshotLength;
+
+	/**
+	 * The indicator which determines whether {@link #stop()} has been
+	 * invoked.
+	 */
+	private volatile boolean stopped;
+
+	/**
+	 * The times in microseconds since the epoch at which the packets in the
+	 * slots were logged.
+	 */
+	private long[] timestamps;
+
+	/**
+	 * The transports (i.e. the ordinals of the <tt>TransportName</tt>s) of the
+	 * slots.
+	 */
+	private byte[] transports;
+
+	/**
+	 * The number of packets which could not be written because of I/O errors.
+	 */
+	private final AtomicLong writeErrors = new AtomicLong();
+
+	/**
+	 * The background <tt>Thread</tt> which writes the logged packets.
+	 */
+	private volatile Thread writerThread;
+
+	/**
+	 * Initializes a new <tt>PacketLoggingServiceImpl</tt> instance configured
+	 * through the <tt>ConfigurationService</tt> of <tt>LibJitsi</tt>.
+	 */
+	public PacketLoggingServiceImpl() {
+		ConfigurationService cfg = LibJitsi.getConfigurationService();
+		ProtocolName[] protocols = ProtocolName.values();
+
+		loggedProtocols = new boolean[protocols.length];
+		if (cfg == null) {
+			enabled = false;
+			directory = null;
+			maxFileAge = 0L;
+			maxFileCount = 0;
+			maxFileSize = 0L;
+			snapshotLength = 0;
+			mask = 0;
+			return;
+		}
+
+		enabled = cfg.getBoolean(ENABLED_PNAME, false);
+		for (int i = 0; i < protocols.length; i++)
+			loggedProtocols[i] = cfg.getBoolean(PNAME_PREFIX + protocols[i].name() + PROTOCOL_ENABLED_PNAME_SUFFIX, true);
+
+		String directoryName = cfg.getString(DIRECTORY_PNAME);
+		File directory = null;
+
+		if ((directoryName != null) && (directoryName.length() != 0)) {
+			directory = new File(directoryName);
+		} else {
+			FileAccessService fas = LibJitsi.getFileAccessService();
+
+			if (fas != null) {
+				try {
+					directory = fas.getPrivatePersistentDirectory("log", FileCategory.LOG);
+				} catch (Exception e) {
+					logger.warn("Failed to get the log directory for packet logging.", e);
+				}
+			}
+			if (directory == null)
+				directory = new File(System.getProperty("java.io.tmpdir"));
+		}
+		this.directory = directory;
+
+		maxFileAge = 1000L * cfg.getLong(MAX_FILE_AGE_PNAME, 3600L);
+		maxFileCount = Math.max(1, cfg.getInt(MAX_FILE_COUNT_PNAME, 3));
+		maxFileSize = cfg.getLong(MAX_FILE_SIZE_PNAME, 64L * 1024L * 1024L);
+		snapshotLength = Math.max(64, Math.min(cfg.getInt(SNAPSHOT_LENGTH_PNAME, 1600), 65535));
+
+		int ringCapacity = Math.max(2, Math.min(cfg.getInt(RING_CAPACITY_PNAME, 4096), 1 << 20));
+		int capacity = Integer.highestOneBit(ringCapacity);
+
+		if (capacity < ringCapacity)
+			capacity <<= 1;
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Appends the packet in a specific slot as an Enhanced Packet Block with
+	 * synthesized IP and transport headers to a specific <tt>ByteBuffer</tt>.
+	 */
+	private void appendEnhancedPacketBlock(ByteBuffer batch, int slot) {
+		int addressLength = addressLengths[slot];
+		int packetLength = lengths[slot];
+		int capturedPayloadLength = Math.min(packetLength, snapshotLength);
+		boolean tcp = transports[slot] == TransportName.TCP.ordinal();
+		int transportHeaderLength = tcp ? 20 : 8;
+		int ipHeaderLength = (addressLength == 16) ? 40 : 20;
+		int headersLength = ipHeaderLength + transportHeaderLength;
+		int capturedLength = headersLength + capturedPayloadLength;
+		int paddedLength = (capturedLength + 3) & ~3;
+		int blockLength = 32 + paddedLength;
+		long timestamp = timestamps[slot];
+
+		batch.putInt(BLOCK_TYPE_EPB);
+		batch.putInt(blockLength);
+		batch.putInt(0); // interface ID
+		batch.putInt((int) (timestamp >>> 32));
+		batch.putInt((int) timestamp);
+		batch.putInt(capturedLength);
+		batch.putInt(headersLength + packetLength);
+
+		// IP header
+		int addressOffset = 32 * slot;
+		int ipStart = batch.position();
+		int protocol = tcp ? 6 : 17;
+
+		if (ipHeaderLength == 40) {
+			batch.putInt(0x60000000);
+			batch.putShort((short) (transportHeaderLength + packetLength));
+			batch.put((byte) protocol);
+			batch.put((byte) 64); // hop limit
+			batch.put(addresses, addressOffset, 16);
+			batch.put(addresses, addressOffset + 16, 16);
+		} else {
+			batch.put((byte) 0x45);
+			batch.put((byte) 0);
+			batch.putShort((short) (headersLength + packetLength));
+			batch.putInt(0); // identification, flags, fragment offset
+			batch.put((byte) 64); // TTL
+			batch.put((byte) protocol);
+			batch.putShort((short) 0); // checksum
+			batch.put(addresses, addressOffset, 4);
+			batch.put(addresses, addressOffset + 16, 4);
+
+			// IPv4 header checksum
+			int sum = 0;
+
+			for (int i = 0; i < 20; i += 2)
+				sum += batch.getShort(ipStart + i) & 0xFFFF;
+			while ((sum >> 16) != 0)
+				sum = (sum & 0xFFFF) + (sum >> 16);
+			batch.putShort(ipStart + 10, (short) ~sum);
+		}
+
+		// Transport header
+		int sourcePort = ports[2 * slot];
+		int destinationPort = ports[2 * slot + 1];
+
+		batch.putShort((short) sourcePort);
+		batch.putShort((short) destinationPort);
+		if (tcp) {
+			batch.putInt(0); // sequence number
+			batch.putInt(0); // acknowledgment number
+			batch.put((byte) 0x50); // data offset
+			batch.put((byte) 0x18); // PSH, ACK
+			batch.putShort((short) 0xFFFF); // window
+			batch.putInt(0); // checksum, urgent pointer
+		} else {
+			batch.putShort((short) (8 + packetLength));
+			batch.putShort((short) 0); // no checksum
+		}
+
+		// Payload
+		batch.put(snapshots, slot * snapshotLength, capturedPayloadLength);
+		for (int i = capturedLength; i < paddedLength; i++)
+			batch.put((byte) 0);
+
+		batch.putInt(blockLength);
+	}
+
+	/**
+	 * Closes the current pcapng file (if any).
+	 */
+	private void closeFile() {
+		FileChannel fileChannel = this.fileChannel;
+
+		if (fileChannel != null) {
+			this.fileChannel = null;
+			try {
+				fileChannel.close();
+			} catch (IOException ioe) {
+				logger.warn("Failed to close a packet logging file.", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of packets which were dropped because they were logged
+	 * faster than they could be written.
+	 *
+	 * @return the number of dropped packets
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPackets.get();
+	}
+
+	/**
+	 * Gets the number of packets which were written.
+	 *
+	 * @return the number of written packets
+	 */
+	public long getLoggedPacketCount() {
+		return loggedPackets.get();
+	}
+
+	/**
+	 * Gets the number of packets which could not be written because of I/O
+	 * errors.
+	 *
+	 * @return the number of packets which could not be written
+	 */
+	public long getWriteErrorCount() {
+		return writeErrors.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isLoggingEnabled() {
+		return enabled && !stopped;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean isLoggingEnabled(ProtocolName protocol) {
+		return isLoggingEnabled() && loggedProtocols[protocol.ordinal()];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void logPacket(ProtocolName protocol, byte[] sourceAddress, int sourcePort, byte[] destinationAddress, int destinationPort, TransportName transport, boolean sender, byte[] packetContent) {
+		logPacket(protocol, sourceAddress, sourcePort, destinationAddress, destinationPort, transport, sender, packetContent, 0, packetContent.length);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Copies (up to the snapshot length of) the packet into a slot of the ring
+	 * and returns without waiting for it to be written. Drops the packet if
+	 * the ring is full.
+	 */
+	@Override
+	public void logPacket(ProtocolName protocol, byte[] sourceAddress, int sourcePort, byte[] destinationAddress, int destinationPort, TransportName transport, boolean sender, byte[] packetContent, int packetOffset, int packetLength) {
+		if (!isLoggingEnabled(protocol))
+			return;
+		if ((sourceAddress == null) || (destinationAddress == null) || (sourceAddress.length != destinationAddress.length) || ((sourceAddress.length != 4) && (sourceAddress.length != 16)))
+			return;
+		if (writerThread == null)
+			startWriterThread();
+
+		AtomicLongArray ringSequences = this.ringSequences;
+
+		if (ringSequences == null)
+			return;
+
+		// Claim a slot.
+		long tail;
+		int slot;
+
+		for (;;) {
+			tail = ringTail.get();
+			slot = (int) tail & mask;
+
+			long sequence = ringSequences.get(slot);
+
+			if (sequence == tail) {
+				if (ringTail.compareAndSet(tail, tail + 1))
+					break;
+			} else if (sequence < tail) {
+				droppedPackets.incrementAndGet();
+				return;
+			}
+		}
+
+		// Fill the slot in.
+		long now = System.currentTimeMillis();
+		int addressLength = sourceAddress.length;
+
+		timestamps[slot] = now * 1000L;
+		addressLengths[slot] = (byte) addressLength;
+		System.arraycopy(sourceAddress, 0, addresses, 32 * slot, addressLength);
+		System.arraycopy(destinationAddress, 0, addresses, 32 * slot + 16, addressLength);
+		ports[2 * slot] = sourcePort;
+		ports[2 * slot + 1] = destinationPort;
+		transports[slot] = (byte) transport.ordinal();
+		lengths[slot] = packetLength;
+		System.arraycopy(packetContent, packetOffset, snapshots, slot * snapshotLength, Math.min(packetLength, snapshotLength));
+
+		// Publish the slot to the writer thread.
+		ringSequences.lazySet(slot, tail + 1);
+	}
+
+	/**
+	 * Opens a new pcapng file and writes its Section Header and Interface
+	 * Description Blocks. Deletes the oldest files in excess of
+	 * {@link #maxFileCount}.
+	 *
+	 * @throws IOException
+	 *             if the new file could not be opened or written
+	 */
+	@SuppressWarnings("resource")
+	private void openFile() throws IOException {
+		String name = "jitsi-packets-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + (fileCount++) + ".pcapng";
+		File file = new File(directory, name);
+
+		fileChannel = new FileOutputStream(file).getChannel();
+		fileCreationTime = System.currentTimeMillis();
+		fileSize = 0L;
+
+		files.add(file);
+		while (files.size() > maxFileCount) {
+			File oldest = files.removeFirst();
+
+			if (!oldest.delete())
+				logger.warn("Failed to delete packet logging file " + oldest);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(28 + 20);
+
+		// Section Header Block
+		header.putInt(BLOCK_TYPE_SHB);
+		header.putInt(28);
+		header.putInt(0x1A2B3C4D); // byte-order magic
+		header.putShort((short) 1); // major version
+		header.putShort((short) 0); // minor version
+		header.putLong(-1L); // section length not specified
+		header.putInt(28);
+		// Interface Description Block
+		header.putInt(BLOCK_TYPE_IDB);
+		header.putInt(20);
+		header.putShort((short) LINKTYPE_RAW);
+		header.putShort((short) 0);
+		header.putInt(snapshotLength + MAX_HEADERS_LENGTH);
+		header.putInt(20);
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Runs in {@link #writerThread} and writes the logged packets in batches.
+	 */
+	private void runInWriterThread() {
+		ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+		int maxBlockLength = 32 + MAX_HEADERS_LENGTH + snapshotLength + 3;
+
+		try {
+			while (!stopped) {
+				int count = 0;
+
+				batch.clear();
+				for (;;) {
+					long head = ringHead;
+					int slot = (int) head & mask;
+
+					if (ringSequences.get(slot) != head + 1)
+						break;
+					if (batch.remaining() < maxBlockLength)
+						break;
+
+					appendEnhancedPacketBlock(batch, slot);
+					// Release the slot to the producers.
+					ringSequences.lazySet(slot, head + mask + 1);
+					ringHead = head + 1;
+					count++;
+				}
+
+				if (count == 0) {
+					LockSupport.parkNanos(WRITER_IDLE_NANOS);
+					continue;
+				}
+
+				batch.flip();
+				try {
+					long now = System.currentTimeMillis();
+
+					if ((fileChannel == null) || (fileSize >= maxFileSize) || ((maxFileAge > 0L) && (now - fileCreationTime >= maxFileAge))) {
+						closeFile();
+						openFile();
+					}
+					write(batch);
+					loggedPackets.addAndGet(count);
+				} catch (IOException ioe) {
+					writeErrors.addAndGet(count);
+					closeFile();
+					logger.error("Failed to write logged packets.", ioe);
+				}
+			}
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Allocates the ring and starts {@link #writerThread} unless it has
+	 * already been started.
+	 */
+	private synchronized void startWriterThread() {
+		if ((writerThread != null) || stopped)
+			return;
+
+		int capacity = mask + 1;
+
+		addresses = new byte[32 * capacity];
+		addressLengths = new byte[capacity];
+		lengths = new int[capacity];
+		ports = new int[2 * capacity];
+		snapshots = new byte[snapshotLength * capacity];
+		timestamps = new long[capacity];
+		transports = new byte[capacity];
+
+		AtomicLongArray ringSequences = new AtomicLongArray(capacity);
+
+		for (int i = 0; i < capacity; i++)
+			ringSequences.set(i, i);
+		// Publishes the slot arrays to the producers.
+		this.ringSequences = ringSequences;
+
+		Thread writerThread = new Thread(PacketLoggingServiceImpl.class.getName() + ".writerThread") {
+			@Override
+			public void run() {
+				runInWriterThread();
+			}
+		};
+
+		writerThread.setDaemon(true);
+		writerThread.setPriority(Thread.MIN_PRIORITY);
+		this.writerThread = writerThread;
+		writerThread.start();
+	}
+
+	/**
+	 * Stops the logging of packets and closes the current pcapng file. The
+	 * packets which have not been written yet are discarded.
+	 */
+	public void stop() {
+		stopped = true;
+
+		Thread writerThread;
+
+		synchronized (this) {
+			writerThread = this.writerThread;
+		}
+		if (writerThread != null) {
+			LockSupport.unpark(writerThread);
+			try {
+				writerThread.join(1000L);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Writes the remaining bytes of a specific <tt>ByteBuffer</tt> into the
+	 * current pcapng file.
+	 */
+	private void write(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			fileSize += fileChannel.write(buffer);
+	}
+}
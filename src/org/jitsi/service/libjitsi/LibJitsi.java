@@ -10,6 +10,7 @@ import org.jitsi.impl.configuration.ConfigurationServiceImpl;
 import org.jitsi.impl.fileaccess.FileAccessServiceImpl;
 import org.jitsi.impl.neomedia.MediaServiceImpl;
 import org.jitsi.impl.neomedia.notify.AudioNotifierServiceImpl;
+import org.jitsi.impl.packetlogging.PacketLoggingServiceImpl;
 import org.jitsi.service.audionotifier.AudioNotifierService;
 import org.jitsi.service.configuration.ConfigurationService;
 import org.jitsi.service.fileaccess.FileAccessService;
@@ -129,11 +130,12 @@ public class LibJitsi {
 
 		fas = new FileAccessServiceImpl();
 
+		pls = new PacketLoggingServiceImpl();
+
 		ms = new MediaServiceImpl();
 
 		ans = new AudioNotifierServiceImpl();
 
-		pls = null;
 		rms = null;
 	}
 
@@ -141,6 +143,8 @@ public class LibJitsi {
 	 * Stops/uninitializes the use of the <tt>libjitsi</tt> library.
 	 */
 	public static void stop() {
+		if (pls instanceof PacketLoggingServiceImpl)
+			((PacketLoggingServiceImpl) pls).stop();
 	}
 
 	/**
@@ -461,4 +461,22 @@ public interface MediaStream {
 	 *            the ID to set.
 	 */
 	public void setAbsSendTimeExtensionID(int id);
+
+	/**
+	 * Sets the ID of the transport-wide sequence number RTP header extension
+	 * to be used by this <tt>MediaStream</tt>.
+	 * 
+	 * If set to a value different than -1, outgoing RTP packets are stamped
+	 * with a transport-wide sequence number, incoming RTP packets are reported
+	 * back in transport-wide congestion control feedback and the feedback
+	 * received from the remote endpoint drives the send-side bandwidth
+	 * estimation.
+	 * 
+	 * See
+	 * http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01
+	 * 
+	 * @param id
+	 *            the ID to set.
+	 */
+	public void setTransportCCExtensionID(int id);
 }
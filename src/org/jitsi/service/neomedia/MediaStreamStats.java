@@ -9,6 +9,7 @@ package org.jitsi.service.neomedia;
 import java.awt.Dimension;
 
 import org.jitsi.service.neomedia.rtp.RTCPReports;
+import org.jitsi.util.LatencyHistogram;
 
 /**
  * Class used to compute stats concerning a MediaStream.
@@ -185,6 +186,18 @@ public interface MediaStreamStats {
 	 */
 	public int getPacketQueueSize();
 
+	/**
+	 * Returns the histogram of the latencies in microseconds of a specific
+	 * stage of the path of the RTP packets of the stream. The measurement is
+	 * disabled by default because it timestamps every packet.
+	 * 
+	 * @param stage
+	 *            the <tt>PacketPathStage</tt> to get the latencies of
+	 * @return the histogram of the latencies in microseconds of the specified
+	 *         <tt>stage</tt> or <tt>null</tt> if the measurement is disabled
+	 */
+	public LatencyHistogram getPacketPathLatency(PacketPathStage stage);
+
 	/**
 	 * Returns the current percent of discarded packets.
 	 * 
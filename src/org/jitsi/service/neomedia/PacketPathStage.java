@@ -0,0 +1,69 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.service.neomedia;
+
+/**
+ * Enumerates the stages of the path of the RTP packets of a
+ * <tt>MediaStream</tt> and of the media <tt>Buffer</tt>s they carry whose
+ * latencies are measured (when enabled) and
+ * exposed by {@link MediaStreamStats#getPacketPathLatency(PacketPathStage)}.
+ */
+public enum PacketPathStage {
+	/**
+	 * From the return of the socket receive to the end of the reverse
+	 * transformation (e.g. SRTP, FEC, RED) of a received packet.
+	 */
+	RECEIVE_TRANSFORM,
+
+	/**
+	 * From the end of the reverse transformation of a received packet to the
+	 * return of its delivery to the RTP stack which parses it and places it
+	 * into the jitter buffer.
+	 */
+	RECEIVE_DELIVERY,
+
+	/**
+	 * The time one codec (e.g. a depacketizer, a decoder or an effect) of the
+	 * <tt>Player</tt> of a received stream spends processing one
+	 * <tt>Buffer</tt>.
+	 */
+	DECODE,
+
+	/**
+	 * The time the <tt>Renderer</tt> of the <tt>Player</tt> of a received
+	 * stream spends processing one <tt>Buffer</tt> including any time it
+	 * blocks waiting for the device.
+	 */
+	RENDER,
+
+	/**
+	 * The time spent mixing the audio of the other participants of a
+	 * conference into one <tt>Buffer</tt> to be sent (only when the
+	 * <tt>MediaStream</tt> uses an <tt>AudioMixer</tt>).
+	 */
+	MIX,
+
+	/**
+	 * The time one codec (e.g. an effect, an encoder or a packetizer) of the
+	 * <tt>Processor</tt> of the sent stream spends processing one
+	 * <tt>Buffer</tt>.
+	 */
+	ENCODE,
+
+	/**
+	 * From the write of a packet by the RTP stack to the end of its
+	 * transformation (e.g. SRTP, FEC, RED).
+	 */
+	SEND_TRANSFORM,
+
+	/**
+	 * From the end of the transformation of a packet to be sent to the return
+	 * of the socket send including any time spent in the queue of the packet
+	 * rate limiting policy.
+	 */
+	SEND_SOCKET
+}
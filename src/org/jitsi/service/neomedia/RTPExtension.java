@@ -44,6 +44,13 @@ public class RTPExtension {
 	 */
 	public static final String SSRC_AUDIO_LEVEL_URN = "urn:ietf:params:rtp-hdrext:ssrc-audio-level";
 
+	/**
+	 * The URN identifying the RTP extension that carries a transport-wide
+	 * sequence number for the purposes of transport-wide congestion control
+	 * feedback.
+	 */
+	public static final String TRANSPORT_CC_URN = "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01";
+
 	/**
 	 * Creates an <tt>RTPExtension</tt> instance for the specified
 	 * <tt>extensionURI</tt> using a default <tt>SENDRECV</tt> direction and no
@@ -0,0 +1,534 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implements a hashed timing wheel which schedules one-shot tasks with a
+ * precision of a tick. Scheduling and cancelling a task are O(1) and do not
+ * take a lock so a single instance may host tens of thousands of (recurring)
+ * tasks on a couple of threads: one thread advances the wheel and a small,
+ * fixed pool of worker threads executes the expired tasks. Recurring tasks
+ * schedule themselves again when they execute.
+ * <p>
+ * The delays between the deadlines of the tasks and the times at which they
+ * actually start executing are recorded in a {@link LatencyHistogram}.
+ * </p>
+ */
+public class HashedWheelTimer {
+	/**
+	 * The <tt>Logger</tt> used by the <tt>HashedWheelTimer</tt> class and its
+	 * instances to print debug information.
+	 */
+	private static final Logger logger = Logger.getLogger(HashedWheelTimer.class);
+
+	/**
+	 * The <tt>HashedWheelTimer</tt> shared by the periodic media tasks.
+	 */
+	private static HashedWheelTimer sharedInstance;
+
+	/**
+	 * Gets the <tt>HashedWheelTimer</tt> shared by the periodic media tasks
+	 * such as the remote bitrate estimators, RTCP reporting and the SSRC cache
+	 * cleaners. Its ticks are 5 milliseconds long and its expired tasks are
+	 * executed by two worker threads.
+	 *
+	 * @return the <tt>HashedWheelTimer</tt> shared by the periodic media tasks
+	 */
+	public static synchronized HashedWheelTimer getSharedInstance() {
+		if (sharedInstance == null)
+			sharedInstance = new HashedWheelTimer("MediaTimer", 5L, 512, 2);
+		return sharedInstance;
+	}
+
+	/**
+	 * The queue of <tt>Timeout</tt>s which have been cancelled and are to be
+	 * removed from their <tt>Bucket</tt>s by {@link #thread}.
+	 */
+	private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * The histogram of the delays in milliseconds between the deadlines of the
+	 * tasks and the times at which they started executing.
+	 */
+	private final LatencyHistogram lagHistogram = new LatencyHistogram(12);
+
+	/**
+	 * The mask which maps a tick to the index of its <tt>Bucket</tt> in
+	 * {@link #wheel}.
+	 */
+	private final int mask;
+
+	/**
+	 * The name of this instance which is used as the base of the names of its
+	 * threads.
+	 */
+	private final String name;
+
+	/**
+	 * The queue of <tt>Timeout</tt>s which have been scheduled and are to be
+	 * added to their <tt>Bucket</tt>s by {@link #thread}.
+	 */
+	private final Queue<Timeout> pendingTimeouts = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * The time in nanoseconds (in the time base of {@link System#nanoTime()})
+	 * at which {@link #thread} started.
+	 */
+	private volatile long startTime;
+
+	/**
+	 * The state of this instance: <tt>0</tt> if {@link #thread} has not been
+	 * started yet, <tt>1</tt> if it has been started and <tt>2</tt> if this
+	 * instance has been stopped.
+	 */
+	private final AtomicInteger state = new AtomicInteger();
+
+	/**
+	 * The <tt>Thread</tt> which advances the wheel.
+	 */
+	private final Thread thread;
+
+	/**
+	 * The duration of a tick in nanoseconds.
+	 */
+	private final long tickDuration;
+
+	/**
+	 * The number of ticks which {@link #thread} has advanced the wheel with.
+	 */
+	private long ticks;
+
+	/**
+	 * The <tt>Bucket</tt>s of the wheel.
+	 */
+	private final Bucket[] wheel;
+
+	/**
+	 * The <tt>ExecutorService</tt> which executes the expired tasks or
+	 * <tt>null</tt> to have them executed by {@link #thread}.
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * Initializes a new <tt>HashedWheelTimer</tt> instance.
+	 *
+	 * @param name
+	 *            the name of the new instance which is to be used as the base
+	 *            of the names of its threads
+	 * @param tickDurationMs
+	 *            the duration in milliseconds of a tick of the new instance
+	 * @param ticksPerWheel
+	 *            the number of ticks in a revolution of the wheel of the new
+	 *            instance. Rounded up to a power of 2.
+	 * @param workerCount
+	 *            the number of threads which are to execute the expired tasks
+	 *            or <tt>0</tt> to have them executed by the thread which
+	 *            advances the wheel
+	 */
+	public HashedWheelTimer(String name, long tickDurationMs, int ticksPerWheel, int workerCount) {
+		if (tickDurationMs <= 0L)
+			throw new IllegalArgumentException("tickDurationMs " + tickDurationMs);
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("ticksPerWheel " + ticksPerWheel);
+		if (workerCount < 0)
+			throw new IllegalArgumentException("workerCount " + workerCount);
+
+		this.name = name;
+		tickDuration = TimeUnit.MILLISECONDS.toNanos(tickDurationMs);
+
+		int wheelSize = Integer.highestOneBit(ticksPerWheel);
+
+		if (wheelSize < ticksPerWheel)
+			wheelSize <<= 1;
+		wheel = new Bucket[wheelSize];
+		for (int i = 0; i < wheelSize; i++)
+			wheel[i] = new Bucket();
+		mask = wheelSize - 1;
+
+		thread = new Thread(name) {
+			@Override
+			public void run() {
+				HashedWheelTimer.this.runInThread();
+			}
+		};
+		thread.setDaemon(true);
+
+		workers = (workerCount == 0) ? null : Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			private final AtomicInteger threadCount = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, HashedWheelTimer.this.name + "-worker-" + threadCount.incrementAndGet());
+
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Executes a specific expired <tt>Timeout</tt> and records its scheduling
+	 * lag.
+	 */
+	private void execute(Timeout timeout) {
+		long lagMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime - timeout.deadline);
+
+		lagHistogram.record(lagMs);
+		try {
+			timeout.task.run();
+		} catch (Throwable t) {
+			if (t instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			} else if (t instanceof ThreadDeath) {
+				throw (ThreadDeath) t;
+			} else {
+				logger.error("The execution of the task " + timeout.task.getClass().getName() + " threw an exception.", t);
+			}
+		}
+	}
+
+	/**
+	 * Gets the histogram of the delays in milliseconds between the deadlines
+	 * of the tasks scheduled with this instance and the times at which they
+	 * started executing.
+	 *
+	 * @return the histogram of the scheduling lags of this instance
+	 */
+	public LatencyHistogram getSchedulingLagHistogram() {
+		return lagHistogram;
+	}
+
+	/**
+	 * Schedules a specific task to be executed once after a specific delay.
+	 *
+	 * @param task
+	 *            the task to be executed
+	 * @param delayMs
+	 *            the delay in milliseconds after which <tt>task</tt> is to be
+	 *            executed
+	 * @return a <tt>Timeout</tt> which allows cancelling the execution of
+	 *         <tt>task</tt>
+	 * @throws IllegalStateException
+	 *             if this instance has been stopped
+	 */
+	public Timeout newTimeout(Runnable task, long delayMs) {
+		if (task == null)
+			throw new NullPointerException("task");
+
+		start();
+
+		long deadline = System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delayMs));
+		Timeout timeout = new Timeout(this, task, deadline);
+
+		pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Processes the cancelled <tt>Timeout</tt>s. Runs in {@link #thread}.
+	 */
+	private void processCancelledTimeouts() {
+		Timeout timeout;
+
+		while ((timeout = cancelledTimeouts.poll()) != null) {
+			Bucket bucket = timeout.bucket;
+
+			if (bucket != null)
+				bucket.remove(timeout);
+		}
+	}
+
+	/**
+	 * Runs in {@link #thread}.
+	 */
+	private void runInThread() {
+		while (state.get() == 1) {
+			long deadline = waitForNextTick();
+
+			if (deadline < 0L)
+				break;
+
+			processCancelledTimeouts();
+			transferTimeoutsToBuckets();
+
+			Bucket bucket = wheel[(int) (ticks & mask)];
+
+			bucket.expireTimeouts(this, deadline);
+			ticks++;
+		}
+	}
+
+	/**
+	 * Starts {@link #thread} unless it has been started already.
+	 *
+	 * @throws IllegalStateException
+	 *             if this instance has been stopped
+	 */
+	private void start() {
+		switch (state.get()) {
+		case 0:
+			synchronized (thread) {
+				// Set startTime before state so that whoever sees the started
+				// state sees startTime as well.
+				if (state.get() == 0) {
+					startTime = System.nanoTime();
+					state.set(1);
+					thread.start();
+				} else if (state.get() != 1) {
+					throw new IllegalStateException("stopped");
+				}
+			}
+			break;
+		case 1:
+			break;
+		default:
+			throw new IllegalStateException("stopped");
+		}
+	}
+
+	/**
+	 * Stops this instance. The tasks which have not expired yet are not
+	 * executed.
+	 */
+	public void stop() {
+		if (state.getAndSet(2) == 1) {
+			thread.interrupt();
+		}
+		if (workers != null)
+			workers.shutdown();
+	}
+
+	/**
+	 * Dispatches a specific expired <tt>Timeout</tt> for execution. Runs in
+	 * {@link #thread}.
+	 */
+	private void submit(final Timeout timeout) {
+		if (workers == null) {
+			execute(timeout);
+		} else {
+			try {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						HashedWheelTimer.this.execute(timeout);
+					}
+				});
+			} catch (RejectedExecutionException ree) {
+				// This instance has been stopped.
+			}
+		}
+	}
+
+	/**
+	 * Adds the pending <tt>Timeout</tt>s to their <tt>Bucket</tt>s. Runs in
+	 * {@link #thread}.
+	 */
+	private void transferTimeoutsToBuckets() {
+		// Bound the number of transferred timeouts in order to not starve the
+		// expiration of the current tick.
+		for (int i = 0; i < 100000; i++) {
+			Timeout timeout = pendingTimeouts.poll();
+
+			if (timeout == null)
+				break;
+			if (timeout.state.get() != Timeout.ST_INIT)
+				continue;
+
+			long calculated = timeout.deadline / tickDuration;
+
+			timeout.remainingRounds = (calculated - ticks) / wheel.length;
+
+			// Do not schedule for the past.
+			long tick = Math.max(calculated, ticks);
+
+			wheel[(int) (tick & mask)].add(timeout);
+		}
+	}
+
+	/**
+	 * Waits for the start of the next tick. Runs in {@link #thread}.
+	 *
+	 * @return the deadline of the next tick relative to {@link #startTime} or
+	 *         <tt>-1</tt> if this instance has been stopped
+	 */
+	private long waitForNextTick() {
+		long deadline = tickDuration * (ticks + 1);
+
+		for (;;) {
+			long currentTime = System.nanoTime() - startTime;
+			long sleepTimeMs = (deadline - currentTime + 999999L) / 1000000L;
+
+			if (sleepTimeMs <= 0L)
+				return currentTime;
+			try {
+				Thread.sleep(sleepTimeMs);
+			} catch (InterruptedException ie) {
+				if (state.get() != 1)
+					return -1L;
+			}
+		}
+	}
+
+	/**
+	 * Represents a list of the <tt>Timeout</tt>s which expire during the same
+	 * tick of a revolution of the wheel. Accessed by the thread which advances
+	 * the wheel only.
+	 */
+	private static class Bucket {
+		private Timeout head;
+
+		private Timeout tail;
+
+		public void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		/**
+		 * Expires the <tt>Timeout</tt>s of this <tt>Bucket</tt> which are due
+		 * in the current revolution of the wheel.
+		 */
+		public void expireTimeouts(HashedWheelTimer timer, long deadline) {
+			Timeout timeout = head;
+
+			while (timeout != null) {
+				Timeout next = timeout.next;
+
+				if (timeout.remainingRounds <= 0L) {
+					remove(timeout);
+					if (timeout.deadline > deadline) {
+						// Should not happen but do not lose the timeout.
+						timer.pendingTimeouts.add(timeout);
+					} else if (timeout.state.compareAndSet(Timeout.ST_INIT, Timeout.ST_EXPIRED)) {
+						timer.submit(timeout);
+					}
+				} else if (timeout.state.get() == Timeout.ST_CANCELLED) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		public void remove(Timeout timeout) {
+			if (timeout.bucket != this)
+				return;
+
+			Timeout next = timeout.next;
+
+			if (timeout.prev != null)
+				timeout.prev.next = next;
+			if (next != null)
+				next.prev = timeout.prev;
+			if (timeout == head)
+				head = next;
+			if (timeout == tail)
+				tail = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	/**
+	 * Represents a task scheduled with a <tt>HashedWheelTimer</tt>.
+	 */
+	public static final class Timeout {
+		private static final int ST_CANCELLED = 1;
+
+		private static final int ST_EXPIRED = 2;
+
+		private static final int ST_INIT = 0;
+
+		/**
+		 * The <tt>Bucket</tt> this instance is in. Accessed by the thread
+		 * which advances the wheel only.
+		 */
+		private Bucket bucket;
+
+		/**
+		 * The time in nanoseconds relative to the start of the timer at which
+		 * this instance expires.
+		 */
+		private final long deadline;
+
+		private Timeout next;
+
+		private Timeout prev;
+
+		/**
+		 * The number of revolutions of the wheel remaining before this
+		 * instance expires. Accessed by the thread which advances the wheel
+		 * only.
+		 */
+		private long remainingRounds;
+
+		private final AtomicInteger state = new AtomicInteger(ST_INIT);
+
+		private final Runnable task;
+
+		private final HashedWheelTimer timer;
+
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the execution of the task of this <tt>Timeout</tt> unless it
+		 * has already expired.
+		 *
+		 * @return <tt>true</tt> if the execution was cancelled; otherwise,
+		 *         <tt>false</tt>
+		 */
+		public boolean cancel() {
+			if (state.compareAndSet(ST_INIT, ST_CANCELLED)) {
+				timer.cancelledTimeouts.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Determines whether this <tt>Timeout</tt> has been cancelled.
+		 *
+		 * @return <tt>true</tt> if this <tt>Timeout</tt> has been cancelled;
+		 *         otherwise, <tt>false</tt>
+		 */
+		public boolean isCancelled() {
+			return state.get() == ST_CANCELLED;
+		}
+
+		/**
+		 * Determines whether this <tt>Timeout</tt> has expired i.e. its task
+		 * has been dispatched for execution.
+		 *
+		 * @return <tt>true</tt> if this <tt>Timeout</tt> has expired;
+		 *         otherwise, <tt>false</tt>
+		 */
+		public boolean isExpired() {
+			return state.get() == ST_EXPIRED;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Jitsi, the OpenSource Java VoIP and Instant Messaging client.
+ *
+ * Distributable under LGPL license.
+ * See terms of license at gnu.org.
+ */
+package org.jitsi.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Implements a histogram of non-negative latencies with buckets of
+ * exponentially growing widths. Bucket <tt>0</tt> counts the value <tt>0</tt>
+ * and bucket <tt>i</tt> counts the values in
+ * <tt>[2<sup>i-1</sup>, 2<sup>i</sup>)</tt>. The unit of the values is up to
+ * the user. Recording is lock-free and does not allocate.
+ */
+public class LatencyHistogram {
+	/**
+	 * The default number of buckets, enough for values up to
+	 * <tt>2<sup>20</sup></tt>.
+	 */
+	public static final int DEFAULT_BUCKET_COUNT = 22;
+
+	/**
+	 * The counts of the buckets of this histogram. The last bucket also counts
+	 * all values which are greater than its upper bound.
+	 */
+	private final AtomicLongArray buckets;
+
+	/**
+	 * The index in {@link #buckets} of the maximum recorded value.
+	 */
+	private final int maxIndex;
+
+	/**
+	 * The index in {@link #buckets} of the sum of the recorded values.
+	 */
+	private final int sumIndex;
+
+	/**
+	 * Initializes a new <tt>LatencyHistogram</tt> instance with
+	 * {@link #DEFAULT_BUCKET_COUNT} buckets.
+	 */
+	public LatencyHistogram() {
+		this(DEFAULT_BUCKET_COUNT);
+	}
+
+	/**
+	 * Initializes a new <tt>LatencyHistogram</tt> instance with a specific
+	 * number of buckets.
+	 *
+	 * @param bucketCount
+	 *            the number of buckets of the new instance
+	 */
+	public LatencyHistogram(int bucketCount) {
+		if (bucketCount < 2 || bucketCount > 64)
+			throw new IllegalArgumentException("bucketCount " + bucketCount);
+
+		buckets = new AtomicLongArray(bucketCount + 2);
+		sumIndex = bucketCount;
+		maxIndex = bucketCount + 1;
+	}
+
+	/**
+	 * Gets the number of buckets of this histogram.
+	 *
+	 * @return the number of buckets of this histogram
+	 */
+	public int getBucketCount() {
+		return sumIndex;
+	}
+
+	/**
+	 * Gets the counts of the buckets of this histogram.
+	 *
+	 * @return a new array with the counts of the buckets of this histogram
+	 */
+	public long[] getCounts() {
+		long[] counts = new long[getBucketCount()];
+
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = buckets.get(i);
+		return counts;
+	}
+
+	/**
+	 * Gets the maximum value recorded by this histogram.
+	 *
+	 * @return the maximum value recorded by this histogram
+	 */
+	public long getMax() {
+		return buckets.get(maxIndex);
+	}
+
+	/**
+	 * Gets the mean of the values recorded by this histogram.
+	 *
+	 * @return the mean of the values recorded by this histogram or <tt>0</tt>
+	 *         if no values have been recorded
+	 */
+	public double getMean() {
+		long count = getTotalCount();
+
+		return (count == 0L) ? 0D : buckets.get(sumIndex) / (double) count;
+	}
+
+	/**
+	 * Gets an upper bound of a specific percentile of the values recorded by
+	 * this histogram. The precision is that of the bucket widths.
+	 *
+	 * @param percentile
+	 *            the percentile in the range <tt>(0, 100]</tt>
+	 * @return the upper bound of the bucket in which the specified percentile
+	 *         of the recorded values falls or <tt>0</tt> if no values have
+	 *         been recorded
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = getCounts();
+		long total = 0L;
+
+		for (long count : counts)
+			total += count;
+		if (total == 0L)
+			return 0L;
+
+		long threshold = (long) Math.ceil(total * percentile / 100D);
+		long cumulative = 0L;
+
+		for (int i = 0; i < counts.length; i++) {
+			cumulative += counts[i];
+			if (cumulative >= threshold)
+				return (i == counts.length - 1) ? getMax() : getUpperBound(i);
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets the number of values recorded by this histogram.
+	 *
+	 * @return the number of values recorded by this histogram
+	 */
+	public long getTotalCount() {
+		long total = 0L;
+
+		for (int i = 0, end = getBucketCount(); i < end; i++)
+			total += buckets.get(i);
+		return total;
+	}
+
+	/**
+	 * Gets the (inclusive) upper bound of the values counted by a specific
+	 * bucket.
+	 *
+	 * @param bucket
+	 *            the index of the bucket
+	 * @return the upper bound of the values counted by the specified bucket
+	 */
+	public static long getUpperBound(int bucket) {
+		return (bucket == 0) ? 0L : (1L << bucket) - 1L;
+	}
+
+	/**
+	 * Records a specific value in this histogram. Negative values are recorded
+	 * as <tt>0</tt>.
+	 *
+	 * @param value
+	 *            the value to record
+	 */
+	public void record(long value) {
+		if (value < 0L)
+			value = 0L;
+
+		int bucket = 64 - Long.numberOfLeadingZeros(value);
+
+		if (bucket >= sumIndex)
+			bucket = sumIndex - 1;
+		buckets.incrementAndGet(bucket);
+		buckets.addAndGet(sumIndex, value);
+
+		long max;
+
+		while (value > (max = buckets.get(maxIndex)) && !buckets.compareAndSet(maxIndex, max, value))
+			;
+	}
+
+	/**
+	 * Resets the counts of this histogram to zero.
+	 */
+	public void reset() {
+		for (int i = 0, end = buckets.length(); i < end; i++)
+			buckets.set(i, 0L);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Lists the non-empty buckets by their upper bounds.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		long[] counts = getCounts();
+
+		s.append("count=").append(getTotalCount()).append(" mean=").append(getMean()).append(" max=").append(getMax());
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] != 0L) {
+				s.append(' ');
+				if (i == counts.length - 1)
+					s.append('>').append(getUpperBound(i - 1));
+				else
+					s.append("<=").append(getUpperBound(i));
+				s.append(':').append(counts[i]);
+			}
+		}
+		return s.toString();
+	}
+}